@@ -0,0 +1,42 @@
+package benchmark;
+
+import constants.PINConstants;
+import dto.PinRequest;
+import dto.PvvRequest;
+
+/**
+ * Request data shared by the benchmarks.
+ */
+final class BenchmarkData {
+
+    static final String KEY = "0123456789ABCDEFFEDCBA9876543210";
+    static final String PAN = "1234567899876543";
+    static final String OFFSET = "1234567890123456";
+
+    private BenchmarkData(){
+    }
+
+    /**
+     * Build a PIN request. The decimalisation table is always supplied, so validation does not print warnings.
+     */
+    static PinRequest pinRequest(int pinLength, boolean naturalPin){
+        PinRequest pinRequest = new PinRequest();
+        pinRequest.setKey(KEY);
+        pinRequest.setPan(PAN);
+        pinRequest.setPinLength(Integer.toString(pinLength));
+        pinRequest.setPinOffset(OFFSET.substring(0, pinLength));
+        pinRequest.setNaturalPin(naturalPin);
+        pinRequest.setDecimalisationTable(PINConstants.DEFAULT_DECIMALISATION_TABLE);
+        return pinRequest;
+    }
+
+    static PvvRequest pvvRequest(){
+        PvvRequest pvvRequest = new PvvRequest();
+        pvvRequest.setKey(KEY);
+        pvvRequest.setKeyIndex("1");
+        pvvRequest.setPan(PAN);
+        pvvRequest.setPin("1111");
+        return pvvRequest;
+    }
+
+}
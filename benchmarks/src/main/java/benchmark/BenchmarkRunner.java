@@ -0,0 +1,42 @@
+package benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Runs the benchmark suite twice, single threaded and with one thread per available processor, with the gc profiler
+ * reporting allocation rate.
+ * Arguments:
+ * - none: run every benchmark
+ * - a regular expression: run the matching benchmarks only
+ * - -jmh followed by JMH options: pass the options straight to JMH
+ */
+public class BenchmarkRunner {
+
+    public static void main(String [] args) throws RunnerException, CommandLineOptionException {
+
+        if (args.length > 0 && args[0].equals("-jmh")) {
+            new Runner(new CommandLineOptions(Arrays.copyOfRange(args, 1, args.length))).run();
+            return;
+        }
+        String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackageName() + ".*";
+        int [] threadCounts = {1, Runtime.getRuntime().availableProcessors()};
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+            new Runner(options).run();
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.BitslicedTDEA;
+import util.CryptoFunctions;
+import util.TDEAEngine;
+
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks single block TDEA encryption, through the hex String API of CryptoFunctions and the byte API of
+ * TDEAEngine, and bulk encryption of 1024 blocks under one key through TDEAEngine and BitslicedTDEA. Bulk scores are
+ * per block.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CryptoBenchmark {
+
+    private static final int BULK_BLOCKS = 1024;
+
+    private CryptoFunctions cryptoFunctions;
+    private byte [] block;
+    private byte [] bulkData;
+
+    @Setup
+    public void setup(){
+        cryptoFunctions = new CryptoFunctions();
+        cryptoFunctions.setKey(BenchmarkData.KEY);
+        cryptoFunctions.setInputData(BenchmarkData.PAN);
+        block = HexFormat.of().parseHex(BenchmarkData.PAN);
+        bulkData = new byte[BULK_BLOCKS * 8];
+        new Random(1).nextBytes(bulkData);
+    }
+
+    @Benchmark
+    public String tDEAEncrypt() throws Exception {
+        return cryptoFunctions.tDEAEncrypt();
+    }
+
+    @Benchmark
+    public byte [] engineEncrypt() throws Exception {
+        return TDEAEngine.getInstance().encrypt(BenchmarkData.KEY, block);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BULK_BLOCKS)
+    public byte [] engineEncryptBulk() throws Exception {
+        return TDEAEngine.getInstance().encrypt(BenchmarkData.KEY, bulkData);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BULK_BLOCKS)
+    public byte [] bitslicedEncryptBulk() throws Exception {
+        return BitslicedTDEA.getInstance().encrypt(BenchmarkData.KEY, bulkData);
+    }
+
+}
@@ -0,0 +1,47 @@
+package benchmark;
+
+import dto.PinRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.DataValidator;
+import util.ValidationResult;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks PIN request validation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DataValidatorBenchmark {
+
+    private PinRequest pinRequest;
+
+    @Setup
+    public void setup(){
+        pinRequest = BenchmarkData.pinRequest(12, false);
+    }
+
+    @Benchmark
+    public boolean validatePinRequest(){
+        return DataValidator.validatePinRequest(pinRequest);
+    }
+
+    @Benchmark
+    public ValidationResult validate(){
+        return DataValidator.validate(pinRequest);
+    }
+
+}
@@ -0,0 +1,68 @@
+package benchmark;
+
+import dto.PinRequest;
+import dto.PinResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.IBM3624Pin;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks IBM 3624 PIN generation in natural and offset modes across PIN lengths, and offset and natural PIN
+ * derivation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class IBM3624PinBenchmark {
+
+    @Param({"4", "6", "8", "12", "16"})
+    private int pinLength;
+
+    @Param({"true", "false"})
+    private boolean naturalPin;
+
+    private IBM3624Pin ibm3624Pin;
+    private PinRequest pinRequest;
+    private String customerPin;
+    private String naturalPinValue;
+    private String pinOffset;
+
+    @Setup
+    public void setup() throws Exception {
+        ibm3624Pin = new IBM3624Pin();
+        pinRequest = BenchmarkData.pinRequest(pinLength, naturalPin);
+        naturalPinValue = ibm3624Pin.generateIBM3624Pin(BenchmarkData.pinRequest(pinLength, true)).getPin();
+        customerPin = ibm3624Pin.generateIBM3624Pin(BenchmarkData.pinRequest(pinLength, false)).getPin();
+        pinOffset = BenchmarkData.OFFSET.substring(0, pinLength);
+    }
+
+    @Benchmark
+    public PinResponse generateIBM3624Pin() throws Exception {
+        return ibm3624Pin.generateIBM3624Pin(pinRequest);
+    }
+
+    @Benchmark
+    public String deriveOffset(){
+        return ibm3624Pin.deriveOffset(customerPin, naturalPinValue);
+    }
+
+    @Benchmark
+    public String deriveNaturalPin(){
+        return ibm3624Pin.deriveNaturalPin(customerPin, pinOffset);
+    }
+
+}
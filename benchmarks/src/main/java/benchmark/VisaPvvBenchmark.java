@@ -0,0 +1,43 @@
+package benchmark;
+
+import dto.PvvRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.VisaPvv;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks Visa PVV calculation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class VisaPvvBenchmark {
+
+    private VisaPvv visaPvv;
+    private PvvRequest pvvRequest;
+
+    @Setup
+    public void setup(){
+        visaPvv = new VisaPvv();
+        pvvRequest = BenchmarkData.pvvRequest();
+    }
+
+    @Benchmark
+    public String calculateVisaPvv() throws Exception {
+        return visaPvv.calculateVisaPvv(pvvRequest);
+    }
+
+}
@@ -0,0 +1,100 @@
+package benchmark.load;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects garbage collector pauses from the GC notifications of the platform MXBeans, along with the heap in use
+ * after the last collection.
+ * Collections reported by concurrent collector beans, such as "G1 Concurrent GC" and "ZGC Cycles", run alongside the
+ * application and are not counted as pauses. The heap in use after collection is what the live set looks like to the
+ * collector, so a figure that keeps rising over a soak run points at growth such as an unbounded cache.
+ */
+final class GcMonitor implements NotificationListener, AutoCloseable {
+
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final LongAdder pauses = new LongAdder();
+    private final LongAdder pauseMillis = new LongAdder();
+    private final LongAccumulator maxPauseMillis = new LongAccumulator(Math::max, 0);
+    private final AtomicLong heapAfterGc = new AtomicLong();
+
+    GcMonitor(){
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener(this, null, null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback){
+
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+                (CompositeData) notification.getUserData());
+        long heapUsed = 0;
+        for (MemoryUsage usage : info.getGcInfo().getMemoryUsageAfterGc().values()) {
+            heapUsed += usage.getUsed();
+        }
+        heapAfterGc.set(heapUsed);
+        if (info.getGcName().contains("Concurrent") || info.getGcName().contains("Cycles")) {
+            return;
+        }
+        long duration = info.getGcInfo().getDuration();
+        pauses.increment();
+        pauseMillis.add(duration);
+        maxPauseMillis.accumulate(duration);
+
+    }
+
+    /**
+     * @return Number of pauses so far
+     */
+    long getPauses(){
+        return pauses.sum();
+    }
+
+    /**
+     * @return Total pause time so far, in milliseconds
+     */
+    long getPauseMillis(){
+        return pauseMillis.sum();
+    }
+
+    /**
+     * @return Longest pause since the last call, in milliseconds
+     */
+    long takeMaxPauseMillis(){
+        return maxPauseMillis.getThenReset();
+    }
+
+    /**
+     * @return Heap in use after the last collection, in bytes, 0 before the first collection
+     */
+    long getHeapAfterGc(){
+        return heapAfterGc.get();
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (NotificationEmitter emitter : emitters) {
+            emitter.removeNotificationListener(this);
+        }
+    }
+
+}
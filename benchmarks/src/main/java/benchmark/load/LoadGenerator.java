@@ -0,0 +1,393 @@
+package benchmark.load;
+
+import benchmark.load.Workload.Card;
+import benchmark.load.Workload.Operation;
+import metrics.LatencyHistogram;
+import util.BitslicedTDEA;
+import util.CoalescingBackend;
+import util.CryptoBackend;
+import util.CryptoFunctions;
+import util.IBM3624Pin;
+import util.IntermediateResultCache;
+import util.TDEAEngine;
+import util.VisaPvv;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open loop load generator and soak test harness for the PIN and PVV library.
+ * Worker threads issue requests drawn from a synthetic Workload on a fixed schedule adding up to the target rate,
+ * whatever the latency of earlier requests. Latency is measured from the time a request was scheduled to start, not
+ * from when it actually started, so time spent behind schedule after a stall (a GC pause, a slow key load) is counted
+ * against every request it delayed. This corrects for coordinated omission; the latency from the actual start is
+ * reported alongside as service time. A run reports, every interval:
+ * - INFO: LOAD02: throughput, latency and service time percentiles, errors, GC pauses, bytes allocated per operation
+ *   by the workers, heap in use after GC and result cache entries
+ * - WARN: LOAD05: when the target rate was not reached, as the host or the generator is saturated
+ * and at the end, over the measured period after warm-up:
+ * - INFO: LOAD03: overall summary
+ * - INFO: LOAD04: latency percentiles per operation
+ * Interval figures can also be written to a CSV file, to follow trends such as heap or cache growth over hours.
+ * Options, with their defaults:
+ * --rate 10000          target operations per second, across all threads
+ * --threads N           worker threads, one per available processor
+ * --duration 60s        measured run time, in s, m or h
+ * --warmup 10s          run time before measurement starts
+ * --interval 10s        reporting interval
+ * --cards 100000        cards in the workload
+ * --keys 8              PVKs the cards are spread over
+ * --hot-cards 100       cards in the hot set
+ * --hot-share 0.3       share of requests going to the hot set
+ * --mix 40,30,15,15     weights of IBM 3624 generate and verify, PVV calculate and verify
+ * --wrong-pins 0.05     share of verifications carrying a wrong PIN
+ * --backend jce         crypto backend, jce or bitsliced
+ * --coalesce false      coalesce identical encryptions in flight
+ * --cache 0             IBM 3624 result cache entries, 0 for no cache
+ * --cache-ttl 1h        result cache time to live
+ * --seed 1              workload random seed
+ * --csv FILE            CSV file receiving the interval figures
+ */
+public class LoadGenerator {
+
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final double SATURATION_THRESHOLD = 0.95;
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final String CSV_HEADER = "elapsedSeconds,warmup,operations,operationsPerSecond,p50Micros,"
+            + "p99Micros,p999Micros,maxMicros,serviceP99Micros,errors,gcPauses,gcPauseMillis,maxGcPauseMillis,"
+            + "allocatedBytesPerOperation,heapAfterGcBytes,cacheEntries";
+
+    private final Workload workload;
+    private final IBM3624Pin ibm3624Pin;
+    private final VisaPvv visaPvv;
+    private final IntermediateResultCache resultCache;
+    private final double rate;
+    private final int threads;
+    private final long seed;
+
+    private final Map<Operation, LatencyHistogram> totalLatency = new EnumMap<>(Operation.class);
+    private final LatencyHistogram totalServiceTime = new LatencyHistogram();
+    private final LongAdder totalErrors = new LongAdder();
+    private final AtomicLongArray allocatedBytes;
+    private volatile Interval interval = new Interval();
+    private volatile boolean measuring;
+
+    /**
+     * Figures of one reporting interval. Workers record into the current interval, which the reporter swaps out.
+     */
+    private static final class Interval {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+    }
+
+    /**
+     * @param workload Workload requests are drawn from
+     * @param resultCache Result cache, or null to encrypt every block
+     * @param rate Target operations per second, across all threads
+     * @param threads Number of worker threads
+     * @param seed Random seed of the request draws
+     */
+    LoadGenerator(Workload workload, IntermediateResultCache resultCache, double rate, int threads, long seed){
+        this.workload = workload;
+        this.ibm3624Pin = new IBM3624Pin(resultCache);
+        this.visaPvv = new VisaPvv();
+        this.resultCache = resultCache;
+        this.rate = rate;
+        this.threads = threads;
+        this.seed = seed;
+        this.allocatedBytes = new AtomicLongArray(threads);
+        for (Operation operation : Operation.values()) {
+            totalLatency.put(operation, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Run the load for the warm-up and measured periods, reporting to stdout and, if given, to a CSV file.
+     */
+    void run(Duration warmup, Duration duration, Duration reportInterval, PrintWriter csv) throws Exception {
+
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureStart = start + warmup.toNanos();
+        long end = measureStart + duration.toNanos();
+        Thread [] workers = new Thread[threads];
+        long [] workerIds = new long[threads];
+        for (int i = 0; i < threads; i++) {
+            int worker = i;
+            workers[i] = new Thread(() -> drive(worker, start, end), "load-" + i);
+            workers[i].setDaemon(true);
+            workerIds[i] = workers[i].threadId();
+            workers[i].start();
+        }
+        if (csv != null) {
+            csv.println(CSV_HEADER);
+        }
+
+        try (GcMonitor gcMonitor = new GcMonitor()) {
+            long intervalStart = start;
+            long allocated = allocatedBytes(workerIds);
+            long pauses = gcMonitor.getPauses();
+            long pauseMillis = gcMonitor.getPauseMillis();
+            long measuredAllocated = 0;
+            long measuredPauses = 0;
+            long measuredPauseMillis = 0;
+            long maxPauseMillis = 0;
+            while (intervalStart < end) {
+                boolean warmingUp = intervalStart < measureStart;
+                long intervalEnd = Math.min(intervalStart + reportInterval.toNanos(), warmingUp ? measureStart : end);
+                sleepUntil(intervalEnd);
+                if (intervalEnd == end) {
+                    for (Thread worker : workers) {
+                        worker.join();
+                    }
+                }
+                measuring = intervalEnd >= measureStart;
+                Interval completed = interval;
+                interval = new Interval();
+
+                long nowAllocated = allocatedBytes(workerIds);
+                long nowPauses = gcMonitor.getPauses();
+                long nowPauseMillis = gcMonitor.getPauseMillis();
+                long intervalMaxPause = gcMonitor.takeMaxPauseMillis();
+                double seconds = (intervalEnd - intervalStart) / 1e9;
+                long operations = completed.latency.getCount();
+                long bytesPerOperation = operations == 0 ? 0 : (nowAllocated - allocated) / operations;
+                long cacheEntries = resultCache == null ? 0 : resultCache.size();
+                System.out.printf("INFO: LOAD02: %ds%s ops/s %.0f latency p50 %dus p99 %dus p99.9 %dus max %dus "
+                                + "service p99 %dus errors %d gc pauses %d max %dms alloc %d B/op heap %dMB cache %d%n",
+                        TimeUnit.NANOSECONDS.toSeconds(intervalEnd - start), warmingUp ? " (warmup)" : "",
+                        operations / seconds, micros(completed.latency, 50), micros(completed.latency, 99),
+                        micros(completed.latency, 99.9), completed.latency.getMax() / 1000,
+                        micros(completed.serviceTime, 99), completed.errors.sum(), nowPauses - pauses,
+                        intervalMaxPause, bytesPerOperation, gcMonitor.getHeapAfterGc() >> 20, cacheEntries);
+                if (operations / seconds < rate * SATURATION_THRESHOLD) {
+                    System.out.printf("WARN: LOAD05: Target rate of %.0f ops/s not reached, the host or the "
+                            + "generator is saturated%n", rate);
+                }
+                if (csv != null) {
+                    csv.printf("%d,%b,%d,%.1f,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d%n",
+                            TimeUnit.NANOSECONDS.toSeconds(intervalEnd - start), warmingUp, operations,
+                            operations / seconds, micros(completed.latency, 50), micros(completed.latency, 99),
+                            micros(completed.latency, 99.9), completed.latency.getMax() / 1000,
+                            micros(completed.serviceTime, 99), completed.errors.sum(), nowPauses - pauses,
+                            nowPauseMillis - pauseMillis, intervalMaxPause, bytesPerOperation,
+                            gcMonitor.getHeapAfterGc(), cacheEntries);
+                    csv.flush();
+                }
+                if (!warmingUp) {
+                    measuredAllocated += nowAllocated - allocated;
+                    measuredPauses += nowPauses - pauses;
+                    measuredPauseMillis += nowPauseMillis - pauseMillis;
+                    maxPauseMillis = Math.max(maxPauseMillis, intervalMaxPause);
+                }
+                allocated = nowAllocated;
+                pauses = nowPauses;
+                pauseMillis = nowPauseMillis;
+                intervalStart = intervalEnd;
+            }
+            summarise(duration, measuredAllocated, measuredPauses, measuredPauseMillis, maxPauseMillis);
+        }
+
+    }
+
+    /**
+     * Issue requests on the worker's share of the schedule until the end time. Worker i takes the requests scheduled
+     * at start + (k * threads + i) / rate seconds.
+     */
+    private void drive(int worker, long start, long end){
+
+        SplittableRandom random = new SplittableRandom(seed + worker);
+        for (long k = 0; ; k++) {
+            long scheduled = start + (long) ((k * threads + worker) * 1e9 / rate);
+            if (scheduled >= end) {
+                allocatedBytes.accumulateAndGet(worker, THREAD_BEAN.getCurrentThreadAllocatedBytes(), Math::max);
+                return;
+            }
+            long now = System.nanoTime();
+            while (now < scheduled) {
+                long remaining = scheduled - now;
+                if (remaining > SPIN_NANOS) {
+                    LockSupport.parkNanos(remaining - SPIN_NANOS);
+                } else {
+                    Thread.onSpinWait();
+                }
+                now = System.nanoTime();
+            }
+
+            Operation operation = workload.nextOperation(random);
+            boolean correct = execute(operation, workload.nextCard(random), workload.nextWrongPin(random));
+            long done = System.nanoTime();
+            Interval current = interval;
+            current.latency.record(done - scheduled);
+            current.serviceTime.record(done - now);
+            if (!correct) {
+                current.errors.increment();
+            }
+            if (measuring) {
+                totalLatency.get(operation).record(done - scheduled);
+                totalServiceTime.record(done - now);
+                if (!correct) {
+                    totalErrors.increment();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Run one operation for a card.
+     * @return True if the operation completed with the expected result
+     */
+    private boolean execute(Operation operation, Card card, boolean wrongPin){
+
+        try {
+            return switch (operation) {
+                case IBM3624_GENERATE -> card.pin().equals(ibm3624Pin.generateIBM3624Pin(card.pinRequest()).getPin());
+                case IBM3624_VERIFY -> ibm3624Pin.verifyIBM3624Pin(card.pinRequest(),
+                        wrongPin ? card.wrongPin() : card.pin()) != wrongPin;
+                case PVV_CALCULATE -> card.pvv().equals(visaPvv.calculateVisaPvv(card.pvvRequest()));
+                case PVV_VERIFY -> visaPvv.verifyVisaPvv(wrongPin ? card.wrongPvvRequest() : card.pvvRequest(),
+                        card.pvv()) != wrongPin;
+            };
+        } catch (GeneralSecurityException | RuntimeException e) {
+            return false;
+        }
+
+    }
+
+    private void summarise(Duration duration, long allocated, long pauses, long pauseMillis, long maxPauseMillis){
+
+        LatencyHistogram latency = new LatencyHistogram();
+        totalLatency.values().forEach(latency::add);
+        long operations = latency.getCount();
+        System.out.printf("INFO: LOAD03: %d ops in %ds, %.0f ops/s of %.0f target, latency p50 %dus p99 %dus "
+                        + "p99.9 %dus p99.99 %dus max %dus, service p99 %dus, errors %d, gc pauses %d total %dms "
+                        + "max %dms, alloc %d B/op%n",
+                operations, duration.toSeconds(), operations / (duration.toNanos() / 1e9), rate,
+                micros(latency, 50), micros(latency, 99), micros(latency, 99.9), micros(latency, 99.99),
+                latency.getMax() / 1000, micros(totalServiceTime, 99), totalErrors.sum(), pauses, pauseMillis,
+                maxPauseMillis, operations == 0 ? 0 : allocated / operations);
+        for (Map.Entry<Operation, LatencyHistogram> entry : totalLatency.entrySet()) {
+            LatencyHistogram operationLatency = entry.getValue();
+            System.out.printf("INFO: LOAD04: %-16s %d ops, latency p50 %dus p99 %dus p99.9 %dus max %dus%n",
+                    entry.getKey(), operationLatency.getCount(), micros(operationLatency, 50),
+                    micros(operationLatency, 99), micros(operationLatency, 99.9), operationLatency.getMax() / 1000);
+        }
+
+    }
+
+    private static long micros(LatencyHistogram histogram, double percentile){
+        return histogram.getValueAtPercentile(percentile) / 1000;
+    }
+
+    /**
+     * Sum the bytes allocated by the worker threads. A thread that has ended reports no figure, so the last figure
+     * read for each worker, or the one it left when ending, is used in its place.
+     */
+    private long allocatedBytes(long [] workerIds){
+
+        long [] threadAllocatedBytes = THREAD_BEAN.getThreadAllocatedBytes(workerIds);
+        long allocated = 0;
+        for (int i = 0; i < workerIds.length; i++) {
+            allocated += allocatedBytes.accumulateAndGet(i, threadAllocatedBytes[i], Math::max);
+        }
+        return allocated;
+
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedException {
+
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+
+    }
+
+    /**
+     * Parse a duration given in seconds, minutes or hours, such as 90s, 30m or 2h.
+     */
+    private static Duration duration(String value){
+
+        long amount = Long.parseLong(value.substring(0, value.length() - 1));
+        return switch (value.charAt(value.length() - 1)) {
+            case 's' -> Duration.ofSeconds(amount);
+            case 'm' -> Duration.ofMinutes(amount);
+            case 'h' -> Duration.ofHours(amount);
+            default -> throw new IllegalArgumentException("Duration must end in s, m or h: " + value);
+        };
+
+    }
+
+    /**
+     * Run the load generator from the command line. See the class description for the options.
+     */
+    public static void main(String [] args) throws Exception {
+
+        Map<String, String> options = new HashMap<>(Map.of("rate", "10000",
+                "threads", Integer.toString(Runtime.getRuntime().availableProcessors()),
+                "duration", "60s", "warmup", "10s", "interval", "10s", "cards", "100000", "keys", "8",
+                "hot-cards", "100", "hot-share", "0.3", "mix", "40,30,15,15"));
+        options.putAll(Map.of("wrong-pins", "0.05", "backend", "jce", "coalesce", "false", "cache", "0",
+                "cache-ttl", "1h", "seed", "1"));
+        for (int i = 0; i < args.length; i += 2) {
+            String name = args[i].startsWith("--") ? args[i].substring(2) : "";
+            if (!options.containsKey(name) && !name.equals("csv") || i + 1 >= args.length) {
+                System.out.println("Usage: LoadGenerator [--option value]..., options: " + options.keySet()
+                        + " and csv");
+                return;
+            }
+            options.put(name, args[i + 1]);
+        }
+
+        CryptoBackend backend = "bitsliced".equals(options.get("backend")) ? BitslicedTDEA.getInstance()
+                : TDEAEngine.getInstance();
+        if (Boolean.parseBoolean(options.get("coalesce"))) {
+            backend = new CoalescingBackend(backend);
+        }
+        CryptoFunctions.setBackend(backend);
+        int cacheEntries = Integer.parseInt(options.get("cache"));
+        IntermediateResultCache resultCache = cacheEntries > 0
+                ? new IntermediateResultCache(cacheEntries, duration(options.get("cache-ttl")), backend) : null;
+        String [] mixWeights = options.get("mix").split(",");
+        double [] mix = new double[mixWeights.length];
+        for (int i = 0; i < mix.length; i++) {
+            mix[i] = Double.parseDouble(mixWeights[i]);
+        }
+
+        long seed = Long.parseLong(options.get("seed"));
+        Workload workload = new Workload(Integer.parseInt(options.get("cards")), Integer.parseInt(options.get("keys")),
+                Integer.parseInt(options.get("hot-cards")), Double.parseDouble(options.get("hot-share")), mix,
+                Double.parseDouble(options.get("wrong-pins")), seed);
+        System.out.println("INFO: LOAD01: Load generator starting with " + workload.size() + " cards, " + options);
+
+        LoadGenerator loadGenerator = new LoadGenerator(workload, resultCache,
+                Double.parseDouble(options.get("rate")), Integer.parseInt(options.get("threads")), seed);
+        Duration warmup = duration(options.get("warmup"));
+        Duration duration = duration(options.get("duration"));
+        Duration reportInterval = duration(options.get("interval"));
+        if (options.containsKey("csv")) {
+            try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(Path.of(options.get("csv"))))) {
+                loadGenerator.run(warmup, duration, reportInterval, csv);
+            }
+        } else {
+            loadGenerator.run(warmup, duration, reportInterval, null);
+        }
+
+    }
+
+}
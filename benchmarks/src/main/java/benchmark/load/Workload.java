@@ -0,0 +1,207 @@
+package benchmark.load;
+
+import constants.PINConstants;
+import dto.PinRequest;
+import dto.PvvRequest;
+import util.IBM3624Pin;
+import util.VisaPvv;
+
+import java.security.GeneralSecurityException;
+import java.util.HexFormat;
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic issuer workload: a population of cards, each with a PAN, a PVK, a PIN length, a PIN offset and a Visa PVV,
+ * and the distributions requests are drawn from.
+ * - A small hot set of cards receives a configurable share of the traffic, as with cards retried at ATMs or used
+ *   many times a day; the rest is spread evenly over the population.
+ * - PIN lengths follow the usual issuer mix: mostly 4 digits, some 6, and a long tail up to 16.
+ * - Operations are drawn from a configurable mix of IBM 3624 generation and verification and Visa PVV calculation
+ *   and verification. A share of verifications carries a wrong PIN.
+ * Cards are built, and their PINs and PVVs derived, when the workload is created, so drawing a request only picks
+ * existing objects. Requests are shared between threads and only ever read.
+ */
+final class Workload {
+
+    /**
+     * Operations driven by the load generator
+     */
+    enum Operation { IBM3624_GENERATE, IBM3624_VERIFY, PVV_CALCULATE, PVV_VERIFY }
+
+    // Relative weights of PIN lengths 4 through 16
+    private static final int [] PIN_LENGTH_WEIGHTS = {700, 20, 200, 5, 40, 3, 10, 2, 10, 2, 4, 2, 2};
+
+    /**
+     * A card of the population, with the values its verification requests carry.
+     */
+    record Card(PinRequest pinRequest, String pin, String wrongPin, PvvRequest pvvRequest, PvvRequest wrongPvvRequest,
+                String pvv) { }
+
+    private final Card [] cards;
+    private final int hotCards;
+    private final double hotShare;
+    private final double [] operationMix;
+    private final double wrongPinShare;
+
+    /**
+     * @param cardCount Number of cards in the population
+     * @param keyCount Number of PVKs the cards are spread over
+     * @param hotCards Number of cards in the hot set
+     * @param hotShare Share of requests going to the hot set, 0 through 1
+     * @param operationMix Relative weights of the operations, in Operation order
+     * @param wrongPinShare Share of verifications carrying a wrong PIN, 0 through 1
+     * @param seed Random seed, so runs can be repeated with the same population
+     * @throws GeneralSecurityException When the PINs and PVVs of the population cannot be derived
+     */
+    Workload(int cardCount, int keyCount, int hotCards, double hotShare, double [] operationMix, double wrongPinShare,
+             long seed) throws GeneralSecurityException {
+
+        if (operationMix.length != Operation.values().length) {
+            throw new IllegalArgumentException("Operation mix must have " + Operation.values().length + " weights");
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        String [] keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            byte [] key = new byte[16];
+            random.nextBytes(key);
+            keys[i] = HexFormat.of().withUpperCase().formatHex(key);
+        }
+        IBM3624Pin ibm3624Pin = new IBM3624Pin();
+        VisaPvv visaPvv = new VisaPvv();
+        this.cards = new Card[cardCount];
+        for (int i = 0; i < cardCount; i++) {
+            cards[i] = card(random, keys[i % keyCount], ibm3624Pin, visaPvv);
+        }
+        this.hotCards = Math.min(hotCards, cardCount);
+        this.hotShare = hotShare;
+        this.operationMix = cumulative(operationMix);
+        this.wrongPinShare = wrongPinShare;
+
+    }
+
+    /**
+     * @return Card drawn from the population, from the hot set with the hot share probability
+     */
+    Card nextCard(SplittableRandom random){
+        return hotCards > 0 && random.nextDouble() < hotShare ? cards[random.nextInt(hotCards)]
+                : cards[random.nextInt(cards.length)];
+    }
+
+    /**
+     * @return Operation drawn from the operation mix
+     */
+    Operation nextOperation(SplittableRandom random){
+
+        double draw = random.nextDouble();
+        for (int i = 0; i < operationMix.length - 1; i++) {
+            if (draw < operationMix[i]) {
+                return Operation.values()[i];
+            }
+        }
+        return Operation.values()[operationMix.length - 1];
+
+    }
+
+    /**
+     * @return True if a verification should carry a wrong PIN
+     */
+    boolean nextWrongPin(SplittableRandom random){
+        return random.nextDouble() < wrongPinShare;
+    }
+
+    int size(){
+        return cards.length;
+    }
+
+    private static Card card(SplittableRandom random, String key, IBM3624Pin ibm3624Pin, VisaPvv visaPvv)
+            throws GeneralSecurityException {
+
+        int pinLength = pinLength(random);
+        StringBuilder offset = new StringBuilder(pinLength);
+        for (int i = 0; i < pinLength; i++) {
+            offset.append(random.nextInt(10));
+        }
+        PinRequest pinRequest = new PinRequest();
+        pinRequest.setPan(pan(random));
+        pinRequest.setKey(key);
+        pinRequest.setPinLength(Integer.toString(pinLength));
+        pinRequest.setPinOffset(offset.toString());
+        pinRequest.setDecimalisationTable(PINConstants.DEFAULT_DECIMALISATION_TABLE);
+        String pin = ibm3624Pin.generateIBM3624Pin(pinRequest).getPin();
+
+        PvvRequest pvvRequest = pvvRequest(pinRequest, pin);
+        String wrongPin = pin.substring(0, pinLength - 1) + (char) ('0' + (pin.charAt(pinLength - 1) - '0' + 1) % 10);
+        String wrongPvvPin = (char) ('0' + (pin.charAt(0) - '0' + 1) % 10) + pin.substring(1);
+        return new Card(pinRequest, pin, wrongPin, pvvRequest, pvvRequest(pinRequest, wrongPvvPin),
+                visaPvv.calculateVisaPvv(pvvRequest));
+
+    }
+
+    private static PvvRequest pvvRequest(PinRequest pinRequest, String pin){
+
+        PvvRequest pvvRequest = new PvvRequest();
+        pvvRequest.setPan(pinRequest.getPan());
+        pvvRequest.setKey(pinRequest.getKey());
+        pvvRequest.setKeyIndex("1");
+        pvvRequest.setPin(pin);
+        return pvvRequest;
+
+    }
+
+    /**
+     * Build a 16 digit PAN with a valid Luhn check digit.
+     */
+    private static String pan(SplittableRandom random){
+
+        char [] pan = new char[16];
+        pan[0] = '4';
+        for (int i = 1; i < 15; i++) {
+            pan[i] = (char) ('0' + random.nextInt(10));
+        }
+        int sum = 0;
+        for (int i = 14; i >= 0; i--) {
+            int digit = pan[i] - '0';
+            if ((14 - i) % 2 == 0) {
+                digit = digit * 2 > 9 ? digit * 2 - 9 : digit * 2;
+            }
+            sum += digit;
+        }
+        pan[15] = (char) ('0' + (10 - sum % 10) % 10);
+        return new String(pan);
+
+    }
+
+    private static int pinLength(SplittableRandom random){
+
+        int total = 0;
+        for (int weight : PIN_LENGTH_WEIGHTS) {
+            total += weight;
+        }
+        int draw = random.nextInt(total);
+        for (int i = 0; i < PIN_LENGTH_WEIGHTS.length; i++) {
+            draw -= PIN_LENGTH_WEIGHTS[i];
+            if (draw < 0) {
+                return PINConstants.MIN_PIN_LENGTH + i;
+            }
+        }
+        return PINConstants.MIN_PIN_LENGTH;
+
+    }
+
+    private static double [] cumulative(double [] weights){
+
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double [] cumulative = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cumulative[i] = sum / total;
+        }
+        return cumulative;
+
+    }
+
+}
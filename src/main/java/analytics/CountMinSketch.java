@@ -0,0 +1,98 @@
+package analytics;
+
+/**
+ * Count-min sketch over long keys: a fixed size table of counters estimating how many times each key was added.
+ * A key is counted in one counter per row, picked by a row specific hash, and its estimate is the smallest of those
+ * counters. Estimates are never below the true count, and exceed it by more than e / width of the total count with
+ * probability at most e^-depth. Sketches of the same dimensions can be merged by adding their counters.
+ * Sketches are not thread safe. Concurrent producers each fill their own sketch, to be merged once they are done.
+ */
+public final class CountMinSketch {
+
+    private static final long ROW_SEED = 0x9E3779B97F4A7C15L;
+
+    private final int depth;
+    private final int width;
+    private final long [] counters;
+    private long total;
+
+    /**
+     * @param depth Number of rows, each cutting the probability of a large overestimate by a factor e
+     * @param width Number of counters per row, a power of two
+     */
+    public CountMinSketch(int depth, int width){
+
+        if (depth < 1 || width < 1 || Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("Sketch depth must be positive and width a power of two");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.counters = new long[depth * width];
+
+    }
+
+    /**
+     * Count one occurrence of a key.
+     */
+    public void add(long key){
+
+        for (int row = 0; row < depth; row++) {
+            counters[index(row, key)]++;
+        }
+        total++;
+
+    }
+
+    /**
+     * @return Estimated number of occurrences of the key, never below the true number
+     */
+    public long estimate(long key){
+
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[index(row, key)]);
+        }
+        return estimate;
+
+    }
+
+    /**
+     * @return Number of keys added, counting repeats
+     */
+    public long getTotal(){
+        return total;
+    }
+
+    /**
+     * Add the counts of another sketch to this one.
+     * @param other Sketch of the same depth and width
+     */
+    public void merge(CountMinSketch other){
+
+        if (other.depth != depth || other.width != width) {
+            throw new IllegalArgumentException("Sketches of different dimensions cannot be merged");
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+        total += other.total;
+
+    }
+
+    private int index(int row, long key){
+        return row * width + (int) (hash(key, (row + 1) * ROW_SEED) & (width - 1));
+    }
+
+    /**
+     * Hash a key with a seed, through the SplitMix64 finaliser, so nearby keys land far apart.
+     */
+    static long hash(long key, long seed){
+
+        long hash = key + seed;
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return hash ^ (hash >>> 31);
+
+    }
+
+}
@@ -0,0 +1,65 @@
+package analytics;
+
+/**
+ * HyperLogLog estimate of the number of distinct long keys added, in a fixed 4KB of registers.
+ * Each key is hashed, the leading bits of the hash pick a register, and the register keeps the longest run of leading
+ * zeros seen in the rest of the hash. The estimate has a standard error of about 1.6%, and small counts fall back to
+ * linear counting over the empty registers. Counters are merged by keeping the larger of each register, so the merge
+ * of per-thread counters counts keys seen by several threads once.
+ * Counters are not thread safe. Concurrent producers each fill their own counter, to be merged once they are done.
+ */
+public final class DistinctCounter {
+
+    private static final int PRECISION = 12;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final long SEED = 0x632BE59BD9B4E019L;
+
+    private final byte [] registers = new byte[REGISTERS];
+
+    /**
+     * Add a key.
+     */
+    public void add(long key){
+
+        long hash = CountMinSketch.hash(key, SEED);
+        int register = (int) (hash >>> (Long.SIZE - PRECISION));
+        // The marker bit caps the rank once the bits left after the register index are all zero
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+
+    }
+
+    /**
+     * @return Estimated number of distinct keys added
+     */
+    public long estimate(){
+
+        double sum = 0;
+        int emptyRegisters = 0;
+        for (byte rank : registers) {
+            sum += 1.0 / (1L << rank);
+            if (rank == 0) {
+                emptyRegisters++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double estimate = alpha * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && emptyRegisters > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / emptyRegisters);
+        }
+        return Math.round(estimate);
+
+    }
+
+    /**
+     * Merge the keys of another counter into this one.
+     */
+    public void merge(DistinctCounter other){
+        for (int i = 0; i < REGISTERS; i++) {
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+package analytics;
+
+import constants.PINConstants;
+import util.DataValidator;
+
+import java.util.Arrays;
+
+/**
+ * Streaming distribution of a population of PINs, such as the natural or the customer PINs of a card portfolio, in
+ * fixed memory whatever the number of PINs recorded:
+ * - 4 digit PINs are counted exactly, in one counter per PIN
+ * - Longer PINs are counted in a count-min sketch, and their distinct number estimated by a HyperLogLog counter
+ * - Digits are counted per position, showing skew such as the one a decimalisation table brings to natural PINs
+ * - PINs matching each WeakPinPattern are counted
+ * PINs are recorded from digit arrays and are not kept: the caller can clear its arrays as soon as record returns.
+ * Distributions are not thread safe. Each thread fills its own distribution, and partial distributions are merged
+ * once they are complete.
+ */
+public final class PinDistribution {
+
+    public static final int FOUR_DIGIT_PINS = 10000;
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 1 << 13;
+    private static final WeakPinPattern [] PATTERNS = WeakPinPattern.values();
+
+    private final long [] fourDigitCounts = new long[FOUR_DIGIT_PINS];
+    private final long [] lengthCounts = new long[PINConstants.MAX_PIN_LENGTH + 1];
+    private final long [][] digitCounts = new long[PINConstants.MAX_PIN_LENGTH][10];
+    private final long [] patternCounts = new long[PATTERNS.length];
+    private final CountMinSketch longPins = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+    private final DistinctCounter distinctLongPins = new DistinctCounter();
+    private long count;
+    private long weakPins;
+
+    /**
+     * Record a PIN.
+     * @param digits PIN digit values, one per element
+     * @param offset Position of the first PIN digit
+     * @param length Number of PIN digits, 4 through 16
+     */
+    public void record(byte [] digits, int offset, int length){
+
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = digits[offset + i];
+            digitCounts[i][digit]++;
+            value = value * 10 + digit;
+        }
+        if (length == 4) {
+            fourDigitCounts[(int) value]++;
+        } else {
+            long key = key(value, length);
+            longPins.add(key);
+            distinctLongPins.add(key);
+        }
+        boolean weak = false;
+        for (WeakPinPattern pattern : PATTERNS) {
+            if (pattern.matches(digits, offset, length)) {
+                patternCounts[pattern.ordinal()]++;
+                weak = true;
+            }
+        }
+        if (weak) {
+            weakPins++;
+        }
+        lengthCounts[length]++;
+        count++;
+
+    }
+
+    /**
+     * Add the PINs recorded by another distribution to this one.
+     */
+    public void merge(PinDistribution other){
+
+        for (int i = 0; i < FOUR_DIGIT_PINS; i++) {
+            fourDigitCounts[i] += other.fourDigitCounts[i];
+        }
+        for (int i = 0; i < lengthCounts.length; i++) {
+            lengthCounts[i] += other.lengthCounts[i];
+        }
+        for (int position = 0; position < digitCounts.length; position++) {
+            for (int digit = 0; digit < 10; digit++) {
+                digitCounts[position][digit] += other.digitCounts[position][digit];
+            }
+        }
+        for (int i = 0; i < patternCounts.length; i++) {
+            patternCounts[i] += other.patternCounts[i];
+        }
+        longPins.merge(other.longPins);
+        distinctLongPins.merge(other.distinctLongPins);
+        count += other.count;
+        weakPins += other.weakPins;
+
+    }
+
+    /**
+     * @return Number of PINs recorded
+     */
+    public long getCount(){
+        return count;
+    }
+
+    /**
+     * @return Number of PINs recorded with the length
+     */
+    public long getCount(int length){
+        return lengthCounts[length];
+    }
+
+    /**
+     * Return how many times a PIN was recorded: exactly for 4 digit PINs, and as a count-min estimate, never below the
+     * true count, for longer PINs.
+     * @param pin PIN, 4 through 16 digits
+     * @return Number of times the PIN was recorded
+     * @throws IllegalArgumentException When the PIN is not 4 through 16 digits
+     */
+    public long getFrequency(String pin){
+
+        if (!DataValidator.isNumeric(pin) || pin.length() < PINConstants.MIN_PIN_LENGTH
+                || pin.length() > PINConstants.MAX_PIN_LENGTH) {
+            throw new IllegalArgumentException("PIN must be 4 through 16 digits");
+        }
+        long value = Long.parseLong(pin);
+        return pin.length() == 4 ? fourDigitCounts[(int) value] : longPins.estimate(key(value, pin.length()));
+
+    }
+
+    /**
+     * Return the most frequent 4 digit PINs, most frequent first.
+     * @param limit Maximum number of PINs returned
+     * @return PIN values, 0 through 9999, of PINs recorded at least once
+     */
+    public int [] getMostFrequentFourDigitPins(int limit){
+
+        int [] top = new int[Math.min(limit, FOUR_DIGIT_PINS)];
+        int size = 0;
+        for (int pin = 0; pin < FOUR_DIGIT_PINS; pin++) {
+            if (fourDigitCounts[pin] == 0 || size == top.length
+                    && (size == 0 || fourDigitCounts[pin] <= fourDigitCounts[top[size - 1]])) {
+                continue;
+            }
+            // Insertion into the short sorted list of the most frequent PINs so far
+            int position = size < top.length ? size++ : size - 1;
+            while (position > 0 && fourDigitCounts[top[position - 1]] < fourDigitCounts[pin]) {
+                top[position] = top[position - 1];
+                position--;
+            }
+            top[position] = pin;
+        }
+        return Arrays.copyOf(top, size);
+
+    }
+
+    /**
+     * @return Estimated number of distinct PINs of 5 through 16 digits recorded
+     */
+    public long getDistinctLongPins(){
+        return distinctLongPins.estimate();
+    }
+
+    /**
+     * @return Number of PINs recorded matching the pattern
+     */
+    public long getPatternCount(WeakPinPattern pattern){
+        return patternCounts[pattern.ordinal()];
+    }
+
+    /**
+     * @return Number of PINs recorded matching at least one weak pattern
+     */
+    public long getWeakPinCount(){
+        return weakPins;
+    }
+
+    /**
+     * @param position PIN digit position, 0 for the first digit
+     * @param digit Digit value, 0 through 9
+     * @return Share of PINs long enough to have the position carrying the digit there, 0 when there are none
+     */
+    public double getDigitShare(int position, int digit){
+
+        long total = 0;
+        for (long digitCount : digitCounts[position]) {
+            total += digitCount;
+        }
+        return total == 0 ? 0 : (double) digitCounts[position][digit] / total;
+
+    }
+
+    /**
+     * @param digit Digit value, 0 through 9
+     * @return Share of all PIN digits recorded, at any position, that are the digit
+     */
+    public double getDigitShare(int digit){
+
+        long total = 0;
+        long digitTotal = 0;
+        for (long [] positionCounts : digitCounts) {
+            for (int i = 0; i < 10; i++) {
+                total += positionCounts[i];
+            }
+            digitTotal += positionCounts[digit];
+        }
+        return total == 0 ? 0 : (double) digitTotal / total;
+
+    }
+
+    /**
+     * Return the digit skew of the PINs: the share of the most frequent digit over the share of the least frequent,
+     * across all positions. Evenly spread digits give about 1. Natural PINs decimalised with the default table, which
+     * maps hexadecimal digits A through F onto 0 through 5, give about 2.
+     * @return Digit skew, or 0 when a digit was never recorded
+     */
+    public double getDigitSkew(){
+
+        double highest = 0;
+        double lowest = 1;
+        for (int digit = 0; digit < 10; digit++) {
+            highest = Math.max(highest, getDigitShare(digit));
+            lowest = Math.min(lowest, getDigitShare(digit));
+        }
+        return lowest == 0 ? 0 : highest / lowest;
+
+    }
+
+    /**
+     * Sketch key of a long PIN. The length is kept alongside the value, so that PINs with leading zeros, such as
+     * 012345 and 12345, stay apart.
+     */
+    private static long key(long value, int length){
+        return value * (PINConstants.MAX_PIN_LENGTH + 1) + length;
+    }
+
+}
@@ -0,0 +1,74 @@
+package analytics;
+
+/**
+ * PIN patterns that are easy to guess, and so weak when chosen by customers or produced by a skewed natural PIN.
+ * A PIN can match more than one pattern.
+ */
+public enum WeakPinPattern {
+
+    /** All digits the same, as 1111 */
+    REPEATED_DIGIT,
+    /** Each digit one more than the previous, wrapping after 9, as 1234 or 7890 */
+    ASCENDING,
+    /** Each digit one less than the previous, wrapping before 0, as 4321 or 1098 */
+    DESCENDING,
+    /** A pair of different digits repeated, as 1212 or 373737 */
+    REPEATED_PAIR,
+    /** A 4 digit year from 1900 through 2029, as birth years are */
+    YEAR;
+
+    private static final int FIRST_YEAR = 1900;
+    private static final int LAST_YEAR = 2029;
+
+    /**
+     * @param digits PIN digit values, one per element
+     * @param offset Position of the first PIN digit
+     * @param length Number of PIN digits
+     * @return True if the PIN matches the pattern
+     */
+    public boolean matches(byte [] digits, int offset, int length){
+
+        return switch (this) {
+            case REPEATED_DIGIT -> stepsBy(digits, offset, length, 0);
+            case ASCENDING -> stepsBy(digits, offset, length, 1);
+            case DESCENDING -> stepsBy(digits, offset, length, 9);
+            case REPEATED_PAIR -> isRepeatedPair(digits, offset, length);
+            case YEAR -> length == 4 && isYear(digits[offset] * 1000 + digits[offset + 1] * 100
+                    + digits[offset + 2] * 10 + digits[offset + 3]);
+        };
+
+    }
+
+    /**
+     * Check every digit is the previous one plus a step, modulo 10.
+     */
+    private static boolean stepsBy(byte [] digits, int offset, int length, int step){
+
+        for (int i = offset + 1; i < offset + length; i++) {
+            if (digits[i] != (digits[i - 1] + step) % 10) {
+                return false;
+            }
+        }
+        return true;
+
+    }
+
+    private static boolean isRepeatedPair(byte [] digits, int offset, int length){
+
+        if (length % 2 != 0 || digits[offset] == digits[offset + 1]) {
+            return false;
+        }
+        for (int i = offset + 2; i < offset + length; i++) {
+            if (digits[i] != digits[i - 2]) {
+                return false;
+            }
+        }
+        return true;
+
+    }
+
+    private static boolean isYear(int value){
+        return value >= FIRST_YEAR && value <= LAST_YEAR;
+    }
+
+}
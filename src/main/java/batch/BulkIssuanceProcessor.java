@@ -0,0 +1,237 @@
+package batch;
+
+import constants.PINConstants;
+import dto.CvvRequest;
+import dto.PinRequest;
+import dto.PinResponse;
+import dto.PvvRequest;
+import util.BitslicedTDEA;
+import util.CryptoFunctions;
+import util.CvvType;
+import util.DataValidator;
+import util.IBM3624Pin;
+import util.VisaCvv;
+import util.VisaPvv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Bulk card issuance processor. Generates an IBM 3624 PIN and a Visa PVV for every record of a card file, and the
+ * CVV, CVV2 and iCVV of records carrying card data.
+ * Input records are delimited lines in the format PAN,KEYREF,OFFSET,PINLENGTH[,PVKI[,CVKREF,EXPIRY,SERVICECODE]],
+ * where:
+ * - KEYREF is resolved to a PVK, and CVKREF to a double length CVK, through the key map supplied to the processor
+ * - An empty OFFSET generates the natural PIN
+ * - PVKI defaults to 1 when not supplied
+ * - EXPIRY is the card expiry date in YYMM format, and SERVICECODE the 3 digit service code
+ * Output records are written in input order, in the format PAN,PIN,OFFSET,PVV[,CVV,CVV2,ICVV], or PAN,ERRR,code for
+ * records that could not be processed:
+ * - BLKF01: Record does not have the expected fields
+ * - BLKK01: Key reference is not defined in the key map
+ * - BLKV01: Record failed PIN or CVV request validation
+ * Each chunk of records is handed to the batch APIs of IBM3624Pin, VisaPvv and VisaCvv, so records sharing a key are
+ * encrypted in a single cipher pass, and the card file is read once for all values.
+ */
+public class BulkIssuanceProcessor {
+
+    private static final int DEFAULT_CHUNK_SIZE = 1024;
+    private static final String DEFAULT_PVKI = "1";
+    private static final int CVV_FIELDS = 8;
+
+    private final Map<String, String> keys;
+    private final String delimiter;
+    private final Pattern delimiterPattern;
+    private final ChunkedFileProcessor fileProcessor;
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * @param keys PVKs, keyed by key reference
+     * @param delimiter Field delimiter of input and output records
+     * @param chunkSize Number of records handed to a worker at a time
+     * @param parallelism Number of worker threads
+     */
+    public BulkIssuanceProcessor(Map<String, String> keys, String delimiter, int chunkSize, int parallelism){
+        this.keys = Map.copyOf(keys);
+        this.delimiter = delimiter;
+        this.delimiterPattern = Pattern.compile(Pattern.quote(delimiter));
+        this.fileProcessor = new ChunkedFileProcessor(chunkSize, parallelism);
+    }
+
+    /**
+     * @param keys PVKs, keyed by key reference
+     */
+    public BulkIssuanceProcessor(Map<String, String> keys){
+        this(keys, ",", DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Process a card file.
+     * @param input Input card file
+     * @param output Output file, replaced if it exists
+     * @return Throughput report of the run
+     * @throws IOException When the input cannot be read or the output cannot be written
+     * @throws GeneralSecurityException When a PVK cannot be used for encryption
+     */
+    public BulkReport process(Path input, Path output) throws IOException, GeneralSecurityException {
+
+        errors.set(0);
+        long start = System.nanoTime();
+        long records = fileProcessor.process(input, output, this::processChunk);
+        return new BulkReport(records, errors.get(), System.nanoTime() - start);
+
+    }
+
+    /**
+     * Generate PINs and PVVs for a chunk of input records.
+     */
+    private List<String> processChunk(List<String> lines) throws GeneralSecurityException {
+
+        String [][] records = new String[lines.size()][];
+        String [] output = new String[lines.size()];
+        List<PinRequest> pinRequests = new ArrayList<>(lines.size());
+        List<Integer> positions = new ArrayList<>(lines.size());
+
+        for (int i = 0; i < lines.size(); i++) {
+            String [] fields = delimiterPattern.split(lines.get(i), -1);
+            records[i] = fields;
+            String errorCode = checkRecord(fields);
+            if (errorCode != null) {
+                output[i] = error(fields[0], errorCode);
+                continue;
+            }
+            PinRequest pinRequest = new PinRequest();
+            pinRequest.setPan(fields[0]);
+            pinRequest.setKey(keys.get(fields[1]));
+            pinRequest.setNaturalPin(fields[2].isEmpty());
+            pinRequest.setPinOffset(fields[2].isEmpty() ? "0" : fields[2]);
+            pinRequest.setPinLength(fields[3]);
+            pinRequest.setDecimalisationTable(PINConstants.DEFAULT_DECIMALISATION_TABLE);
+            pinRequests.add(pinRequest);
+            positions.add(i);
+        }
+
+        List<PinResponse> pinResponses = new IBM3624Pin().generateIBM3624Pin(pinRequests);
+        List<PvvRequest> pvvRequests = new ArrayList<>(pinResponses.size());
+        List<Integer> pvvPositions = new ArrayList<>(pinResponses.size());
+        for (int i = 0; i < pinResponses.size(); i++) {
+            int position = positions.get(i);
+            if (pinResponses.get(i).getPin() == null) {
+                output[position] = error(records[position][0], "BLKV01");
+                continue;
+            }
+            PvvRequest pvvRequest = new PvvRequest();
+            pvvRequest.setPan(records[position][0]);
+            pvvRequest.setKey(pinRequests.get(i).getKey());
+            pvvRequest.setKeyIndex(records[position].length > 4 && !records[position][4].isEmpty()
+                    ? records[position][4] : DEFAULT_PVKI);
+            pvvRequest.setPin(pinResponses.get(i).getPin());
+            pvvRequests.add(pvvRequest);
+            pvvPositions.add(i);
+        }
+
+        List<String> pvvs = new VisaPvv().calculateVisaPvv(pvvRequests);
+        List<CvvRequest> cvvRequests = new ArrayList<>(pvvs.size());
+        List<Integer> cvvPositions = new ArrayList<>(pvvs.size());
+        for (int i = 0; i < pvvs.size(); i++) {
+            int position = positions.get(pvvPositions.get(i));
+            PinResponse pinResponse = pinResponses.get(pvvPositions.get(i));
+            output[position] = records[position][0] + delimiter + pinResponse.getPin() + delimiter
+                    + records[position][2] + delimiter + pvvs.get(i);
+            if (records[position].length == CVV_FIELDS) {
+                CvvRequest cvvRequest = new CvvRequest();
+                cvvRequest.setPan(records[position][0]);
+                cvvRequest.setKey(keys.get(records[position][5]));
+                cvvRequest.setExpiryDate(records[position][6]);
+                cvvRequest.setServiceCode(records[position][7]);
+                if (DataValidator.validate(cvvRequest).isValid()) {
+                    cvvRequests.add(cvvRequest);
+                    cvvPositions.add(position);
+                } else {
+                    output[position] = error(records[position][0], "BLKV01");
+                }
+            }
+        }
+
+        VisaCvv visaCvv = new VisaCvv();
+        List<String> cvvs = visaCvv.calculateCvv(cvvRequests, CvvType.CVV);
+        List<String> cvv2s = visaCvv.calculateCvv(cvvRequests, CvvType.CVV2);
+        List<String> icvvs = visaCvv.calculateCvv(cvvRequests, CvvType.ICVV);
+        for (int i = 0; i < cvvRequests.size(); i++) {
+            int position = cvvPositions.get(i);
+            output[position] = output[position] + delimiter + cvvs.get(i) + delimiter + cvv2s.get(i)
+                    + delimiter + icvvs.get(i);
+        }
+
+        return List.of(output);
+
+    }
+
+    /**
+     * Check the fields of an input record before it is turned into a request.
+     * @return Error code, or null when the record can be processed
+     */
+    private String checkRecord(String [] fields){
+
+        if (fields.length < 4 || fields[0].length() != 16 || !DataValidator.isNumeric(fields[0])
+                || !DataValidator.isNumeric(fields[3]) || fields[3].length() > 2) {
+            return "BLKF01";
+        }
+        if (fields.length > 5 && fields.length != CVV_FIELDS) {
+            return "BLKF01";
+        }
+        if (!keys.containsKey(fields[1]) || (fields.length == CVV_FIELDS && !keys.containsKey(fields[5]))) {
+            return "BLKK01";
+        }
+        int pinLength = Integer.parseInt(fields[3]);
+        if (pinLength < PINConstants.MIN_PIN_LENGTH || pinLength > PINConstants.MAX_PIN_LENGTH
+                || (!fields[2].isEmpty() && fields[2].length() != pinLength)
+                || (fields.length > 4 && (fields[4].length() > 1 || !fields[4].isEmpty()
+                        && !DataValidator.isNumeric(fields[4])))) {
+            return "BLKF01";
+        }
+        return null;
+
+    }
+
+    private String error(String pan, String errorCode){
+        errors.incrementAndGet();
+        return pan + delimiter + "ERRR" + delimiter + errorCode;
+    }
+
+    /**
+     * Run a bulk issuance from the command line.
+     * Arguments: input card file, output file, key file, and optionally the crypto engine, jce (default) or
+     * bitsliced. The key file is a properties file of KEYREF=PVK and CVKREF=CVK entries.
+     */
+    public static void main(String [] args) throws IOException, GeneralSecurityException {
+
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Usage: BulkIssuanceProcessor <input file> <output file> <key file> [jce|bitsliced]");
+            return;
+        }
+        if (args.length == 4 && "bitsliced".equals(args[3])) {
+            CryptoFunctions.setBackend(BitslicedTDEA.getInstance());
+        }
+        Properties keyFile = new Properties();
+        try (Reader reader = Files.newBufferedReader(Path.of(args[2]))) {
+            keyFile.load(reader);
+        }
+        Map<String, String> keys = new HashMap<>();
+        keyFile.stringPropertyNames().forEach(name -> keys.put(name, keyFile.getProperty(name).trim()));
+        BulkReport report = new BulkIssuanceProcessor(keys).process(Path.of(args[0]), Path.of(args[1]));
+        System.out.println("INFO: BULK01: " + report);
+
+    }
+
+}
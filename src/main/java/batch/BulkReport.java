@@ -0,0 +1,35 @@
+package batch;
+
+import lombok.Getter;
+
+/**
+ * Defines the throughput report produced at the end of a bulk run
+ */
+
+@Getter
+public class BulkReport {
+
+    private final long records;
+    private final long errors;
+    private final long elapsedNanos;
+
+    public BulkReport(long records, long errors, long elapsedNanos){
+        this.records = records;
+        this.errors = errors;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return Records processed per second of elapsed time
+     */
+    public double getRecordsPerSecond(){
+        return elapsedNanos == 0 ? 0 : records * 1_000_000_000d / elapsedNanos;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("Records: %d, Errors: %d, Elapsed: %d ms, Throughput: %.0f records/s",
+                records, errors, elapsedNanos / 1_000_000, getRecordsPerSecond());
+    }
+
+}
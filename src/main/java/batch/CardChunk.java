@@ -0,0 +1,135 @@
+package batch;
+
+import dto.CompactPinRequest;
+import util.DataValidator;
+import util.DecimalisationTable;
+import util.IBM3624Pin;
+import util.PackedDigits;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The valid card records of a chunk of a card file, in the format PAN,OFFSET,PVV[,PVKI], with their offset digits and
+ * natural PIN digits laid end to end, card after card, so the offset arithmetic runs once over the whole chunk.
+ * Card i takes pinLength(i) digits from digitPosition(i) in every laid out array.
+ */
+final class CardChunk {
+
+    private static final int DEFAULT_PVKI = 1;
+
+    private final List<String[]> records;
+    private final List<byte[]> pans;
+    private final int [] digitPositions;
+    private final int digitCount;
+
+    /**
+     * @param records Split card records, each valid as checked by isValid
+     */
+    CardChunk(List<String[]> records){
+
+        this.records = records;
+        this.pans = new ArrayList<>(records.size());
+        this.digitPositions = new int[records.size()];
+        int digitPosition = 0;
+        for (int i = 0; i < records.size(); i++) {
+            pans.add(PackedDigits.pack(records.get(i)[0]));
+            digitPositions[i] = digitPosition;
+            digitPosition += records.get(i)[1].length();
+        }
+        this.digitCount = digitPosition;
+
+    }
+
+    /**
+     * @return True if the record has a 16 digit PAN, a 4 through 16 digit offset, a 4 digit PVV, and an optional
+     * single digit PVKI
+     */
+    static boolean isValid(String [] fields){
+
+        return fields.length >= 3 && fields.length <= 4
+                && fields[0].length() == CompactPinRequest.PIN_VALIDATION_DATA_DIGITS
+                && DataValidator.isNumeric(fields[0]) && DataValidator.isNumeric(fields[1])
+                && fields[1].length() >= 4 && fields[1].length() <= 16
+                && fields[2].length() == 4 && DataValidator.isNumeric(fields[2])
+                && (fields.length < 4 || fields[3].isEmpty()
+                        || (fields[3].length() == 1 && DataValidator.isNumeric(fields[3])));
+
+    }
+
+    /**
+     * @return PVKI of the record, 1 when it has none
+     */
+    static int keyIndex(String [] fields){
+        return fields.length > 3 && !fields[3].isEmpty() ? fields[3].charAt(0) - '0' : DEFAULT_PVKI;
+    }
+
+    int size(){
+        return records.size();
+    }
+
+    String [] record(int i){
+        return records.get(i);
+    }
+
+    /**
+     * @return PAN of card i, as packed digits
+     */
+    byte [] pan(int i){
+        return pans.get(i);
+    }
+
+    int pinLength(int i){
+        return records.get(i)[1].length();
+    }
+
+    int digitPosition(int i){
+        return digitPositions[i];
+    }
+
+    /**
+     * @return Offset digit values of every card
+     */
+    byte [] offsetDigits(){
+
+        byte [] offsetDigits = new byte[digitCount];
+        for (int i = 0; i < records.size(); i++) {
+            String offset = records.get(i)[1];
+            for (int j = 0; j < offset.length(); j++) {
+                offsetDigits[digitPositions[i] + j] = (byte) (offset.charAt(j) - '0');
+            }
+        }
+        return offsetDigits;
+
+    }
+
+    /**
+     * Derive the natural PIN of every card under a PVK, as long as its offset, in one cipher pass. The digits of each
+     * card are cleared once laid out, and the caller clears the returned digits when done with them.
+     * @param pvk PVK, as hexadecimal characters
+     * @return Natural PIN digit values of every card
+     * @throws GeneralSecurityException When the PVK cannot be used for encryption
+     */
+    byte [] naturalDigits(String pvk) throws GeneralSecurityException {
+
+        List<CompactPinRequest> pinRequests = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            pinRequests.add(new CompactPinRequest(pvk, pans.get(i), records.get(i)[0].length(), pinLength(i), null,
+                    DecimalisationTable.DEFAULT, true));
+        }
+        List<byte[]> naturalPins = new IBM3624Pin().generatePinDigits(pinRequests);
+        byte [] naturalDigits = new byte[digitCount];
+        try {
+            for (int i = 0; i < naturalPins.size(); i++) {
+                System.arraycopy(naturalPins.get(i), 0, naturalDigits, digitPositions[i], pinLength(i));
+            }
+        } finally {
+            naturalPins.forEach(pin -> Arrays.fill(pin, (byte) 0));
+        }
+        return naturalDigits;
+
+    }
+
+}
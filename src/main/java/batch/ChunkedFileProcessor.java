@@ -0,0 +1,300 @@
+package batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Streams a line oriented input file through a chunk handler on a work stealing pool, and writes the handler output
+ * to a file through a buffered NIO channel, in input order.
+ * Memory use is bounded regardless of file size: input is read as a stream, and at most two chunks per worker are
+ * read ahead of the chunk currently being written.
+ * Runs can optionally checkpoint after every chunk written, so a run interrupted part way resumes where it stopped.
+ */
+public class ChunkedFileProcessor {
+
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private final int chunkSize;
+    private final int parallelism;
+
+    /**
+     * Transforms a chunk of input lines into output lines. Handlers are called concurrently from several workers.
+     */
+    public interface ChunkHandler {
+        List<String> process(List<String> lines) throws Exception;
+    }
+
+    /**
+     * @param chunkSize Number of input lines handed to a worker at a time
+     * @param parallelism Number of worker threads
+     */
+    public ChunkedFileProcessor(int chunkSize, int parallelism){
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Process every line of the input file and write the output lines to the output file, replacing any content.
+     * @param input Input file
+     * @param output Output file
+     * @param handler Chunk handler
+     * @return Number of input lines processed
+     * @throws IOException When the input cannot be read or the output cannot be written
+     * @throws GeneralSecurityException When the handler fails with a cryptographic error
+     */
+    public long process(Path input, Path output, ChunkHandler handler) throws IOException,
+            GeneralSecurityException {
+        return process(input, output, handler, null);
+    }
+
+    /**
+     * Process the input file as above, recording progress in a checkpoint file so an interrupted run can be resumed.
+     * After each chunk is written, the output is forced to disk, and the number of input lines consumed and output
+     * bytes written is recorded in the checkpoint. When the checkpoint exists at the start of a run, the output is
+     * truncated back to the recorded size, the recorded number of input lines is skipped, and processing carries on
+     * from there. The checkpoint is deleted once the run completes.
+     * @param input Input file
+     * @param output Output file
+     * @param handler Chunk handler
+     * @param checkpoint Checkpoint file, or null to process without checkpoints
+     * @return Number of input lines processed, including any lines skipped on resume
+     * @throws IOException When the input cannot be read or the output cannot be written
+     * @throws GeneralSecurityException When the handler fails with a cryptographic error
+     */
+    public long process(Path input, Path output, ChunkHandler handler, Path checkpoint) throws IOException,
+            GeneralSecurityException {
+
+        Checkpoint resumeFrom = checkpoint == null ? null : Checkpoint.read(checkpoint);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Deque<PendingChunk> inFlight = new ArrayDeque<>();
+        long lines = resumeFrom == null ? 0 : resumeFrom.lines();
+        long written = lines;
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.US_ASCII);
+             FileChannel channel = resumeFrom == null
+                     ? FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                             StandardOpenOption.TRUNCATE_EXISTING)
+                     : FileChannel.open(output, StandardOpenOption.WRITE)) {
+            if (resumeFrom != null) {
+                // Drop anything written after the checkpoint, and skip the input lines it already covers
+                channel.truncate(resumeFrom.bytes());
+                channel.position(resumeFrom.bytes());
+                for (long skipped = 0; skipped < resumeFrom.lines(); skipped++) {
+                    if (reader.readLine() == null) {
+                        throw new IOException("Checkpoint is beyond the end of the input file");
+                    }
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+            List<String> chunk = new ArrayList<>(chunkSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                chunk.add(line);
+                lines++;
+                if (chunk.size() == chunkSize) {
+                    submit(pool, inFlight, chunk, handler);
+                    chunk = new ArrayList<>(chunkSize);
+                    // Keep read ahead bounded, write the oldest chunk before reading further
+                    if (inFlight.size() >= parallelism * 2) {
+                        written = write(channel, buffer, inFlight.removeFirst(), written, checkpoint);
+                    }
+                }
+            }
+            if (!chunk.isEmpty()) {
+                submit(pool, inFlight, chunk, handler);
+            }
+            while (!inFlight.isEmpty()) {
+                written = write(channel, buffer, inFlight.removeFirst(), written, checkpoint);
+            }
+            flush(channel, buffer);
+        } finally {
+            pool.shutdownNow();
+        }
+        if (checkpoint != null) {
+            Files.deleteIfExists(checkpoint);
+        }
+        return lines;
+
+    }
+
+    /**
+     * Process every line of the input file for the handler's side effects only, such as accumulating statistics.
+     * Handler output is discarded, and read ahead is bounded as when writing an output file.
+     * @param input Input file
+     * @param handler Chunk handler
+     * @return Number of input lines processed
+     * @throws IOException When the input cannot be read
+     * @throws GeneralSecurityException When the handler fails with a cryptographic error
+     */
+    public long process(Path input, ChunkHandler handler) throws IOException, GeneralSecurityException {
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Deque<PendingChunk> inFlight = new ArrayDeque<>();
+        long lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.US_ASCII)) {
+            List<String> chunk = new ArrayList<>(chunkSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                chunk.add(line);
+                lines++;
+                if (chunk.size() == chunkSize) {
+                    submit(pool, inFlight, chunk, handler);
+                    chunk = new ArrayList<>(chunkSize);
+                    if (inFlight.size() >= parallelism * 2) {
+                        await(inFlight.removeFirst().result());
+                    }
+                }
+            }
+            if (!chunk.isEmpty()) {
+                submit(pool, inFlight, chunk, handler);
+            }
+            while (!inFlight.isEmpty()) {
+                await(inFlight.removeFirst().result());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return lines;
+
+    }
+
+    /**
+     * Progress of a checkpointed run: input lines consumed, and output bytes written for them.
+     * @param lines Number of input lines consumed
+     * @param bytes Number of output bytes written
+     */
+    public record Checkpoint(long lines, long bytes) {
+
+        /**
+         * Read a checkpoint file.
+         * @param checkpoint Checkpoint file
+         * @return Checkpoint, or null if the file does not exist
+         * @throws IOException When the file cannot be read or is not a checkpoint
+         */
+        public static Checkpoint read(Path checkpoint) throws IOException {
+
+            if (!Files.exists(checkpoint)) {
+                return null;
+            }
+            String [] fields = Files.readString(checkpoint, StandardCharsets.US_ASCII).trim().split(",");
+            try {
+                return new Checkpoint(Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Invalid checkpoint file: " + checkpoint, e);
+            }
+
+        }
+
+        /**
+         * Replace the checkpoint file atomically, so a crash leaves either the old or the new checkpoint. The new
+         * checkpoint is forced to disk before it replaces the old one, so the rename can never expose an empty file.
+         */
+        void write(Path checkpoint) throws IOException {
+
+            Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer content = ByteBuffer.wrap((lines + "," + bytes).getBytes(StandardCharsets.US_ASCII));
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        }
+
+    }
+
+    private record PendingChunk(Future<List<String>> result, int lines) { }
+
+    private static void submit(ForkJoinPool pool, Deque<PendingChunk> inFlight, List<String> chunk,
+                               ChunkHandler handler){
+        inFlight.addLast(new PendingChunk(pool.submit(() -> handler.process(chunk)), chunk.size()));
+    }
+
+    /**
+     * Write a completed chunk, then checkpoint if checkpoints are in use.
+     * @param written Number of input lines covered by the output written so far
+     * @return Number of input lines covered once the chunk is written
+     */
+    private static long write(FileChannel channel, ByteBuffer buffer, PendingChunk chunk, long written,
+                              Path checkpoint) throws IOException, GeneralSecurityException {
+
+        write(channel, buffer, await(chunk.result()));
+        written += chunk.lines();
+        if (checkpoint != null) {
+            flush(channel, buffer);
+            channel.force(false);
+            new Checkpoint(written, channel.position()).write(checkpoint);
+        }
+        return written;
+
+    }
+
+    /**
+     * Wait for a chunk to complete, rethrowing the handler failure as its checked type where possible.
+     */
+    private static List<String> await(Future<List<String>> result) throws IOException, GeneralSecurityException {
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for chunk", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            } else if (cause instanceof GeneralSecurityException securityException) {
+                throw securityException;
+            } else if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException("Chunk processing failed", cause);
+        }
+
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, List<String> lines) throws IOException {
+
+        for (String line : lines) {
+            byte [] bytes = line.getBytes(StandardCharsets.US_ASCII);
+            if (buffer.remaining() < bytes.length + 1) {
+                flush(channel, buffer);
+            }
+            if (bytes.length + 1 > buffer.capacity()) {
+                channel.write(ByteBuffer.wrap(bytes));
+            } else {
+                buffer.put(bytes);
+            }
+            buffer.put((byte) '\n');
+        }
+
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+
+    }
+
+}
@@ -0,0 +1,191 @@
+package batch;
+
+import analytics.PinDistribution;
+import analytics.WeakPinPattern;
+import util.BitslicedTDEA;
+import util.CryptoFunctions;
+import util.KeyRegistry;
+import util.OffsetArithmetic;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * PIN distribution job. Reads a card file once and measures, across the whole portfolio, how the natural PINs under a
+ * PVK and the customer PINs implied by the stored offsets are distributed, and how the stored PVVs are spread.
+ * Input records are the stored card data, as delimited lines in the format PAN,OFFSET,PVV[,PVKI], the format of the
+ * PVK rotation job. For each card:
+ * - The natural PIN is derived from the PAN under the PVK, with the default decimalisation table
+ * - The customer PIN is the natural PIN plus the offset
+ * - Both PINs are recorded in a PinDistribution, and the PVV in a counter per PVV value
+ * Records that do not have the expected fields are counted as errors. Records are processed in parallel chunks, with
+ * one cipher pass per chunk, and each worker thread records into its own partial distributions, merged at the end of
+ * the run. Memory use is fixed whatever the size of the portfolio, and the PIN digits of a chunk are cleared as soon
+ * as they are recorded: no clear PIN outlives the chunk it was derived for.
+ */
+public class PinDistributionJob {
+
+    private static final int DEFAULT_CHUNK_SIZE = 1024;
+    private static final int PVV_VALUES = 10000;
+    private static final int TOP_PINS = 10;
+
+    private final String pvk;
+    private final Pattern delimiterPattern;
+    private final ChunkedFileProcessor fileProcessor;
+
+    /**
+     * Distributions recorded by one worker thread.
+     */
+    private static final class Partial {
+
+        final PinDistribution naturalPins = new PinDistribution();
+        final PinDistribution customerPins = new PinDistribution();
+        final long [] pvvCounts = new long[PVV_VALUES];
+        long errors;
+
+        void merge(Partial other){
+
+            naturalPins.merge(other.naturalPins);
+            customerPins.merge(other.customerPins);
+            for (int i = 0; i < PVV_VALUES; i++) {
+                pvvCounts[i] += other.pvvCounts[i];
+            }
+            errors += other.errors;
+
+        }
+
+    }
+
+    /**
+     * @param pvk PVK the stored offsets and PVVs were derived under
+     * @param delimiter Field delimiter of input records
+     * @param chunkSize Number of records handed to a worker at a time
+     * @param parallelism Number of worker threads
+     */
+    public PinDistributionJob(String pvk, String delimiter, int chunkSize, int parallelism){
+        this.pvk = pvk;
+        this.delimiterPattern = Pattern.compile(Pattern.quote(delimiter));
+        this.fileProcessor = new ChunkedFileProcessor(chunkSize, parallelism);
+    }
+
+    /**
+     * @param pvk PVK the stored offsets and PVVs were derived under
+     */
+    public PinDistributionJob(String pvk){
+        this(pvk, ",", DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Analyse a card file.
+     * @param input Input card file
+     * @return Report of the run, with the merged distributions
+     * @throws IOException When the input cannot be read
+     * @throws GeneralSecurityException When the PVK cannot be used for encryption
+     */
+    public PinDistributionReport analyse(Path input) throws IOException, GeneralSecurityException {
+
+        long start = System.nanoTime();
+        Map<Thread, Partial> partials = new ConcurrentHashMap<>();
+        long records = fileProcessor.process(input, lines -> {
+            analyseChunk(lines, partials.computeIfAbsent(Thread.currentThread(), thread -> new Partial()));
+            return List.of();
+        });
+        Partial total = new Partial();
+        partials.values().forEach(total::merge);
+        return new PinDistributionReport(records, total.errors, System.nanoTime() - start, total.naturalPins,
+                total.customerPins, total.pvvCounts);
+
+    }
+
+    /**
+     * Derive the natural and customer PINs of a chunk of input records, and record them in the worker's partial
+     * distributions.
+     */
+    private void analyseChunk(List<String> lines, Partial partial) throws GeneralSecurityException {
+
+        List<String[]> records = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            String [] fields = delimiterPattern.split(line, -1);
+            if (!CardChunk.isValid(fields)) {
+                partial.errors++;
+                continue;
+            }
+            records.add(fields);
+            partial.pvvCounts[Integer.parseInt(fields[2])]++;
+        }
+
+        CardChunk chunk = new CardChunk(records);
+        byte [] naturalDigits = chunk.naturalDigits(pvk);
+        byte [] customerDigits = new byte[naturalDigits.length];
+        try {
+            OffsetArithmetic.addOffsets(naturalDigits, chunk.offsetDigits(), customerDigits);
+            for (int i = 0; i < chunk.size(); i++) {
+                partial.naturalPins.record(naturalDigits, chunk.digitPosition(i), chunk.pinLength(i));
+                partial.customerPins.record(customerDigits, chunk.digitPosition(i), chunk.pinLength(i));
+            }
+        } finally {
+            Arrays.fill(naturalDigits, (byte) 0);
+            Arrays.fill(customerDigits, (byte) 0);
+        }
+
+    }
+
+    /**
+     * Run a PIN distribution analysis from the command line.
+     * Arguments: input card file, key file, key reference, and optionally the crypto engine, jce (default) or
+     * bitsliced. The key file is loaded through a KeyRegistry, as for the PVK rotation job and the service, so the PVK
+     * is never passed on the command line. The report lists:
+     * - DIST01: run summary
+     * - DIST02: weak pattern counts of the natural and customer PINs
+     * - DIST03: share of each digit in the natural and customer PINs
+     * - DIST04: most frequent 4 digit customer PINs, with their counts
+     */
+    public static void main(String [] args) throws IOException, GeneralSecurityException {
+
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Usage: PinDistributionJob <input file> <key file> <key ref> [jce|bitsliced]");
+            return;
+        }
+        if (args.length == 4 && "bitsliced".equals(args[3])) {
+            CryptoFunctions.setBackend(BitslicedTDEA.getInstance());
+        }
+        PinDistributionReport report;
+        try (KeyRegistry keyRegistry = new KeyRegistry(Path.of(args[1]))) {
+            if (!keyRegistry.contains(args[2])) {
+                System.out.println("ERRR: DISTK01: Key reference is not defined in the key file.");
+                return;
+            }
+            report = new PinDistributionJob(keyRegistry.resolve(args[2])).analyse(Path.of(args[0]));
+        }
+        System.out.println("INFO: DIST01: " + report);
+        PinDistribution naturalPins = report.getNaturalPins();
+        PinDistribution customerPins = report.getCustomerPins();
+        for (WeakPinPattern pattern : WeakPinPattern.values()) {
+            System.out.printf("INFO: DIST02: %-14s natural %d, customer %d%n", pattern,
+                    naturalPins.getPatternCount(pattern), customerPins.getPatternCount(pattern));
+        }
+        StringBuilder naturalShares = new StringBuilder();
+        StringBuilder customerShares = new StringBuilder();
+        for (int digit = 0; digit < 10; digit++) {
+            naturalShares.append(String.format(" %d:%.3f", digit, naturalPins.getDigitShare(digit)));
+            customerShares.append(String.format(" %d:%.3f", digit, customerPins.getDigitShare(digit)));
+        }
+        System.out.println("INFO: DIST03: natural " + naturalShares.toString().trim());
+        System.out.println("INFO: DIST03: customer " + customerShares.toString().trim());
+        StringBuilder topPins = new StringBuilder();
+        for (int pin : customerPins.getMostFrequentFourDigitPins(TOP_PINS)) {
+            String fourDigitPin = String.format("%04d", pin);
+            topPins.append(' ').append(fourDigitPin).append(':').append(customerPins.getFrequency(fourDigitPin));
+        }
+        System.out.println("INFO: DIST04: " + (topPins.isEmpty() ? "no 4 digit PINs" : topPins.toString().trim()));
+
+    }
+
+}
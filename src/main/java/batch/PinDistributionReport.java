@@ -0,0 +1,62 @@
+package batch;
+
+import analytics.PinDistribution;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * Defines the report produced at the end of a PIN distribution run, adding the natural and customer PIN
+ * distributions and the PVV distribution of the portfolio to the throughput report
+ */
+
+@Getter
+public class PinDistributionReport extends BulkReport {
+
+    private final PinDistribution naturalPins;
+    private final PinDistribution customerPins;
+    @Getter(AccessLevel.NONE)
+    private final long [] pvvCounts;
+
+    public PinDistributionReport(long records, long errors, long elapsedNanos, PinDistribution naturalPins,
+                                 PinDistribution customerPins, long [] pvvCounts){
+        super(records, errors, elapsedNanos);
+        this.naturalPins = naturalPins;
+        this.customerPins = customerPins;
+        this.pvvCounts = pvvCounts;
+    }
+
+    /**
+     * @param pvv PVV value, 0 through 9999
+     * @return Number of cards holding the PVV
+     */
+    public long getPvvCount(int pvv){
+        return pvvCounts[pvv];
+    }
+
+    /**
+     * Return the PVV collision rate: the probability that two different cards drawn at random hold the same PVV.
+     * PVVs spread evenly over their 10000 values give 0.0001, and the higher the rate, the more likely a guessed PIN
+     * that is wrong still matches a stored PVV.
+     * @return PVV collision rate, 0 with fewer than two cards
+     */
+    public double getPvvCollisionRate(){
+
+        double pairs = 0;
+        double cards = 0;
+        for (long pvvCount : pvvCounts) {
+            pairs += (double) pvvCount * (pvvCount - 1);
+            cards += pvvCount;
+        }
+        return cards < 2 ? 0 : pairs / (cards * (cards - 1));
+
+    }
+
+    @Override
+    public String toString(){
+        return super.toString() + String.format(", Weak customer PINs: %d, Weak natural PINs: %d, "
+                        + "Natural PIN digit skew: %.2f, PVV collision rate: %.6f",
+                customerPins.getWeakPinCount(), naturalPins.getWeakPinCount(), naturalPins.getDigitSkew(),
+                getPvvCollisionRate());
+    }
+
+}
@@ -0,0 +1,282 @@
+package batch;
+
+import dto.CompactPvvRequest;
+import dto.PinRequest;
+import dto.PvvRequest;
+import util.IBM3624Pin;
+import util.KeyRegistry;
+import util.OffsetArithmetic;
+import util.PackedDigits;
+import util.VisaPvv;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * PVK rotation job. Re-derives the IBM 3624 offset and Visa PVV of every card of a card file under a new PVK, keeping
+ * each customer's PIN unchanged.
+ * Input records are delimited lines in the format PAN,OFFSET,PVV[,PVKI], PVKI defaulting to 1. For each card:
+ * - The customer PIN is the natural PIN under the old PVK plus the old offset
+ * - The stored PVV is checked against the customer PIN under the old PVK
+ * - The new offset is the customer PIN minus the natural PIN under the new PVK
+ * - The new PVV is calculated from the customer PIN under the new PVK
+ * Output records are written in input order, in the format PAN,OFFSET,PVV,PVKI, or PAN,ERRR,code for records that
+ * could not be rotated:
+ * - ROTF01: Record does not have the expected fields, or the PAN is not 16 digits
+ * - ROTV01: Stored PVV does not match the PIN derived from the old offset, so the card data is inconsistent
+ * Records are processed in parallel chunks, with one cipher pass per PVK per chunk, and progress is checkpointed after
+ * every chunk, so a run that is stopped resumes where it stopped. Once all records are written, a sample of the output
+ * is verified against the input through the single request APIs, and the result is appended to the output as trailer
+ * records:
+ * - SMPL,RECORD,PASS or SMPL,RECORD,FAIL for each sampled record, RECORD being its line number in the output
+ * - TRLR,RECORDS,SAMPLED,FAILURES as the last line, counting every card record of the file
+ */
+public class PvkRotationJob {
+
+    private static final int DEFAULT_CHUNK_SIZE = 1024;
+    private static final int DEFAULT_SAMPLE_SIZE = 100;
+
+    private final String oldPvk;
+    private final String newPvk;
+    private final String delimiter;
+    private final Pattern delimiterPattern;
+    private final ChunkedFileProcessor fileProcessor;
+    private final int sampleSize;
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * @param oldPvk PVK the stored offsets and PVVs were derived under
+     * @param newPvk PVK to derive the new offsets and PVVs under
+     * @param delimiter Field delimiter of input and output records
+     * @param chunkSize Number of records handed to a worker at a time
+     * @param parallelism Number of worker threads
+     * @param sampleSize Number of output records verified at the end of the run
+     */
+    public PvkRotationJob(String oldPvk, String newPvk, String delimiter, int chunkSize, int parallelism,
+                          int sampleSize){
+        this.oldPvk = oldPvk;
+        this.newPvk = newPvk;
+        this.delimiter = delimiter;
+        this.delimiterPattern = Pattern.compile(Pattern.quote(delimiter));
+        this.fileProcessor = new ChunkedFileProcessor(chunkSize, parallelism);
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * @param oldPvk PVK the stored offsets and PVVs were derived under
+     * @param newPvk PVK to derive the new offsets and PVVs under
+     */
+    public PvkRotationJob(String oldPvk, String newPvk){
+        this(oldPvk, newPvk, ",", DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors(),
+                DEFAULT_SAMPLE_SIZE);
+    }
+
+    /**
+     * Rotate a card file, resuming from the checkpoint if one exists.
+     * @param input Input card file
+     * @param output Output file. Replaced when starting afresh, appended to when resuming
+     * @param checkpoint Checkpoint file, deleted once the run completes
+     * @return Report of the run. Records and errors count this run only, excluding records done before a resume
+     * @throws IOException When the input cannot be read or the output cannot be written
+     * @throws GeneralSecurityException When a PVK cannot be used for encryption
+     */
+    public RotationReport rotate(Path input, Path output, Path checkpoint) throws IOException,
+            GeneralSecurityException {
+
+        errors.set(0);
+        long start = System.nanoTime();
+        ChunkedFileProcessor.Checkpoint resumeFrom = ChunkedFileProcessor.Checkpoint.read(checkpoint);
+        long resumed = resumeFrom == null ? 0 : resumeFrom.lines();
+        long records = fileProcessor.process(input, output, this::processChunk, checkpoint);
+        List<String> trailer = new ArrayList<>();
+        long [] sample = verifySample(input, output, records, trailer);
+        trailer.add(String.join(delimiter, "TRLR", Long.toString(records), Long.toString(sample[0]),
+                Long.toString(sample[1])));
+        Files.write(output, trailer, StandardCharsets.US_ASCII, StandardOpenOption.APPEND);
+        return new RotationReport(records - resumed, errors.get(), System.nanoTime() - start, resumed, sample[0],
+                sample[1]);
+
+    }
+
+    /**
+     * Rotate a chunk of input records.
+     */
+    private List<String> processChunk(List<String> lines) throws GeneralSecurityException {
+
+        String [] output = new String[lines.size()];
+        List<String[]> records = new ArrayList<>(lines.size());
+        List<Integer> positions = new ArrayList<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            String [] fields = delimiterPattern.split(lines.get(i), -1);
+            if (!CardChunk.isValid(fields)) {
+                output[i] = error(fields[0], "ROTF01");
+                continue;
+            }
+            records.add(fields);
+            positions.add(i);
+        }
+
+        CardChunk chunk = new CardChunk(records);
+        byte [] oldNatural = chunk.naturalDigits(oldPvk);
+        byte [] newNatural = chunk.naturalDigits(newPvk);
+        byte [] offsets = chunk.offsetDigits();
+        byte [] customerPins = new byte[offsets.length];
+        try {
+            OffsetArithmetic.addOffsets(oldNatural, offsets, customerPins);
+            OffsetArithmetic.deriveOffsets(customerPins, newNatural, offsets);
+
+            List<CompactPvvRequest> oldPvvRequests = new ArrayList<>(chunk.size());
+            List<CompactPvvRequest> newPvvRequests = new ArrayList<>(chunk.size());
+            for (int i = 0; i < chunk.size(); i++) {
+                String [] fields = chunk.record(i);
+                byte [] customerPin = Arrays.copyOfRange(customerPins, chunk.digitPosition(i),
+                        chunk.digitPosition(i) + chunk.pinLength(i));
+                int keyIndex = CardChunk.keyIndex(fields);
+                oldPvvRequests.add(new CompactPvvRequest(oldPvk, chunk.pan(i), fields[0].length(), keyIndex,
+                        customerPin));
+                newPvvRequests.add(new CompactPvvRequest(newPvk, chunk.pan(i), fields[0].length(), keyIndex,
+                        customerPin));
+            }
+
+            VisaPvv visaPvv = new VisaPvv();
+            int [] oldPvvs = visaPvv.calculatePvv(oldPvvRequests);
+            int [] newPvvs = visaPvv.calculatePvv(newPvvRequests);
+            for (int i = 0; i < chunk.size(); i++) {
+                int position = positions.get(i);
+                String [] fields = chunk.record(i);
+                int pinLength = chunk.pinLength(i);
+                if (oldPvvs[i] != Integer.parseInt(fields[2])) {
+                    output[position] = error(fields[0], "ROTV01");
+                } else {
+                    output[position] = fields[0] + delimiter
+                            + PackedDigits.unpack(pack(offsets, chunk.digitPosition(i), pinLength), pinLength)
+                            + delimiter + String.format("%04d", newPvvs[i]) + delimiter + CardChunk.keyIndex(fields);
+                }
+                Arrays.fill(oldPvvRequests.get(i).pin(), (byte) 0);
+            }
+        } finally {
+            Arrays.fill(customerPins, (byte) 0);
+            Arrays.fill(oldNatural, (byte) 0);
+            Arrays.fill(newNatural, (byte) 0);
+        }
+
+        return List.of(output);
+
+    }
+
+    /**
+     * Verify an evenly spread sample of the output against the input, re-deriving the customer PIN through the single
+     * request APIs under the old PVK and checking the new offset and PVV reproduce it under the new PVK.
+     * @param trailer Receives a sample trailer record for each sampled record
+     * @return Number of records sampled, and number of sampled records that failed verification
+     */
+    private long [] verifySample(Path input, Path output, long records, List<String> trailer) throws IOException,
+            GeneralSecurityException {
+
+        long step = Math.max(1, records / Math.max(1, sampleSize));
+        long sampled = 0;
+        long failures = 0;
+        IBM3624Pin ibm3624Pin = new IBM3624Pin();
+        VisaPvv visaPvv = new VisaPvv();
+        try (BufferedReader inputReader = Files.newBufferedReader(input, StandardCharsets.US_ASCII);
+             BufferedReader outputReader = Files.newBufferedReader(output, StandardCharsets.US_ASCII)) {
+            String inputLine;
+            String outputLine;
+            for (long record = 0; (inputLine = inputReader.readLine()) != null
+                    && (outputLine = outputReader.readLine()) != null; record++) {
+                String [] rotated = delimiterPattern.split(outputLine, -1);
+                if (record % step != 0 || sampled >= sampleSize || "ERRR".equals(rotated[1])) {
+                    continue;
+                }
+                String [] fields = delimiterPattern.split(inputLine, -1);
+                sampled++;
+                String customerPin = ibm3624Pin.generateIBM3624Pin(pinRequest(oldPvk, fields[0], fields[1]))
+                        .getPin();
+                String newPin = ibm3624Pin.generateIBM3624Pin(pinRequest(newPvk, rotated[0], rotated[1])).getPin();
+                PvvRequest pvvRequest = new PvvRequest();
+                pvvRequest.setKey(newPvk);
+                pvvRequest.setKeyIndex(rotated[3]);
+                pvvRequest.setPan(rotated[0]);
+                pvvRequest.setPin(customerPin);
+                boolean passed = rotated[0].equals(fields[0]) && customerPin != null && customerPin.equals(newPin)
+                        && visaPvv.verifyVisaPvv(pvvRequest, rotated[2]);
+                if (!passed) {
+                    failures++;
+                }
+                trailer.add(String.join(delimiter, "SMPL", Long.toString(record + 1), passed ? "PASS" : "FAIL"));
+            }
+        }
+        return new long[] {sampled, failures};
+
+    }
+
+    private static PinRequest pinRequest(String key, String pan, String offset){
+
+        PinRequest pinRequest = new PinRequest();
+        pinRequest.setKey(key);
+        pinRequest.setPan(pan);
+        pinRequest.setPinOffset(offset);
+        pinRequest.setPinLength(Integer.toString(offset.length()));
+        return pinRequest;
+
+    }
+
+    /**
+     * Pack a run of digit values, so they can be unpacked to a String.
+     */
+    private static byte [] pack(byte [] digits, int from, int length){
+
+        byte [] packed = new byte[(length + 1) / 2];
+        for (int i = 0; i < length; i++) {
+            PackedDigits.setDigit(packed, i, digits[from + i]);
+        }
+        return packed;
+
+    }
+
+    private String error(String pan, String errorCode){
+        errors.incrementAndGet();
+        return pan + delimiter + "ERRR" + delimiter + errorCode;
+    }
+
+    /**
+     * Run a PVK rotation from the command line.
+     * Arguments: input card file, output file, key file, old key reference, new key reference. The key file is loaded
+     * through a KeyRegistry, so it takes the KEYREF=PVK entries of the service key file. Progress is checkpointed to
+     * the output file name plus .checkpoint, and running the same command again after a failure resumes from it.
+     */
+    public static void main(String [] args) throws IOException, GeneralSecurityException {
+
+        if (args.length != 5) {
+            System.out.println("Usage: PvkRotationJob <input file> <output file> <key file> <old key ref> "
+                    + "<new key ref>");
+            return;
+        }
+        String oldPvk;
+        String newPvk;
+        try (KeyRegistry keyRegistry = new KeyRegistry(Path.of(args[2]))) {
+            if (!keyRegistry.contains(args[3]) || !keyRegistry.contains(args[4])) {
+                System.out.println("ERRR: ROTK01: Key reference is not defined in the key file.");
+                return;
+            }
+            oldPvk = keyRegistry.resolve(args[3]);
+            newPvk = keyRegistry.resolve(args[4]);
+        }
+        Path output = Path.of(args[1]);
+        RotationReport report = new PvkRotationJob(oldPvk, newPvk).rotate(Path.of(args[0]), output,
+                output.resolveSibling(output.getFileName() + ".checkpoint"));
+        System.out.println("INFO: ROT01: " + report);
+
+    }
+
+}
@@ -0,0 +1,31 @@
+package batch;
+
+import lombok.Getter;
+
+/**
+ * Defines the report produced at the end of a PVK rotation run, adding resume and verification sample details to
+ * the throughput report
+ */
+
+@Getter
+public class RotationReport extends BulkReport {
+
+    private final long resumedRecords;
+    private final long sampled;
+    private final long sampleFailures;
+
+    public RotationReport(long records, long errors, long elapsedNanos, long resumedRecords, long sampled,
+                          long sampleFailures){
+        super(records, errors, elapsedNanos);
+        this.resumedRecords = resumedRecords;
+        this.sampled = sampled;
+        this.sampleFailures = sampleFailures;
+    }
+
+    @Override
+    public String toString(){
+        return super.toString() + String.format(", Resumed after: %d, Sampled: %d, Sample failures: %d",
+                resumedRecords, sampled, sampleFailures);
+    }
+
+}
@@ -9,7 +9,12 @@ public class PINConstants {
     public static final int MIN_PIN_LENGTH = 4;
     public static final int MAX_PIN_LENGTH = 16;
     public static final String PAD_CHAR = "0";
+    public static final int PIN_VALIDATION_PAN_LEN = 16;
     public static final int MAX_PVV_PIN_LEN = 4;
     public static final int MAX_PVV_PAN_LEN = 11;
+    public static final int PVV_LENGTH = 4;
+    public static final int CVV_LENGTH = 3;
+    public static final String CVV2_SERVICE_CODE = "000";
+    public static final String ICVV_SERVICE_CODE = "999";
 
 }
\ No newline at end of file
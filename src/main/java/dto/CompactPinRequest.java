@@ -0,0 +1,56 @@
+package dto;
+
+import constants.PINConstants;
+import util.DataValidator;
+import util.DecimalisationTable;
+import util.PackedDigits;
+import util.ValidationResult;
+
+/**
+ * Compact, immutable form of a PIN generation request, for batch and service workloads.
+ * The PAN is held as packed BCD, the PIN length as an int, the offset as digit values and the decimalisation table
+ * as a reference to a shared compiled table. Arrays are not copied, and must be treated as read only.
+ * @param key TDEA key, as hexadecimal characters
+ * @param pan PAN, packed BCD
+ * @param panLength Number of PAN digits, 16 as the packed PAN is the PIN validation data
+ * @param pinLength PIN length, 4 through 16
+ * @param pinOffset PIN offset digit values, one per element, pinLength elements long. Ignored for natural PINs
+ * @param decimalisationTable Compiled decimalisation table
+ * @param naturalPin True to generate the natural PIN
+ */
+public record CompactPinRequest(String key, byte [] pan, int panLength, int pinLength, byte [] pinOffset,
+                                DecimalisationTable decimalisationTable, boolean naturalPin) {
+
+    /**
+     * Number of PAN digits used as PIN validation data. Packed, they are the 8 byte validation data block itself.
+     */
+    public static final int PIN_VALIDATION_DATA_DIGITS = 16;
+
+    public CompactPinRequest {
+        if (panLength != PIN_VALIDATION_DATA_DIGITS || pan.length != (panLength + 1) / 2
+                || pinLength < PINConstants.MIN_PIN_LENGTH
+                || pinLength > PINConstants.MAX_PIN_LENGTH || (!naturalPin && pinOffset.length != pinLength)) {
+            throw new IllegalArgumentException("Inconsistent compact PIN request");
+        }
+    }
+
+    /**
+     * Build a compact request from a PIN request. The PIN request is validated, and normalised, on the way.
+     * @param pinRequest PIN generation request object
+     * @return Compact request
+     * @throws IllegalArgumentException When the request is not valid, with the validation codes as message
+     */
+    public static CompactPinRequest of(PinRequest pinRequest){
+
+        ValidationResult validationResult = DataValidator.validate(pinRequest);
+        if (!validationResult.isValid()) {
+            throw new IllegalArgumentException(validationResult.toString());
+        }
+        return new CompactPinRequest(pinRequest.getKey(), PackedDigits.pack(pinRequest.getPan()),
+                pinRequest.getPan().length(), Integer.parseInt(pinRequest.getPinLength()),
+                pinRequest.isNaturalPin() ? null : PackedDigits.toDigits(pinRequest.getPinOffset()),
+                DecimalisationTable.of(pinRequest.getDecimalisationTable()), pinRequest.isNaturalPin());
+
+    }
+
+}
@@ -0,0 +1,46 @@
+package dto;
+
+import constants.PINConstants;
+import util.DataValidator;
+import util.PackedDigits;
+
+/**
+ * Compact, immutable form of a PVV request, for batch and service workloads.
+ * The PAN is held as packed BCD, the PVKI as an int and the PIN as digit values. Arrays are not copied, and must be
+ * treated as read only.
+ * @param key TDEA key, as hexadecimal characters
+ * @param pan PAN, packed BCD
+ * @param panLength Number of PAN digits
+ * @param keyIndex PIN Verification Key Index, 0 through 9
+ * @param pin PIN digit values, one per element, at least 4 elements long
+ */
+public record CompactPvvRequest(String key, byte [] pan, int panLength, int keyIndex, byte [] pin) {
+
+    public CompactPvvRequest {
+        if (pan.length != (panLength + 1) / 2 || panLength <= PINConstants.MAX_PVV_PAN_LEN || keyIndex < 0
+                || keyIndex > 9 || pin.length < PINConstants.MAX_PVV_PIN_LEN) {
+            throw new IllegalArgumentException("Inconsistent compact PVV request");
+        }
+    }
+
+    /**
+     * Build a compact request from a PVV request.
+     * @param pvvRequest PVV request object
+     * @return Compact request
+     * @throws IllegalArgumentException When a field of the request is not valid
+     */
+    public static CompactPvvRequest of(PvvRequest pvvRequest){
+
+        String pan = pvvRequest.getPan();
+        if (!DataValidator.isNumeric(pan) || pan.length() <= PINConstants.MAX_PVV_PAN_LEN
+                || !DataValidator.isNumeric(pvvRequest.getKeyIndex()) || pvvRequest.getKeyIndex().length() != 1
+                || !DataValidator.isNumeric(pvvRequest.getPin())
+                || pvvRequest.getPin().length() < PINConstants.MAX_PVV_PIN_LEN) {
+            throw new IllegalArgumentException("Invalid PVV request");
+        }
+        return new CompactPvvRequest(pvvRequest.getKey(), PackedDigits.pack(pan), pan.length(),
+                pvvRequest.getKeyIndex().charAt(0) - '0', PackedDigits.toDigits(pvvRequest.getPin()));
+
+    }
+
+}
@@ -0,0 +1,22 @@
+package dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Defines the attributes for card verification value generation request
+ * The CVK is a double length key, either carried in key, or referenced through keyRef and resolved from a KeyRegistry.
+ * The service code is the one encoded on the magnetic stripe; CVV2 and iCVV use fixed service codes in its place.
+ */
+
+@Getter
+@Setter
+public class CvvRequest {
+
+    private String key;
+    private String keyRef;
+    private String pan;
+    private String expiryDate;
+    private String serviceCode;
+
+}
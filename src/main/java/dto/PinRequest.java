@@ -5,6 +5,7 @@ import lombok.Setter;
 
 /**
  * Defines the attributes for Pin generation request
+ * The PVK is either carried in key, or referenced through keyRef and resolved from a KeyRegistry.
  */
 
 @Getter
@@ -12,6 +13,7 @@ import lombok.Setter;
 public class PinRequest {
 
     private String key;
+    private String keyRef;
     private String pan;
     private String [] decimalisationTable = null;
     private String pinOffset;
@@ -5,6 +5,7 @@ import lombok.Setter;
 
 /**
  * Defines the attributes for Pin generation request
+ * The PVK is either carried in key, or referenced through keyRef and resolved, with the keyIndex, from a KeyRegistry.
  */
 
 @Getter
@@ -12,6 +13,7 @@ import lombok.Setter;
 public class PvvRequest {
 
     private String key;
+    private String keyRef;
     private String keyIndex;
     private String pan;
     private String pin;
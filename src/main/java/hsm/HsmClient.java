@@ -0,0 +1,211 @@
+package hsm;
+
+import util.CryptoBackend;
+import util.DataValidator;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CryptoBackend for a payShield style HSM, speaking the host command subset described in HsmProtocol over TCP.
+ * Keys are passed as hexadecimal characters, encrypted under the HSM master key.
+ * The client holds a pool of pipelined connections. Single commands are spread over the pool round robin, and batches
+ * are split across every connection and written without waiting for responses, so a batch costs about one round
+ * trip rather than one per block. Failed connections are replaced on next use. A command left without a response
+ * past the timeout is given up, freeing its place in the pipeline.
+ * HSM errors are surfaced as the JCE exceptions of the CryptoBackend methods: error 10 as InvalidKeyException and
+ * error 15 as IllegalBlockSizeException. Connection failures, timeouts and other HSM errors are thrown as
+ * UncheckedIOException.
+ */
+public class HsmClient implements CryptoBackend, AutoCloseable {
+
+    private final String host;
+    private final int port;
+    private final int maxPipelined;
+    private final long timeoutNanos;
+    private final HsmConnection [] connections;
+    private final AtomicInteger nextConnection = new AtomicInteger();
+
+    /**
+     * Connect to the HSM.
+     * @param host HSM host
+     * @param port HSM port
+     * @param poolSize Number of connections
+     * @param maxPipelined Maximum number of outstanding commands per connection
+     * @param timeout Maximum time to wait for a response
+     * @throws IOException When a connection cannot be made
+     */
+    public HsmClient(String host, int port, int poolSize, int maxPipelined, Duration timeout) throws IOException {
+
+        this.host = host;
+        this.port = port;
+        this.maxPipelined = maxPipelined;
+        this.timeoutNanos = timeout.toNanos();
+        this.connections = new HsmConnection[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            connections[i] = new HsmConnection(host, port, maxPipelined, timeoutNanos);
+        }
+
+    }
+
+    @Override
+    public byte [] encrypt(String key, byte [] data) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        return execute(HsmProtocol.ENCRYPT, key, data);
+    }
+
+    @Override
+    public byte [] decrypt(String key, byte [] data) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        return execute(HsmProtocol.DECRYPT, key, data);
+    }
+
+    /**
+     * Encrypt a batch of blocks with one command per block, pipelined over every connection of the pool.
+     */
+    @Override
+    public byte [][] encryptBatch(List<String> keys, List<byte[]> blocks) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+
+        if (keys.size() != blocks.size()) {
+            throw new IllegalArgumentException("Number of keys and blocks must match");
+        }
+        List<String> commands = new ArrayList<>(blocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            commands.add(command(HsmProtocol.ENCRYPT, keys.get(i), blocks.get(i)));
+        }
+
+        // Split into one contiguous slice per connection, no larger than a connection can have outstanding
+        List<CompletableFuture<String>> responses = new ArrayList<>(commands.size());
+        int sliceSize = Math.min(maxPipelined, Math.max(1, (commands.size() + connections.length - 1)
+                / connections.length));
+        for (int from = 0; from < commands.size(); from += sliceSize) {
+            List<String> slice = commands.subList(from, Math.min(from + sliceSize, commands.size()));
+            try {
+                responses.addAll(connection().send(slice));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        byte [][] encryptedBlocks = new byte[blocks.size()][];
+        for (int i = 0; i < encryptedBlocks.length; i++) {
+            encryptedBlocks[i] = parse(HsmProtocol.ENCRYPT, await(responses.get(i)));
+        }
+        return encryptedBlocks;
+
+    }
+
+    /**
+     * Close every connection of the pool, failing any outstanding commands.
+     */
+    @Override
+    public void close(){
+        for (HsmConnection connection : connections) {
+            connection.close();
+        }
+    }
+
+    private byte [] execute(String command, String key, byte [] data) throws InvalidKeyException,
+            IllegalBlockSizeException {
+
+        try {
+            return parse(command, await(connection().send(List.of(command(command, key, data))).get(0)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+    }
+
+    /**
+     * Build a command body, rejecting keys that cannot be carried in the key field before anything is sent.
+     */
+    private static String command(String command, String key, byte [] data) throws InvalidKeyException {
+
+        if (key == null || (key.length() != 16 && key.length() != 32) || !DataValidator.isHexadecimal(key)) {
+            throw new InvalidKeyException("TDEA key must be 16 or 32 hexadecimal characters");
+        }
+        return HsmProtocol.command(command, key, HexFormat.of().withUpperCase().formatHex(data));
+
+    }
+
+    /**
+     * Return the next connection round robin, replacing it first if it has failed.
+     */
+    private HsmConnection connection() throws IOException {
+
+        int index = Math.floorMod(nextConnection.getAndIncrement(), connections.length);
+        HsmConnection connection = connections[index];
+        if (!connection.isOpen()) {
+            synchronized (connections) {
+                connection = connections[index];
+                if (!connection.isOpen()) {
+                    connection = new HsmConnection(host, port, maxPipelined, timeoutNanos);
+                    connections[index] = connection;
+                }
+            }
+        }
+        return connection;
+
+    }
+
+    private String await(CompletableFuture<String> response){
+
+        try {
+            return response.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for HSM response"));
+        } catch (TimeoutException e) {
+            // Give the command up, so the connection forgets it and frees its pipeline slot
+            SocketTimeoutException timeout = new SocketTimeoutException("No HSM response within timeout");
+            response.completeExceptionally(timeout);
+            throw new UncheckedIOException(timeout);
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException(e.getCause() instanceof IOException cause ? cause
+                    : new IOException("HSM command failed", e.getCause()));
+        }
+
+    }
+
+    /**
+     * Check the response code and error code of a response, and return its data.
+     */
+    private static byte [] parse(String command, String response) throws InvalidKeyException,
+            IllegalBlockSizeException {
+
+        if (!response.startsWith(HsmProtocol.responseCode(command))) {
+            throw new UncheckedIOException(new IOException("Unexpected HSM response: " + response.substring(0,
+                    Math.min(2, response.length()))));
+        }
+        String errorCode = response.substring(2, 4);
+        switch (errorCode) {
+            case HsmProtocol.NO_ERROR:
+                return HexFormat.of().parseHex(response, 8, response.length());
+            case HsmProtocol.KEY_ERROR:
+                throw new InvalidKeyException("HSM error " + errorCode + ": key is not valid");
+            case HsmProtocol.DATA_ERROR:
+                throw new IllegalBlockSizeException("HSM error " + errorCode + ": invalid input data");
+            default:
+                throw new UncheckedIOException(new IOException("HSM error " + errorCode));
+        }
+
+    }
+
+}
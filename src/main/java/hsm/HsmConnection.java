@@ -0,0 +1,192 @@
+package hsm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pipelined connection to an HSM. Commands are written as soon as they are submitted, without waiting for earlier
+ * responses, and a reader thread completes each pending command when the response carrying its header arrives, in
+ * whatever order the HSM answers. The number of outstanding commands is bounded, and senders wait for a free slot, up
+ * to the response timeout. A command whose future is completed by any other means, such as a caller giving up on it
+ * after the timeout, is forgotten and frees its slot, and a response arriving for it later is discarded.
+ */
+final class HsmConnection implements AutoCloseable {
+
+    // 4 character base 36 headers give 1,679,616 distinct values before one is reused
+    private static final int HEADER_SPACE = 36 * 36 * 36 * 36;
+
+    private final Socket socket;
+    private final DataOutputStream output;
+    private final DataInputStream input;
+    private final Semaphore slots;
+    private final long timeoutNanos;
+    private final Map<String, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextHeader = new AtomicInteger();
+    private volatile IOException failure;
+
+    /**
+     * Connect, and start the response reader.
+     * @param host HSM host
+     * @param port HSM port
+     * @param maxPipelined Maximum number of outstanding commands
+     * @param timeoutNanos Maximum time to wait for a free slot
+     * @throws IOException When the connection cannot be made
+     */
+    HsmConnection(String host, int port, int maxPipelined, long timeoutNanos) throws IOException {
+
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.slots = new Semaphore(maxPipelined);
+        this.timeoutNanos = timeoutNanos;
+        Thread.ofVirtual().name("hsm-reader-" + port).start(this::readResponses);
+
+    }
+
+    /**
+     * Send a group of commands in a single write, and return a response future for each.
+     * @param commands Command bodies, without headers
+     * @return Futures completed with the response bodies, without headers, in the same order as the commands
+     * @throws IOException When the connection has failed, no slots are freed within the timeout, or the commands
+     * cannot be written
+     */
+    List<CompletableFuture<String>> send(List<String> commands) throws IOException {
+
+        List<CompletableFuture<String>> responses = new ArrayList<>(commands.size());
+        acquireSlots(commands.size());
+        synchronized (output) {
+            try {
+                checkOpen();
+                for (String command : commands) {
+                    String header = nextHeader();
+                    CompletableFuture<String> response = new CompletableFuture<>();
+                    pending.put(header, response);
+                    response.whenComplete((body, e) -> {
+                        pending.remove(header, response);
+                        slots.release();
+                    });
+                    responses.add(response);
+                    HsmProtocol.writeMessage(output, header + command);
+                }
+                output.flush();
+            } catch (IOException e) {
+                // Slots of commands that never got a future are not released by one completing
+                slots.release(commands.size() - responses.size());
+                fail(e);
+                throw e;
+            }
+        }
+        return responses;
+
+    }
+
+    /**
+     * Allocate the next header not held by an outstanding command. Headers wrap around after HEADER_SPACE commands,
+     * and a command outstanding since then must not have its header given to a new one. Called with the output lock
+     * held, and at most the number of outstanding commands is ever skipped.
+     */
+    private String nextHeader(){
+
+        while (true) {
+            String header = header(nextHeader.getAndUpdate(h -> (h + 1) % HEADER_SPACE));
+            if (!pending.containsKey(header)) {
+                return header;
+            }
+        }
+
+    }
+
+    private void acquireSlots(int count) throws IOException {
+
+        try {
+            if (!slots.tryAcquire(count, timeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new SocketTimeoutException("No free HSM pipeline slot within timeout");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for HSM pipeline slot");
+        }
+
+    }
+
+    boolean isOpen(){
+        return failure == null;
+    }
+
+    @Override
+    public void close(){
+        fail(new IOException("HSM connection closed"));
+    }
+
+    private void readResponses(){
+
+        try {
+            while (true) {
+                String message = HsmProtocol.readMessage(input);
+                CompletableFuture<String> response = pending.remove(
+                        message.substring(0, HsmProtocol.HEADER_LENGTH));
+                if (response != null) {
+                    response.complete(message.substring(HsmProtocol.HEADER_LENGTH));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e instanceof IOException ioException ? ioException : new IOException("Malformed HSM response", e));
+        }
+
+    }
+
+    /**
+     * Mark the connection failed, close it, and fail every outstanding command.
+     */
+    private void fail(IOException e){
+
+        if (failure == null) {
+            failure = e;
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Already failing, nothing more to do with the socket
+        }
+        for (String header : pending.keySet()) {
+            CompletableFuture<String> response = pending.remove(header);
+            if (response != null) {
+                response.completeExceptionally(failure);
+            }
+        }
+
+    }
+
+    private void checkOpen() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static String header(int value){
+
+        char [] header = new char[HsmProtocol.HEADER_LENGTH];
+        for (int i = header.length - 1; i >= 0; i--) {
+            header[i] = Character.toUpperCase(Character.forDigit(value % 36, 36));
+            value /= 36;
+        }
+        return new String(header);
+
+    }
+
+}
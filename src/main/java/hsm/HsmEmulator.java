@@ -0,0 +1,163 @@
+package hsm;
+
+import util.TDEAEngine;
+
+import javax.crypto.IllegalBlockSizeException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.time.Duration;
+import java.util.HexFormat;
+
+/**
+ * Local emulator of the HSM host command subset described in HsmProtocol, for testing HsmClient and the PIN engines
+ * offline. Its master key is the identity, so key fields are used as clear keys and the same hex keys work against
+ * the emulator and the software backend.
+ * Each command is processed on its own virtual thread after the configured latency, so responses on a connection come
+ * back in completion order rather than command order, as they can from a real HSM.
+ */
+public class HsmEmulator implements AutoCloseable {
+
+    private static final int DEFAULT_PORT = 1500;
+
+    private final ServerSocket serverSocket;
+    private final long latencyNanos;
+
+    /**
+     * Create the emulator, bound but not yet started.
+     * @param port Port to listen on, 0 for any free port
+     * @param latency Time taken to process each command
+     * @throws IOException When the port cannot be bound
+     */
+    public HsmEmulator(int port, Duration latency) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        this.latencyNanos = latency.toNanos();
+    }
+
+    public void start(){
+        Thread.ofPlatform().name("hsm-emulator-" + getPort()).start(this::accept);
+    }
+
+    /**
+     * @return Port the emulator is listening on
+     */
+    public int getPort(){
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept(){
+
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().start(() -> serve(socket));
+            } catch (IOException e) {
+                // Closed, or a failed accept, either way there is nobody to report it to
+            }
+        }
+
+    }
+
+    private void serve(Socket socket){
+
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                String message = HsmProtocol.readMessage(input);
+                Thread.ofVirtual().start(() -> respond(output, message));
+            }
+        } catch (IOException e) {
+            // Client disconnected
+        }
+
+    }
+
+    private void respond(DataOutputStream output, String message){
+
+        if (latencyNanos > 0) {
+            try {
+                Thread.sleep(Duration.ofNanos(latencyNanos));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        String response = message.substring(0, HsmProtocol.HEADER_LENGTH) + process(message);
+        synchronized (output) {
+            try {
+                HsmProtocol.writeMessage(output, response);
+                output.flush();
+            } catch (IOException e) {
+                // Client disconnected, the reader will see it too
+            }
+        }
+
+    }
+
+    /**
+     * Process a command, returning the response body without its header.
+     */
+    static String process(String message){
+
+        String command = message.substring(HsmProtocol.HEADER_LENGTH, HsmProtocol.HEADER_LENGTH + 2);
+        String responseCode = HsmProtocol.responseCode(command);
+        if (!HsmProtocol.ENCRYPT.equals(command) && !HsmProtocol.DECRYPT.equals(command)) {
+            return responseCode + HsmProtocol.COMMAND_ERROR;
+        }
+        try {
+            int position = HsmProtocol.HEADER_LENGTH + 2;
+            int keyLength = message.charAt(position) == 'U' ? 32 : 16;
+            if (keyLength == 32) {
+                position++;
+            }
+            String key = message.substring(position, position + keyLength);
+            position += keyLength;
+            int dataLength = Integer.parseInt(message.substring(position, position + 4), 16);
+            position += 4;
+            if (message.length() != position + dataLength * 2) {
+                return responseCode + HsmProtocol.DATA_ERROR;
+            }
+            byte [] data = HexFormat.of().parseHex(message, position, message.length());
+            byte [] result = HsmProtocol.ENCRYPT.equals(command) ? TDEAEngine.getInstance().encrypt(key, data)
+                    : TDEAEngine.getInstance().decrypt(key, data);
+            return responseCode + HsmProtocol.NO_ERROR + String.format("%04X", result.length)
+                    + HexFormat.of().withUpperCase().formatHex(result);
+        } catch (InvalidKeyException e) {
+            return responseCode + HsmProtocol.KEY_ERROR;
+        } catch (IllegalBlockSizeException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            return responseCode + HsmProtocol.DATA_ERROR;
+        } catch (GeneralSecurityException e) {
+            return responseCode + HsmProtocol.COMMAND_ERROR;
+        }
+
+    }
+
+    /**
+     * Start the emulator from the command line.
+     * Arguments (all optional): port, latency per command in milliseconds.
+     */
+    public static void main(String [] args) throws IOException {
+
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        Duration latency = Duration.ofMillis(args.length > 1 ? Long.parseLong(args[1]) : 0);
+        HsmEmulator hsmEmulator = new HsmEmulator(port, latency);
+        hsmEmulator.start();
+        System.out.println("INFO: HSME01: HSM emulator listening on port " + hsmEmulator.getPort()
+                + ", latency " + latency.toMillis() + "ms.");
+
+    }
+
+}
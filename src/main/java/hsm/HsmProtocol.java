@@ -0,0 +1,73 @@
+package hsm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Framing and field layout of the payShield style host command subset spoken by HsmClient and HsmEmulator.
+ * Every message is ASCII, preceded by its length as a 2 byte big endian binary prefix, and starts with a 4 character
+ * header that the HSM echoes back, which is what lets many commands be outstanding on one connection.
+ * Commands:
+ * - M0 Encrypt data block, answered with M1
+ * - M2 Decrypt data block, answered with M3
+ * Command layout:  header(4) command(2) key data-length(4 hex) data(hex)
+ * Response layout: header(4) response(2) error(2) [data-length(4 hex) data(hex)], data only for error 00
+ * Keys are 16 hex characters for single length keys, or U followed by 32 hex characters for double length keys.
+ * Error codes:
+ * - 00: No error
+ * - 10: Key is not valid
+ * - 15: Invalid input data, such as data that is not a multiple of 8 bytes
+ * - 68: Command is not supported
+ */
+final class HsmProtocol {
+
+    static final String ENCRYPT = "M0";
+    static final String DECRYPT = "M2";
+    static final String NO_ERROR = "00";
+    static final String KEY_ERROR = "10";
+    static final String DATA_ERROR = "15";
+    static final String COMMAND_ERROR = "68";
+    static final int HEADER_LENGTH = 4;
+    static final int MAX_MESSAGE_LENGTH = 0xFFFF;
+
+    private HsmProtocol(){
+    }
+
+    /**
+     * Build the body of an encrypt or decrypt command, without its header.
+     */
+    static String command(String command, String key, String data){
+        String keyField = key.length() == 32 ? "U" + key : key;
+        return command + keyField + String.format("%04X", data.length() / 2) + data;
+    }
+
+    /**
+     * @return Response code answering a command code, such as M1 for M0
+     */
+    static String responseCode(String command){
+        return command.charAt(0) + Character.toString(command.charAt(1) + 1);
+    }
+
+    static String readMessage(DataInputStream input) throws IOException {
+        byte [] message = new byte[input.readUnsignedShort()];
+        input.readFully(message);
+        return new String(message, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Write a framed message. The caller flushes the stream, so several messages can go out in one write.
+     */
+    static void writeMessage(DataOutputStream output, String message) throws IOException {
+
+        byte [] bytes = message.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length > MAX_MESSAGE_LENGTH) {
+            throw new IOException("Message too long for frame: " + bytes.length);
+        }
+        output.writeShort(bytes.length);
+        output.write(bytes);
+
+    }
+
+}
@@ -0,0 +1,20 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event covering the decimalisation stage, turning encrypted data into PIN or PVV digits
+ */
+@Name("org.bc.pin.Decimalisation")
+@Label("Decimalisation")
+@Category({"PIN Generation"})
+@Description("Decimalisation of encrypted data into PIN or PVV digits")
+public class DecimalisationEvent extends jdk.jfr.Event {
+
+    @Label("Digits")
+    public int digits;
+
+}
@@ -0,0 +1,23 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event covering the TDEA encryption or decryption stage
+ */
+@Name("org.bc.pin.Encryption")
+@Label("TDEA Encryption")
+@Category({"PIN Generation"})
+@Description("TDEA encryption or decryption of one or more blocks under a single key")
+public class EncryptionEvent extends jdk.jfr.Event {
+
+    @Label("Decrypt")
+    public boolean decrypt;
+
+    @Label("Blocks")
+    public int blocks;
+
+}
@@ -0,0 +1,132 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Lock free, fixed size latency histogram with log-linear buckets.
+ * Every power of two range is split into 16 linear sub-buckets, so recorded values are reported within 1/16 (about
+ * 6%) of their true value, across the full range of long values, in under 8KB per histogram. Recording is a bucket
+ * index computation and one atomic increment.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Record a value.
+     * @param value Value to be recorded, usually a latency in nanoseconds. Negative values are recorded as 0
+     */
+    public void record(long value){
+        long recorded = Math.max(value, 0);
+        counts.getAndIncrement(bucket(recorded));
+        max.accumulate(recorded);
+    }
+
+    /**
+     * Record the same value several times, as one atomic add.
+     * @param value Value to be recorded. Negative values are recorded as 0
+     * @param count Number of times the value is recorded
+     */
+    public void record(long value, long count){
+        long recorded = Math.max(value, 0);
+        counts.getAndAdd(bucket(recorded), count);
+        max.accumulate(recorded);
+    }
+
+    /**
+     * @return Number of values recorded
+     */
+    public long getCount(){
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return Largest value recorded
+     */
+    public long getMax(){
+        return max.get();
+    }
+
+    /**
+     * Return the value at a percentile. The value returned is the upper bound of the bucket holding the percentile,
+     * capped at the largest value recorded.
+     * @param percentile Percentile, 0 through 100
+     * @return Value at the percentile, 0 if no values were recorded
+     */
+    public long getValueAtPercentile(double percentile){
+
+        long [] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+
+    }
+
+    /**
+     * Add the counts of another histogram to this one.
+     * @param other Histogram to be added
+     */
+    public void add(LatencyHistogram other){
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.getAndAdd(i, count);
+            }
+        }
+        max.accumulate(other.getMax());
+    }
+
+    /**
+     * Clear all recorded values.
+     */
+    public void reset(){
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        max.reset();
+    }
+
+    private static int bucket(long value){
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int bucket){
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lowerBound = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+}
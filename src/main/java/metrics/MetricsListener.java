@@ -0,0 +1,35 @@
+package metrics;
+
+/**
+ * Receives measurements as they are recorded by PinMetrics, to forward them to an external metrics system.
+ * Listeners are called on the thread doing the work, so they must be thread-safe and cheap.
+ */
+public interface MetricsListener {
+
+    /**
+     * @param operation Operation measured
+     * @param nanos Elapsed time, in nanoseconds. For batch calls, the time of the whole batch
+     * @param items Number of requests or blocks processed
+     */
+    default void onOperation(PinOperation operation, long nanos, int items){
+    }
+
+    /**
+     * @param code Error code raised, such as a validation code
+     */
+    default void onError(String code){
+    }
+
+    /**
+     * @param hit True if key material was found in cache, false if it had to be prepared
+     */
+    default void onKeyCache(boolean hit){
+    }
+
+    /**
+     * @param coalesced True if a call shared the result of an identical call in flight, false if it computed it
+     */
+    default void onCoalesced(boolean coalesced){
+    }
+
+}
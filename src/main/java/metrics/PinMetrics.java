@@ -0,0 +1,283 @@
+package metrics;
+
+import util.ValidationCode;
+import util.ValidationResult;
+
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Process wide metrics for PIN operations:
+ * - A latency histogram and an item counter per operation. Latencies are per item, so batch calls, recorded as
+ *   their duration spread evenly over their items, are comparable with single calls
+ * - An error counter per error code
+ * - Key material cache hits and misses
+ * - Coalesced calls, that shared the result of an identical call in flight, and the lead calls that computed it
+ * Measurements are also passed on to any registered MetricsListener, and can be read over JMX once registerMBean has
+ * been called. Recording can be switched off with setEnabled, in which case the instrumented code only reads a flag.
+ */
+public class PinMetrics implements PinMetricsMXBean {
+
+    private static final String OBJECT_NAME = "org.bc.pin:type=PinMetrics";
+    private static final PinMetrics INSTANCE = new PinMetrics();
+
+    private final Map<PinOperation, LatencyHistogram> latencies = new EnumMap<>(PinOperation.class);
+    private final Map<PinOperation, LongAdder> items = new EnumMap<>(PinOperation.class);
+    private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final LongAdder keyCacheHits = new LongAdder();
+    private final LongAdder keyCacheMisses = new LongAdder();
+    private final LongAdder coalescedCalls = new LongAdder();
+    private final LongAdder leadCalls = new LongAdder();
+    private final CopyOnWriteArrayList<MetricsListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean enabled = true;
+
+    private PinMetrics(){
+        for (PinOperation operation : PinOperation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            items.put(operation, new LongAdder());
+        }
+    }
+
+    /**
+     * @return Process wide metrics instance
+     */
+    public static PinMetrics getInstance(){
+        return INSTANCE;
+    }
+
+    /**
+     * @return True if measurements are being recorded
+     */
+    public static boolean isEnabled(){
+        return INSTANCE.enabled;
+    }
+
+    /**
+     * Create and begin a JFR event of a PIN stage, once the flight recorder is initialised, by
+     * -XX:StartFlightRecording or by a recording started later. Loading the first event class sets up JFR event
+     * instrumentation, which would otherwise add a few hundred milliseconds to the startup of every process, so the
+     * factory should be a lambda, which does not load the event class until it is called.
+     * @param factory Creates the event
+     * @return Begun event, for the caller to fill in and commit, or null if the flight recorder is not initialised
+     */
+    public static <E extends Event> E beginEvent(Supplier<E> factory){
+
+        if (!FlightRecorder.isInitialized()) {
+            return null;
+        }
+        E event = factory.get();
+        event.begin();
+        return event;
+
+    }
+
+    /**
+     * Switch recording on or off.
+     */
+    public void setEnabled(boolean enabled){
+        this.enabled = enabled;
+    }
+
+    public void addListener(MetricsListener listener){
+        listeners.add(listener);
+    }
+
+    public void removeListener(MetricsListener listener){
+        listeners.remove(listener);
+    }
+
+    /**
+     * Register the metrics with the platform MBean server. Calling this more than once has no effect.
+     * @throws JMException When the MBean cannot be registered
+     */
+    public void registerMBean() throws JMException {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // Already registered
+        }
+    }
+
+    /**
+     * Record a completed operation. The latency histogram of the operation receives one value per item, the duration
+     * of the call divided by the number of items, while listeners receive the duration of the whole call.
+     * @param operation Operation measured
+     * @param startNanos System.nanoTime() taken when the operation started
+     * @param itemCount Number of requests or blocks processed
+     */
+    public static void recordOperation(PinOperation operation, long startNanos, int itemCount){
+
+        PinMetrics metrics = INSTANCE;
+        if (!metrics.enabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        if (itemCount > 0) {
+            metrics.latencies.get(operation).record(nanos / itemCount, itemCount);
+        }
+        metrics.items.get(operation).add(itemCount);
+        for (MetricsListener listener : metrics.listeners) {
+            listener.onOperation(operation, nanos, itemCount);
+        }
+
+    }
+
+    /**
+     * Record an error code.
+     * @param code Error code
+     */
+    public static void recordError(String code){
+
+        PinMetrics metrics = INSTANCE;
+        if (!metrics.enabled) {
+            return;
+        }
+        metrics.errors.computeIfAbsent(code, c -> new LongAdder()).increment();
+        for (MetricsListener listener : metrics.listeners) {
+            listener.onError(code);
+        }
+
+    }
+
+    /**
+     * Record the ERRR codes raised by a failed validation.
+     * @param validationResult Validation result
+     */
+    public static void recordErrors(ValidationResult validationResult){
+        if (INSTANCE.enabled) {
+            for (ValidationCode code : validationResult.getCodes()) {
+                if (code.getSeverity() == ValidationCode.Severity.ERRR) {
+                    recordError(code.name());
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a key material cache lookup.
+     * @param hit True if the key material was found in cache
+     */
+    public static void recordKeyCache(boolean hit){
+
+        PinMetrics metrics = INSTANCE;
+        if (!metrics.enabled) {
+            return;
+        }
+        (hit ? metrics.keyCacheHits : metrics.keyCacheMisses).increment();
+        for (MetricsListener listener : metrics.listeners) {
+            listener.onKeyCache(hit);
+        }
+
+    }
+
+    /**
+     * Record a call passing through request coalescing.
+     * @param coalesced True if the call shared the result of an identical call in flight, false if it computed it
+     */
+    public static void recordCoalesced(boolean coalesced){
+
+        PinMetrics metrics = INSTANCE;
+        if (!metrics.enabled) {
+            return;
+        }
+        (coalesced ? metrics.coalescedCalls : metrics.leadCalls).increment();
+        for (MetricsListener listener : metrics.listeners) {
+            listener.onCoalesced(coalesced);
+        }
+
+    }
+
+    /**
+     * @param operation Operation
+     * @return Latency histogram of the operation, in nanoseconds
+     */
+    public LatencyHistogram getLatency(PinOperation operation){
+        return latencies.get(operation);
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts(){
+        return perOperation(operation -> items.get(operation).sum());
+    }
+
+    @Override
+    public Map<String, Long> getMedianLatencyNanos(){
+        return perOperation(operation -> latencies.get(operation).getValueAtPercentile(50));
+    }
+
+    @Override
+    public Map<String, Long> getP99LatencyNanos(){
+        return perOperation(operation -> latencies.get(operation).getValueAtPercentile(99));
+    }
+
+    @Override
+    public Map<String, Long> getMaxLatencyNanos(){
+        return perOperation(operation -> latencies.get(operation).getMax());
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts(){
+        Map<String, Long> counts = new TreeMap<>();
+        errors.forEach((code, count) -> counts.put(code, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public long getKeyCacheHits(){
+        return keyCacheHits.sum();
+    }
+
+    @Override
+    public long getKeyCacheMisses(){
+        return keyCacheMisses.sum();
+    }
+
+    @Override
+    public double getKeyCacheHitRatio(){
+        long hits = keyCacheHits.sum();
+        long lookups = hits + keyCacheMisses.sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getCoalescedCalls(){
+        return coalescedCalls.sum();
+    }
+
+    @Override
+    public long getLeadCalls(){
+        return leadCalls.sum();
+    }
+
+    @Override
+    public void reset(){
+        latencies.values().forEach(LatencyHistogram::reset);
+        items.values().forEach(LongAdder::reset);
+        errors.clear();
+        keyCacheHits.reset();
+        keyCacheMisses.reset();
+        coalescedCalls.reset();
+        leadCalls.reset();
+    }
+
+    private static Map<String, Long> perOperation(ToLongFunction<PinOperation> value){
+        Map<String, Long> values = new TreeMap<>();
+        for (PinOperation operation : PinOperation.values()) {
+            values.put(operation.name(), value.applyAsLong(operation));
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,32 @@
+package metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of PinMetrics, registered as org.bc.pin:type=PinMetrics
+ */
+public interface PinMetricsMXBean {
+
+    Map<String, Long> getOperationCounts();
+
+    Map<String, Long> getMedianLatencyNanos();
+
+    Map<String, Long> getP99LatencyNanos();
+
+    Map<String, Long> getMaxLatencyNanos();
+
+    Map<String, Long> getErrorCounts();
+
+    long getKeyCacheHits();
+
+    long getKeyCacheMisses();
+
+    double getKeyCacheHitRatio();
+
+    long getCoalescedCalls();
+
+    long getLeadCalls();
+
+    void reset();
+
+}
@@ -0,0 +1,17 @@
+package metrics;
+
+/**
+ * Defines the operations measured by PinMetrics
+ */
+public enum PinOperation {
+
+    IBM3624_GENERATE,
+    IBM3624_VERIFY,
+    PVV_CALCULATE,
+    PVV_VERIFY,
+    CVV_CALCULATE,
+    CVV_VERIFY,
+    TDEA_ENCRYPT,
+    TDEA_DECRYPT
+
+}
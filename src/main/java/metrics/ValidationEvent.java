@@ -0,0 +1,20 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event covering the validation stage of a PIN request
+ */
+@Name("org.bc.pin.Validation")
+@Label("PIN Request Validation")
+@Category({"PIN Generation"})
+@Description("Validation of a PIN request")
+public class ValidationEvent extends jdk.jfr.Event {
+
+    @Label("Valid")
+    public boolean valid;
+
+}
@@ -0,0 +1,203 @@
+package org.bc;
+
+import dto.PinRequest;
+import dto.PinResponse;
+import dto.PvvRequest;
+import util.DataValidator;
+import util.IBM3624Pin;
+import util.ValidationCode;
+import util.ValidationResult;
+import util.VisaPvv;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Line protocol command line interface, for scripted and piped use.
+ * Requests are read as comma delimited lines from a file, or from stdin, and one result line is written to stdout for
+ * each request, in input order:
+ * - GENERATE,PAN,KEY,PINLENGTH[,OFFSET]   -> PIN,OFFSET   IBM 3624 PIN, the natural PIN when OFFSET is empty
+ * - OFFSET,CUSTOMERPIN,NATURALPIN         -> OFFSET       IBM 3624 offset of a customer selected PIN
+ * - NATURAL,CUSTOMERPIN,OFFSET            -> NATURALPIN   IBM 3624 natural PIN of a customer PIN and its offset
+ * - PVV,PAN,KEY,PVKI,PIN                  -> PVV          Visa PVV
+ * Empty lines and lines starting with # are skipped. Failed requests are answered with ERRR,codes, carrying either
+ * the validation codes raised or one of:
+ * - CLIF01: Request does not have the expected operation or fields
+ * - CLIC01: Cryptographic processing failed
+ * - CLIE01: Processing failed with an unexpected error, such as a lost HSM connection. The error is reported on stderr
+ * and the following requests are still processed
+ * Input is read and output written through fixed size buffers, so memory use does not grow with the input. Output is
+ * flushed whenever no more input is ready, so a process feeding requests one at a time gets each answer straight
+ * away, while piped files are written a buffer at a time.
+ * Startup is kept short for one-off invocations: the crypto engines, and with them the JCE provider, are only set up
+ * when the first request needing them is read, so OFFSET and NATURAL never touch the JCE. The appcds Maven profile
+ * builds a class data sharing archive of the classes a typical run loads; see the pom for how to use it.
+ */
+public class PinCli {
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final Pattern DELIMITER = Pattern.compile(",");
+
+    private IBM3624Pin ibm3624Pin;
+    private VisaPvv visaPvv;
+    private long failures;
+
+    /**
+     * Process every request line of the input, writing one result line per request.
+     * @param input Request lines
+     * @param output Result lines
+     * @return Number of failed requests
+     * @throws IOException When the input cannot be read or the output cannot be written
+     */
+    public long process(BufferedReader input, Writer output) throws IOException {
+
+        failures = 0;
+        String line;
+        while ((line = input.readLine()) != null) {
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            output.write(process(line));
+            output.write('\n');
+            if (!input.ready()) {
+                output.flush();
+            }
+        }
+        output.flush();
+        return failures;
+
+    }
+
+    /**
+     * Process a single request line.
+     * @param line Request line
+     * @return Result line, without its line separator
+     */
+    public String process(String line){
+
+        String [] fields = DELIMITER.split(line, -1);
+        try {
+            return switch (fields[0]) {
+                case "GENERATE" -> fields.length == 4 || fields.length == 5 ? generate(fields) : error("CLIF01");
+                case "OFFSET" -> fields.length == 3 ? deriveOffset(fields) : error("CLIF01");
+                case "NATURAL" -> fields.length == 3 ? deriveNaturalPin(fields) : error("CLIF01");
+                case "PVV" -> fields.length == 5 ? calculatePvv(fields) : error("CLIF01");
+                default -> error("CLIF01");
+            };
+        } catch (GeneralSecurityException e) {
+            return error("CLIC01");
+        } catch (RuntimeException e) {
+            System.err.println("ERRR: CLIE01: " + fields[0] + " request failed: " + e);
+            return error("CLIE01");
+        }
+
+    }
+
+    private String generate(String [] fields) throws GeneralSecurityException {
+
+        boolean naturalPin = fields.length == 4 || fields[4].isEmpty();
+        PinRequest pinRequest = new PinRequest();
+        pinRequest.setPan(fields[1]);
+        pinRequest.setKey(fields[2]);
+        pinRequest.setPinLength(fields[3]);
+        pinRequest.setNaturalPin(naturalPin);
+        pinRequest.setPinOffset(naturalPin ? "0" : fields[4]);
+        ValidationResult validationResult = DataValidator.validate(pinRequest);
+        if (!validationResult.isValid()) {
+            return error(validationResult);
+        }
+        PinResponse pinResponse = ibm3624Pin().generateIBM3624Pin(pinRequest);
+        return pinResponse.getPin() + "," + pinResponse.getPinOffset();
+
+    }
+
+    private String deriveOffset(String [] fields){
+
+        ValidationResult validationResult = DataValidator.validatePinPair(fields[1], fields[2], ValidationCode.NCPI01);
+        return validationResult.isValid() ? ibm3624Pin().deriveOffset(fields[1], fields[2]) : error(validationResult);
+
+    }
+
+    private String deriveNaturalPin(String [] fields){
+
+        ValidationResult validationResult = DataValidator.validatePinPair(fields[1], fields[2], ValidationCode.OFFC01);
+        return validationResult.isValid() ? ibm3624Pin().deriveNaturalPin(fields[1], fields[2])
+                : error(validationResult);
+
+    }
+
+    private String calculatePvv(String [] fields) throws GeneralSecurityException {
+
+        PvvRequest pvvRequest = new PvvRequest();
+        pvvRequest.setPan(fields[1]);
+        pvvRequest.setKey(fields[2]);
+        pvvRequest.setKeyIndex(fields[3]);
+        pvvRequest.setPin(fields[4]);
+        ValidationResult validationResult = DataValidator.validate(pvvRequest);
+        if (!validationResult.isValid()) {
+            return error(validationResult);
+        }
+        if (visaPvv == null) {
+            visaPvv = new VisaPvv();
+        }
+        return visaPvv.calculateVisaPvv(pvvRequest);
+
+    }
+
+    private IBM3624Pin ibm3624Pin(){
+
+        if (ibm3624Pin == null) {
+            ibm3624Pin = new IBM3624Pin();
+        }
+        return ibm3624Pin;
+
+    }
+
+    private String error(ValidationResult validationResult){
+        return error(validationResult.getCodes().stream()
+                .filter(code -> code.getSeverity() == ValidationCode.Severity.ERRR)
+                .map(Enum::name).collect(Collectors.joining(" ")));
+    }
+
+    private String error(String codes){
+        failures++;
+        return "ERRR," + codes;
+    }
+
+    /**
+     * Run the command line interface.
+     * Arguments (optional): request file, read from stdin when absent or "-". Exits with status 1 when any request
+     * failed, and 2 on a usage error.
+     */
+    public static void main(String [] args) throws IOException {
+
+        if (args.length > 1) {
+            System.err.println("Usage: PinCli [request file|-]");
+            System.exit(2);
+        }
+        BufferedReader input = args.length == 0 || "-".equals(args[0])
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII))
+                : Files.newBufferedReader(Path.of(args[0]), StandardCharsets.US_ASCII);
+        Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII),
+                OUTPUT_BUFFER_SIZE);
+        long failures;
+        try (input) {
+            failures = new PinCli().process(input, output);
+        }
+        if (failures > 0) {
+            System.exit(1);
+        }
+
+    }
+
+}
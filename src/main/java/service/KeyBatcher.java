@@ -0,0 +1,150 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Batches concurrent requests sharing a key into calls of a batch function.
+ * Requests are queued per key, and submitters take turns at draining the queue: the first caller to find no batch
+ * running for its key runs the next batch on its own thread, completing the other callers' results along with its own.
+ * No timer is involved: a lone request runs immediately, and batches grow by themselves while a previous batch for the
+ * key is running. A drainer stops once its own request is done and hands draining over to the oldest submitter still
+ * waiting, so under steady load no caller keeps serving others' requests, and each waits at most for the batches
+ * queued ahead of its own.
+ * When a batch fails, its requests are run again one by one, so a request that cannot be processed fails alone and
+ * not the requests it was batched with. The queue of a key is dropped once it is drained, so keys that are no longer
+ * used do not accumulate.
+ * @param <Q> Request type
+ * @param <R> Result type
+ */
+public class KeyBatcher<Q, R> {
+
+    /**
+     * Processes a batch of requests sharing a key, returning one result per request, in request order.
+     */
+    public interface BatchFunction<Q, R> {
+        List<R> apply(List<Q> requests) throws Exception;
+    }
+
+    private final BatchFunction<Q, R> batchFunction;
+    private final int maxBatchSize;
+    private final ConcurrentHashMap<String, KeyQueue<Q, R>> queues = new ConcurrentHashMap<>();
+
+    /**
+     * @param batchFunction Function processing a batch of requests
+     * @param maxBatchSize Maximum number of requests passed to a single call of the batch function
+     */
+    public KeyBatcher(BatchFunction<Q, R> batchFunction, int maxBatchSize){
+        this.batchFunction = batchFunction;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Submit a request and wait until it is processed, either in a batch run by another submitter or in a batch the
+     * calling thread runs when it is its turn to drain the key.
+     * @param key Key the request is batched on
+     * @param request Request
+     * @return Result of the request, completed, exceptionally if the request failed on its own
+     */
+    public CompletableFuture<R> submit(String key, Q request){
+
+        KeyQueue<Q, R> keyQueue = queues.computeIfAbsent(key, k -> new KeyQueue<>());
+        Pending<Q, R> pending = new Pending<>(request, Thread.currentThread());
+        keyQueue.pending.add(pending);
+        while (!pending.result.isDone()) {
+            if (keyQueue.draining.compareAndSet(false, true)) {
+                try {
+                    runNextBatch(keyQueue);
+                } finally {
+                    keyQueue.draining.set(false);
+                }
+            } else {
+                // Woken when the request is completed, or when draining is handed over to it
+                LockSupport.park(this);
+            }
+        }
+        // Hand draining over to the oldest waiting submitter. One queued after the peek finds draining free itself
+        Pending<Q, R> next = keyQueue.pending.peek();
+        if (next != null) {
+            LockSupport.unpark(next.thread);
+        } else {
+            // A request queued after this point is drained by its own submitter, removed queue or not
+            queues.remove(key, keyQueue);
+        }
+        return pending.result;
+
+    }
+
+    /**
+     * @return Number of requests queued for the key and not yet taken into a batch
+     */
+    int pendingCount(String key){
+
+        KeyQueue<Q, R> keyQueue = queues.get(key);
+        return keyQueue == null ? 0 : keyQueue.pending.size();
+
+    }
+
+    private void runNextBatch(KeyQueue<Q, R> keyQueue){
+
+        List<Pending<Q, R>> batch = new ArrayList<>(maxBatchSize);
+        Pending<Q, R> pending;
+        while (batch.size() < maxBatchSize && (pending = keyQueue.pending.poll()) != null) {
+            batch.add(pending);
+        }
+        if (!batch.isEmpty()) {
+            run(batch);
+        }
+
+    }
+
+    private void run(List<Pending<Q, R>> batch){
+
+        List<Q> requests = new ArrayList<>(batch.size());
+        for (Pending<Q, R> pending : batch) {
+            requests.add(pending.request);
+        }
+        try {
+            List<R> results = batchFunction.apply(requests);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(results.get(i));
+                LockSupport.unpark(batch.get(i).thread);
+            }
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                batch.get(0).result.completeExceptionally(e);
+                LockSupport.unpark(batch.get(0).thread);
+                return;
+            }
+            for (Pending<Q, R> pending : batch) {
+                run(List.of(pending));
+            }
+        }
+
+    }
+
+    private static class KeyQueue<Q, R> {
+        private final Queue<Pending<Q, R>> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+    }
+
+    private static class Pending<Q, R> {
+
+        private final Q request;
+        private final Thread thread;
+        private final CompletableFuture<R> result = new CompletableFuture<>();
+
+        Pending(Q request, Thread thread){
+            this.request = request;
+            this.thread = thread;
+        }
+
+    }
+
+}
@@ -0,0 +1,373 @@
+package service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dto.PinRequest;
+import dto.PinResponse;
+import dto.PvvRequest;
+import metrics.PinMetrics;
+import util.DataValidator;
+import util.IBM3624Pin;
+import util.KeyId;
+import util.KeyRegistry;
+import util.ValidationCode;
+import util.ValidationResult;
+import util.VisaPvv;
+
+import javax.management.JMException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.InvalidKeyException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Lightweight HTTP PIN service on the JDK built in HTTP server, handling each exchange on its own virtual thread.
+ * Requests are POSTed as application/x-www-form-urlencoded bodies, and responses are returned in the same format.
+ * - POST /ibm3624/generate   key, pan, pinOffset, pinLength, naturalPin        -> pin, pinLength, pinOffset
+ * - POST /ibm3624/verify     key, pan, pinOffset, pinLength, naturalPin, pin   -> match
+ * - POST /pvv/calculate      key, keyIndex, pan, pin                           -> pvv
+ * - POST /pvv/verify         key, keyIndex, pan, pin, pvv                      -> match
+ * Each request carries its PVK in key or, when the service has a KeyRegistry, a reference to it in keyRef.
+ * Failed requests are answered with an error field, carrying either the validation codes raised or one of:
+ * - SRVB01: Service is at its in-flight limit, returned with status 503 without queueing the request
+ * - SRVR01: Request is malformed
+ * - SRVC01: Cryptographic processing failed
+ * - SRVK01: Key reference is not defined, or the service has no key registry
+ * Concurrent requests for the same operation and PVK are batched, so they are encrypted in a single cipher pass.
+ * Batches are formed on the key reference or on a KeyId digest of the PVK, so clear PVKs are not held by the batchers,
+ * and a request failing in a batch fails alone.
+ * When started from main, PinMetrics is registered with JMX, and rejections are counted there by error code.
+ */
+public class PinService {
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 10_000;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    private static final Duration KEY_FILE_POLL_INTERVAL = Duration.ofSeconds(5);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final KeyRegistry keyRegistry;
+    private final KeyBatcher<PinRequest, PinResponse> generateBatcher;
+    private final KeyBatcher<PinVerification, Boolean> verifyBatcher;
+    private final KeyBatcher<PvvRequest, String> pvvBatcher;
+    private final KeyBatcher<PvvVerification, Boolean> pvvVerifyBatcher;
+
+    private record PinVerification(PinRequest pinRequest, String pin) { }
+
+    private record PvvVerification(PvvRequest pvvRequest, String pvv) { }
+
+    /**
+     * Thrown by handlers for requests that are rejected without processing.
+     */
+    private static class RejectedRequestException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        RejectedRequestException(String errorCode){
+            super(errorCode);
+        }
+
+    }
+
+    /**
+     * Create the service, bound but not yet started.
+     * @param port Port to listen on, 0 for any free port
+     * @param maxInFlight Maximum number of requests processed at a time, further requests are rejected
+     * @param maxBatchSize Maximum number of requests batched into a single cipher pass
+     * @throws IOException When the port cannot be bound
+     */
+    public PinService(int port, int maxInFlight, int maxBatchSize) throws IOException {
+        this(port, maxInFlight, maxBatchSize, null);
+    }
+
+    /**
+     * Create the service, bound but not yet started, resolving key references through a key registry.
+     * @param port Port to listen on, 0 for any free port
+     * @param maxInFlight Maximum number of requests processed at a time, further requests are rejected
+     * @param maxBatchSize Maximum number of requests batched into a single cipher pass
+     * @param keyRegistry Key registry, or null to only accept requests carrying their key
+     * @throws IOException When the port cannot be bound
+     */
+    public PinService(int port, int maxInFlight, int maxBatchSize, KeyRegistry keyRegistry) throws IOException {
+
+        IBM3624Pin ibm3624Pin = new IBM3624Pin(null, keyRegistry);
+        VisaPvv visaPvv = new VisaPvv(keyRegistry);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.keyRegistry = keyRegistry;
+        this.generateBatcher = new KeyBatcher<>(ibm3624Pin::generateIBM3624Pin, maxBatchSize);
+        this.verifyBatcher = new KeyBatcher<>(requests -> ibm3624Pin.verifyIBM3624Pin(
+                requests.stream().map(PinVerification::pinRequest).toList(),
+                requests.stream().map(PinVerification::pin).toList()), maxBatchSize);
+        this.pvvBatcher = new KeyBatcher<>(visaPvv::calculateVisaPvv, maxBatchSize);
+        this.pvvVerifyBatcher = new KeyBatcher<>(requests -> visaPvv.verifyVisaPvv(
+                requests.stream().map(PvvVerification::pvvRequest).toList(),
+                requests.stream().map(PvvVerification::pvv).toList()), maxBatchSize);
+
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/ibm3624/generate", exchange -> handle(exchange, this::generate));
+        this.server.createContext("/ibm3624/verify", exchange -> handle(exchange, this::verify));
+        this.server.createContext("/pvv/calculate", exchange -> handle(exchange, this::calculatePvv));
+        this.server.createContext("/pvv/verify", exchange -> handle(exchange, this::verifyPvv));
+
+    }
+
+    public void start(){
+        server.start();
+    }
+
+    /**
+     * Stop accepting requests, and wait up to the delay for in-flight requests to complete.
+     * @param delaySeconds Maximum time to wait, in seconds
+     */
+    public void stop(int delaySeconds){
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * @return Port the service is listening on
+     */
+    public int getPort(){
+        return server.getAddress().getPort();
+    }
+
+    private interface Operation {
+        Map<String, String> apply(Map<String, String> fields) throws Exception;
+    }
+
+    /**
+     * Run an operation for an exchange, rejecting it straight away when the in-flight limit is reached.
+     */
+    private void handle(HttpExchange exchange, Operation operation) throws IOException {
+
+        try (exchange) {
+            if (!inFlight.tryAcquire()) {
+                PinMetrics.recordError("SRVB01");
+                respond(exchange, 503, Map.of("error", "SRVB01"));
+                return;
+            }
+            try {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    respond(exchange, 405, Map.of("error", "SRVR01"));
+                    return;
+                }
+                Map<String, String> fields = parseForm(new String(exchange.getRequestBody().readAllBytes(),
+                        StandardCharsets.US_ASCII));
+                respond(exchange, 200, operation.apply(fields));
+            } catch (RejectedRequestException e) {
+                respond(exchange, 400, Map.of("error", e.getMessage()));
+            } catch (Exception e) {
+                PinMetrics.recordError("SRVC01");
+                respond(exchange, 500, Map.of("error", "SRVC01"));
+            } finally {
+                inFlight.release();
+            }
+        }
+
+    }
+
+    private Map<String, String> generate(Map<String, String> fields) throws Exception {
+
+        PinRequest pinRequest = pinRequest(fields);
+        PinResponse pinResponse = await(generateBatcher.submit(batchKey(pinRequest), pinRequest));
+        return Map.of("pin", pinResponse.getPin(), "pinLength", pinResponse.getPinLength(),
+                "pinOffset", pinResponse.getPinOffset());
+
+    }
+
+    private Map<String, String> verify(Map<String, String> fields) throws Exception {
+
+        PinRequest pinRequest = pinRequest(fields);
+        boolean match = await(verifyBatcher.submit(batchKey(pinRequest),
+                new PinVerification(pinRequest, required(fields, "pin"))));
+        return Map.of("match", Boolean.toString(match));
+
+    }
+
+    private Map<String, String> calculatePvv(Map<String, String> fields) throws Exception {
+
+        PvvRequest pvvRequest = pvvRequest(fields);
+        return Map.of("pvv", await(pvvBatcher.submit(batchKey(pvvRequest), pvvRequest)));
+
+    }
+
+    private Map<String, String> verifyPvv(Map<String, String> fields) throws Exception {
+
+        PvvRequest pvvRequest = pvvRequest(fields);
+        boolean match = await(pvvVerifyBatcher.submit(batchKey(pvvRequest),
+                new PvvVerification(pvvRequest, required(fields, "pvv"))));
+        return Map.of("match", Boolean.toString(match));
+
+    }
+
+    /**
+     * Build and validate a PIN request, rejecting it with its validation codes when it is not valid.
+     */
+    private PinRequest pinRequest(Map<String, String> fields) throws RejectedRequestException {
+
+        PinRequest pinRequest = new PinRequest();
+        pinRequest.setKey(fields.get("key"));
+        pinRequest.setKeyRef(fields.get("keyRef"));
+        pinRequest.setPan(fields.get("pan"));
+        pinRequest.setPinLength(fields.get("pinLength"));
+        pinRequest.setNaturalPin(Boolean.parseBoolean(fields.get("naturalPin")));
+        pinRequest.setPinOffset(fields.getOrDefault("pinOffset", pinRequest.isNaturalPin() ? "0" : null));
+        ValidationResult validationResult = DataValidator.validate(pinRequest);
+        if (!validationResult.isValid()) {
+            PinMetrics.recordErrors(validationResult);
+            throw new RejectedRequestException(String.join(" ", validationResult.getCodes().stream()
+                    .filter(code -> code.getSeverity() == ValidationCode.Severity.ERRR).map(Enum::name).toList()));
+        }
+        checkKeyRef(pinRequest.getKeyRef());
+        return pinRequest;
+
+    }
+
+    private PvvRequest pvvRequest(Map<String, String> fields) throws RejectedRequestException {
+
+        PvvRequest pvvRequest = new PvvRequest();
+        pvvRequest.setKeyRef(fields.get("keyRef"));
+        pvvRequest.setKey(pvvRequest.getKeyRef() == null ? required(fields, "key") : null);
+        pvvRequest.setKeyIndex(required(fields, "keyIndex"));
+        pvvRequest.setPan(required(fields, "pan"));
+        pvvRequest.setPin(required(fields, "pin"));
+        ValidationResult validationResult = DataValidator.validate(pvvRequest);
+        if (!validationResult.isValid()) {
+            PinMetrics.recordErrors(validationResult);
+            throw new RejectedRequestException(String.join(" ", validationResult.getCodes().stream()
+                    .filter(code -> code.getSeverity() == ValidationCode.Severity.ERRR).map(Enum::name).toList()));
+        }
+        checkKeyRef(pvvRequest.getKeyRef());
+        return pvvRequest;
+
+    }
+
+    /**
+     * Reject a key reference that cannot be resolved before it is batched, so it cannot fail the rest of its batch.
+     */
+    private void checkKeyRef(String keyRef) throws RejectedRequestException {
+
+        if (keyRef != null && (keyRegistry == null || !keyRegistry.contains(keyRef))) {
+            PinMetrics.recordError("SRVK01");
+            throw new RejectedRequestException("SRVK01");
+        }
+
+    }
+
+    /**
+     * Batches are formed per PVK, so requests are batched by key identifier, or by key reference and PVKI when they
+     * have one.
+     */
+    private static String batchKey(PinRequest pinRequest){
+        return pinRequest.getKeyRef() != null ? "ref:" + pinRequest.getKeyRef()
+                : "id:" + KeyId.of(pinRequest.getKey());
+    }
+
+    private static String batchKey(PvvRequest pvvRequest){
+        return pvvRequest.getKeyRef() != null ? "ref:" + pvvRequest.getKeyRef() + "." + pvvRequest.getKeyIndex()
+                : "id:" + KeyId.of(pvvRequest.getKey());
+    }
+
+    private static String required(Map<String, String> fields, String name) throws RejectedRequestException {
+
+        String value = fields.get(name);
+        if (value == null) {
+            PinMetrics.recordError("SRVR01");
+            throw new RejectedRequestException("SRVR01");
+        }
+        return value;
+
+    }
+
+    /**
+     * Wait for a batched result, unwrapping the batch failure.
+     */
+    private static <R> R await(CompletableFuture<R> result) throws Exception {
+
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+
+    }
+
+    /**
+     * Parse a form body, rejecting it as malformed when a field is not validly percent-encoded.
+     */
+    private static Map<String, String> parseForm(String body) throws RejectedRequestException {
+
+        Map<String, String> fields = new HashMap<>();
+        try {
+            for (String field : body.split("&")) {
+                int separator = field.indexOf('=');
+                if (separator > 0) {
+                    fields.put(URLDecoder.decode(field.substring(0, separator), StandardCharsets.UTF_8),
+                            URLDecoder.decode(field.substring(separator + 1), StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            PinMetrics.recordError("SRVR01");
+            throw new RejectedRequestException("SRVR01");
+        }
+        return fields;
+
+    }
+
+    private static void respond(HttpExchange exchange, int status, Map<String, String> fields) throws IOException {
+
+        StringBuilder body = new StringBuilder();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (!body.isEmpty()) {
+                body.append('&');
+            }
+            body.append(field.getKey()).append('=').append(field.getValue());
+        }
+        byte [] bytes = body.toString().getBytes(StandardCharsets.US_ASCII);
+        exchange.getResponseHeaders().set("Content-Type", "application/x-www-form-urlencoded");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(bytes);
+        }
+
+    }
+
+    /**
+     * Start the service from the command line.
+     * Arguments (all optional): port, maximum in-flight requests, maximum batch size, key file. The key file is
+     * watched and reloaded when it changes.
+     */
+    public static void main(String [] args) throws IOException, JMException, InvalidKeyException {
+
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int maxInFlight = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_IN_FLIGHT;
+        int maxBatchSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_BATCH_SIZE;
+        KeyRegistry keyRegistry = null;
+        if (args.length > 3) {
+            keyRegistry = new KeyRegistry(Path.of(args[3]));
+            keyRegistry.watch(KEY_FILE_POLL_INTERVAL);
+        }
+        PinService pinService = new PinService(port, maxInFlight, maxBatchSize, keyRegistry);
+        PinMetrics.getInstance().registerMBean();
+        pinService.start();
+        System.out.println("INFO: SRVS01: PIN service listening on port " + pinService.getPort()
+                + ", in-flight limit " + maxInFlight + ".");
+
+    }
+
+}
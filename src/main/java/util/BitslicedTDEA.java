@@ -0,0 +1,504 @@
+package util;
+
+import metrics.PinMetrics;
+import metrics.PinOperation;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pure Java, bitsliced TDEA (DESede/ECB/NoPadding) backend, for software key environments such as test, DR and bulk
+ * simulation.
+ * Blocks are processed 64 at a time: the 64 blocks are transposed so that each long holds one bit position of every
+ * block, and DES then runs on whole longs with boolean operations only, encrypting all 64 blocks at once. Permutations
+ * become array indexing and cost nothing. The S-boxes are straight line sums of products over their input bits, so
+ * there are no table lookups that depend on the data, and no JCE dispatch.
+ * All blocks of a pass share a key, so the key schedule is expanded once per key into all-zeros or all-ones masks and
+ * cached. A batch whose size is not a multiple of 64 pads its last pass, so a single block costs as much as a full
+ * pass, roughly 30 blocks through JCE. Inputs below a minimum number of blocks are therefore handed to TDEAEngine,
+ * and the engine pays off on large batches under few keys, which is what encryptBatch groups them into.
+ * Results are identical to TDEAEngine, and keys are validated in the same way.
+ */
+public class BitslicedTDEA implements CryptoBackend {
+
+    private static final int LANES = 64;
+    private static final int BLOCK_SIZE = 8;
+    private static final int DEFAULT_KEY_CACHE_SIZE = 256;
+    private static final int DEFAULT_MINIMUM_BLOCKS = 32;
+
+    private static final BitslicedTDEA INSTANCE = new BitslicedTDEA(DEFAULT_MINIMUM_BLOCKS);
+
+    private final Map<String, long[][]> keySchedules = new TDEAEngine.LruMap<>(DEFAULT_KEY_CACHE_SIZE);
+    private final int minimumBlocks;
+
+    /**
+     * @param minimumBlocks Minimum number of blocks run through the bitsliced kernel, fewer go to TDEAEngine
+     */
+    public BitslicedTDEA(int minimumBlocks){
+        this.minimumBlocks = minimumBlocks;
+    }
+
+    /**
+     * @return Shared instance
+     */
+    public static BitslicedTDEA getInstance(){
+        return INSTANCE;
+    }
+
+    @Override
+    public byte [] encrypt(String key, byte [] data) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        return process(key, data, true);
+    }
+
+    @Override
+    public byte [] decrypt(String key, byte [] data) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        return process(key, data, false);
+    }
+
+    /**
+     * TDEA encrypt a batch of 8 byte blocks, each under its own key. Blocks sharing a key are gathered into one
+     * buffer, so they fill bitsliced passes together.
+     */
+    @Override
+    public byte [][] encryptBatch(List<String> keys, List<byte[]> blocks) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+
+        if (keys.size() != blocks.size()) {
+            throw new IllegalArgumentException("Number of keys and blocks must match");
+        }
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            groups.computeIfAbsent(keys.get(i), k -> new ArrayList<>()).add(i);
+        }
+        byte [][] encryptedBlocks = new byte[blocks.size()][];
+        for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+            List<Integer> positions = group.getValue();
+            byte [] buffer = new byte[positions.size() * BLOCK_SIZE];
+            for (int i = 0; i < positions.size(); i++) {
+                byte [] block = blocks.get(positions.get(i));
+                if (block.length != BLOCK_SIZE) {
+                    throw new IllegalBlockSizeException("Batch blocks must be " + BLOCK_SIZE + " bytes long");
+                }
+                System.arraycopy(block, 0, buffer, i * BLOCK_SIZE, BLOCK_SIZE);
+            }
+            byte [] encrypted = process(group.getKey(), buffer, true);
+            for (int i = 0; i < positions.size(); i++) {
+                byte [] encryptedBlock = new byte[BLOCK_SIZE];
+                System.arraycopy(encrypted, i * BLOCK_SIZE, encryptedBlock, 0, BLOCK_SIZE);
+                encryptedBlocks[positions.get(i)] = encryptedBlock;
+            }
+        }
+        return encryptedBlocks;
+
+    }
+
+    /**
+     * Expand and cache the key schedule of the key.
+     */
+    @Override
+    public void preload(String key) throws InvalidKeyException {
+        keySchedule(key);
+    }
+
+    /**
+     * Remove the key schedule of the key from the cache and zero it.
+     */
+    @Override
+    public void evict(String key){
+
+        long [][] schedule;
+        synchronized (keySchedules) {
+            schedule = keySchedules.remove(key);
+        }
+        if (schedule != null) {
+            for (long [] subkeys : schedule) {
+                Arrays.fill(subkeys, 0L);
+            }
+        }
+
+    }
+
+    /**
+     * Encrypt or decrypt data in passes of 64 blocks.
+     */
+    private byte [] process(String key, byte [] data, boolean encrypt) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+
+        if (data.length % BLOCK_SIZE != 0) {
+            throw new IllegalBlockSizeException("Data must be a multiple of " + BLOCK_SIZE + " bytes long");
+        }
+        if (data.length / BLOCK_SIZE < minimumBlocks) {
+            return encrypt ? TDEAEngine.getInstance().encrypt(key, data) : TDEAEngine.getInstance().decrypt(key, data);
+        }
+        long start = System.nanoTime();
+        long [][] schedule = keySchedule(key);
+        int blocks = data.length / BLOCK_SIZE;
+        byte [] result = new byte[data.length];
+        long [] slices = new long[LANES];
+        long [] scratch = new long[LANES];
+        for (int first = 0; first < blocks; first += LANES) {
+            int count = Math.min(LANES, blocks - first);
+            for (int lane = 0; lane < LANES; lane++) {
+                slices[lane] = lane < count ? readLong(data, (first + lane) * BLOCK_SIZE) : 0L;
+            }
+            transpose(slices);
+            if (encrypt) {
+                des(slices, scratch, schedule[0], false);
+                des(slices, scratch, schedule[1], true);
+                des(slices, scratch, schedule[2], false);
+            } else {
+                des(slices, scratch, schedule[2], true);
+                des(slices, scratch, schedule[1], false);
+                des(slices, scratch, schedule[0], true);
+            }
+            transpose(slices);
+            for (int lane = 0; lane < count; lane++) {
+                writeLong(result, (first + lane) * BLOCK_SIZE, slices[lane]);
+            }
+        }
+        PinMetrics.recordOperation(encrypt ? PinOperation.TDEA_ENCRYPT : PinOperation.TDEA_DECRYPT, start, blocks);
+        return result;
+
+    }
+
+    /**
+     * One DES pass over 64 bitsliced blocks, in place. Slice i holds bit i + 1 of every block, in DES bit numbering.
+     * @param slices Bitsliced blocks
+     * @param scratch Working storage, 64 longs
+     * @param subkeys Subkey masks of the key, 16 rounds of 48
+     * @param decrypt True to apply the subkeys in reverse order
+     */
+    private static void des(long [] slices, long [] scratch, long [] subkeys, boolean decrypt){
+
+        // Initial permutation, into L (scratch 0 to 31) and R (scratch 32 to 63)
+        for (int i = 0; i < 64; i++) {
+            scratch[i] = slices[DesTables.IP[i] - 1];
+        }
+        int left = 0;
+        int right = 32;
+        for (int round = 0; round < DesTables.ROUNDS; round++) {
+            round(scratch, left, right, subkeys, (decrypt ? DesTables.ROUNDS - 1 - round : round) * 48);
+            int swap = left;
+            left = right;
+            right = swap;
+        }
+        // Final permutation of R16 L16, the inverse of the initial permutation
+        for (int i = 0; i < 64; i++) {
+            slices[DesTables.IP[i] - 1] = scratch[i < 32 ? right + i : left + i - 32];
+        }
+
+    }
+
+    /**
+     * One Feistel round, XORing f(R, K) into L. R is expanded into the S-box inputs by indexing, and the S-boxes
+     * apply the P permutation as they write their outputs.
+     * @param s Bitsliced L and R halves
+     * @param l Offset of L in s
+     * @param r Offset of R in s
+     * @param k Subkey masks
+     * @param kb Offset of the round's subkey in k
+     */
+    private static void round(long [] s, int l, int r, long [] k, int kb){
+
+        s1(s[r + 31] ^ k[kb], s[r] ^ k[kb + 1], s[r + 1] ^ k[kb + 2],
+                s[r + 2] ^ k[kb + 3], s[r + 3] ^ k[kb + 4], s[r + 4] ^ k[kb + 5],
+                s, l);
+        s2(s[r + 3] ^ k[kb + 6], s[r + 4] ^ k[kb + 7], s[r + 5] ^ k[kb + 8],
+                s[r + 6] ^ k[kb + 9], s[r + 7] ^ k[kb + 10], s[r + 8] ^ k[kb + 11],
+                s, l);
+        s3(s[r + 7] ^ k[kb + 12], s[r + 8] ^ k[kb + 13], s[r + 9] ^ k[kb + 14],
+                s[r + 10] ^ k[kb + 15], s[r + 11] ^ k[kb + 16], s[r + 12] ^ k[kb + 17],
+                s, l);
+        s4(s[r + 11] ^ k[kb + 18], s[r + 12] ^ k[kb + 19], s[r + 13] ^ k[kb + 20],
+                s[r + 14] ^ k[kb + 21], s[r + 15] ^ k[kb + 22], s[r + 16] ^ k[kb + 23],
+                s, l);
+        s5(s[r + 15] ^ k[kb + 24], s[r + 16] ^ k[kb + 25], s[r + 17] ^ k[kb + 26],
+                s[r + 18] ^ k[kb + 27], s[r + 19] ^ k[kb + 28], s[r + 20] ^ k[kb + 29],
+                s, l);
+        s6(s[r + 19] ^ k[kb + 30], s[r + 20] ^ k[kb + 31], s[r + 21] ^ k[kb + 32],
+                s[r + 22] ^ k[kb + 33], s[r + 23] ^ k[kb + 34], s[r + 24] ^ k[kb + 35],
+                s, l);
+        s7(s[r + 23] ^ k[kb + 36], s[r + 24] ^ k[kb + 37], s[r + 25] ^ k[kb + 38],
+                s[r + 26] ^ k[kb + 39], s[r + 27] ^ k[kb + 40], s[r + 28] ^ k[kb + 41],
+                s, l);
+        s8(s[r + 27] ^ k[kb + 42], s[r + 28] ^ k[kb + 43], s[r + 29] ^ k[kb + 44],
+                s[r + 30] ^ k[kb + 45], s[r + 31] ^ k[kb + 46], s[r] ^ k[kb + 47],
+                s, l);
+
+    }
+
+    /*
+     * S-boxes S1 to S8 as sums of products. x0 to x5 are the six S-box input bits, x0 and x5 selecting the row.
+     * Each output bit is the OR, over the 16 row and column high bit minterms m0 to m15, of the minterm AND a
+     * function of the two low column bits, x3 and x4. Outputs are XORed into L at their positions after the P
+     * permutation.
+     */
+
+    private static void s1(long x0, long x1, long x2, long x3, long x4, long x5, long [] l, int o){
+
+        long n0 = ~x0, n1 = ~x1, n2 = ~x2, n3 = ~x3, n4 = ~x4, n5 = ~x5;
+        long r0 = n0 & n5, r1 = n0 & x5, r2 = x0 & n5, r3 = x0 & x5;
+        long h0 = n1 & n2, h1 = n1 & x2, h2 = x1 & n2, h3 = x1 & x2;
+        long m0 = r0 & h0, m1 = r0 & h1, m2 = r0 & h2, m3 = r0 & h3;
+        long m4 = r1 & h0, m5 = r1 & h1, m6 = r1 & h2, m7 = r1 & h3;
+        long m8 = r2 & h0, m9 = r2 & h1, m10 = r2 & h2, m11 = r2 & h3;
+        long m12 = r3 & h0, m13 = r3 & h1, m14 = r3 & h2, m15 = r3 & h3;
+        long c0 = n3 & n4, c1 = n3 & x4, c2 = x3 & n4, c3 = x3 & x4;
+        long k0 = ~c0, k1 = ~c1, k2 = ~c2, k3 = ~c3;
+        long e = x3 ^ x4, ne = ~e;
+        l[o + 8] ^= (m0 & n4) | (m1 & k0) | (m2 & x4) | (m3 & c1) | (m4 & c1) | (m5 & n4) | (m6 & k1) | (m7 & ne) |
+                (m8 & x3) | (m9 & ne) | (m10 & k3) | (m11 & c1) | (m12 & k3) | (m13 & c1) | (m14 & x4) | (m15 & ne);
+        l[o + 16] ^= (m0 & k3) | (m1 & c1) | (m2 & x3) | (m3 & ne) | (m4 & k0) | (m5 & n4) | (m6 & e) | (m7 & c1) |
+                (m8 & n4) | (m9 & n3) | (m10 & k2) | (m11 & c2) | (m12 & n3) | (m13 & ne) | (m14 & ne) | (m15 & x3);
+        l[o + 22] ^= (m0 & c0) | (m1 & k3) | (m2 & k3) | (m3 & c3) | (m4 & e) | (m5 & n3) | (m6 & k2) | (m7 & c2) |
+                (m8 & c2) | (m9 & k0) | (m10 & ne) | (m11 & n3) | (m12 & ne) | (m13 & c3) | (m14 & k0) | (m15 & n4);
+        l[o + 30] ^= (m0 & x3) | (m1 & e) | (m2 & c0) | (m3 & k2) | (m4 & e) | (m5 & x3) | (m6 & c3) | (m7 & k3) |
+                (m8 & c1) | (m9 & ne) | (m10 & k1) | (m11 & n4) | (m12 & c0) | (m13 & k0) | (m14 & k3) | (m15 & c3);
+
+    }
+
+    private static void s2(long x0, long x1, long x2, long x3, long x4, long x5, long [] l, int o){
+
+        long n0 = ~x0, n1 = ~x1, n2 = ~x2, n3 = ~x3, n4 = ~x4, n5 = ~x5;
+        long r0 = n0 & n5, r1 = n0 & x5, r2 = x0 & n5, r3 = x0 & x5;
+        long h0 = n1 & n2, h1 = n1 & x2, h2 = x1 & n2, h3 = x1 & x2;
+        long m0 = r0 & h0, m1 = r0 & h1, m2 = r0 & h2, m3 = r0 & h3;
+        long m4 = r1 & h0, m5 = r1 & h1, m6 = r1 & h2, m7 = r1 & h3;
+        long m8 = r2 & h0, m9 = r2 & h1, m10 = r2 & h2, m11 = r2 & h3;
+        long m12 = r3 & h0, m13 = r3 & h1, m14 = r3 & h2, m15 = r3 & h3;
+        long c0 = n3 & n4, c1 = n3 & x4, c2 = x3 & n4, c3 = x3 & x4;
+        long k0 = ~c0, k1 = ~c1, k2 = ~c2, k3 = ~c3;
+        long e = x3 ^ x4, ne = ~e;
+        l[o + 12] ^= (m0 & k1) | (m1 & c1) | (m2 & ne) | (m3 & ne) | (m4 & c1) | (m5 & k1) | (m6 & ne) | (m7 & e) |
+                (m8 & x4) | (m9 & n4) | (m10 & e) | (m11 & ne) | (m12 & k3) | (m13 & c1) | (m14 & ne) | (m15 & x3);
+        l[o + 27] ^= (m0 & ne) | (m1 & ne) | (m2 & x4) | (m3 & n4) | (m4 & k0) | (m5 & ne) | (m6 & c0) | (m7 & ne) |
+                (m8 & e) | (m9 & e) | (m10 & k1) | (m11 & c3) | (m12 & c0) | (m13 & e) | (m14 & k0) | (m15 & e);
+        l[o + 1] ^= (m0 & ne) | (m1 & k3) | (m2 & e) | (m3 & c3) | (m4 & ne) | (m5 & k2) | (m6 & c3) | (m7 & n4) |
+                (m8 & k0) | (m9 & c0) | (m10 & c3) | (m11 & k0) | (m12 & c2) | (m13 & k2) | (m14 & k3) | (m15 & c2);
+        l[o + 17] ^= (m0 & n3) | (m1 & e) | (m2 & k2) | (m3 & c2) | (m4 & k2) | (m5 & c0) | (m6 & c2) | (m7 & k0) |
+                (m8 & x3) | (m9 & x3) | (m10 & c0) | (m11 & k2) | (m12 & ne) | (m13 & n3) | (m14 & n4) | (m15 & x4);
+
+    }
+
+    private static void s3(long x0, long x1, long x2, long x3, long x4, long x5, long [] l, int o){
+
+        long n0 = ~x0, n1 = ~x1, n2 = ~x2, n3 = ~x3, n4 = ~x4, n5 = ~x5;
+        long r0 = n0 & n5, r1 = n0 & x5, r2 = x0 & n5, r3 = x0 & x5;
+        long h0 = n1 & n2, h1 = n1 & x2, h2 = x1 & n2, h3 = x1 & x2;
+        long m0 = r0 & h0, m1 = r0 & h1, m2 = r0 & h2, m3 = r0 & h3;
+        long m4 = r1 & h0, m5 = r1 & h1, m6 = r1 & h2, m7 = r1 & h3;
+        long m8 = r2 & h0, m9 = r2 & h1, m10 = r2 & h2, m11 = r2 & h3;
+        long m12 = r3 & h0, m13 = r3 & h1, m14 = r3 & h2, m15 = r3 & h3;
+        long c0 = n3 & n4, c1 = n3 & x4, c2 = x3 & n4, c3 = x3 & x4;
+        long k0 = ~c0, k1 = ~c1, k2 = ~c2, k3 = ~c3;
+        long e = x3 ^ x4, ne = ~e;
+        l[o + 23] ^= (m0 & k1) | (m1 & c2) | (m2 & e) | (m3 & ne) | (m4 & ne) | (m5 & c3) | (m6 & x4) | (m7 & k3) |
+                (m8 & ne) | (m9 & n3) | (m10 & ne) | (m11 & e) | (m12 & e) | (m13 & e) | (m14 & e) | (m15 & ne);
+        l[o + 15] ^= (m0 & c3) | (m1 & k1) | (m2 & k0) | (m3 & c1) | (m4 & n3) | (m5 & e) | (m6 & x3) | (m7 & n4) |
+                (m8 & k3) | (m9 & c1) | (m10 & c3) | (m11 & k1) | (m12 & c2) | (m13 & ne) | (m14 & k3) | (m15 & x4);
+        l[o + 29] ^= (m0 & ne) | (m1 & k3) | (m2 & c3) | (m3 & n4) | (m4 & c1) | (m5 & k1) | (m6 & ne) | (m7 & e) |
+                (m8 & c1) | (m9 & e) | (m10 & n4) | (m11 & k0) | (m12 & c1) | (m13 & ne) | (m14 & k0) | (m15 & n4);
+        l[o + 5] ^= (m0 & c2) | (m1 & k0) | (m2 & k2) | (m3 & c0) | (m4 & k2) | (m5 & c0) | (m6 & c2) | (m7 & k0) |
+                (m8 & ne) | (m9 & e) | (m10 & n3) | (m11 & ne) | (m12 & n4) | (m13 & x4) | (m14 & x4) | (m15 & n3);
+
+    }
+
+    private static void s4(long x0, long x1, long x2, long x3, long x4, long x5, long [] l, int o){
+
+        long n0 = ~x0, n1 = ~x1, n2 = ~x2, n3 = ~x3, n4 = ~x4, n5 = ~x5;
+        long r0 = n0 & n5, r1 = n0 & x5, r2 = x0 & n5, r3 = x0 & x5;
+        long h0 = n1 & n2, h1 = n1 & x2, h2 = x1 & n2, h3 = x1 & x2;
+        long m0 = r0 & h0, m1 = r0 & h1, m2 = r0 & h2, m3 = r0 & h3;
+        long m4 = r1 & h0, m5 = r1 & h1, m6 = r1 & h2, m7 = r1 & h3;
+        long m8 = r2 & h0, m9 = r2 & h1, m10 = r2 & h2, m11 = r2 & h3;
+        long m12 = r3 & h0, m13 = r3 & h1, m14 = r3 & h2, m15 = r3 & h3;
+        long c0 = n3 & n4, c1 = n3 & x4, c2 = x3 & n4, c3 = x3 & x4;
+        long k0 = ~c0, k1 = ~c1, k2 = ~c2, k3 = ~c3;
+        long e = x3 ^ x4, ne = ~e;
+        l[o + 25] ^= (m0 & e) | (m1 & x3) | (m2 & c2) | (m3 & k2) | (m4 & k3) | (m5 & c1) | (m6 & c3) | (m7 & k0) |
+                (m8 & n4) | (m9 & k2) | (m10 & ne) | (m11 & c2) | (m12 & c1) | (m13 & k1) | (m14 & ne) | (m15 & ne);
+        l[o + 19] ^= (m0 & k3) | (m1 & c1) | (m2 & c3) | (m3 & k0) | (m4 & ne) | (m5 & n3) | (m6 & k2) | (m7 & c2) |
+                (m8 & c1) | (m9 & k1) | (m10 & ne) | (m11 & ne) | (m12 & x4) | (m13 & c2) | (m14 & e) | (m15 & k2);
+        l[o + 9] ^= (m0 & k1) | (m1 & x4) | (m2 & c1) | (m3 & ne) | (m4 & c2) | (m5 & k2) | (m6 & e) | (m7 & e) |
+                (m8 & n3) | (m9 & e) | (m10 & k1) | (m11 & c1) | (m12 & k2) | (m13 & c0) | (m14 & c3) | (m15 & k0);
+        l[o + 0] ^= (m0 & k2) | (m1 & c2) | (m2 & ne) | (m3 & ne) | (m4 & k1) | (m5 & x4) | (m6 & c1) | (m7 & ne) |
+                (m8 & c2) | (m9 & k0) | (m10 & k3) | (m11 & c0) | (m12 & n3) | (m13 & e) | (m14 & k1) | (m15 & c1);
+
+    }
+
+    private static void s5(long x0, long x1, long x2, long x3, long x4, long x5, long [] l, int o){
+
+        long n0 = ~x0, n1 = ~x1, n2 = ~x2, n3 = ~x3, n4 = ~x4, n5 = ~x5;
+        long r0 = n0 & n5, r1 = n0 & x5, r2 = x0 & n5, r3 = x0 & x5;
+        long h0 = n1 & n2, h1 = n1 & x2, h2 = x1 & n2, h3 = x1 & x2;
+        long m0 = r0 & h0, m1 = r0 & h1, m2 = r0 & h2, m3 = r0 & h3;
+        long m4 = r1 & h0, m5 = r1 & h1, m6 = r1 & h2, m7 = r1 & h3;
+        long m8 = r2 & h0, m9 = r2 & h1, m10 = r2 & h2, m11 = r2 & h3;
+        long m12 = r3 & h0, m13 = r3 & h1, m14 = r3 & h2, m15 = r3 & h3;
+        long c0 = n3 & n4, c1 = n3 & x4, c2 = x3 & n4, c3 = x3 & x4;
+        long k0 = ~c0, k1 = ~c1, k2 = ~c2, k3 = ~c3;
+        long e = x3 ^ x4, ne = ~e;
+        l[o + 7] ^= (m0 & c1) | (m1 & e) | (m2 & ne) | (m3 & k1) | (m4 & k2) | (m5 & c2) | (m6 & x3) | (m7 & e) |
+                (m8 & c3) | (m9 & k2) | (m10 & k3) | (m11 & c3) | (m12 & k3) | (m13 & x4) | (m14 & x4) | (m15 & c0);
+        l[o + 13] ^= (m0 & e) | (m1 & ne) | (m2 & x4) | (m3 & n4) | (m4 & ne) | (m5 & k3) | (m6 & n4) | (m7 & c3) |
+                (m8 & c0) | (m9 & e) | (m10 & k1) | (m11 & ne) | (m12 & x3) | (m13 & x4) | (m14 & n3) | (m15 & e);
+        l[o + 24] ^= (m0 & c0) | m1 | (m2 & x3) | (m3 & c2) | (m4 & k3) | (m5 & c1) | (m6 & x3) | (m7 & ne) |
+                (m8 & x4) | (m9 & n4) | (m10 & c0) | (m11 & k2) | (m12 & ne) | (m13 & e) | (m14 & n3) | (m15 & ne);
+        l[o + 2] ^= (m0 & c3) | (m1 & n4) | (m2 & k0) | (m3 & ne) | (m4 & c1) | (m5 & k0) | (m6 & n4) | (m7 & n3) |
+                (m8 & x3) | (m9 & e) | (m10 & k2) | (m11 & c1) | (m12 & ne) | (m13 & ne) | (m14 & x4) | (m15 & x3);
+
+    }
+
+    private static void s6(long x0, long x1, long x2, long x3, long x4, long x5, long [] l, int o){
+
+        long n0 = ~x0, n1 = ~x1, n2 = ~x2, n3 = ~x3, n4 = ~x4, n5 = ~x5;
+        long r0 = n0 & n5, r1 = n0 & x5, r2 = x0 & n5, r3 = x0 & x5;
+        long h0 = n1 & n2, h1 = n1 & x2, h2 = x1 & n2, h3 = x1 & x2;
+        long m0 = r0 & h0, m1 = r0 & h1, m2 = r0 & h2, m3 = r0 & h3;
+        long m4 = r1 & h0, m5 = r1 & h1, m6 = r1 & h2, m7 = r1 & h3;
+        long m8 = r2 & h0, m9 = r2 & h1, m10 = r2 & h2, m11 = r2 & h3;
+        long m12 = r3 & h0, m13 = r3 & h1, m14 = r3 & h2, m15 = r3 & h3;
+        long c0 = n3 & n4, c1 = n3 & x4, c2 = x3 & n4, c3 = x3 & x4;
+        long k0 = ~c0, k1 = ~c1, k2 = ~c2, k3 = ~c3;
+        long e = x3 ^ x4, ne = ~e;
+        l[o + 3] ^= (m0 & k1) | (m1 & ne) | (m2 & c1) | (m3 & ne) | (m4 & n3) | (m5 & e) | (m6 & x3) | (m7 & x4) |
+                (m8 & k3) | (m9 & e) | (m10 & c3) | (m11 & e) | (m12 & c3) | (m13 & k1) | (m14 & n3) | (m15 & x3);
+        l[o + 28] ^= (m0 & ne) | (m1 & c2) | (m2 & x4) | (m3 & k3) | (m4 & e) | (m5 & k2) | (m6 & k1) | (m8 & k0) |
+                (m9 & c2) | (m10 & n4) | (m11 & x4) | (m12 & ne) | (m13 & e) | (m14 & x4) | (m15 & ne);
+        l[o + 10] ^= (m0 & x3) | (m1 & e) | (m2 & c2) | (m3 & k2) | (m4 & k2) | (m5 & c0) | (m6 & ne) | (m7 & e) |
+                (m8 & e) | (m9 & ne) | (m10 & ne) | (m11 & x3) | (m12 & e) | (m13 & x3) | (m14 & k2) | (m15 & c0);
+        l[o + 18] ^= (m0 & x4) | (m1 & c0) | (m2 & e) | (m3 & k0) | (m4 & c1) | (m5 & k1) | (m6 & e) | (m7 & e) |
+                (m8 & k1) | (m9 & c3) | (m10 & c0) | (m11 & k3) | (m12 & c1) | (m13 & k3) | (m14 & k1) | (m15 & c3);
+
+    }
+
+    private static void s7(long x0, long x1, long x2, long x3, long x4, long x5, long [] l, int o){
+
+        long n0 = ~x0, n1 = ~x1, n2 = ~x2, n3 = ~x3, n4 = ~x4, n5 = ~x5;
+        long r0 = n0 & n5, r1 = n0 & x5, r2 = x0 & n5, r3 = x0 & x5;
+        long h0 = n1 & n2, h1 = n1 & x2, h2 = x1 & n2, h3 = x1 & x2;
+        long m0 = r0 & h0, m1 = r0 & h1, m2 = r0 & h2, m3 = r0 & h3;
+        long m4 = r1 & h0, m5 = r1 & h1, m6 = r1 & h2, m7 = r1 & h3;
+        long m8 = r2 & h0, m9 = r2 & h1, m10 = r2 & h2, m11 = r2 & h3;
+        long m12 = r3 & h0, m13 = r3 & h1, m14 = r3 & h2, m15 = r3 & h3;
+        long c0 = n3 & n4, c1 = n3 & x4, c2 = x3 & n4, c3 = x3 & x4;
+        long k0 = ~c0, k1 = ~c1, k2 = ~c2, k3 = ~c3;
+        long e = x3 ^ x4, ne = ~e;
+        l[o + 31] ^= (m0 & x4) | (m1 & k1) | (m2 & e) | (m3 & c1) | (m4 & n4) | (m5 & x4) | (m6 & ne) | (m7 & e) |
+                (m8 & x3) | (m9 & ne) | (m10 & k2) | (m11 & c2) | (m12 & k0) | (m13 & c2) | (m14 & ne) | (m15 & ne);
+        l[o + 11] ^= (m0 & ne) | (m1 & ne) | (m2 & x4) | (m3 & n4) | (m4 & ne) | (m5 & c0) | (m6 & k1) | (m7 & x4) |
+                (m8 & x4) | (m9 & k1) | (m10 & e) | (m11 & c1) | (m12 & n4) | (m13 & x4) | (m14 & x4) | (m15 & ne);
+        l[o + 21] ^= (m0 & k0) | (m1 & c0) | (m2 & ne) | (m3 & e) | (m4 & x3) | (m5 & c3) | (m6 & n3) | (m7 & k2) |
+                (m8 & c2) | (m9 & k0) | (m10 & k3) | (m11 & c3) | (m12 & n3) | (m13 & x3) | (m14 & c3) | (m15 & k3);
+        l[o + 6] ^= (m0 & c1) | (m1 & ne) | (m2 & k1) | (m3 & ne) | (m4 & k1) | (m5 & e) | (m6 & e) | (m7 & c1) |
+                (m8 & k1) | (m9 & e) | (m10 & c1) | (m11 & e) | (m12 & e) | (m13 & ne) | (m14 & k2) | (m15 & c2);
+
+    }
+
+    private static void s8(long x0, long x1, long x2, long x3, long x4, long x5, long [] l, int o){
+
+        long n0 = ~x0, n1 = ~x1, n2 = ~x2, n3 = ~x3, n4 = ~x4, n5 = ~x5;
+        long r0 = n0 & n5, r1 = n0 & x5, r2 = x0 & n5, r3 = x0 & x5;
+        long h0 = n1 & n2, h1 = n1 & x2, h2 = x1 & n2, h3 = x1 & x2;
+        long m0 = r0 & h0, m1 = r0 & h1, m2 = r0 & h2, m3 = r0 & h3;
+        long m4 = r1 & h0, m5 = r1 & h1, m6 = r1 & h2, m7 = r1 & h3;
+        long m8 = r2 & h0, m9 = r2 & h1, m10 = r2 & h2, m11 = r2 & h3;
+        long m12 = r3 & h0, m13 = r3 & h1, m14 = r3 & h2, m15 = r3 & h3;
+        long c0 = n3 & n4, c1 = n3 & x4, c2 = x3 & n4, c3 = x3 & x4;
+        long k0 = ~c0, k1 = ~c1, k2 = ~c2, k3 = ~c3;
+        long e = x3 ^ x4, ne = ~e;
+        l[o + 4] ^= (m0 & n4) | (m1 & e) | (m2 & k2) | (m3 & c2) | (m4 & k0) | (m5 & c0) | (m6 & ne) | (m7 & e) |
+                (m8 & c1) | (m9 & k3) | (m10 & x3) | (m11 & ne) | (m12 & c2) | (m13 & k0) | (m14 & k3) | (m15 & c3);
+        l[o + 26] ^= (m0 & ne) | (m1 & n3) | (m2 & c3) | (m3 & k1) | (m4 & e) | (m5 & x3) | (m6 & k3) | (m7 & c1) |
+                (m8 & n4) | (m9 & e) | (m10 & x4) | (m11 & n4) | (m12 & x3) | (m13 & ne) | (m14 & n3) | (m15 & e);
+        l[o + 14] ^= (m0 & c1) | (m1 & k3) | (m2 & k1) | (m3 & c3) | (m4 & c1) | (m5 & k3) | (m6 & x3) | (m7 & x4) |
+                (m8 & n3) | (m9 & x3) | (m10 & e) | (m11 & n3) | (m12 & k1) | (m13 & c1) | (m14 & c0) | (m15 & k1);
+        l[o + 20] ^= (m0 & c0) | (m1 & k0) | (m2 & e) | (m3 & ne) | (m4 & k3) | (m5 & e) | (m6 & x4) | (m7 & c2) |
+                (m8 & k2) | (m9 & c0) | (m10 & c3) | (m11 & k3) | (m12 & x4) | (m13 & c3) | (m14 & n4) | (m15 & k2);
+
+    }
+
+    /**
+     * Return the subkey masks of the three DES keys of a TDEA key, expanding and caching them on a miss.
+     */
+    private long [][] keySchedule(String key) throws InvalidKeyException {
+
+        synchronized (keySchedules) {
+            long [][] schedule = keySchedules.get(key);
+            if (schedule != null) {
+                return schedule;
+            }
+        }
+        byte [] tripleLengthKey = TDEAEngine.formatTDEAKey(key);
+        long [][] schedule = new long[3][];
+        for (int i = 0; i < 3; i++) {
+            schedule[i] = subkeys(readLong(tripleLengthKey, i * BLOCK_SIZE));
+        }
+        synchronized (keySchedules) {
+            keySchedules.put(key, schedule);
+        }
+        return schedule;
+
+    }
+
+    /**
+     * Expand a DES key into 16 rounds of 48 subkey bits, each as an all-zeros or all-ones mask.
+     */
+    private static long [] subkeys(long key){
+
+        long [] subkeys = new long[DesTables.ROUNDS * 48];
+        for (int round = 0; round < DesTables.ROUNDS; round++) {
+            long subkey = DesTables.subkey(key, round);
+            for (int i = 0; i < 48; i++) {
+                subkeys[round * 48 + i] = ((subkey >>> (47 - i)) & 1L) == 0 ? 0L : -1L;
+            }
+        }
+        return subkeys;
+
+    }
+
+    /**
+     * Transpose a 64 x 64 bit matrix in place, most significant bit first, so that bit 63 - j of long i swaps with
+     * bit 63 - i of long j. Applied to 64 blocks, long i then holds bit i + 1 of every block, block j in bit 63 - j.
+     */
+    static void transpose(long [] matrix){
+
+        long mask = 0x00000000FFFFFFFFL;
+        for (int width = 32; width != 0; width >>= 1, mask ^= mask << width) {
+            for (int k = 0; k < 64; k = ((k | width) + 1) & ~width) {
+                long t = (matrix[k] ^ (matrix[k | width] >>> width)) & mask;
+                matrix[k] ^= t;
+                matrix[k | width] ^= t << width;
+            }
+        }
+
+    }
+
+    private static long readLong(byte [] data, int offset){
+
+        long value = 0L;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+
+    }
+
+    private static void writeLong(byte [] data, int offset, long value){
+        for (int i = BLOCK_SIZE - 1; i >= 0; i--) {
+            data[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+}
@@ -0,0 +1,260 @@
+package util;
+
+import metrics.PinMetrics;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Crypto backend that coalesces identical encryptions in flight, placed in front of another backend.
+ * When several threads encrypt the same block under the same key at the same time, as with retries or with batch and
+ * online flows verifying the same PAN under the same PVK, only the first call, the lead call, reaches the backend.
+ * The others wait for its result, and each gets its own copy of it. Nothing is cached: once the lead call completes,
+ * the next identical call reaches the backend again. Use IntermediateResultCache to reuse results over time.
+ * - Calls in flight are held in a concurrent map, and waiters are released by completing a CompletableFuture, so no
+ * lock is held while the backend works or while results are handed out.
+ * - A failed lead call fails its waiters with the same exception. When a batch mixing keys fails, each key is retried
+ * on its own, so a key that fails does not fail the calls coalesced onto blocks under the other keys.
+ * - Batches coalesce block by block. The blocks of a batch that are not already in flight are sent to the backend as
+ * one batch, and become lead calls for any identical calls made meanwhile.
+ * - Calls in flight are told apart by the KeyId digest of their key and their block, so the map holds no clear keys.
+ * The digest of each key in use is computed once and remembered, up to a bound.
+ * Coalesced and lead calls are counted in PinMetrics. Decryption is passed straight to the backend.
+ */
+public final class CoalescingBackend implements CryptoBackend {
+
+    private static final int BLOCK_SIZE = 8;
+    private static final int MAX_KEY_IDS = 256;
+
+    private final CryptoBackend backend;
+    private final ConcurrentHashMap<Flight, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    private final KeyIdCache keyIds = new KeyIdCache(MAX_KEY_IDS);
+
+    private record Flight(long keyIdHigh, long keyIdLow, long block) { }
+
+    /**
+     * @param backend Backend doing the encryption, such as TDEAEngine or an HsmClient
+     */
+    public CoalescingBackend(CryptoBackend backend){
+        this.backend = backend;
+    }
+
+    @Override
+    public byte [] encrypt(String key, byte [] data) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+
+        if (data.length != BLOCK_SIZE) {
+            return backend.encrypt(key, data);
+        }
+        Flight flight = flight(key, data);
+        CompletableFuture<byte[]> lead = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = inFlight.putIfAbsent(flight, lead);
+        if (existing != null) {
+            PinMetrics.recordCoalesced(true);
+            return await(existing);
+        }
+        PinMetrics.recordCoalesced(false);
+        try {
+            byte [] encrypted = backend.encrypt(key, data);
+            lead.complete(encrypted.clone());
+            return encrypted;
+        } catch (Exception | Error e) {
+            lead.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(flight, lead);
+        }
+
+    }
+
+    @Override
+    public byte [] decrypt(String key, byte [] data) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        return backend.decrypt(key, data);
+    }
+
+    @Override
+    public byte [][] encryptBatch(List<String> keys, List<byte[]> blocks) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+
+        if (keys.size() != blocks.size()) {
+            throw new IllegalArgumentException("Number of keys and blocks must match");
+        }
+        for (byte [] block : blocks) {
+            if (block.length != BLOCK_SIZE) {
+                throw new IllegalBlockSizeException("Batch blocks must be " + BLOCK_SIZE + " bytes long");
+            }
+        }
+        byte [][] encryptedBlocks = new byte[blocks.size()][];
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>(blocks.size());
+        List<Flight> leadFlights = new ArrayList<>();
+        List<CompletableFuture<byte[]>> leads = new ArrayList<>();
+        List<Integer> leadPositions = new ArrayList<>();
+        List<String> leadKeys = new ArrayList<>();
+        List<byte[]> leadBlocks = new ArrayList<>();
+        for (int i = 0; i < blocks.size(); i++) {
+            Flight flight = flight(keys.get(i), blocks.get(i));
+            CompletableFuture<byte[]> lead = new CompletableFuture<>();
+            CompletableFuture<byte[]> existing = inFlight.putIfAbsent(flight, lead);
+            PinMetrics.recordCoalesced(existing != null);
+            if (existing == null) {
+                leadFlights.add(flight);
+                leads.add(lead);
+                leadPositions.add(i);
+                leadKeys.add(keys.get(i));
+                leadBlocks.add(blocks.get(i));
+            }
+            futures.add(existing != null ? existing : lead);
+        }
+
+        try {
+            if (!leads.isEmpty()) {
+                encryptLeads(leads, leadPositions, leadKeys, leadBlocks, encryptedBlocks);
+            }
+        } finally {
+            for (int i = 0; i < leads.size(); i++) {
+                inFlight.remove(leadFlights.get(i), leads.get(i));
+            }
+        }
+
+        for (int i = 0; i < encryptedBlocks.length; i++) {
+            if (encryptedBlocks[i] == null) {
+                encryptedBlocks[i] = await(futures.get(i));
+            }
+        }
+        return encryptedBlocks;
+
+    }
+
+    /**
+     * Encrypt the blocks of the lead calls of a batch and complete the lead calls. When the backend fails a batch
+     * mixing keys, the blocks of each key are sent again as a batch of their own, so only the lead calls under a key
+     * that still fails, and the calls waiting on them, fail. Failed lead calls are left out of the encrypted blocks,
+     * for the caller to rethrow their failure when it awaits them.
+     */
+    private void encryptLeads(List<CompletableFuture<byte[]>> leads, List<Integer> leadPositions,
+                              List<String> leadKeys, List<byte[]> leadBlocks, byte [][] encryptedBlocks){
+
+        try {
+            complete(leads, leadPositions, backend.encryptBatch(leadKeys, leadBlocks), encryptedBlocks);
+            return;
+        } catch (Exception | Error e) {
+            if (leadKeys.stream().distinct().count() == 1) {
+                leads.forEach(lead -> lead.completeExceptionally(e));
+                return;
+            }
+        }
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < leads.size(); i++) {
+            groups.computeIfAbsent(leadKeys.get(i), key -> new ArrayList<>()).add(i);
+        }
+        for (List<Integer> group : groups.values()) {
+            List<CompletableFuture<byte[]>> groupLeads = new ArrayList<>(group.size());
+            List<Integer> groupPositions = new ArrayList<>(group.size());
+            List<String> groupKeys = new ArrayList<>(group.size());
+            List<byte[]> groupBlocks = new ArrayList<>(group.size());
+            for (int i : group) {
+                groupLeads.add(leads.get(i));
+                groupPositions.add(leadPositions.get(i));
+                groupKeys.add(leadKeys.get(i));
+                groupBlocks.add(leadBlocks.get(i));
+            }
+            try {
+                complete(groupLeads, groupPositions, backend.encryptBatch(groupKeys, groupBlocks), encryptedBlocks);
+            } catch (Exception | Error e) {
+                groupLeads.forEach(lead -> lead.completeExceptionally(e));
+            }
+        }
+
+    }
+
+    private static void complete(List<CompletableFuture<byte[]>> leads, List<Integer> leadPositions,
+                                 byte [][] encrypted, byte [][] encryptedBlocks){
+
+        for (int i = 0; i < leads.size(); i++) {
+            encryptedBlocks[leadPositions.get(i)] = encrypted[i];
+            leads.get(i).complete(encrypted[i].clone());
+        }
+
+    }
+
+    @Override
+    public void preload(String key) throws InvalidKeyException {
+        backend.preload(key);
+    }
+
+    @Override
+    public void evict(String key){
+
+        keyIds.remove(key);
+        backend.evict(key);
+
+    }
+
+    /**
+     * @return Number of encryptions currently in flight
+     */
+    public int inFlightCount(){
+        return inFlight.size();
+    }
+
+    /**
+     * Wait for the result of a lead call, rethrowing its failure as it was thrown.
+     * @return Copy of the result
+     */
+    private static byte [] await(CompletableFuture<byte[]> lead) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+
+        try {
+            return lead.join().clone();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof NoSuchPaddingException exception) {
+                throw exception;
+            } else if (cause instanceof NoSuchAlgorithmException exception) {
+                throw exception;
+            } else if (cause instanceof InvalidKeyException exception) {
+                throw exception;
+            } else if (cause instanceof IllegalBlockSizeException exception) {
+                throw exception;
+            } else if (cause instanceof BadPaddingException exception) {
+                throw exception;
+            } else if (cause instanceof RuntimeException exception) {
+                throw exception;
+            } else if (cause instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+
+    }
+
+    private Flight flight(String key, byte [] block){
+
+        long [] keyId = keyIds.get(key);
+        return new Flight(keyId[0], keyId[1], toLong(block));
+
+    }
+
+    private static long toLong(byte [] block){
+
+        long value = 0L;
+        for (byte b : block) {
+            value = (value << 8) | (b & 0xFF);
+        }
+        return value;
+
+    }
+
+}
@@ -0,0 +1,89 @@
+package util;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Service provider interface for the TDEA operations used by PIN and PVV processing.
+ * Keys are passed as hexadecimal characters: clear keys for the software backend (TDEAEngine), or keys under the HSM
+ * master key for an HSM backend. The backend in use is selected through CryptoFunctions.setBackend.
+ * Implementations must be thread-safe.
+ */
+public interface CryptoBackend {
+
+    /**
+     * TDEA encrypt one or more 8 byte blocks in ECB mode.
+     * @param key TDEA key, as hexadecimal characters
+     * @param data Data to be encrypted, must be a multiple of 8 bytes
+     * @return Encrypted data
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws NoSuchAlgorithmException When an invalid algorithm is specified
+     * @throws InvalidKeyException When key passed is invalid
+     * @throws IllegalBlockSizeException When block size of the data is invalid
+     * @throws BadPaddingException When data padding is invalid
+     */
+    byte [] encrypt(String key, byte [] data) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException;
+
+    /**
+     * TDEA decrypt one or more 8 byte blocks in ECB mode.
+     * @param key TDEA key, as hexadecimal characters
+     * @param data Data to be decrypted, must be a multiple of 8 bytes
+     * @return Decrypted data
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws NoSuchAlgorithmException When an invalid algorithm is specified
+     * @throws InvalidKeyException When key passed is invalid
+     * @throws IllegalBlockSizeException When block size of the data is invalid
+     * @throws BadPaddingException When data padding is invalid
+     */
+    byte [] decrypt(String key, byte [] data) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException;
+
+    /**
+     * TDEA encrypt a batch of 8 byte blocks, each under its own key. Backends override this to process the batch in
+     * fewer cipher passes or round trips than one per block.
+     * @param keys Key for each block, in the same order as the blocks
+     * @param blocks 8 byte blocks to be encrypted
+     * @return Encrypted blocks, in input order
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws NoSuchAlgorithmException When an invalid algorithm is specified
+     * @throws InvalidKeyException When a key passed is invalid
+     * @throws IllegalBlockSizeException When a block is not 8 bytes long
+     * @throws BadPaddingException When data padding is invalid
+     */
+    default byte [][] encryptBatch(List<String> keys, List<byte[]> blocks) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+
+        if (keys.size() != blocks.size()) {
+            throw new IllegalArgumentException("Number of keys and blocks must match");
+        }
+        byte [][] encryptedBlocks = new byte[blocks.size()][];
+        for (int i = 0; i < blocks.size(); i++) {
+            encryptedBlocks[i] = encrypt(keys.get(i), blocks.get(i));
+        }
+        return encryptedBlocks;
+
+    }
+
+    /**
+     * Prepare a key ahead of its first use, such as expanding its key schedule, rejecting it if it is not valid for
+     * the backend. Backends that hold no key state accept every key.
+     * @param key TDEA key, as hexadecimal characters
+     * @throws InvalidKeyException When the key is not valid for the backend
+     */
+    default void preload(String key) throws InvalidKeyException {
+    }
+
+    /**
+     * Drop, and zero where possible, the state held for a key that is no longer in use, such as its key schedule.
+     * A later use of the key prepares it again. Backends that hold no key state ignore the call.
+     * @param key TDEA key, as hexadecimal characters
+     */
+    default void evict(String key){
+    }
+
+}
@@ -4,10 +4,8 @@ import lombok.Getter;
 import lombok.Setter;
 
 import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
-import javax.crypto.spec.SecretKeySpec;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.HexFormat;
@@ -23,10 +21,29 @@ import java.util.HexFormat;
 @Setter
 public class CryptoFunctions {
 
+    private static volatile CryptoBackend backend = TDEAEngine.getInstance();
+
     private String key;
     private String inputData;
+
+    /**
+     * @return Crypto backend used for TDEA operations, the software TDEAEngine unless another backend was set
+     */
+    public static CryptoBackend getBackend(){
+        return backend;
+    }
+
+    /**
+     * Select the crypto backend used for TDEA operations, here and by the PIN and PVV engines.
+     * @param cryptoBackend Crypto backend, such as TDEAEngine, BitslicedTDEA or an HsmClient
+     */
+    public static void setBackend(CryptoBackend cryptoBackend){
+        backend = cryptoBackend;
+    }
+
     /**
-     * TDEA encrypt the input data based on the TDEA hexKey supplied.
+     * TDEA encrypt the input data based on the TDEA hexKey supplied, through the selected crypto backend. With the
+     * default TDEAEngine backend, repeated calls under the same key do not rebuild the key schedule.
      * @return Encrypted data
      * @throws NoSuchPaddingException
      * @throws NoSuchAlgorithmException
@@ -37,55 +54,29 @@ public class CryptoFunctions {
     public String tDEAEncrypt() throws NoSuchPaddingException, NoSuchAlgorithmException,
             InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
 
-        final String DES_EDE = "DESede";
-        final String ECB = "ECB";
-        final String NO_PADDING = "NoPadding";
-
-        // Since DES works on byte level data blocks, convert key and string to byte data before input
-        byte [] hexKey = HexFormat.of().parseHex(formatTDEAKey());
+        // Since DES works on byte level data blocks, convert string to byte data before input
         byte [] data = HexFormat.of().parseHex(inputData);
-
-        SecretKeySpec masterKey = new SecretKeySpec(hexKey, DES_EDE);
-        Cipher cryptography = Cipher.getInstance(DES_EDE + "/" + ECB + "/" + NO_PADDING);
-        cryptography.init(Cipher.ENCRYPT_MODE, masterKey);
-        byte [] encryptedData =  cryptography.doFinal(data);
+        byte [] encryptedData = backend.encrypt(key, data);
         return  HexFormat.of().formatHex(encryptedData);
-//        return Hex.encodeHexString(encryptedData);
 
     }
 
+    /**
+     * TDEA decrypt the input data based on the TDEA hexKey supplied, through the selected crypto backend.
+     * @return Decrypted data
+     * @throws NoSuchPaddingException
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeyException
+     * @throws IllegalBlockSizeException
+     * @throws BadPaddingException
+     */
     public String tDEADecrypt() throws NoSuchPaddingException, NoSuchAlgorithmException,
             InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
 
-        final String DES_EDE = "DESede";
-        final String ECB = "ECB";
-        final String NO_PADDING = "NoPadding";
-
-        // Since DES works on byte level data blocks, convert key and string to byte data before input
-        byte [] hexKey = HexFormat.of().parseHex(formatTDEAKey());
+        // Since DES works on byte level data blocks, convert string to byte data before input
         byte [] data = HexFormat.of().parseHex(inputData);
-
-        SecretKeySpec masterKey = new SecretKeySpec(hexKey, DES_EDE);
-        Cipher cryptography = Cipher.getInstance(DES_EDE + "/" + ECB + "/" + NO_PADDING);
-        cryptography.init(Cipher.DECRYPT_MODE, masterKey);
-        byte [] encryptedData =  cryptography.doFinal(data);
-        return  HexFormat.of().formatHex(encryptedData);
-//        return Hex.encodeHexString(encryptedData);
-
-    }
-
-    /**
-     * Converts a Single or Double length TDEA key into a triple length key.
-     * @return      Parsed TDEA key, that would be converted to triple length
-     */
-    private String formatTDEAKey(){
-        switch (key.length()){
-            case 16:    //  Repeat the single length DES key twice and form triple length DES key
-                return key + key.repeat(2);
-            case 32:    //  Append the first 16 bytes of the key to itself and form triple length DES key
-                return key + (key.substring(0, 16));
-        }
-        return null;
+        byte [] decryptedData = backend.decrypt(key, data);
+        return  HexFormat.of().formatHex(decryptedData);
 
     }
 
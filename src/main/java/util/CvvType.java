@@ -0,0 +1,39 @@
+package util;
+
+import constants.PINConstants;
+import dto.CvvRequest;
+
+/**
+ * Defines the card verification values calculated by VisaCvv. They share one algorithm and differ in the service code
+ * entering the calculation.
+ */
+public enum CvvType {
+
+    /**
+     * CVV or CVC1, encoded on the magnetic stripe, calculated with the service code of the card
+     */
+    CVV,
+    /**
+     * CVV2 or CVC2, printed on the card, calculated with service code 000
+     */
+    CVV2,
+    /**
+     * iCVV, encoded in the chip track 2 equivalent data, calculated with service code 999
+     */
+    ICVV;
+
+    /**
+     * @param cvvRequest CVV request
+     * @return Service code entering the calculation of this value for the request
+     */
+    public String serviceCode(CvvRequest cvvRequest){
+
+        return switch (this) {
+            case CVV -> cvvRequest.getServiceCode();
+            case CVV2 -> PINConstants.CVV2_SERVICE_CODE;
+            case ICVV -> PINConstants.ICVV_SERVICE_CODE;
+        };
+
+    }
+
+}
@@ -1,69 +1,189 @@
 package util;
 
 import constants.PINConstants;
+import dto.CvvRequest;
 import dto.PinRequest;
+import dto.PvvRequest;
+import metrics.PinMetrics;
+import metrics.ValidationEvent;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
- * This class defines methods for data validation
+ * This class defines methods for data validation.
+ * Validation scans characters directly and reports its findings as a ValidationResult carrying the warning and error
+ * codes raised, without doing any I/O. validatePinRequest is kept for callers that want the codes logged to stdout.
  */
 public class DataValidator {
 
-    static String HEX_PATTERN = "[0-9a-fA-F]+";
-    static String NUM_PATTERN = "[0-9]+";
-
     /**
-     * Validate the PIN generation request object
+     * Validate the PIN generation request object, logging any warnings and errors raised to stdout
      * @param pinRequest PIN generation request object
      * @return True if request object is valid, else return False
      */
     public static boolean validatePinRequest(PinRequest pinRequest){
 
-        List<Boolean> validRequest = new ArrayList<>();
-        validRequest.add(isNumeric(pinRequest.getPan()));
-        validRequest.add(isNumeric(pinRequest.getPinOffset()));
-        validRequest.add(isNumeric(pinRequest.getPinLength()));
-        validRequest.add(isHexadecimal(pinRequest.getKey()));
+        ValidationResult validationResult = validate(pinRequest);
+        for (ValidationCode code : validationResult.getCodes()) {
+            System.out.println(code);
+            if (code == ValidationCode.DECE01 || code == ValidationCode.DECE02) {
+                System.out.println("Default Table: " + Arrays.toString(PINConstants.DEFAULT_DECIMALISATION_TABLE));
+            }
+        }
+        return validationResult.isValid();
+
+    }
+
+    /**
+     * Validate the PIN generation request object. As with validatePinRequest, the request is normalised in place:
+     * - A missing or wrongly sized decimalisation table is replaced with the default table (DECE01, DECE02)
+     * - A PIN length outside 4 through 16 is reset to the nearest limit (PINL01, PINL02, PINL03)
+     * @param pinRequest PIN generation request object
+     * @return Validation result, valid when no ERRR code was raised
+     */
+    public static ValidationResult validate(PinRequest pinRequest){
+
+        ValidationEvent event = PinMetrics.beginEvent(() -> new ValidationEvent());
+        ValidationResult validationResult = validateRequest(pinRequest);
+        if (event != null) {
+            event.valid = validationResult.isValid();
+            event.commit();
+        }
+        return validationResult;
+
+    }
+
+    private static ValidationResult validateRequest(PinRequest pinRequest){
+
+        long codes = 0L;
+        if (!isNumeric(pinRequest.getPan())) {
+            codes |= ValidationResult.mask(ValidationCode.PANN01);
+        } else if (pinRequest.getPan().length() != PINConstants.PIN_VALIDATION_PAN_LEN) {
+            codes |= ValidationResult.mask(ValidationCode.PANN02);
+        } else if (!isLuhnValid(pinRequest.getPan())) {
+            codes |= ValidationResult.mask(ValidationCode.PANL01);
+        }
+        if (!isNumeric(pinRequest.getPinOffset())) {
+            codes |= ValidationResult.mask(ValidationCode.OFFN01);
+        }
+        if (pinRequest.getKeyRef() == null && !isHexadecimal(pinRequest.getKey())) {
+            codes |= ValidationResult.mask(ValidationCode.KEYH01);
+        }
         if (pinRequest.getDecimalisationTable() == null){
-            System.out.println("WARN: DECE01: No decimalisation table supplied, using system default table.");
-            System.out.println("Default Table: " + Arrays.toString(PINConstants.DEFAULT_DECIMALISATION_TABLE));
+            codes |= ValidationResult.mask(ValidationCode.DECE01);
             pinRequest.setDecimalisationTable(PINConstants.DEFAULT_DECIMALISATION_TABLE);
         } else if ((pinRequest.getDecimalisationTable().length != 16)) {
-            System.out.println("WARN: DECE02: Invalid decimalisation table supplied, using system default table.");
-            System.out.println("Default Table: " + Arrays.toString(PINConstants.DEFAULT_DECIMALISATION_TABLE));
+            codes |= ValidationResult.mask(ValidationCode.DECE02);
             pinRequest.setDecimalisationTable(PINConstants.DEFAULT_DECIMALISATION_TABLE);
+        } else if (!isDecimalisationTable(pinRequest.getDecimalisationTable())) {
+            codes |= ValidationResult.mask(ValidationCode.DECE03);
         }
-        validRequest.add(isHexadecimal(Arrays.toString(
-                pinRequest.getDecimalisationTable()).replaceAll("[\\[\\]s :,]", "")));
-        //Check if any of the validations have failed, if yes, return false, else at end of loop, return true
-        for (Boolean aBoolean : validRequest) {
-            if (!aBoolean) {
-                return false;
-            }
+        if (!isNumeric(pinRequest.getPinLength())) {
+            codes |= ValidationResult.mask(ValidationCode.PINL04);
+        }
+        // Check if any of the validations have failed, if yes, skip the PIN length checks that rely on them
+        ValidationResult validationResult = ValidationResult.of(codes);
+        if (!validationResult.isValid()) {
+            return validationResult;
         }
         if (pinRequest.getPinLength().length() > 2){
             pinRequest.setPinLength(Integer.toString(PINConstants.MAX_PIN_LENGTH));
-            System.out.println("WARN: PINL01: PIN length cannot exceed 16, resetting PIN length to 16.");
+            codes |= ValidationResult.mask(ValidationCode.PINL01);
         }
-        if (Integer.parseInt(pinRequest.getPinLength()) < PINConstants.MIN_PIN_LENGTH) {
-            pinRequest.setPinLength(Integer.toString(PINConstants.MIN_PIN_LENGTH));
-            System.out.println("WARN: PINL02: PIN length cannot be less than 4, resetting PIN length to 4.");
-        } else if (Integer.parseInt(pinRequest.getPinLength()) > PINConstants.MAX_PIN_LENGTH) {
-            pinRequest.setPinLength(Integer.toString(PINConstants.MAX_PIN_LENGTH));
-            System.out.println("WARN: PINL03: PIN length cannot exceed 16, resetting PIN length to 16.");
+        int pinLength = Integer.parseInt(pinRequest.getPinLength());
+        if (pinLength < PINConstants.MIN_PIN_LENGTH) {
+            pinLength = PINConstants.MIN_PIN_LENGTH;
+            pinRequest.setPinLength(Integer.toString(pinLength));
+            codes |= ValidationResult.mask(ValidationCode.PINL02);
+        } else if (pinLength > PINConstants.MAX_PIN_LENGTH) {
+            pinLength = PINConstants.MAX_PIN_LENGTH;
+            pinRequest.setPinLength(Integer.toString(pinLength));
+            codes |= ValidationResult.mask(ValidationCode.PINL03);
         }
         // Basic validations passed, ensure that the assigned PIN length and PIN offset length match, else return error
-        if (!pinRequest.isNaturalPin()
-            && !(Integer.parseInt(pinRequest.getPinLength()) == pinRequest.getPinOffset().length())) {
-            System.out.println("ERRR: PINOFF: PIN length and number of digits in offset must match.");
-            System.exit(8);
+        if (!pinRequest.isNaturalPin() && pinLength != pinRequest.getPinOffset().length()) {
+            codes |= ValidationResult.mask(ValidationCode.PINOFF);
+        }
+        return ValidationResult.of(codes);
+
+    }
+
+    /**
+     * Validate the card verification value request object. Requests carrying a key reference skip the CVK check,
+     * which is left to the key registry.
+     * @param cvvRequest CVV request object
+     * @return Validation result, valid when no ERRR code was raised
+     */
+    public static ValidationResult validate(CvvRequest cvvRequest){
+
+        long codes = 0L;
+        if (!isNumeric(cvvRequest.getPan())) {
+            codes |= ValidationResult.mask(ValidationCode.PANN01);
+        } else if (cvvRequest.getPan().length() < 12 || cvvRequest.getPan().length() > 19) {
+            codes |= ValidationResult.mask(ValidationCode.CVVP01);
+        } else if (!isLuhnValid(cvvRequest.getPan())) {
+            codes |= ValidationResult.mask(ValidationCode.PANL01);
+        }
+        if (cvvRequest.getKeyRef() == null && (cvvRequest.getKey() == null
+                || cvvRequest.getKey().length() != 32 || !isHexadecimal(cvvRequest.getKey()))) {
+            codes |= ValidationResult.mask(ValidationCode.CVVK01);
+        }
+        if (!isNumeric(cvvRequest.getExpiryDate()) || cvvRequest.getExpiryDate().length() != 4) {
+            codes |= ValidationResult.mask(ValidationCode.CVVE01);
+        }
+        if (!isNumeric(cvvRequest.getServiceCode()) || cvvRequest.getServiceCode().length() != 3) {
+            codes |= ValidationResult.mask(ValidationCode.CVVS01);
+        }
+        return ValidationResult.of(codes);
+
+    }
+
+    /**
+     * Validate the Visa PVV request object. Requests carrying a key reference skip the PVK check, which is left to the
+     * key registry.
+     * @param pvvRequest PVV request object
+     * @return Validation result, valid when no ERRR code was raised
+     */
+    public static ValidationResult validate(PvvRequest pvvRequest){
+
+        long codes = 0L;
+        if (!isNumeric(pvvRequest.getPan())) {
+            codes |= ValidationResult.mask(ValidationCode.PANN01);
+        } else if (pvvRequest.getPan().length() != PINConstants.PIN_VALIDATION_PAN_LEN) {
+            codes |= ValidationResult.mask(ValidationCode.PVVP01);
+        } else if (!isLuhnValid(pvvRequest.getPan())) {
+            codes |= ValidationResult.mask(ValidationCode.PANL01);
+        }
+        if (pvvRequest.getKeyRef() == null && !isHexadecimal(pvvRequest.getKey())) {
+            codes |= ValidationResult.mask(ValidationCode.KEYH01);
+        }
+        if (!isNumeric(pvvRequest.getKeyIndex()) || pvvRequest.getKeyIndex().length() != 1) {
+            codes |= ValidationResult.mask(ValidationCode.PVVI01);
         }
-            return true;
+        if (!isNumeric(pvvRequest.getPin()) || pvvRequest.getPin().length() < 4 || pvvRequest.getPin().length() > 12) {
+            codes |= ValidationResult.mask(ValidationCode.PVVN01);
+        }
+        return ValidationResult.of(codes);
+
+    }
+
+    /**
+     * Validate a pair of PIN values used together in digit by digit arithmetic, such as a customer PIN and natural PIN
+     * @param pin First PIN value
+     * @param otherPin Second PIN value
+     * @param lengthMismatchCode Code raised when the lengths do not match
+     * @return Validation result, valid when both values are numeric and of the same length
+     */
+    public static ValidationResult validatePinPair(String pin, String otherPin, ValidationCode lengthMismatchCode){
+
+        if (!isNumeric(pin) || !isNumeric(otherPin)) {
+            return ValidationResult.of(ValidationResult.mask(ValidationCode.PINN01));
+        }
+        if (pin.length() != otherPin.length()) {
+            return ValidationResult.of(ValidationResult.mask(lengthMismatchCode));
+        }
+        return ValidationResult.VALID;
+
     }
 
     /**
@@ -72,9 +192,18 @@ public class DataValidator {
      * @return Returns true, if input data is numeric
      */
     public static boolean isNumeric(String checkData){
-        Pattern hexPattern = Pattern.compile(NUM_PATTERN);
-        Matcher hexPatternMatcher = hexPattern.matcher(checkData);
-        return hexPatternMatcher.matches();
+
+        if (checkData == null || checkData.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < checkData.length(); i++) {
+            char c = checkData.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+
     }
 
     /**
@@ -83,9 +212,60 @@ public class DataValidator {
      * @return Returns true, if input data contains valid hexadecimal characters
      */
     public static boolean isHexadecimal(String checkData){
-        Pattern hexPattern = Pattern.compile(HEX_PATTERN);
-        Matcher hexPatternMatcher = hexPattern.matcher(checkData);
-        return hexPatternMatcher.matches();
+
+        if (checkData == null || checkData.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < checkData.length(); i++) {
+            if (!isHexDigit(checkData.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+
+    }
+
+    /**
+     * Verifies the check digit of a numeric PAN using the Luhn (mod 10) algorithm
+     * @param pan Numeric PAN, including its check digit
+     * @return Returns true, if the check digit is valid
+     */
+    public static boolean isLuhnValid(String pan){
+
+        int sum = 0;
+        boolean doubleDigit = false;
+        for (int i = pan.length() - 1; i >= 0; i--) {
+            int digit = pan.charAt(i) - '0';
+            if (doubleDigit) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubleDigit = !doubleDigit;
+        }
+        return sum % 10 == 0;
+
+    }
+
+    /**
+     * Verifies that every decimalisation table entry maps a hexadecimal digit to a decimal digit, in "X:Y" format
+     */
+    private static boolean isDecimalisationTable(String [] decimalisationTable){
+
+        for (String entry : decimalisationTable) {
+            if (entry == null || entry.length() != 3 || entry.charAt(1) != ':'
+                    || !isHexDigit(entry.charAt(0)) || entry.charAt(2) < '0' || entry.charAt(2) > '9') {
+                return false;
+            }
+        }
+        return true;
+
+    }
+
+    private static boolean isHexDigit(char c){
+        return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'F') || (c >= 'a' && c <= 'f');
     }
 
-}
\ No newline at end of file
+}
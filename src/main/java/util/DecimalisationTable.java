@@ -0,0 +1,146 @@
+package util;
+
+import constants.PINConstants;
+import metrics.DecimalisationEvent;
+import metrics.PinMetrics;
+
+import java.util.Arrays;
+
+/**
+ * Compiled form of a decimalisation table, as a 16 entry lookup from hexadecimal digit value to decimal digit.
+ * The table is compiled from the "X:Y" string entries used by PinRequest and PINConstants, where X is the
+ * hexadecimal digit being substituted and Y is the decimal digit substituted for it. Hexadecimal digits without an
+ * entry keep their default table substitution, and where a digit appears in more than one entry, the first one wins.
+ * Compiled tables are immutable and can be shared across threads.
+ */
+public final class DecimalisationTable {
+
+    public static final DecimalisationTable DEFAULT = compile(PINConstants.DEFAULT_DECIMALISATION_TABLE);
+
+    private static volatile DecimalisationTable lastCompiled = DEFAULT;
+
+    private final String [] source;
+    private final byte [] digits;
+
+    private DecimalisationTable(String [] source, byte [] digits){
+        this.source = source;
+        this.digits = digits;
+    }
+
+    /**
+     * Return the compiled table for the string table, reusing the last compiled table when the same table is
+     * supplied again. A null table resolves to the default table.
+     * @param decimalisationTable Decimalisation table entries, in "X:Y" format
+     * @return Compiled decimalisation table
+     */
+    public static DecimalisationTable of(String [] decimalisationTable){
+
+        if (decimalisationTable == null || decimalisationTable == PINConstants.DEFAULT_DECIMALISATION_TABLE) {
+            return DEFAULT;
+        }
+        DecimalisationTable compiled = lastCompiled;
+        if (Arrays.equals(compiled.source, decimalisationTable)) {
+            return compiled;
+        }
+        compiled = compile(decimalisationTable);
+        lastCompiled = compiled;
+        return compiled;
+
+    }
+
+    /**
+     * Compile a decimalisation table from its string entries.
+     * @param decimalisationTable Decimalisation table entries, in "X:Y" format
+     * @return Compiled decimalisation table
+     * @throws IllegalArgumentException When an entry is not a hexadecimal digit mapped to a decimal digit
+     */
+    public static DecimalisationTable compile(String [] decimalisationTable){
+
+        byte [] digits = new byte[16];
+        boolean [] assigned = new boolean[16];
+        for (String entry : decimalisationTable) {
+            int hexDigit = entry == null || entry.length() != 3 || entry.charAt(1) != ':'
+                    ? -1 : Character.digit(entry.charAt(0), 16);
+            int decimalDigit = hexDigit < 0 ? -1 : Character.digit(entry.charAt(2), 10);
+            if (decimalDigit < 0) {
+                throw new IllegalArgumentException("Invalid decimalisation table entry: " + entry);
+            }
+            if (!assigned[hexDigit]) {
+                digits[hexDigit] = (byte) decimalDigit;
+                assigned[hexDigit] = true;
+            }
+        }
+        for (int hexDigit = 0; hexDigit < 16; hexDigit++) {
+            if (!assigned[hexDigit]) {
+                digits[hexDigit] = (byte) (hexDigit % 10);
+            }
+        }
+        return new DecimalisationTable(decimalisationTable.clone(), digits);
+
+    }
+
+    /**
+     * @param hexDigit Hexadecimal digit value, 0 through 15
+     * @return Decimal digit substituted for the hexadecimal digit
+     */
+    public int decimalise(int hexDigit){
+        return digits[hexDigit];
+    }
+
+    /**
+     * Decimalise the leading hexadecimal digits of the data.
+     * @param data Data to be decimalised, usually encrypted PIN validation data
+     * @param decimalDigits Output array receiving decimal digit values, one per element
+     * @param count Number of digits to decimalise
+     */
+    public void decimalise(byte [] data, byte [] decimalDigits, int count){
+        for (int i = 0; i < count; i++) {
+            decimalDigits[i] = digits[hexDigit(data, i)];
+        }
+    }
+
+    /**
+     * Select decimal digits from encrypted data, as done for Visa PVVs and card verification values: the decimal
+     * digits of the data are taken left to right, then, while more digits are needed, its hexadecimal digits A through
+     * F, as 0 through 5, again left to right.
+     * @param data Encrypted data
+     * @param count Number of digits to select
+     * @return Selected digits, as ASCII digit characters
+     */
+    public static byte [] selectDigits(byte [] data, int count){
+
+        DecimalisationEvent event = PinMetrics.beginEvent(() -> new DecimalisationEvent());
+        byte [] selected = new byte[count];
+        int selectedLength = 0;
+        for (int i = 0; i < data.length * 2 && selectedLength < count; i++) {
+            int digit = hexDigit(data, i);
+            if (digit < 10) {
+                selected[selectedLength++] = (byte) ('0' + digit);
+            }
+        }
+        for (int i = 0; i < data.length * 2 && selectedLength < count; i++) {
+            int digit = hexDigit(data, i);
+            if (digit > 9) {
+                selected[selectedLength++] = (byte) ('0' + digit - 10);
+            }
+        }
+        if (event != null) {
+            event.digits = count;
+            event.commit();
+        }
+        return selected;
+
+    }
+
+    /**
+     * Return the hexadecimal digit at a position of the data, counting from the leftmost digit.
+     * @param data Binary data
+     * @param position Digit position, 0 for the high order nibble of the first byte
+     * @return Hexadecimal digit value, 0 through 15
+     */
+    public static int hexDigit(byte [] data, int position){
+        int dataByte = data[position >> 1];
+        return (position & 1) == 0 ? (dataByte >> 4) & 0x0F : dataByte & 0x0F;
+    }
+
+}
@@ -1,13 +1,22 @@
 package util;
 
 import constants.PINConstants;
+import dto.CompactPinRequest;
 import dto.PinRequest;
 import dto.PinResponse;
+import metrics.DecimalisationEvent;
+import metrics.PinMetrics;
+import metrics.PinOperation;
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
 
 /**
  * This class generates an IBM 3624 compatible PIN and Offset
@@ -25,34 +34,342 @@ import java.security.NoSuchAlgorithmException;
  * - F substituted with 5
  * This class supports methods and attributes for generating an IBM 3624 compatible PIN and Offset, with a minimum
  * length of 4, and supports a maximum PIN length of 16.
+ * PINs can be generated or verified one request at a time, or for a list of requests, in which case requests sharing
+ * a PVK are encrypted together. An IntermediateResultCache can be supplied, so repeated requests for the same PAN and
+ * PVK skip the cipher step. With a KeyRegistry, requests may carry a key reference in place of the PVK.
  */
 
 public class IBM3624Pin {
 
+    private final IntermediateResultCache resultCache;
+    private final KeyRegistry keyRegistry;
+
+    /**
+     * Create an instance that encrypts every block.
+     */
+    public IBM3624Pin(){
+        this(null);
+    }
+
+    /**
+     * Create an instance that looks encrypted PIN validation data up in a result cache before encrypting it.
+     * @param resultCache Result cache, or null to encrypt every block
+     */
+    public IBM3624Pin(IntermediateResultCache resultCache){
+        this(resultCache, null);
+    }
+
+    /**
+     * Create an instance that looks encrypted PIN validation data up in a result cache before encrypting it,
+     * resolving key references through a key registry.
+     * @param resultCache Result cache, or null to encrypt every block
+     * @param keyRegistry Key registry, or null to only accept requests carrying their key
+     */
+    public IBM3624Pin(IntermediateResultCache resultCache, KeyRegistry keyRegistry){
+        this.resultCache = resultCache;
+        this.keyRegistry = keyRegistry;
+    }
+
     public PinResponse generateIBM3624Pin(PinRequest pinRequest) throws NoSuchPaddingException,
             IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
 
+        long start = System.nanoTime();
         PinResponse pinResponse = new PinResponse();
-        CryptoFunctions cryptoFunctions = new CryptoFunctions();
-
-        if (DataValidator.validatePinRequest(pinRequest)){
-            cryptoFunctions.setKey(pinRequest.getKey());
-            cryptoFunctions.setInputData(derivePinValidationData(pinRequest.getPan()));
-            pinResponse.setPin(calculateIntermediatePin(cryptoFunctions.tDEAEncrypt().toUpperCase(),
-                    pinRequest.getDecimalisationTable()));
-            pinResponse.setPinLength(pinRequest.getPinLength());
-            pinResponse.setPinOffset(pinRequest.getPinOffset());
-            if (!pinRequest.isNaturalPin()){
-                pinResponse.setPin(addOffset(pinResponse.getPin(), pinRequest.getPinOffset()));
-            } else {
-                pinResponse.setPin(pinResponse.getPin().substring(0, Integer.parseInt(pinRequest.getPinLength())));
-            }
+
+        if (isValid(pinRequest)){
+            byte [] encryptedPinVerificationData = encrypt(key(pinRequest),
+                    HexFormat.of().parseHex(derivePinValidationData(pinRequest.getPan())));
+            buildPinResponse(pinRequest, encryptedPinVerificationData, pinResponse);
         }
 
+        PinMetrics.recordOperation(PinOperation.IBM3624_GENERATE, start, 1);
         return pinResponse;
 
     }
 
+    /**
+     * Generate IBM 3624 PINs for a batch of requests. Valid requests are grouped by key and the PIN validation data
+     * of each group is encrypted in a single cipher pass.
+     * @param pinRequests PIN generation request objects
+     * @return PIN generation responses, in the same order as the requests. Requests failing validation get an empty
+     * response, as with the single request method
+     */
+    public List<PinResponse> generateIBM3624Pin(List<PinRequest> pinRequests) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        long start = System.nanoTime();
+        List<PinResponse> pinResponses = new ArrayList<>(pinRequests.size());
+        List<PinRequest> validRequests = new ArrayList<>(pinRequests.size());
+        List<PinResponse> validResponses = new ArrayList<>(pinRequests.size());
+        List<String> keys = new ArrayList<>(pinRequests.size());
+        List<byte[]> pinValidationData = new ArrayList<>(pinRequests.size());
+
+        for (PinRequest pinRequest : pinRequests) {
+            PinResponse pinResponse = new PinResponse();
+            pinResponses.add(pinResponse);
+            if (isValid(pinRequest)) {
+                validRequests.add(pinRequest);
+                validResponses.add(pinResponse);
+                keys.add(key(pinRequest));
+                pinValidationData.add(HexFormat.of().parseHex(derivePinValidationData(pinRequest.getPan())));
+            }
+        }
+
+        byte [][] encryptedPinVerificationData = encryptBatch(keys, pinValidationData);
+        for (int i = 0; i < validRequests.size(); i++) {
+            buildPinResponse(validRequests.get(i), encryptedPinVerificationData[i], validResponses.get(i));
+        }
+
+        PinMetrics.recordOperation(PinOperation.IBM3624_GENERATE, start, pinRequests.size());
+        return pinResponses;
+
+    }
+
+    /**
+     * Verify a customer entered PIN against the PIN derived from the PAN, PVK and stored offset in the request.
+     * The derived PIN and the customer PIN are compared in constant time. Only a customer PIN that cannot match
+     * because of its length or format is rejected early, before any cryptography is done.
+     * @param pinRequest PIN request carrying the key, PAN, decimalisation table, stored PIN offset and PIN length.
+     *                   Natural PIN requests verify against the natural PIN
+     * @param customerPin Clear PIN entered by the customer
+     * @return True if the customer PIN matches
+     */
+    public boolean verifyIBM3624Pin(PinRequest pinRequest, String customerPin) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        return verifyIBM3624Pin(pinRequest, toPinDigits(customerPin));
+    }
+
+    /**
+     * Verify a customer entered PIN, supplied as digit values, against the PIN derived from the request.
+     * @param pinRequest PIN request carrying the key, PAN, decimalisation table, stored PIN offset and PIN length
+     * @param customerPinDigits Clear PIN entered by the customer, one digit value (0 through 9) per element
+     * @return True if the customer PIN matches
+     */
+    public boolean verifyIBM3624Pin(PinRequest pinRequest, byte [] customerPinDigits) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        long start = System.nanoTime();
+        boolean match = false;
+        if (isValid(pinRequest) && canMatch(pinRequest, customerPinDigits)) {
+            byte [] encryptedPinVerificationData = encrypt(key(pinRequest),
+                    HexFormat.of().parseHex(derivePinValidationData(pinRequest.getPan())));
+            match = MessageDigest.isEqual(calculatePinDigits(pinRequest, encryptedPinVerificationData),
+                    customerPinDigits);
+        }
+        PinMetrics.recordOperation(PinOperation.IBM3624_VERIFY, start, 1);
+        return match;
+
+    }
+
+    /**
+     * Verify a batch of customer entered PINs. Requests that can match are grouped by key and the PIN validation
+     * data of each group is encrypted in a single cipher pass.
+     * @param pinRequests PIN requests carrying the key, PAN, decimalisation table, stored PIN offset and PIN length
+     * @param customerPins Clear PINs entered by the customers, in the same order as the requests
+     * @return Verification results, in the same order as the requests
+     */
+    public List<Boolean> verifyIBM3624Pin(List<PinRequest> pinRequests, List<String> customerPins)
+            throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException,
+            InvalidKeyException {
+
+        if (pinRequests.size() != customerPins.size()) {
+            throw new IllegalArgumentException("Number of PIN requests and customer PINs must match");
+        }
+        long start = System.nanoTime();
+        Boolean [] results = new Boolean[pinRequests.size()];
+        List<Integer> positions = new ArrayList<>(pinRequests.size());
+        List<byte[]> customerPinDigits = new ArrayList<>(pinRequests.size());
+        List<String> keys = new ArrayList<>(pinRequests.size());
+        List<byte[]> pinValidationData = new ArrayList<>(pinRequests.size());
+
+        for (int i = 0; i < pinRequests.size(); i++) {
+            PinRequest pinRequest = pinRequests.get(i);
+            byte [] pinDigits = toPinDigits(customerPins.get(i));
+            results[i] = Boolean.FALSE;
+            if (isValid(pinRequest) && canMatch(pinRequest, pinDigits)) {
+                positions.add(i);
+                customerPinDigits.add(pinDigits);
+                keys.add(key(pinRequest));
+                pinValidationData.add(HexFormat.of().parseHex(derivePinValidationData(pinRequest.getPan())));
+            }
+        }
+
+        byte [][] encryptedPinVerificationData = encryptBatch(keys, pinValidationData);
+        for (int i = 0; i < positions.size(); i++) {
+            int position = positions.get(i);
+            results[position] = MessageDigest.isEqual(calculatePinDigits(pinRequests.get(position),
+                    encryptedPinVerificationData[i]), customerPinDigits.get(i));
+        }
+
+        PinMetrics.recordOperation(PinOperation.IBM3624_VERIFY, start, pinRequests.size());
+        return Arrays.asList(results);
+
+    }
+
+    /**
+     * Generate the IBM 3624 PIN of a compact request. Compact requests are validated when they are built, and their
+     * packed PAN is the PIN validation data block, so no validation or conversion is done here.
+     * @param pinRequest Compact PIN generation request
+     * @return PIN digit values, one per element, PIN length elements long
+     */
+    public byte [] generatePinDigits(CompactPinRequest pinRequest) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        long start = System.nanoTime();
+        byte [] pinDigits = calculatePinDigits(pinRequest,
+                encrypt(pinRequest.key(), pinValidationData(pinRequest)));
+        PinMetrics.recordOperation(PinOperation.IBM3624_GENERATE, start, 1);
+        return pinDigits;
+
+    }
+
+    /**
+     * Generate IBM 3624 PINs for a batch of compact requests, encrypting the PIN validation data of requests sharing
+     * a key in a single cipher pass.
+     * @param pinRequests Compact PIN generation requests
+     * @return PIN digit values of each request, in the same order as the requests
+     */
+    public List<byte[]> generatePinDigits(List<CompactPinRequest> pinRequests) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        long start = System.nanoTime();
+        List<String> keys = new ArrayList<>(pinRequests.size());
+        List<byte[]> pinValidationData = new ArrayList<>(pinRequests.size());
+        for (CompactPinRequest pinRequest : pinRequests) {
+            keys.add(pinRequest.key());
+            pinValidationData.add(pinValidationData(pinRequest));
+        }
+
+        byte [][] encryptedPinVerificationData = encryptBatch(keys, pinValidationData);
+        List<byte[]> pins = new ArrayList<>(pinRequests.size());
+        for (int i = 0; i < pinRequests.size(); i++) {
+            pins.add(calculatePinDigits(pinRequests.get(i), encryptedPinVerificationData[i]));
+        }
+        PinMetrics.recordOperation(PinOperation.IBM3624_GENERATE, start, pinRequests.size());
+        return pins;
+
+    }
+
+    /**
+     * Verify a customer entered PIN against the PIN derived from a compact request, in constant time.
+     * @param pinRequest Compact PIN request carrying the stored PIN offset
+     * @param customerPinDigits Clear PIN entered by the customer, one digit value (0 through 9) per element
+     * @return True if the customer PIN matches
+     */
+    public boolean verifyIBM3624Pin(CompactPinRequest pinRequest, byte [] customerPinDigits)
+            throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException,
+            InvalidKeyException {
+
+        long start = System.nanoTime();
+        boolean match = false;
+        if (customerPinDigits != null && customerPinDigits.length == pinRequest.pinLength()) {
+            match = MessageDigest.isEqual(calculatePinDigits(pinRequest,
+                    encrypt(pinRequest.key(), pinValidationData(pinRequest))),
+                    customerPinDigits);
+        }
+        PinMetrics.recordOperation(PinOperation.IBM3624_VERIFY, start, 1);
+        return match;
+
+    }
+
+    /**
+     * Validate a request, recording the error codes of a failed validation.
+     */
+    private static boolean isValid(PinRequest pinRequest){
+
+        ValidationResult validationResult = DataValidator.validate(pinRequest);
+        if (!validationResult.isValid()) {
+            PinMetrics.recordErrors(validationResult);
+        }
+        return validationResult.isValid();
+
+    }
+
+    /**
+     * Populate the PIN response from the encrypted PIN verification data of a validated request.
+     */
+    private void buildPinResponse(PinRequest pinRequest, byte [] encryptedPinVerificationData,
+                                  PinResponse pinResponse){
+
+        byte [] pinDigits = calculatePinDigits(pinRequest, encryptedPinVerificationData);
+        pinResponse.setPin(toPinString(pinDigits, pinDigits.length));
+        pinResponse.setPinLength(pinRequest.getPinLength());
+        pinResponse.setPinOffset(pinRequest.getPinOffset());
+
+    }
+
+    /**
+     * Derive the PIN digits of a validated request, applying the offset unless a natural PIN is requested.
+     * @return PIN digit values, one per element, PIN length elements long
+     */
+    private byte [] calculatePinDigits(PinRequest pinRequest, byte [] encryptedPinVerificationData){
+
+        int pinLength = Integer.parseInt(pinRequest.getPinLength());
+        byte [] pinDigits = new byte[pinLength];
+        calculateIntermediatePin(encryptedPinVerificationData,
+                DecimalisationTable.of(pinRequest.getDecimalisationTable()), pinDigits, pinLength);
+        if (!pinRequest.isNaturalPin()){
+            addOffset(pinDigits, pinRequest.getPinOffset(), pinLength);
+        }
+        return pinDigits;
+
+    }
+
+    /**
+     * Derive the PIN digits of a compact request, applying the offset unless a natural PIN is requested.
+     */
+    private byte [] calculatePinDigits(CompactPinRequest pinRequest, byte [] encryptedPinVerificationData){
+
+        byte [] pinDigits = new byte[pinRequest.pinLength()];
+        calculateIntermediatePin(encryptedPinVerificationData, pinRequest.decimalisationTable(), pinDigits,
+                pinRequest.pinLength());
+        if (!pinRequest.naturalPin()) {
+            for (int i = 0; i < pinDigits.length; i++) {
+                int pinDigit = pinDigits[i] + pinRequest.pinOffset()[i];
+                pinDigits[i] = (byte) (pinDigit >= 10 ? pinDigit - 10 : pinDigit);
+            }
+        }
+        return pinDigits;
+
+    }
+
+    /**
+     * The packed PAN of a compact request is the PIN validation data. It is copied, as the cipher input must not be
+     * shared with the request.
+     */
+    private static byte [] pinValidationData(CompactPinRequest pinRequest){
+        return Arrays.copyOf(pinRequest.pan(), CompactPinRequest.PIN_VALIDATION_DATA_DIGITS / 2);
+    }
+
+    /**
+     * Check whether a customer PIN can match a validated request at all, from its length only. Length is not secret,
+     * so rejecting here does not leak anything about the expected PIN.
+     */
+    private static boolean canMatch(PinRequest pinRequest, byte [] customerPinDigits){
+        return customerPinDigits != null && customerPinDigits.length == Integer.parseInt(pinRequest.getPinLength());
+    }
+
+    /**
+     * Convert a clear PIN to digit values.
+     * @return PIN digit values, or null if the PIN is not numeric
+     */
+    private static byte [] toPinDigits(String pin){
+
+        if (pin == null) {
+            return null;
+        }
+        byte [] pinDigits = new byte[pin.length()];
+        for (int i = 0; i < pin.length(); i++) {
+            int pinDigit = pin.charAt(i) - '0';
+            if (pinDigit < 0 || pinDigit > 9) {
+                return null;
+            }
+            pinDigits[i] = (byte) pinDigit;
+        }
+        return pinDigits;
+
+    }
+
     /**pan.substring(panLength - 13, panLength -1)
      * Derives PIN validation data from PAN
      */
@@ -66,45 +383,51 @@ public class IBM3624Pin {
 
     /**
      * Derive natural PIN from encrypted PIN verification data, by substituting digits based on decimalisation table.
-     * @param encryptedPinVerificationData PIN validation data, usually PAN, encrypted under PVK, 16 chars long
-     * @param decimalisationTable Decimalisation table to be used for substitution of encrypted pin verification data
-     *                            , primarily used to convert hexadecimal alphabetic chars A through F. However, this
-     *                            may be used to substitute numeric characters as well
-     * @return Derived intermediate PIN
-     */
-    private String calculateIntermediatePin(String encryptedPinVerificationData, String [] decimalisationTable){
-        for (int i = 0; i < encryptedPinVerificationData.length(); i++){
-            for (int j = 0; j < encryptedPinVerificationData.length(); j++){
-                if (decimalisationTable[j].contains(String.valueOf(encryptedPinVerificationData.charAt(i)))) {
-                    encryptedPinVerificationData = encryptedPinVerificationData
-                            .replace(encryptedPinVerificationData.charAt(i), decimalisationTable[j].charAt(2));
-                    break;
-                }
-            }
-
+     * Each hexadecimal digit is substituted exactly once, straight from the encrypted bytes.
+     * @param encryptedPinVerificationData PIN validation data, usually PAN, encrypted under PVK, 8 bytes long
+     * @param decimalisationTable Compiled decimalisation table to be used for substitution of encrypted pin
+     *                            verification data, primarily used to convert hexadecimal alphabetic chars A through
+     *                            F. However, this may be used to substitute numeric characters as well
+     * @param pinDigits Output array receiving the intermediate PIN, one digit value per element
+     * @param pinLength Number of PIN digits to derive
+     */
+    private void calculateIntermediatePin(byte [] encryptedPinVerificationData,
+                                          DecimalisationTable decimalisationTable, byte [] pinDigits, int pinLength){
+
+        DecimalisationEvent event = PinMetrics.beginEvent(() -> new DecimalisationEvent());
+        decimalisationTable.decimalise(encryptedPinVerificationData, pinDigits, pinLength);
+        if (event != null) {
+            event.digits = pinLength;
+            event.commit();
         }
 
-        return encryptedPinVerificationData;
-
     }
 
     /**
-     * Calculate PIN based on an input offset
-     * @param naturalPin Natural PIN associated with the PAN
+     * Calculate PIN based on an input offset, adding each offset digit modulo 10 to the natural PIN in place
+     * @param pinDigits Natural PIN associated with the PAN, one digit value per element
      * @param offset Offset value to be added to the PIN
-     * @return PIN based on input offset
+     * @param pinLength Number of PIN digits
      */
-    private String addOffset(String naturalPin, String offset){
+    private void addOffset(byte [] pinDigits, String offset, int pinLength){
 
-        StringBuilder offsetAdjustedPin = new StringBuilder();
-
-        for(int i = 0; i < offset.length(); i++){
-            int pinDigit = Integer.parseInt(String.valueOf(naturalPin.charAt(i)));
-            int offsetDigit = Integer.parseInt(String.valueOf(offset.charAt(i)));
-            offsetAdjustedPin.append((pinDigit + offsetDigit) % 10);
+        for(int i = 0; i < pinLength; i++){
+            int pinDigit = pinDigits[i] + (offset.charAt(i) - '0');
+            pinDigits[i] = (byte) (pinDigit >= 10 ? pinDigit - 10 : pinDigit);
         }
 
-        return offsetAdjustedPin.toString();
+    }
+
+    /**
+     * Convert PIN digit values to PIN characters
+     */
+    private static String toPinString(byte [] pinDigits, int pinLength){
+
+        char [] pin = new char[pinLength];
+        for (int i = 0; i < pinLength; i++) {
+            pin[i] = (char) ('0' + pinDigits[i]);
+        }
+        return new String(pin);
 
     }
 
@@ -113,26 +436,28 @@ public class IBM3624Pin {
      * @param customerPin Customer selected PIN
      * @param naturalPin Natural PIN
      * @return Derived PIN Offset value
+     * @throws IllegalArgumentException When either PIN is not numeric or the lengths do not match (NCPI01)
      */
     public String deriveOffset(String customerPin, String naturalPin){
 
-        StringBuilder pinOffset = new StringBuilder();
+        char [] pinOffset = new char[naturalPin.length()];
 
-        if (customerPin.length() != naturalPin.length()){
-            System.out.println("ERRR: NCPI01: Natural PIN and Customer PIN length must match.");
-            System.exit(8);
+        ValidationResult validationResult = DataValidator.validatePinPair(customerPin, naturalPin,
+                ValidationCode.NCPI01);
+        if (!validationResult.isValid()){
+            throw new IllegalArgumentException(validationResult.getCodes().get(0).toString());
         }
 
         for(int i = 0; i < naturalPin.length(); i++){
-            int cpinDigit = Integer.parseInt(customerPin.substring(i, i + 1));
-            int nPinDigit = Integer.parseInt(naturalPin.substring(i, i + 1));
+            int cpinDigit = customerPin.charAt(i) - '0';
+            int nPinDigit = naturalPin.charAt(i) - '0';
             if (cpinDigit < nPinDigit) {
                 cpinDigit += 10;
             }
-            pinOffset.append(cpinDigit - nPinDigit);
+            pinOffset[i] = (char) ('0' + cpinDigit - nPinDigit);
         }
 
-        return pinOffset.toString();
+        return new String(pinOffset);
 
     }
 
@@ -141,28 +466,60 @@ public class IBM3624Pin {
      * @param customerPin Customer selected PIN
      * @param pinOffset PIN Offset
      * @return Natural PIN
+     * @throws IllegalArgumentException When either value is not numeric or the lengths do not match (OFFC01)
      */
 
     public String deriveNaturalPin(String customerPin, String pinOffset){
 
-        StringBuilder naturalPin = new StringBuilder();
+        char [] naturalPin = new char[pinOffset.length()];
 
-        if (customerPin.length() != pinOffset.length()){
-            System.out.println("ERRR: OFFC01: Customer PIN and PIN offset length must match.");
-            System.exit(8);
+        ValidationResult validationResult = DataValidator.validatePinPair(customerPin, pinOffset,
+                ValidationCode.OFFC01);
+        if (!validationResult.isValid()){
+            throw new IllegalArgumentException(validationResult.getCodes().get(0).toString());
         }
 
         for(int i = 0; i < pinOffset.length(); i++){
-            int cpinDigit = Integer.parseInt(customerPin.substring(i, i + 1));
-            int pinOffsetDigit = Integer.parseInt(pinOffset.substring(i, i + 1));
+            int cpinDigit = customerPin.charAt(i) - '0';
+            int pinOffsetDigit = pinOffset.charAt(i) - '0';
             if (cpinDigit < pinOffsetDigit) {
                 cpinDigit += 10;
             }
-            naturalPin.append(cpinDigit - pinOffsetDigit);
+            naturalPin[i] = (char) ('0' + cpinDigit - pinOffsetDigit);
+        }
+
+        return new String(naturalPin);
+
+    }
+
+    /**
+     * Return the PVK of a request, resolving its key reference through the key registry when it has one.
+     */
+    private String key(PinRequest pinRequest) throws InvalidKeyException {
+
+        if (keyRegistry != null) {
+            return keyRegistry.resolve(pinRequest);
+        }
+        if (pinRequest.getKeyRef() != null) {
+            throw new InvalidKeyException("Key reference " + pinRequest.getKeyRef()
+                    + " cannot be resolved without a key registry");
         }
+        return pinRequest.getKey();
 
-        return naturalPin.toString();
+    }
 
+    /**
+     * Encrypt a block through the result cache, if there is one, else through the selected crypto backend.
+     */
+    private byte [] encrypt(String key, byte [] block) throws NoSuchPaddingException, IllegalBlockSizeException,
+            NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        return resultCache == null ? CryptoFunctions.getBackend().encrypt(key, block) : resultCache.encrypt(key, block);
+    }
+
+    private byte [][] encryptBatch(List<String> keys, List<byte[]> blocks) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        return resultCache == null ? CryptoFunctions.getBackend().encryptBatch(keys, blocks)
+                : resultCache.encryptBatch(keys, blocks);
     }
 
-}
\ No newline at end of file
+}
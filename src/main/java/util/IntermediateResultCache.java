@@ -0,0 +1,328 @@
+package util;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in cache of encrypted IBM 3624 PIN validation data, keyed by PVK and clear block. Repeated generations and
+ * verifications for the same PAN then skip the cipher step.
+ * - Only blocks derived from the PAN alone may be cached. Blocks holding PIN digits, such as Visa TSPs, must never be
+ * cached: the PIN would stay in memory, and a PIN seen before would be verified measurably faster than a new one.
+ * - Entries are keyed by the KeyId digest of the PVK, not by the clear key. The digest of each PVK in use is computed
+ * once and kept in a small bounded map, as the crypto backends keep their formatted keys, and dropped on invalidate.
+ * - The cache is split into independently locked stripes, so concurrent lookups from many cores rarely contend.
+ * - Each stripe is bounded and evicts its least recently used entry first. Entries also expire after a fixed time to
+ * live, counted from when they were cached. Expired entries are swept from a stripe whenever it is written or read,
+ * at most once per half time to live, so blocks for PANs nobody queries again do not outlive their time to live by
+ * more than half of it while the cache is in use. removeExpired sweeps every stripe, for callers that want to run it
+ * on a schedule while the cache may be idle.
+ * - Evicted, expired and invalidated entries are overwritten with zeros before they are released, and callers only
+ * ever receive copies of cached blocks.
+ * When a PVK is changed or withdrawn, invalidate must be called with the old key, removing everything cached for it.
+ */
+public final class IntermediateResultCache {
+
+    private static final int BLOCK_SIZE = 8;
+    private static final int MAX_KEY_IDS = 256;
+
+    private final Stripe [] stripes;
+    private final long ttlNanos;
+    private final CryptoBackend backend;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final KeyIdCache keyIds = new KeyIdCache(MAX_KEY_IDS);
+
+    private record CacheKey(long keyIdHigh, long keyIdLow, long block) { }
+
+    private record Entry(byte [] result, long expiresAt) { }
+
+    /**
+     * One independently locked, access ordered part of the cache.
+     */
+    private static final class Stripe extends LinkedHashMap<CacheKey, Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+        private long nextSweep;
+
+        Stripe(int maxEntries){
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+            this.nextSweep = System.nanoTime();
+        }
+
+        /**
+         * Remove, and zero, every expired entry, unless the stripe was swept less than the sweep interval ago.
+         *
+         * @param force Sweep even if the last sweep was recent
+         */
+        void sweep(long now, long interval, boolean force){
+
+            if (!force && now - nextSweep < 0) {
+                return;
+            }
+            nextSweep = now + interval;
+            Iterator<Entry> entries = values().iterator();
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                if (entry.expiresAt() - now <= 0) {
+                    Arrays.fill(entry.result(), (byte) 0);
+                    entries.remove();
+                }
+            }
+
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest){
+            if (size() > maxEntries) {
+                Arrays.fill(eldest.getValue().result(), (byte) 0);
+                return true;
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * Create a cache in front of the crypto backend selected in CryptoFunctions at the time of each miss.
+     * @param maxEntries Maximum number of cached blocks, spread evenly over the stripes
+     * @param ttl Time to live of each cached block
+     */
+    public IntermediateResultCache(int maxEntries, Duration ttl){
+        this(maxEntries, ttl, null);
+    }
+
+    /**
+     * @param maxEntries Maximum number of cached blocks, spread evenly over the stripes
+     * @param ttl Time to live of each cached block
+     * @param backend Crypto backend used for blocks that are not cached, or null for the selected backend
+     */
+    public IntermediateResultCache(int maxEntries, Duration ttl, CryptoBackend backend){
+
+        int stripeCount = Math.min(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4),
+                Integer.highestOneBit(Math.max(1, maxEntries)));
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(Math.max(1, maxEntries / stripeCount));
+        }
+        this.ttlNanos = ttl.toNanos();
+        this.backend = backend;
+
+    }
+
+    /**
+     * Return the encrypted PIN validation data from the cache, encrypting and caching it when it is not cached.
+     * @param key Single or double length TDEA key, as hexadecimal characters
+     * @param block Clear 8 byte PIN validation data
+     * @return Encrypted block
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws NoSuchAlgorithmException When an invalid algorithm is specified
+     * @throws InvalidKeyException When key passed is invalid
+     * @throws IllegalBlockSizeException When block size of the data is invalid
+     * @throws BadPaddingException When data padding is invalid
+     */
+    public byte [] encrypt(String key, byte [] block) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+
+        CacheKey cacheKey = cacheKey(keyIds.get(key), block);
+        byte [] result = get(cacheKey);
+        if (result == null) {
+            result = backend().encrypt(key, block);
+            put(cacheKey, result);
+        }
+        return result;
+
+    }
+
+    /**
+     * Encrypt a batch of PIN validation data blocks, each under its own key, encrypting only the blocks that are not
+     * cached. Blocks that are not cached are handed to the backend as one batch.
+     * @param keys TDEA keys, as hexadecimal characters, one per block
+     * @param blocks Clear 8 byte PIN validation data
+     * @return Encrypted blocks, in the same order as the input
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws NoSuchAlgorithmException When an invalid algorithm is specified
+     * @throws InvalidKeyException When key passed is invalid
+     * @throws IllegalBlockSizeException When block size of the data is invalid
+     * @throws BadPaddingException When data padding is invalid
+     */
+    public byte [][] encryptBatch(List<String> keys, List<byte[]> blocks) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+
+        byte [][] results = new byte[blocks.size()][];
+        CacheKey [] cacheKeys = new CacheKey[blocks.size()];
+        List<Integer> positions = new ArrayList<>();
+        List<String> missKeys = new ArrayList<>();
+        List<byte[]> missBlocks = new ArrayList<>();
+        for (int i = 0; i < blocks.size(); i++) {
+            cacheKeys[i] = cacheKey(keyIds.get(keys.get(i)), blocks.get(i));
+            results[i] = get(cacheKeys[i]);
+            if (results[i] == null) {
+                positions.add(i);
+                missKeys.add(keys.get(i));
+                missBlocks.add(blocks.get(i));
+            }
+        }
+
+        if (!positions.isEmpty()) {
+            byte [][] encrypted = backend().encryptBatch(missKeys, missBlocks);
+            for (int i = 0; i < encrypted.length; i++) {
+                int position = positions.get(i);
+                results[position] = encrypted[i];
+                put(cacheKeys[position], encrypted[i]);
+            }
+        }
+        return results;
+
+    }
+
+    /**
+     * Remove, and zero, every block cached under a key. Call this when a PVK is changed or withdrawn.
+     * @param key TDEA key, as hexadecimal characters
+     */
+    public void invalidate(String key){
+
+        long [] keyId = keyIds.remove(key);
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                Iterator<Map.Entry<CacheKey, Entry>> entries = stripe.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<CacheKey, Entry> entry = entries.next();
+                    CacheKey cacheKey = entry.getKey();
+                    if (cacheKey.keyIdHigh() == keyId[0] && cacheKey.keyIdLow() == keyId[1]) {
+                        Arrays.fill(entry.getValue().result(), (byte) 0);
+                        entries.remove();
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Remove, and zero, every cached block.
+     */
+    public void clear(){
+
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.values().forEach(entry -> Arrays.fill(entry.result(), (byte) 0));
+                stripe.clear();
+            }
+        }
+        keyIds.clear();
+
+    }
+
+    /**
+     * Remove, and zero, every expired block now, however recently the stripes were last swept.
+     */
+    public void removeExpired(){
+
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.sweep(System.nanoTime(), ttlNanos / 2, true);
+            }
+        }
+
+    }
+
+    /**
+     * @return Number of blocks currently cached, including any expired blocks not yet removed
+     */
+    public int size(){
+
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+
+    }
+
+    public long getHitCount(){
+        return hits.sum();
+    }
+
+    public long getMissCount(){
+        return misses.sum();
+    }
+
+    /**
+     * Look up a block, removing it if it has expired.
+     * @return Copy of the cached encrypted block, or null if it is not cached
+     */
+    private byte [] get(CacheKey cacheKey){
+
+        Stripe stripe = stripe(cacheKey);
+        synchronized (stripe) {
+            long now = System.nanoTime();
+            stripe.sweep(now, ttlNanos / 2, false);
+            Entry entry = stripe.get(cacheKey);
+            if (entry != null && entry.expiresAt() - now <= 0) {
+                Arrays.fill(entry.result(), (byte) 0);
+                stripe.remove(cacheKey);
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.result().clone();
+        }
+
+    }
+
+    private void put(CacheKey cacheKey, byte [] result){
+
+        Stripe stripe = stripe(cacheKey);
+        Entry entry = new Entry(result.clone(), System.nanoTime() + ttlNanos);
+        synchronized (stripe) {
+            stripe.sweep(System.nanoTime(), ttlNanos / 2, false);
+            Entry replaced = stripe.put(cacheKey, entry);
+            if (replaced != null) {
+                Arrays.fill(replaced.result(), (byte) 0);
+            }
+        }
+
+    }
+
+    private CryptoBackend backend(){
+        return backend != null ? backend : CryptoFunctions.getBackend();
+    }
+
+    private Stripe stripe(CacheKey cacheKey){
+        int hash = cacheKey.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static CacheKey cacheKey(long [] keyId, byte [] block){
+
+        if (block.length != BLOCK_SIZE) {
+            throw new IllegalArgumentException("Cached blocks must be " + BLOCK_SIZE + " bytes long");
+        }
+        long value = 0;
+        for (byte b : block) {
+            value = (value << 8) | (b & 0xFF);
+        }
+        return new CacheKey(keyId[0], keyId[1], value);
+
+    }
+
+}
@@ -0,0 +1,58 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * Derives identifiers for clear keys, for use wherever a key has to be told apart from others, such as map keys, so
+ * that the clear key itself is not held there.
+ * The identifier is the leading 16 bytes of the SHA-256 digest of the key hexadecimal characters, upper cased, so
+ * the same key gets the same identifier whatever the case it was supplied in. The digest does not reveal the key.
+ */
+public final class KeyId {
+
+    private static final int ID_BYTES = 16;
+
+    private KeyId(){
+    }
+
+    /**
+     * @param key Clear key, as hexadecimal characters
+     * @return Key identifier, as 32 hexadecimal characters
+     */
+    public static String of(String key){
+
+        byte [] digest = digest(key);
+        return HexFormat.of().formatHex(digest, 0, ID_BYTES);
+
+    }
+
+    /**
+     * @param key Clear key, as hexadecimal characters
+     * @return Key identifier, as two longs, the leading 8 bytes first
+     */
+    static long [] ofLongs(String key){
+
+        byte [] digest = digest(key);
+        ByteBuffer buffer = ByteBuffer.wrap(digest);
+        return new long[] {buffer.getLong(), buffer.getLong()};
+
+    }
+
+    private static byte [] digest(String key){
+
+        try {
+            return MessageDigest.getInstance("SHA-256")
+                    .digest(key.toUpperCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+
+    }
+
+}
@@ -0,0 +1,58 @@
+package util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded memo of key identifiers, so the digest of a key is computed once rather than on every use of the key.
+ * The memo is emptied when it grows past its bound, as can only happen with many short lived keys.
+ */
+final class KeyIdCache {
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<String, long[]> keyIds = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxEntries Maximum number of keys remembered
+     */
+    KeyIdCache(int maxEntries){
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param key Clear key, as hexadecimal characters
+     * @return Key identifier, as two longs, computed only the first time the key is seen
+     */
+    long [] get(String key){
+
+        long [] keyId = keyIds.get(key);
+        if (keyId == null) {
+            if (keyIds.size() >= maxEntries) {
+                keyIds.clear();
+            }
+            keyId = KeyId.ofLongs(key);
+            keyIds.put(key, keyId);
+        }
+        return keyId;
+
+    }
+
+    /**
+     * Forget a key.
+     * @param key Clear key, as hexadecimal characters
+     * @return Key identifier, as two longs
+     */
+    long [] remove(String key){
+
+        long [] removed = keyIds.remove(key);
+        return removed != null ? removed : KeyId.ofLongs(key);
+
+    }
+
+    /**
+     * Forget every key.
+     */
+    void clear(){
+        keyIds.clear();
+    }
+
+}
@@ -0,0 +1,235 @@
+package util;
+
+import dto.CvvRequest;
+import dto.PinRequest;
+import dto.PvvRequest;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.InvalidKeyException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Registry of PVKs loaded from a local key file, so requests carry a key reference instead of key material.
+ * The key file is a properties file with entries of either form:
+ * - KEYREF=PVK          the PVK of the reference, used for IBM 3624 PINs and for any PVKI without its own entry
+ * - KEYREF.PVKI=PVK     the PVK of the reference for one PVKI, used for Visa PVVs
+ * A KEYREF entry may equally hold the double length CVK used for card verification values.
+ * Every PVK is preloaded into the crypto backend when the file is loaded, so the key schedule is expanded once, and a
+ * file with a key the backend rejects is not loaded at all.
+ * The registry holds an immutable snapshot of the file, swapped atomically on reload: a request resolves its keys
+ * from either the old or the new file, never a mix. A reload that fails leaves the current snapshot in place. Once
+ * watched, the file is polled and reloaded whenever its modification time or size changes, logging:
+ * - INFO: KEYR01: Key file reloaded
+ * - ERRR: KEYR02: Key file could not be reloaded, the previous keys remain in use
+ * PVKs withdrawn by a reload are evicted from the crypto backend, then passed to the removal listeners, such as
+ * IntermediateResultCache.invalidate.
+ */
+public final class KeyRegistry implements AutoCloseable {
+
+    private final Path keyFile;
+    private final CryptoBackend backend;
+    private final List<Consumer<String>> removalListeners = new CopyOnWriteArrayList<>();
+    private volatile Snapshot snapshot;
+    private ScheduledExecutorService watcher;
+
+    private record Snapshot(Map<String, String> keys, long modified, long size) { }
+
+    /**
+     * Load the key file, preloading its keys into the crypto backend selected in CryptoFunctions.
+     * @param keyFile Key file
+     * @throws IOException When the key file cannot be read
+     * @throws InvalidKeyException When a key in the file is rejected by the backend
+     */
+    public KeyRegistry(Path keyFile) throws IOException, InvalidKeyException {
+        this(keyFile, CryptoFunctions.getBackend());
+    }
+
+    /**
+     * @param keyFile Key file
+     * @param backend Crypto backend the keys are preloaded into
+     * @throws IOException When the key file cannot be read
+     * @throws InvalidKeyException When a key in the file is rejected by the backend
+     */
+    public KeyRegistry(Path keyFile, CryptoBackend backend) throws IOException, InvalidKeyException {
+        this.keyFile = keyFile;
+        this.backend = backend;
+        this.snapshot = load();
+    }
+
+    /**
+     * @param keyRef Key reference
+     * @return PVK of the reference
+     * @throws InvalidKeyException When the reference is not defined
+     */
+    public String resolve(String keyRef) throws InvalidKeyException {
+
+        String key = keyRef == null ? null : snapshot.keys().get(keyRef);
+        if (key == null) {
+            throw new InvalidKeyException("Key reference " + keyRef + " is not defined");
+        }
+        return key;
+
+    }
+
+    /**
+     * @param keyRef Key reference
+     * @param keyIndex PVKI
+     * @return PVK of the reference for the PVKI, or the PVK of the reference when the PVKI has no entry of its own
+     * @throws InvalidKeyException When neither is defined
+     */
+    public String resolve(String keyRef, String keyIndex) throws InvalidKeyException {
+
+        String key = keyRef == null ? null : snapshot.keys().get(keyRef + "." + keyIndex);
+        return key != null ? key : resolve(keyRef);
+
+    }
+
+    /**
+     * @return PVK of a PIN request: the resolved key reference when it has one, otherwise the key it carries
+     */
+    public String resolve(PinRequest pinRequest) throws InvalidKeyException {
+        return pinRequest.getKeyRef() != null ? resolve(pinRequest.getKeyRef()) : pinRequest.getKey();
+    }
+
+    /**
+     * @return PVK of a PVV request: the resolved key reference and PVKI when it has a reference, otherwise the key it
+     * carries
+     */
+    public String resolve(PvvRequest pvvRequest) throws InvalidKeyException {
+        return pvvRequest.getKeyRef() != null ? resolve(pvvRequest.getKeyRef(), pvvRequest.getKeyIndex())
+                : pvvRequest.getKey();
+    }
+
+    /**
+     * @return CVK of a CVV request: the resolved key reference when it has one, otherwise the key it carries
+     */
+    public String resolve(CvvRequest cvvRequest) throws InvalidKeyException {
+        return cvvRequest.getKeyRef() != null ? resolve(cvvRequest.getKeyRef()) : cvvRequest.getKey();
+    }
+
+    /**
+     * @return True if the key reference has a PVK, for any PVKI
+     */
+    public boolean contains(String keyRef){
+        return keyRef != null && snapshot.keys().containsKey(keyRef);
+    }
+
+    /**
+     * @return Number of entries loaded
+     */
+    public int size(){
+        return snapshot.keys().size();
+    }
+
+    /**
+     * @param listener Called with each PVK withdrawn by a reload, after the new keys are in use
+     */
+    public void addRemovalListener(Consumer<String> listener){
+        removalListeners.add(listener);
+    }
+
+    /**
+     * Reload the key file if its modification time or size has changed since it was last loaded.
+     * @return True if the file was reloaded
+     * @throws IOException When the key file cannot be read
+     * @throws InvalidKeyException When a key in the file is rejected by the backend, the current keys remain in use
+     */
+    public synchronized boolean reload() throws IOException, InvalidKeyException {
+
+        Snapshot current = snapshot;
+        BasicFileAttributes attributes = Files.readAttributes(keyFile, BasicFileAttributes.class);
+        if (attributes.lastModifiedTime().toMillis() == current.modified() && attributes.size() == current.size()) {
+            return false;
+        }
+        Snapshot loaded = load();
+        snapshot = loaded;
+        Set<String> withdrawn = new HashSet<>(current.keys().values());
+        withdrawn.removeAll(loaded.keys().values());
+        for (String key : withdrawn) {
+            backend.evict(key);
+            removalListeners.forEach(listener -> listener.accept(key));
+        }
+        return true;
+
+    }
+
+    /**
+     * Poll the key file for changes on a background daemon thread, until the registry is closed.
+     * @param interval Time between polls
+     */
+    public synchronized void watch(Duration interval){
+
+        if (watcher != null) {
+            return;
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "key-registry-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(this::poll, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Stop watching the key file. Keys already loaded remain resolvable.
+     */
+    @Override
+    public synchronized void close(){
+
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+
+    }
+
+    private void poll(){
+
+        try {
+            if (reload()) {
+                System.out.println("INFO: KEYR01: Key file " + keyFile + " reloaded, " + size() + " entries.");
+            }
+        } catch (IOException | InvalidKeyException | RuntimeException e) {
+            System.out.println("ERRR: KEYR02: Key file " + keyFile + " could not be reloaded, the previous keys"
+                    + " remain in use: " + e.getMessage());
+        }
+
+    }
+
+    /**
+     * Read the key file and preload every key, building a snapshot that is not yet in use.
+     */
+    private Snapshot load() throws IOException, InvalidKeyException {
+
+        BasicFileAttributes attributes = Files.readAttributes(keyFile, BasicFileAttributes.class);
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(keyFile)) {
+            properties.load(reader);
+        }
+        Map<String, String> keys = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            String key = properties.getProperty(name).trim().toUpperCase();
+            backend.preload(key);
+            keys.put(name.trim(), key);
+        }
+        return new Snapshot(Map.copyOf(keys), attributes.lastModifiedTime().toMillis(), attributes.size());
+
+    }
+
+}
@@ -0,0 +1,218 @@
+package util;
+
+import constants.PINConstants;
+import dto.CompactPinRequest;
+import metrics.PinMetrics;
+import metrics.PinOperation;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * IBM 3624 PIN and Visa PVV processing for a single PVK, with the PVK and every clear PIN kept off the Java heap.
+ * - The PVK is held as an OffHeapTDEAKey, and blocks are encrypted as longs, so the PIN validation data, TSP and
+ * their encrypted forms never reach a heap array or String.
+ * - PINs are read from and written to direct buffers, one digit value (0 through 9) per byte. Derived PINs are
+ * compared digit by digit, in constant time, without being stored anywhere.
+ * - The engine is an arena: buffers for PINs and per-thread scratch are allocated from it, and closing it overwrites
+ * them and the PVK schedule with zeros. Nothing allocated from a closed engine may be used.
+ * The hot path allocates nothing per request. Requests are compact requests, validated when they were built; the
+ * key carried by a compact request is ignored in favour of the engine's PVK.
+ */
+public final class OffHeapPinEngine implements AutoCloseable {
+
+    private final OffHeapTDEAKey pvk;
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+
+    /**
+     * @param hexPvk PVK, as 16 or 32 hexadecimal characters
+     * @throws InvalidKeyException When the PVK is not 16 or 32 hexadecimal characters
+     */
+    public OffHeapPinEngine(CharSequence hexPvk) throws InvalidKeyException {
+        this.pvk = OffHeapTDEAKey.of(hexPvk);
+    }
+
+    /**
+     * Allocate a zeroed direct buffer, overwritten with zeros when the engine is closed.
+     * @param size Size in bytes
+     * @return Direct buffer
+     */
+    public ByteBuffer allocate(int size){
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        synchronized (buffers) {
+            buffers.add(buffer);
+        }
+        return buffer;
+
+    }
+
+    /**
+     * Generate the IBM 3624 PIN of a request into a direct buffer.
+     * @param pinRequest Compact PIN generation request
+     * @param pinDigits Buffer receiving pinLength digit values from its position, which is advanced past them
+     */
+    public void generatePin(CompactPinRequest pinRequest, ByteBuffer pinDigits){
+
+        long start = System.nanoTime();
+        long encrypted = pvk.encrypt(pinValidationData(pinRequest));
+        for (int i = 0; i < pinRequest.pinLength(); i++) {
+            pinDigits.put((byte) pinDigit(pinRequest, encrypted, i));
+        }
+        PinMetrics.recordOperation(PinOperation.IBM3624_GENERATE, start, 1);
+
+    }
+
+    /**
+     * Verify a customer entered PIN against the PIN derived from the request, in constant time.
+     * @param pinRequest Compact PIN request, carrying the stored offset
+     * @param customerPinDigits Buffer holding the customer PIN digit values, from its position to its limit. The
+     *                          position is not changed
+     * @return True if the customer PIN matches
+     */
+    public boolean verifyPin(CompactPinRequest pinRequest, ByteBuffer customerPinDigits){
+
+        long start = System.nanoTime();
+        boolean match = false;
+        if (customerPinDigits.remaining() == pinRequest.pinLength()) {
+            long encrypted = pvk.encrypt(pinValidationData(pinRequest));
+            int difference = 0;
+            for (int i = 0; i < pinRequest.pinLength(); i++) {
+                difference |= pinDigit(pinRequest, encrypted, i)
+                        ^ customerPinDigits.get(customerPinDigits.position() + i);
+            }
+            match = difference == 0;
+        }
+        PinMetrics.recordOperation(PinOperation.IBM3624_VERIFY, start, 1);
+        return match;
+
+    }
+
+    /**
+     * Calculate the Visa PVV of a PIN held in a direct buffer.
+     * @param pan PAN, packed BCD
+     * @param panLength Number of PAN digits, at least 12
+     * @param keyIndex PVKI, 0 through 9
+     * @param pinDigits Buffer holding at least 4 PIN digit values from its position. The position is not changed
+     * @return PVV, as an int of 4 decimal digits
+     */
+    public int calculatePvv(byte [] pan, int panLength, int keyIndex, ByteBuffer pinDigits){
+
+        long start = System.nanoTime();
+        int pvv = pvv(pan, panLength, keyIndex, pinDigits);
+        PinMetrics.recordOperation(PinOperation.PVV_CALCULATE, start, 1);
+        return pvv;
+
+    }
+
+    /**
+     * Verify a stored PVV against the PVV of a PIN held in a direct buffer.
+     * @param pan PAN, packed BCD
+     * @param panLength Number of PAN digits, at least 12
+     * @param keyIndex PVKI, 0 through 9
+     * @param pinDigits Buffer holding at least 4 PIN digit values from its position. The position is not changed
+     * @param pvv PVV stored for the card
+     * @return True if the PVV matches
+     */
+    public boolean verifyPvv(byte [] pan, int panLength, int keyIndex, ByteBuffer pinDigits, int pvv){
+
+        long start = System.nanoTime();
+        boolean match = pvv(pan, panLength, keyIndex, pinDigits) == pvv;
+        PinMetrics.recordOperation(PinOperation.PVV_VERIFY, start, 1);
+        return match;
+
+    }
+
+    /**
+     * Overwrite every buffer allocated from the engine, and the PVK schedule, with zeros.
+     */
+    @Override
+    public void close(){
+
+        pvk.close();
+        synchronized (buffers) {
+            for (ByteBuffer buffer : buffers) {
+                buffer.clear();
+                for (int i = 0; i < buffer.capacity(); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+            }
+            buffers.clear();
+        }
+
+    }
+
+    /**
+     * Return PIN digit i: the decimalised encrypted validation data digit, plus the offset digit modulo 10.
+     */
+    private static int pinDigit(CompactPinRequest pinRequest, long encrypted, int i){
+
+        int pinDigit = pinRequest.decimalisationTable().decimalise(nibble(encrypted, i));
+        if (!pinRequest.naturalPin()) {
+            pinDigit += pinRequest.pinOffset()[i];
+            pinDigit = pinDigit >= 10 ? pinDigit - 10 : pinDigit;
+        }
+        return pinDigit;
+
+    }
+
+    /**
+     * Encrypt the TSP of the PIN and extract the PVV: the decimal digits of the encrypted TSP from the left, then its
+     * hexadecimal digits A through F as 0 through 5, until there are 4.
+     */
+    private int pvv(byte [] pan, int panLength, int keyIndex, ByteBuffer pinDigits){
+
+        long tsp = 0L;
+        int panStart = panLength - 1 - PINConstants.MAX_PVV_PAN_LEN;
+        for (int i = 0; i < PINConstants.MAX_PVV_PAN_LEN; i++) {
+            tsp = (tsp << 4) | PackedDigits.digit(pan, panStart + i);
+        }
+        tsp = (tsp << 4) | keyIndex;
+        for (int i = 0; i < PINConstants.MAX_PVV_PIN_LEN; i++) {
+            tsp = (tsp << 4) | pinDigits.get(pinDigits.position() + i);
+        }
+        long encrypted = pvk.encrypt(tsp);
+
+        int pvv = 0;
+        int pvvLength = 0;
+        for (int i = 0; i < 16 && pvvLength < PINConstants.PVV_LENGTH; i++) {
+            int digit = nibble(encrypted, i);
+            if (digit < 10) {
+                pvv = pvv * 10 + digit;
+                pvvLength++;
+            }
+        }
+        for (int i = 0; i < 16 && pvvLength < PINConstants.PVV_LENGTH; i++) {
+            int digit = nibble(encrypted, i);
+            if (digit > 9) {
+                pvv = pvv * 10 + digit - 10;
+                pvvLength++;
+            }
+        }
+        return pvv;
+
+    }
+
+    /**
+     * The packed PAN digits are the PIN validation data block.
+     */
+    private static long pinValidationData(CompactPinRequest pinRequest){
+
+        long block = 0L;
+        for (int i = 0; i < 8; i++) {
+            block = (block << 8) | (pinRequest.pan()[i] & 0xFF);
+        }
+        return block;
+
+    }
+
+    /**
+     * @return Hexadecimal digit i of a block, counting from the leftmost digit
+     */
+    private static int nibble(long block, int i){
+        return (int) (block >>> (60 - 4 * i)) & 0x0F;
+    }
+
+}
@@ -0,0 +1,174 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+
+/**
+ * TDEA key held off the Java heap, as its expanded key schedule in a direct buffer, with a single block TDEA
+ * implementation that reads the schedule in place.
+ * The key is parsed from its hexadecimal characters straight into the schedule, so no byte array or String copy of it
+ * is made, and blocks are encrypted as longs, so neither clear nor encrypted data is copied into heap arrays either.
+ * Nothing is allocated per block. Closing the key overwrites the schedule with zeros; a closed key cannot be used.
+ * The schedule is read only once built, so a key may be used by many threads at a time. It must not be used while it
+ * is being closed.
+ */
+public final class OffHeapTDEAKey implements AutoCloseable {
+
+    private static final int DES_KEYS = 3;
+    private static final int SBOXES = 8;
+    private static final int STAGE_SIZE = DesTables.ROUNDS * SBOXES;
+
+    // S-box outputs after the P permutation, for each S-box and 6 bit input
+    private static final int [][] SP = spTables();
+
+    private final ByteBuffer schedule;
+    private volatile boolean closed;
+
+    private OffHeapTDEAKey(ByteBuffer schedule){
+        this.schedule = schedule;
+    }
+
+    /**
+     * Expand a single or double length TDEA key into an off-heap key schedule.
+     * @param hexKey Key, as 16 or 32 hexadecimal characters. A CharBuffer over a char array lets the caller zero the
+     *               characters afterwards
+     * @return Off-heap key
+     * @throws InvalidKeyException When the key is not 16 or 32 hexadecimal characters
+     */
+    public static OffHeapTDEAKey of(CharSequence hexKey) throws InvalidKeyException {
+
+        if (hexKey == null || (hexKey.length() != 16 && hexKey.length() != 32)) {
+            throw new InvalidKeyException("TDEA key must be 16 or 32 hexadecimal characters");
+        }
+        long k1 = parseHex(hexKey, 0);
+        long k2 = hexKey.length() == 32 ? parseHex(hexKey, 16) : k1;
+        ByteBuffer schedule = ByteBuffer.allocateDirect(DES_KEYS * STAGE_SIZE);
+        expand(schedule, 0, k1);
+        expand(schedule, STAGE_SIZE, k2);
+        expand(schedule, 2 * STAGE_SIZE, k1);
+        return new OffHeapTDEAKey(schedule);
+
+    }
+
+    /**
+     * TDEA encrypt one 8 byte block, E(K1) D(K2) E(K3).
+     * @param block Block, the first byte in the most significant bits
+     * @return Encrypted block
+     */
+    public long encrypt(long block){
+
+        checkOpen();
+        long permuted = DesTables.permute(block, DesTables.IP, 64);
+        int left = (int) (permuted >>> 32);
+        int right = (int) permuted;
+        long halves = des(left, right, 0, false);
+        halves = des((int) (halves >>> 32), (int) halves, STAGE_SIZE, true);
+        halves = des((int) (halves >>> 32), (int) halves, 2 * STAGE_SIZE, false);
+        return DesTables.permute(halves, DesTables.FP, 64);
+
+    }
+
+    /**
+     * TDEA decrypt one 8 byte block, D(K3) E(K2) D(K1).
+     * @param block Block, the first byte in the most significant bits
+     * @return Decrypted block
+     */
+    public long decrypt(long block){
+
+        checkOpen();
+        long permuted = DesTables.permute(block, DesTables.IP, 64);
+        int left = (int) (permuted >>> 32);
+        int right = (int) permuted;
+        long halves = des(left, right, 2 * STAGE_SIZE, true);
+        halves = des((int) (halves >>> 32), (int) halves, STAGE_SIZE, false);
+        halves = des((int) (halves >>> 32), (int) halves, 0, true);
+        return DesTables.permute(halves, DesTables.FP, 64);
+
+    }
+
+    /**
+     * Overwrite the key schedule with zeros.
+     */
+    @Override
+    public void close(){
+
+        closed = true;
+        for (int i = 0; i < schedule.capacity(); i++) {
+            schedule.put(i, (byte) 0);
+        }
+
+    }
+
+    private void checkOpen(){
+        if (closed) {
+            throw new IllegalStateException("Key is closed");
+        }
+    }
+
+    /**
+     * Run the 16 rounds of one DES stage, between the initial and final permutations, which cancel out between the
+     * stages of TDEA.
+     * @return R16 and L16, the halves in the order the next stage or the final permutation takes them
+     */
+    private long des(int left, int right, int stage, boolean decrypt){
+
+        for (int round = 0; round < DesTables.ROUNDS; round++) {
+            int subkey = stage + (decrypt ? DesTables.ROUNDS - 1 - round : round) * SBOXES;
+            int f = 0;
+            for (int box = 0; box < SBOXES; box++) {
+                // Expansion: S-box n takes bits 4n to 4n + 5 of R, bit 0 being bit 32
+                int input = (Integer.rotateLeft(right, 4 * box - 1) >>> 26) ^ schedule.get(subkey + box);
+                f |= SP[box][input];
+            }
+            int swap = left ^ f;
+            left = right;
+            right = swap;
+        }
+        return ((long) right << 32) | (left & 0xFFFFFFFFL);
+
+    }
+
+    /**
+     * Write the 16 subkeys of a DES key, as one 6 bit S-box input per byte.
+     */
+    private static void expand(ByteBuffer schedule, int stage, long key){
+
+        for (int round = 0; round < DesTables.ROUNDS; round++) {
+            long subkey = DesTables.subkey(key, round);
+            for (int box = 0; box < SBOXES; box++) {
+                schedule.put(stage + round * SBOXES + box, (byte) ((subkey >>> (42 - 6 * box)) & 0x3F));
+            }
+        }
+
+    }
+
+    private static long parseHex(CharSequence hexKey, int from) throws InvalidKeyException {
+
+        long value = 0L;
+        for (int i = from; i < from + 16; i++) {
+            int digit = Character.digit(hexKey.charAt(i), 16);
+            if (digit < 0) {
+                throw new InvalidKeyException("TDEA key must be 16 or 32 hexadecimal characters");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+
+    }
+
+    private static int [][] spTables(){
+
+        int [][] sp = new int[SBOXES][64];
+        for (int box = 0; box < SBOXES; box++) {
+            for (int input = 0; input < 64; input++) {
+                int row = ((input >> 4) & 2) | (input & 1);
+                int column = (input >> 1) & 0x0F;
+                long output = (long) DesTables.SBOX[box][row * 16 + column] << (28 - 4 * box);
+                sp[box][input] = (int) DesTables.permute(output, DesTables.P, 32);
+            }
+        }
+        return sp;
+
+    }
+
+}
@@ -0,0 +1,111 @@
+package util;
+
+/**
+ * Bulk modulo 10 digit arithmetic for IBM 3624 PIN offsets, over many cards at a time.
+ * Digits are held one digit value (0 through 9) per byte, with the PINs, offsets or natural PINs of consecutive cards
+ * laid end to end in a single array, so a campaign of n cards with PIN length l is one array of n * l bytes.
+ * - addOffsets: PIN = natural PIN + offset
+ * - deriveOffsets: offset = customer PIN - natural PIN
+ * - deriveNaturalPins: natural PIN = customer PIN - offset
+ * The arithmetic runs on the incubating Vector API when the jdk.incubator.vector module is present, such as when the
+ * JVM is started with --add-modules jdk.incubator.vector, and on a scalar loop otherwise. Both paths do the same byte
+ * arithmetic, so they give identical results for any input.
+ */
+public final class OffsetArithmetic {
+
+    /**
+     * Element wise modulo 10 arithmetic over the first length digits of the arrays.
+     */
+    interface DigitKernel {
+        void add(byte [] left, byte [] right, byte [] result, int length);
+        void subtract(byte [] left, byte [] right, byte [] result, int length);
+    }
+
+    static final DigitKernel SCALAR = new DigitKernel() {
+
+        @Override
+        public void add(byte [] left, byte [] right, byte [] result, int length){
+            for (int i = 0; i < length; i++) {
+                byte digit = (byte) (left[i] + right[i]);
+                result[i] = digit >= 10 ? (byte) (digit - 10) : digit;
+            }
+        }
+
+        @Override
+        public void subtract(byte [] left, byte [] right, byte [] result, int length){
+            for (int i = 0; i < length; i++) {
+                byte digit = (byte) (left[i] - right[i]);
+                result[i] = digit < 0 ? (byte) (digit + 10) : digit;
+            }
+        }
+
+    };
+
+    static final DigitKernel KERNEL = selectKernel();
+
+    private OffsetArithmetic(){
+    }
+
+    /**
+     * Apply offsets to natural PINs.
+     * @param naturalPins Natural PIN digits
+     * @param offsets PIN offset digits, aligned with the natural PINs
+     * @param pins Output array receiving the PIN digits, which may be one of the inputs
+     */
+    public static void addOffsets(byte [] naturalPins, byte [] offsets, byte [] pins){
+        KERNEL.add(naturalPins, offsets, pins, checkLengths(naturalPins, offsets, pins));
+    }
+
+    /**
+     * Derive offsets from customer selected PINs and natural PINs.
+     * @param customerPins Customer selected PIN digits
+     * @param naturalPins Natural PIN digits, aligned with the customer PINs
+     * @param offsets Output array receiving the PIN offset digits, which may be one of the inputs
+     */
+    public static void deriveOffsets(byte [] customerPins, byte [] naturalPins, byte [] offsets){
+        KERNEL.subtract(customerPins, naturalPins, offsets, checkLengths(customerPins, naturalPins, offsets));
+    }
+
+    /**
+     * Derive natural PINs from customer selected PINs and offsets.
+     * @param customerPins Customer selected PIN digits
+     * @param offsets PIN offset digits, aligned with the customer PINs
+     * @param naturalPins Output array receiving the natural PIN digits, which may be one of the inputs
+     */
+    public static void deriveNaturalPins(byte [] customerPins, byte [] offsets, byte [] naturalPins){
+        KERNEL.subtract(customerPins, offsets, naturalPins, checkLengths(customerPins, offsets, naturalPins));
+    }
+
+    /**
+     * @return True if the Vector API path is in use
+     */
+    public static boolean isVectorised(){
+        return KERNEL != SCALAR;
+    }
+
+    private static int checkLengths(byte [] left, byte [] right, byte [] result){
+
+        if (left.length != right.length || left.length != result.length) {
+            throw new IllegalArgumentException("Digit arrays must be the same length");
+        }
+        return left.length;
+
+    }
+
+    /**
+     * Load the Vector API kernel by name, so this class still loads when the incubator module is not present.
+     */
+    private static DigitKernel selectKernel(){
+
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return SCALAR;
+        }
+        try {
+            return (DigitKernel) Class.forName("util.VectorDigitKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return SCALAR;
+        }
+
+    }
+
+}
@@ -0,0 +1,88 @@
+package util;
+
+/**
+ * Helpers for packed BCD digit strings, holding two decimal digits per byte, high order nibble first.
+ * An odd number of digits leaves the low order nibble of the last byte as 0.
+ */
+public final class PackedDigits {
+
+    private PackedDigits(){
+    }
+
+    /**
+     * Pack a numeric string into BCD.
+     * @param digits Numeric string
+     * @return Packed digits, (length + 1) / 2 bytes long
+     * @throws IllegalArgumentException When the string is not numeric
+     */
+    public static byte [] pack(String digits){
+
+        if (!DataValidator.isNumeric(digits)) {
+            throw new IllegalArgumentException("Digits must be numeric");
+        }
+        byte [] packed = new byte[(digits.length() + 1) / 2];
+        for (int i = 0; i < digits.length(); i++) {
+            setDigit(packed, i, digits.charAt(i) - '0');
+        }
+        return packed;
+
+    }
+
+    /**
+     * Convert a numeric string into digit values, one per element.
+     * @param digits Numeric string
+     * @return Digit values
+     * @throws IllegalArgumentException When the string is not numeric
+     */
+    public static byte [] toDigits(String digits){
+
+        if (!DataValidator.isNumeric(digits)) {
+            throw new IllegalArgumentException("Digits must be numeric");
+        }
+        byte [] values = new byte[digits.length()];
+        for (int i = 0; i < digits.length(); i++) {
+            values[i] = (byte) (digits.charAt(i) - '0');
+        }
+        return values;
+
+    }
+
+    /**
+     * @param packed Packed digits
+     * @param position Digit position, 0 for the leftmost digit
+     * @return Digit value at the position
+     */
+    public static int digit(byte [] packed, int position){
+        return DecimalisationTable.hexDigit(packed, position);
+    }
+
+    /**
+     * Set the nibble at a position of packed data.
+     * @param packed Packed data
+     * @param position Nibble position, 0 for the high order nibble of the first byte
+     * @param value Nibble value, 0 through 15
+     */
+    public static void setDigit(byte [] packed, int position, int value){
+        int index = position >> 1;
+        packed[index] = (position & 1) == 0
+                ? (byte) ((packed[index] & 0x0F) | (value << 4))
+                : (byte) ((packed[index] & 0xF0) | value);
+    }
+
+    /**
+     * Unpack digits into a numeric string.
+     * @param packed Packed digits
+     * @param length Number of digits
+     * @return Numeric string
+     */
+    public static String unpack(byte [] packed, int length){
+
+        char [] digits = new char[length];
+        for (int i = 0; i < length; i++) {
+            digits[i] = (char) ('0' + digit(packed, i));
+        }
+        return new String(digits);
+
+    }
+
+}
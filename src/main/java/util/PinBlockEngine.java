@@ -0,0 +1,446 @@
+package util;
+
+import dto.CompactPvvRequest;
+import dto.PinRequest;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Builds, parses and translates ISO 9564-1 PIN blocks in formats 0, 1 and 3 under TDEA zone keys, and format 4 under
+ * AES zone keys. TDEA goes through the crypto backend selected in CryptoFunctions, so zone keys can live in an HSM.
+ * Clear PINs are handled as digit values, one per element, never as Strings, and every intermediate clear PIN field
+ * is zeroed once it has been used. Clear PINs returned to callers should be zeroed by them in the same way.
+ * Batch translation deciphers every PIN block under the incoming zone key in one cipher pass, and enciphers every
+ * translated block under the outgoing zone key in another, since all formats are processed in ECB mode.
+ */
+public class PinBlockEngine {
+
+    private static final String AES_TRANSFORMATION = "AES/ECB/NoPadding";
+    private static final int MIN_PIN_LENGTH = 4;
+    private static final int MAX_PIN_LENGTH = 12;
+    private static final int PIN_FIELD_DIGITS = 16;
+
+    private final SecureRandom random;
+
+    /**
+     * Create an engine drawing the random fill of formats 1, 3 and 4 from a new SecureRandom.
+     */
+    public PinBlockEngine(){
+        this(new SecureRandom());
+    }
+
+    /**
+     * @param random Source of the random fill of formats 1, 3 and 4
+     */
+    public PinBlockEngine(SecureRandom random){
+        this.random = random;
+    }
+
+    /**
+     * Build and encipher a PIN block.
+     * @param pinDigits Clear PIN, one digit value per element, 4 through 12 digits
+     * @param pan PAN the PIN block is bound to, ignored for format 1
+     * @param format PIN block format
+     * @param zoneKey Zone PIN key, TDEA for formats 0, 1 and 3, AES for format 4, as hexadecimal characters
+     * @return Enciphered PIN block
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws IllegalBlockSizeException When block size of the data is invalid
+     * @throws NoSuchAlgorithmException When an invalid algorithm is specified
+     * @throws BadPaddingException When data padding is invalid
+     * @throws InvalidKeyException When the zone key is invalid
+     * @throws IllegalArgumentException When the PIN or PAN cannot be carried in the format (PINB02, PINB03)
+     */
+    public byte [] encrypt(byte [] pinDigits, String pan, PinBlockFormat format, String zoneKey)
+            throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException,
+            InvalidKeyException {
+
+        byte [] pinField = pinField(pinDigits, format);
+        try {
+            return encipher(pinField, panFields(Arrays.asList(pan), format), format, zoneKey);
+        } finally {
+            Arrays.fill(pinField, (byte) 0);
+        }
+
+    }
+
+    /**
+     * Decipher and parse a PIN block.
+     * @param pinBlock Enciphered PIN block
+     * @param pan PAN the PIN block is bound to, ignored for format 1
+     * @param format PIN block format
+     * @param zoneKey Zone PIN key, TDEA for formats 0, 1 and 3, AES for format 4, as hexadecimal characters
+     * @return Clear PIN, one digit value per element
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws IllegalBlockSizeException When the PIN block is not the size of the format
+     * @throws NoSuchAlgorithmException When an invalid algorithm is specified
+     * @throws BadPaddingException When the clear PIN field does not match the format (PINB01)
+     * @throws InvalidKeyException When the zone key is invalid
+     */
+    public byte [] decrypt(byte [] pinBlock, String pan, PinBlockFormat format, String zoneKey)
+            throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException,
+            InvalidKeyException {
+
+        checkBlockSize(pinBlock, format);
+        byte [] pinField = decipher(pinBlock, panFields(Arrays.asList(pan), format), format, zoneKey);
+        try {
+            byte [] pinDigits = parsePinField(pinField, 0, format);
+            if (pinDigits == null) {
+                throw new BadPaddingException(ValidationCode.PINB01.toString());
+            }
+            return pinDigits;
+        } finally {
+            Arrays.fill(pinField, (byte) 0);
+        }
+
+    }
+
+    /**
+     * Translate a PIN block from one zone key and format to another.
+     * @return PIN block under the outgoing zone key and format
+     * @throws BadPaddingException When the incoming clear PIN field does not match its format (PINB01)
+     * @see #translate(List, List, PinBlockFormat, String, PinBlockFormat, String)
+     */
+    public byte [] translate(byte [] pinBlock, String pan, PinBlockFormat fromFormat, String fromKey,
+                             PinBlockFormat toFormat, String toKey) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        byte [] pinDigits = decrypt(pinBlock, pan, fromFormat, fromKey);
+        try {
+            return encrypt(pinDigits, pan, toFormat, toKey);
+        } finally {
+            Arrays.fill(pinDigits, (byte) 0);
+        }
+
+    }
+
+    /**
+     * Translate a batch of PIN blocks from one zone key and format to another, in one cipher pass per key.
+     * @param pinBlocks Enciphered PIN blocks, all in the incoming format
+     * @param pans PAN of each PIN block, in the same order. May be null when neither format uses the PAN
+     * @param fromFormat Incoming PIN block format
+     * @param fromKey Incoming zone PIN key, as hexadecimal characters
+     * @param toFormat Outgoing PIN block format
+     * @param toKey Outgoing zone PIN key, as hexadecimal characters
+     * @return Translated PIN blocks, in the same order. Blocks whose clear PIN field does not match the incoming
+     * format are returned as null, so one bad block does not fail the batch
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws IllegalBlockSizeException When a PIN block is not the size of the incoming format
+     * @throws NoSuchAlgorithmException When an invalid algorithm is specified
+     * @throws BadPaddingException When data padding is invalid
+     * @throws InvalidKeyException When a zone key is invalid
+     */
+    public byte [][] translate(List<byte[]> pinBlocks, List<String> pans, PinBlockFormat fromFormat, String fromKey,
+                               PinBlockFormat toFormat, String toKey) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        int fromSize = fromFormat.getBlockSize();
+        byte [] blocks = new byte[pinBlocks.size() * fromSize];
+        for (int i = 0; i < pinBlocks.size(); i++) {
+            checkBlockSize(pinBlocks.get(i), fromFormat);
+            System.arraycopy(pinBlocks.get(i), 0, blocks, i * fromSize, fromSize);
+        }
+
+        byte [] fromFields = decipher(blocks, panFields(pans, fromFormat), fromFormat, fromKey);
+        List<Integer> positions = new ArrayList<>(pinBlocks.size());
+        List<String> toPans = new ArrayList<>(pinBlocks.size());
+        int toSize = toFormat.getBlockSize();
+        byte [] toFields = new byte[pinBlocks.size() * toSize];
+        byte [] clearFields = null;
+        try {
+            for (int i = 0; i < pinBlocks.size(); i++) {
+                byte [] pinDigits = parsePinField(fromFields, i * fromSize, fromFormat);
+                if (pinDigits == null) {
+                    continue;
+                }
+                byte [] toField = pinField(pinDigits, toFormat);
+                System.arraycopy(toField, 0, toFields, positions.size() * toSize, toSize);
+                Arrays.fill(toField, (byte) 0);
+                Arrays.fill(pinDigits, (byte) 0);
+                positions.add(i);
+                toPans.add(pans == null ? null : pans.get(i));
+            }
+            byte [][] results = new byte[pinBlocks.size()][];
+            if (positions.isEmpty()) {
+                return results;
+            }
+            clearFields = Arrays.copyOf(toFields, positions.size() * toSize);
+            byte [] translated = encipher(clearFields, panFields(toPans, toFormat), toFormat, toKey);
+            for (int i = 0; i < positions.size(); i++) {
+                results[positions.get(i)] = Arrays.copyOfRange(translated, i * toSize, (i + 1) * toSize);
+            }
+            return results;
+        } finally {
+            Arrays.fill(fromFields, (byte) 0);
+            Arrays.fill(toFields, (byte) 0);
+            if (clearFields != null) {
+                Arrays.fill(clearFields, (byte) 0);
+            }
+        }
+
+    }
+
+    /**
+     * Verify the PIN in a PIN block against an IBM 3624 PIN request, without the clear PIN leaving digit arrays.
+     * @param ibm3624Pin IBM 3624 engine
+     * @param pinRequest PIN request carrying the PVK, PAN, stored PIN offset and PIN length
+     * @param pinBlock Enciphered PIN block, bound to the PAN of the request
+     * @param format PIN block format
+     * @param zoneKey Zone PIN key, as hexadecimal characters
+     * @return True if the PIN matches. A PIN block that does not match its format does not match
+     */
+    public boolean verifyIBM3624Pin(IBM3624Pin ibm3624Pin, PinRequest pinRequest, byte [] pinBlock,
+                                    PinBlockFormat format, String zoneKey) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        byte [] pinDigits = decryptOrNull(pinBlock, pinRequest.getPan(), format, zoneKey);
+        if (pinDigits == null) {
+            return false;
+        }
+        try {
+            return ibm3624Pin.verifyIBM3624Pin(pinRequest, pinDigits);
+        } finally {
+            Arrays.fill(pinDigits, (byte) 0);
+        }
+
+    }
+
+    /**
+     * Verify the PIN in a PIN block against a stored Visa PVV, without the clear PIN leaving digit arrays.
+     * @param visaPvv Visa PVV engine
+     * @param pvk PIN verification key, as hexadecimal characters
+     * @param keyIndex PIN verification key index, 0 through 9
+     * @param pvv PVV stored for the card, as an int from 0 through 9999
+     * @param pan PAN of the card, which the PIN block is bound to
+     * @param pinBlock Enciphered PIN block
+     * @param format PIN block format
+     * @param zoneKey Zone PIN key, as hexadecimal characters
+     * @return True if the PVV matches. A PIN block that does not match its format does not match
+     */
+    public boolean verifyVisaPvv(VisaPvv visaPvv, String pvk, int keyIndex, int pvv, String pan, byte [] pinBlock,
+                                 PinBlockFormat format, String zoneKey) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        byte [] pinDigits = decryptOrNull(pinBlock, pan, format, zoneKey);
+        if (pinDigits == null) {
+            return false;
+        }
+        try {
+            return visaPvv.verifyVisaPvv(new CompactPvvRequest(pvk, PackedDigits.pack(pan), pan.length(), keyIndex,
+                    pinDigits), pvv);
+        } finally {
+            Arrays.fill(pinDigits, (byte) 0);
+        }
+
+    }
+
+    private byte [] decryptOrNull(byte [] pinBlock, String pan, PinBlockFormat format, String zoneKey)
+            throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException,
+            InvalidKeyException {
+
+        try {
+            return decrypt(pinBlock, pan, format, zoneKey);
+        } catch (BadPaddingException e) {
+            return null;
+        }
+
+    }
+
+    /**
+     * Build the clear PIN field: control, PIN length, PIN digits and fill, plus 8 random bytes for format 4.
+     */
+    private byte [] pinField(byte [] pinDigits, PinBlockFormat format){
+
+        if (pinDigits == null || pinDigits.length < MIN_PIN_LENGTH || pinDigits.length > MAX_PIN_LENGTH) {
+            throw new IllegalArgumentException(ValidationCode.PINB02.toString());
+        }
+        byte [] pinField = new byte[format.getBlockSize()];
+        PackedDigits.setDigit(pinField, 0, format.getControl());
+        PackedDigits.setDigit(pinField, 1, pinDigits.length);
+        for (int i = 0; i < pinDigits.length; i++) {
+            if (pinDigits[i] < 0 || pinDigits[i] > 9) {
+                throw new IllegalArgumentException(ValidationCode.PINN01.toString());
+            }
+            PackedDigits.setDigit(pinField, i + 2, pinDigits[i]);
+        }
+        for (int i = pinDigits.length + 2; i < PIN_FIELD_DIGITS; i++) {
+            PackedDigits.setDigit(pinField, i, switch (format) {
+                case ISO_0 -> 0xF;
+                case ISO_1 -> random.nextInt(16);
+                case ISO_3 -> 0xA + random.nextInt(6);
+                case ISO_4 -> 0xA;
+            });
+        }
+        if (format == PinBlockFormat.ISO_4) {
+            byte [] randomField = new byte[8];
+            random.nextBytes(randomField);
+            System.arraycopy(randomField, 0, pinField, 8, 8);
+        }
+        return pinField;
+
+    }
+
+    /**
+     * Parse the clear PIN field at an offset of the data.
+     * @return Clear PIN digit values, or null if the field does not match the format
+     */
+    private static byte [] parsePinField(byte [] data, int offset, PinBlockFormat format){
+
+        int position = offset * 2;
+        int pinLength = PackedDigits.digit(data, position + 1);
+        if (PackedDigits.digit(data, position) != format.getControl() || pinLength < MIN_PIN_LENGTH
+                || pinLength > MAX_PIN_LENGTH) {
+            return null;
+        }
+        for (int i = pinLength + 2; i < PIN_FIELD_DIGITS; i++) {
+            int fill = PackedDigits.digit(data, position + i);
+            boolean validFill = switch (format) {
+                case ISO_0 -> fill == 0xF;
+                case ISO_1 -> true;
+                case ISO_3 -> fill >= 0xA;
+                case ISO_4 -> fill == 0xA;
+            };
+            if (!validFill) {
+                return null;
+            }
+        }
+        byte [] pinDigits = new byte[pinLength];
+        for (int i = 0; i < pinLength; i++) {
+            int pinDigit = PackedDigits.digit(data, position + i + 2);
+            if (pinDigit > 9) {
+                Arrays.fill(pinDigits, (byte) 0);
+                return null;
+            }
+            pinDigits[i] = (byte) pinDigit;
+        }
+        return pinDigits;
+
+    }
+
+    /**
+     * Build the PAN field of each PAN, laid end to end, or return null for formats not bound to the PAN.
+     * Formats 0 and 3 use 0000 and the rightmost 12 PAN digits excluding the check digit. Format 4 uses the number
+     * of PAN digits beyond 12, the PAN left padded with zeros to 12 digits, and zero fill to 16 bytes.
+     */
+    private static byte [] panFields(List<String> pans, PinBlockFormat format){
+
+        if (!format.usesPan()) {
+            return null;
+        }
+        int size = format.getBlockSize();
+        byte [] panFields = new byte[pans.size() * size];
+        for (int block = 0; block < pans.size(); block++) {
+            String pan = pans.get(block);
+            int position = block * size * 2;
+            if (!DataValidator.isNumeric(pan) || (format != PinBlockFormat.ISO_4 && pan.length() < 13)
+                    || pan.length() > 19) {
+                throw new IllegalArgumentException(ValidationCode.PINB03.toString());
+            }
+            if (format == PinBlockFormat.ISO_4) {
+                String paddedPan = pan.length() < 12 ? "0".repeat(12 - pan.length()) + pan : pan;
+                PackedDigits.setDigit(panFields, position, paddedPan.length() - 12);
+                for (int i = 0; i < paddedPan.length(); i++) {
+                    PackedDigits.setDigit(panFields, position + 1 + i, paddedPan.charAt(i) - '0');
+                }
+            } else {
+                for (int i = 0; i < 12; i++) {
+                    PackedDigits.setDigit(panFields, position + 4 + i, pan.charAt(pan.length() - 13 + i) - '0');
+                }
+            }
+        }
+        return panFields;
+
+    }
+
+    /**
+     * Encipher clear PIN fields, laid end to end, with their PAN fields.
+     */
+    private static byte [] encipher(byte [] pinFields, byte [] panFields, PinBlockFormat format, String zoneKey)
+            throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException,
+            InvalidKeyException {
+
+        if (format != PinBlockFormat.ISO_4) {
+            byte [] clear = xor(pinFields, panFields);
+            try {
+                return CryptoFunctions.getBackend().encrypt(zoneKey, clear);
+            } finally {
+                Arrays.fill(clear, (byte) 0);
+            }
+        }
+        byte [] intermediate = aes(Cipher.ENCRYPT_MODE, zoneKey, pinFields);
+        xorInPlace(intermediate, panFields);
+        return aes(Cipher.ENCRYPT_MODE, zoneKey, intermediate);
+
+    }
+
+    /**
+     * Decipher PIN blocks, laid end to end, with their PAN fields, returning the clear PIN fields.
+     */
+    private static byte [] decipher(byte [] pinBlocks, byte [] panFields, PinBlockFormat format, String zoneKey)
+            throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException,
+            InvalidKeyException {
+
+        if (format != PinBlockFormat.ISO_4) {
+            byte [] clear = CryptoFunctions.getBackend().decrypt(zoneKey, pinBlocks);
+            xorInPlace(clear, panFields);
+            return clear;
+        }
+        byte [] intermediate = aes(Cipher.DECRYPT_MODE, zoneKey, pinBlocks);
+        xorInPlace(intermediate, panFields);
+        try {
+            return aes(Cipher.DECRYPT_MODE, zoneKey, intermediate);
+        } finally {
+            Arrays.fill(intermediate, (byte) 0);
+        }
+
+    }
+
+    private static byte [] aes(int mode, String zoneKey, byte [] data) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        if (zoneKey == null || (zoneKey.length() != 32 && zoneKey.length() != 48 && zoneKey.length() != 64)
+                || !DataValidator.isHexadecimal(zoneKey)) {
+            throw new InvalidKeyException("AES key must be 32, 48 or 64 hexadecimal characters");
+        }
+        Cipher cipher = Cipher.getInstance(AES_TRANSFORMATION);
+        cipher.init(mode, new SecretKeySpec(HexFormat.of().parseHex(zoneKey), "AES"));
+        return cipher.doFinal(data);
+
+    }
+
+    private static byte [] xor(byte [] data, byte [] mask){
+
+        byte [] result = data.clone();
+        xorInPlace(result, mask);
+        return result;
+
+    }
+
+    private static void xorInPlace(byte [] data, byte [] mask){
+
+        if (mask == null) {
+            return;
+        }
+        for (int i = 0; i < data.length; i++) {
+            data[i] ^= mask[i];
+        }
+
+    }
+
+    private static void checkBlockSize(byte [] pinBlock, PinBlockFormat format) throws IllegalBlockSizeException {
+        if (pinBlock == null || pinBlock.length != format.getBlockSize()) {
+            throw new IllegalBlockSizeException("PIN block must be " + format.getBlockSize() + " bytes long");
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+package util;
+
+/**
+ * ISO 9564-1 PIN block formats.
+ * - ISO_0: PIN field 0, L, PIN, F fill, XORed with the rightmost 12 PAN digits excluding the check digit. TDEA
+ * - ISO_1: PIN field 1, L, PIN, random fill, not bound to the PAN. TDEA
+ * - ISO_3: As format 0, with random fill from A through F. TDEA
+ * - ISO_4: 16 byte PIN field 4, L, PIN, A fill, then 8 random bytes, enciphered twice around the PAN field. AES
+ */
+public enum PinBlockFormat {
+
+    ISO_0(0, 8),
+    ISO_1(1, 8),
+    ISO_3(3, 8),
+    ISO_4(4, 16);
+
+    private final int control;
+    private final int blockSize;
+
+    PinBlockFormat(int control, int blockSize){
+        this.control = control;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return Control field, the first nibble of the clear PIN field
+     */
+    public int getControl(){
+        return control;
+    }
+
+    /**
+     * @return PIN block size in bytes
+     */
+    public int getBlockSize(){
+        return blockSize;
+    }
+
+    /**
+     * @return True if the PIN block is bound to the PAN
+     */
+    public boolean usesPan(){
+        return this != ISO_1;
+    }
+
+}
@@ -0,0 +1,294 @@
+package util;
+
+import metrics.EncryptionEvent;
+import metrics.PinMetrics;
+import metrics.PinOperation;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reusable, thread-safe TDEA (DESede/ECB/NoPadding) engine.
+ * - Formatted key material is parsed once per PVK and held in a bounded, shared LRU cache.
+ * - Initialised Cipher instances are pooled per key and per mode in the same cache, and borrowed for each call, so the
+ * provider lookup and key schedule are only paid when no pooled cipher is free. The pools do not depend on thread
+ * identity, so short lived threads, such as a virtual thread per request, reuse the ciphers of earlier requests.
+ * Each mode's pool is only filled once the key is used in that mode, and holds a bounded number of ciphers.
+ * - Data is passed in and out as raw bytes, so no hex conversion is done on the hot path.
+ * This is the software CryptoBackend, working on clear keys. A single shared instance is available through
+ * getInstance(), which is the default backend of CryptoFunctions.
+ * Every cipher call is recorded in PinMetrics and as an EncryptionEvent, and every cipher borrowed as a key cache hit,
+ * or as a miss when a cipher had to be created.
+ */
+public class TDEAEngine implements CryptoBackend {
+
+    private static final String DES_EDE = "DESede";
+    private static final String TRANSFORMATION = DES_EDE + "/ECB/NoPadding";
+    private static final int BLOCK_SIZE = 8;
+    private static final int DEFAULT_KEY_CACHE_SIZE = 256;
+    private static final int DEFAULT_CIPHER_POOL_SIZE = 16;
+
+    private static final TDEAEngine INSTANCE = new TDEAEngine(DEFAULT_KEY_CACHE_SIZE, DEFAULT_CIPHER_POOL_SIZE);
+
+    private final Map<String, KeyCiphers> keyCache;
+    private final int cipherPoolSize;
+
+    /**
+     * Formatted key and pools of idle ciphers initialised with it, one pool per mode.
+     */
+    private static final class KeyCiphers {
+
+        final SecretKey secretKey;
+        final BlockingQueue<Cipher> encryptCiphers;
+        final BlockingQueue<Cipher> decryptCiphers;
+
+        KeyCiphers(SecretKey secretKey, int poolSize){
+            this.secretKey = secretKey;
+            this.encryptCiphers = new ArrayBlockingQueue<>(poolSize);
+            this.decryptCiphers = new ArrayBlockingQueue<>(poolSize);
+        }
+
+        BlockingQueue<Cipher> pool(int mode){
+            return mode == Cipher.ENCRYPT_MODE ? encryptCiphers : decryptCiphers;
+        }
+
+    }
+
+    /**
+     * Create an engine with its own key and cipher caches.
+     * @param keyCacheSize Maximum number of keys held in the shared cache, with their ciphers
+     * @param cipherPoolSize Maximum number of idle ciphers kept per key and per mode
+     */
+    public TDEAEngine(int keyCacheSize, int cipherPoolSize){
+        this.keyCache = new LruMap<>(keyCacheSize);
+        this.cipherPoolSize = cipherPoolSize;
+    }
+
+    /**
+     * @return Shared engine instance
+     */
+    public static TDEAEngine getInstance(){
+        return INSTANCE;
+    }
+
+    /**
+     * TDEA encrypt one or more 8 byte blocks under the supplied hex key.
+     * @param key Single or double length TDEA key, as hexadecimal characters
+     * @param data Data to be encrypted, must be a multiple of 8 bytes
+     * @return Encrypted data
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws NoSuchAlgorithmException When an invalid algorithm is specified
+     * @throws InvalidKeyException When key passed is invalid
+     * @throws IllegalBlockSizeException When block size of the data is invalid
+     * @throws BadPaddingException When data padding is invalid
+     */
+    @Override
+    public byte [] encrypt(String key, byte [] data) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        return doFinal(Cipher.ENCRYPT_MODE, key, data);
+    }
+
+    /**
+     * TDEA decrypt one or more 8 byte blocks under the supplied hex key.
+     * @param key Single or double length TDEA key, as hexadecimal characters
+     * @param data Data to be decrypted, must be a multiple of 8 bytes
+     * @return Decrypted data
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws NoSuchAlgorithmException When an invalid algorithm is specified
+     * @throws InvalidKeyException When key passed is invalid
+     * @throws IllegalBlockSizeException When block size of the data is invalid
+     * @throws BadPaddingException When data padding is invalid
+     */
+    @Override
+    public byte [] decrypt(String key, byte [] data) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        return doFinal(Cipher.DECRYPT_MODE, key, data);
+    }
+
+    /**
+     * Run a pooled cipher for the mode and key over the data, recording the encryption stage as a JFR event and
+     * metric. The cipher is returned to its pool afterwards, or dropped when the pool is full.
+     */
+    private byte [] doFinal(int mode, String key, byte [] data) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+
+        long start = System.nanoTime();
+        KeyCiphers keyCiphers = keyCiphers(key);
+        BlockingQueue<Cipher> pool = keyCiphers.pool(mode);
+        Cipher cipher = pool.poll();
+        PinMetrics.recordKeyCache(cipher != null);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(mode, keyCiphers.secretKey);
+        }
+        EncryptionEvent event = PinMetrics.beginEvent(() -> new EncryptionEvent());
+        byte [] result = cipher.doFinal(data);
+        if (event != null) {
+            event.decrypt = mode == Cipher.DECRYPT_MODE;
+            event.blocks = data.length / BLOCK_SIZE;
+            event.commit();
+        }
+        pool.offer(cipher);
+        PinMetrics.recordOperation(mode == Cipher.ENCRYPT_MODE ? PinOperation.TDEA_ENCRYPT : PinOperation.TDEA_DECRYPT,
+                start, data.length / BLOCK_SIZE);
+        return result;
+
+    }
+
+    /**
+     * TDEA encrypt a batch of 8 byte blocks, each under its own hex key. Blocks sharing a key are copied into one
+     * contiguous buffer and encrypted with a single doFinal, since ECB encrypts every block independently.
+     * @param keys Key for each block, in the same order as the blocks
+     * @param blocks 8 byte blocks to be encrypted
+     * @return Encrypted blocks, in input order
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws NoSuchAlgorithmException When an invalid algorithm is specified
+     * @throws InvalidKeyException When a key passed is invalid
+     * @throws IllegalBlockSizeException When a block is not 8 bytes long
+     * @throws BadPaddingException When data padding is invalid
+     */
+    @Override
+    public byte [][] encryptBatch(List<String> keys, List<byte[]> blocks) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+
+        if (keys.size() != blocks.size()) {
+            throw new IllegalArgumentException("Number of keys and blocks must match");
+        }
+        byte [][] encryptedBlocks = new byte[blocks.size()][];
+        for (Map.Entry<String, List<Integer>> group : groupByKey(keys).entrySet()) {
+            List<Integer> positions = group.getValue();
+            byte [] buffer = new byte[positions.size() * BLOCK_SIZE];
+            for (int i = 0; i < positions.size(); i++) {
+                byte [] block = blocks.get(positions.get(i));
+                if (block.length != BLOCK_SIZE) {
+                    throw new IllegalBlockSizeException("Batch blocks must be " + BLOCK_SIZE + " bytes long");
+                }
+                System.arraycopy(block, 0, buffer, i * BLOCK_SIZE, BLOCK_SIZE);
+            }
+            byte [] encrypted = encrypt(group.getKey(), buffer);
+            for (int i = 0; i < positions.size(); i++) {
+                encryptedBlocks[positions.get(i)] = Arrays.copyOfRange(encrypted, i * BLOCK_SIZE,
+                        (i + 1) * BLOCK_SIZE);
+            }
+        }
+        return encryptedBlocks;
+
+    }
+
+    /**
+     * Format the key and cache its secret key, so the first cipher initialisation for it skips the key parsing.
+     */
+    @Override
+    public void preload(String key) throws InvalidKeyException {
+        keyCiphers(key);
+    }
+
+    /**
+     * Remove the key with its pooled ciphers from the cache. Ciphers borrowed at the time are not returned to a pool.
+     */
+    @Override
+    public void evict(String key){
+
+        synchronized (keyCache) {
+            keyCache.remove(key);
+        }
+
+    }
+
+    /**
+     * Group input positions by key, keeping the order in which keys are first seen.
+     */
+    private static Map<String, List<Integer>> groupByKey(List<String> keys){
+
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            groups.computeIfAbsent(keys.get(i), k -> new ArrayList<>()).add(i);
+        }
+        return groups;
+
+    }
+
+    /**
+     * Return the cached key and cipher pools for the hex key, parsing the key only if it is not already cached.
+     */
+    private KeyCiphers keyCiphers(String key) throws InvalidKeyException {
+
+        synchronized (keyCache) {
+            KeyCiphers keyCiphers = keyCache.get(key);
+            if (keyCiphers != null) {
+                return keyCiphers;
+            }
+        }
+        KeyCiphers keyCiphers = new KeyCiphers(new SecretKeySpec(formatTDEAKey(key), DES_EDE), cipherPoolSize);
+        synchronized (keyCache) {
+            // Keep the entry of a thread that cached the key meanwhile, so its pooled ciphers are shared
+            KeyCiphers cached = keyCache.putIfAbsent(key, keyCiphers);
+            return cached != null ? cached : keyCiphers;
+        }
+
+    }
+
+    /**
+     * Converts a Single or Double length TDEA key into a triple length key.
+     * @param key Single or double length TDEA key, as hexadecimal characters
+     * @return Triple length TDEA key bytes
+     * @throws InvalidKeyException When the key is not single or double length hexadecimal data
+     */
+    static byte [] formatTDEAKey(String key) throws InvalidKeyException {
+
+        if (key == null || (key.length() != 16 && key.length() != 32) || !DataValidator.isHexadecimal(key)) {
+            throw new InvalidKeyException("TDEA key must be 16 or 32 hexadecimal characters");
+        }
+        byte [] keyBytes = HexFormat.of().parseHex(key);
+        byte [] tripleLengthKey = new byte[24];
+        switch (keyBytes.length) {
+            case 8:     //  Repeat the single length DES key twice and form triple length DES key
+                System.arraycopy(keyBytes, 0, tripleLengthKey, 0, 8);
+                System.arraycopy(keyBytes, 0, tripleLengthKey, 8, 8);
+                System.arraycopy(keyBytes, 0, tripleLengthKey, 16, 8);
+                break;
+            case 16:    //  Append the first 8 bytes of the key to itself and form triple length DES key
+                System.arraycopy(keyBytes, 0, tripleLengthKey, 0, 16);
+                System.arraycopy(keyBytes, 0, tripleLengthKey, 16, 8);
+                break;
+        }
+        return tripleLengthKey;
+
+    }
+
+    /**
+     * Access ordered map that drops its least recently used entry once it grows past its capacity.
+     */
+    static class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        LruMap(int capacity){
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest){
+            return size() > capacity;
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+package util;
+
+/**
+ * Defines the warning and error codes reported by request validation
+ */
+public enum ValidationCode {
+
+    DECE01(Severity.WARN, "No decimalisation table supplied, using system default table."),
+    DECE02(Severity.WARN, "Invalid decimalisation table supplied, using system default table."),
+    DECE03(Severity.ERRR, "Decimalisation table entries must map a hexadecimal digit to a decimal digit."),
+    PANN01(Severity.ERRR, "PAN must be numeric."),
+    PANL01(Severity.WARN, "PAN check digit is invalid."),
+    PANN02(Severity.ERRR, "PAN must be 16 digits, as it is used as the IBM 3624 PIN validation data."),
+    KEYH01(Severity.ERRR, "Key must be hexadecimal."),
+    OFFN01(Severity.ERRR, "PIN offset must be numeric."),
+    PINL01(Severity.WARN, "PIN length cannot exceed 16, resetting PIN length to 16."),
+    PINL02(Severity.WARN, "PIN length cannot be less than 4, resetting PIN length to 4."),
+    PINL03(Severity.WARN, "PIN length cannot exceed 16, resetting PIN length to 16."),
+    PINL04(Severity.ERRR, "PIN length must be numeric."),
+    PINOFF(Severity.ERRR, "PIN length and number of digits in offset must match."),
+    NCPI01(Severity.ERRR, "Natural PIN and Customer PIN length must match."),
+    OFFC01(Severity.ERRR, "Customer PIN and PIN offset length must match."),
+    PINN01(Severity.ERRR, "PIN values must be numeric."),
+    PINB01(Severity.ERRR, "PIN block does not match its format."),
+    PINB02(Severity.ERRR, "PIN block PIN must be 4 through 12 digits."),
+    PINB03(Severity.ERRR, "PIN block PAN must be numeric, and at least 13 digits for formats 0 and 3."),
+    CVVP01(Severity.ERRR, "CVV PAN must be 12 through 19 digits."),
+    CVVK01(Severity.ERRR, "CVK must be 32 hexadecimal characters."),
+    CVVE01(Severity.ERRR, "Expiry date must be 4 digits, in YYMM format."),
+    CVVS01(Severity.ERRR, "Service code must be 3 digits."),
+    PVVP01(Severity.ERRR, "PVV PAN must be 16 digits."),
+    PVVI01(Severity.ERRR, "PVKI must be a single digit."),
+    PVVN01(Severity.ERRR, "PVV PIN must be 4 through 12 digits.");
+
+    /**
+     * WARN codes are informational, the request is still processed. ERRR codes fail the request.
+     */
+    public enum Severity { WARN, ERRR }
+
+    private final Severity severity;
+    private final String message;
+
+    ValidationCode(Severity severity, String message){
+        this.severity = severity;
+        this.message = message;
+    }
+
+    public Severity getSeverity(){
+        return severity;
+    }
+
+    public String getMessage(){
+        return message;
+    }
+
+    /**
+     * @return Code formatted the way it is logged, e.g. "WARN: DECE01: No decimalisation table supplied..."
+     */
+    @Override
+    public String toString(){
+        return severity + ": " + name() + ": " + message;
+    }
+
+}
@@ -0,0 +1,74 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable outcome of a validation, holding the warning and error codes raised.
+ * Codes are held as a bit mask, so a result costs a single small object, and a clean result costs none.
+ */
+public final class ValidationResult {
+
+    public static final ValidationResult VALID = new ValidationResult(0L);
+
+    private static final ValidationCode [] CODES = ValidationCode.values();
+
+    private final long codes;
+
+    private ValidationResult(long codes){
+        this.codes = codes;
+    }
+
+    /**
+     * @param codes Bit mask of raised codes, one bit per ValidationCode ordinal
+     * @return Validation result for the codes
+     */
+    static ValidationResult of(long codes){
+        return codes == 0L ? VALID : new ValidationResult(codes);
+    }
+
+    /**
+     * @param code Validation code
+     * @return Bit mask holding the code
+     */
+    static long mask(ValidationCode code){
+        return 1L << code.ordinal();
+    }
+
+    /**
+     * @return True if no ERRR code was raised
+     */
+    public boolean isValid(){
+        for (long remaining = codes; remaining != 0; remaining &= remaining - 1) {
+            if (CODES[Long.numberOfTrailingZeros(remaining)].getSeverity() == ValidationCode.Severity.ERRR) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param code Validation code
+     * @return True if the code was raised
+     */
+    public boolean hasCode(ValidationCode code){
+        return (codes & mask(code)) != 0;
+    }
+
+    /**
+     * @return Raised codes, in declaration order
+     */
+    public List<ValidationCode> getCodes(){
+        List<ValidationCode> raised = new ArrayList<>(Long.bitCount(codes));
+        for (long remaining = codes; remaining != 0; remaining &= remaining - 1) {
+            raised.add(CODES[Long.numberOfTrailingZeros(remaining)]);
+        }
+        return raised;
+    }
+
+    @Override
+    public String toString(){
+        return getCodes().toString();
+    }
+
+}
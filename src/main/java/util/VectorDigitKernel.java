@@ -0,0 +1,50 @@
+package util;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API implementation of the OffsetArithmetic digit kernel, working on as many digits per instruction as the
+ * preferred vector shape holds. The tail is finished with a scalar loop. Only loaded when the
+ * jdk.incubator.vector module is present.
+ */
+final class VectorDigitKernel implements OffsetArithmetic.DigitKernel {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    @Override
+    public void add(byte [] left, byte [] right, byte [] result, int length){
+
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            ByteVector digits = ByteVector.fromArray(SPECIES, left, i).add(ByteVector.fromArray(SPECIES, right, i));
+            digits.lanewise(VectorOperators.SUB, (byte) 10, digits.compare(VectorOperators.GE, (byte) 10))
+                    .intoArray(result, i);
+        }
+        for (; i < length; i++) {
+            byte digit = (byte) (left[i] + right[i]);
+            result[i] = digit >= 10 ? (byte) (digit - 10) : digit;
+        }
+
+    }
+
+    @Override
+    public void subtract(byte [] left, byte [] right, byte [] result, int length){
+
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            ByteVector digits = ByteVector.fromArray(SPECIES, left, i).sub(ByteVector.fromArray(SPECIES, right, i));
+            digits.lanewise(VectorOperators.ADD, (byte) 10, digits.compare(VectorOperators.LT, (byte) 0))
+                    .intoArray(result, i);
+        }
+        for (; i < length; i++) {
+            byte digit = (byte) (left[i] - right[i]);
+            result[i] = digit < 0 ? (byte) (digit + 10) : digit;
+        }
+
+    }
+
+}
@@ -0,0 +1,263 @@
+package util;
+
+import constants.PINConstants;
+import dto.CvvRequest;
+import metrics.PinMetrics;
+import metrics.PinOperation;
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Generate a Visa CVV, CVV2 or iCVV (Mastercard CVC1, CVC2) based on an input PAN, expiry date, service code and
+ * double length Card Verification Key, CVK A and CVK B. The calculation is as follows:
+ * - PAN, expiry date (YYMM) and service code are concatenated and padded right with zeros to 32 digits, giving two
+ * 8 byte blocks
+ * - The first block is encrypted with CVK A, and the result XORed with the second block
+ * - The result is TDEA encrypted with CVK A and CVK B
+ * - The 3 CVV digits are selected from the result as for PVVs: decimal digits left to right, then A through F as 0
+ * through 5
+ * CVV2 uses service code 000 and iCVV service code 999 in place of the service code of the card.
+ * Both encryptions go through the selected crypto backend, the first as single DES under CVK A. Values can be
+ * calculated or verified one request at a time, or for a list of requests, in which case each of the two encryptions
+ * is done in a single batch for the whole list. With a KeyRegistry, requests may carry a key reference in place of the
+ * CVK.
+ */
+public class VisaCvv {
+
+    private static final int BLOCK_SIZE = 8;
+    private static final int DATA_DIGITS = 32;
+    private static final int CVK_LENGTH = 32;
+
+    private final KeyRegistry keyRegistry;
+
+    /**
+     * Create an instance that only accepts requests carrying their key.
+     */
+    public VisaCvv(){
+        this(null);
+    }
+
+    /**
+     * Create an instance that resolves key references through a key registry.
+     * @param keyRegistry Key registry, or null to only accept requests carrying their key
+     */
+    public VisaCvv(KeyRegistry keyRegistry){
+        this.keyRegistry = keyRegistry;
+    }
+
+    /**
+     * Calculate a card verification value
+     * @param cvvRequest CVV request object
+     * @param cvvType Value to calculate, CVV, CVV2 or iCVV
+     * @return 3 digit value
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws IllegalBlockSizeException When block size of the data or the key is invalid
+     * @throws NoSuchAlgorithmException When and invalid algorithm is specified
+     * @throws BadPaddingException When data padding is invalid
+     * @throws InvalidKeyException When key passed is invalid
+     */
+    public String calculateCvv(CvvRequest cvvRequest, CvvType cvvType) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        long start = System.nanoTime();
+        byte [] cvv = calculate(List.of(cvvRequest), cvvType)[0];
+        PinMetrics.recordOperation(PinOperation.CVV_CALCULATE, start, 1);
+        return new String(cvv, StandardCharsets.US_ASCII);
+
+    }
+
+    /**
+     * Calculate card verification values for a batch of requests.
+     * @param cvvRequests CVV request objects
+     * @param cvvType Value to calculate, CVV, CVV2 or iCVV
+     * @return 3 digit values, in the same order as the requests
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws IllegalBlockSizeException When block size of the data or the key is invalid
+     * @throws NoSuchAlgorithmException When and invalid algorithm is specified
+     * @throws BadPaddingException When data padding is invalid
+     * @throws InvalidKeyException When key passed is invalid
+     */
+    public List<String> calculateCvv(List<CvvRequest> cvvRequests, CvvType cvvType) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        long start = System.nanoTime();
+        byte [][] calculated = calculate(cvvRequests, cvvType);
+        List<String> cvvs = new ArrayList<>(calculated.length);
+        for (byte [] cvv : calculated) {
+            cvvs.add(new String(cvv, StandardCharsets.US_ASCII));
+        }
+        PinMetrics.recordOperation(PinOperation.CVV_CALCULATE, start, cvvRequests.size());
+        return cvvs;
+
+    }
+
+    /**
+     * Verify a card verification value against the value calculated from the request. The values are compared in
+     * constant time. A value that cannot match because of its length or format is rejected before any cryptography is
+     * done.
+     * @param cvvRequest CVV request object
+     * @param cvvType Value being verified, CVV, CVV2 or iCVV
+     * @param cvv Value presented for the card
+     * @return True if the value matches
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws IllegalBlockSizeException When block size of the data or the key is invalid
+     * @throws NoSuchAlgorithmException When and invalid algorithm is specified
+     * @throws BadPaddingException When data padding is invalid
+     * @throws InvalidKeyException When key passed is invalid
+     */
+    public boolean verifyCvv(CvvRequest cvvRequest, CvvType cvvType, String cvv) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        long start = System.nanoTime();
+        boolean match = false;
+        if (canMatch(cvv)) {
+            match = MessageDigest.isEqual(calculate(List.of(cvvRequest), cvvType)[0],
+                    cvv.getBytes(StandardCharsets.US_ASCII));
+        }
+        PinMetrics.recordOperation(PinOperation.CVV_VERIFY, start, 1);
+        return match;
+
+    }
+
+    /**
+     * Verify a batch of card verification values. Values that can match are calculated in a single batch.
+     * @param cvvRequests CVV request objects
+     * @param cvvType Value being verified, CVV, CVV2 or iCVV
+     * @param cvvs Values presented for the cards, in the same order as the requests
+     * @return Verification results, in the same order as the requests
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws IllegalBlockSizeException When block size of the data or the key is invalid
+     * @throws NoSuchAlgorithmException When and invalid algorithm is specified
+     * @throws BadPaddingException When data padding is invalid
+     * @throws InvalidKeyException When key passed is invalid
+     */
+    public List<Boolean> verifyCvv(List<CvvRequest> cvvRequests, CvvType cvvType, List<String> cvvs)
+            throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException,
+            InvalidKeyException {
+
+        if (cvvRequests.size() != cvvs.size()) {
+            throw new IllegalArgumentException("Number of CVV requests and CVVs must match");
+        }
+        long start = System.nanoTime();
+        Boolean [] results = new Boolean[cvvRequests.size()];
+        List<Integer> positions = new ArrayList<>(cvvRequests.size());
+        List<CvvRequest> candidates = new ArrayList<>(cvvRequests.size());
+        for (int i = 0; i < cvvRequests.size(); i++) {
+            results[i] = Boolean.FALSE;
+            if (canMatch(cvvs.get(i))) {
+                positions.add(i);
+                candidates.add(cvvRequests.get(i));
+            }
+        }
+
+        byte [][] calculated = calculate(candidates, cvvType);
+        for (int i = 0; i < positions.size(); i++) {
+            int position = positions.get(i);
+            results[position] = MessageDigest.isEqual(calculated[i],
+                    cvvs.get(position).getBytes(StandardCharsets.US_ASCII));
+        }
+        PinMetrics.recordOperation(PinOperation.CVV_VERIFY, start, cvvRequests.size());
+        return Arrays.asList(results);
+
+    }
+
+    /**
+     * Calculate the values of a list of requests, with one batch encryption under CVK A for the first blocks and one
+     * TDEA batch encryption for the chained second blocks.
+     * @return Values, as ASCII digit characters, in the same order as the requests
+     */
+    private byte [][] calculate(List<CvvRequest> cvvRequests, CvvType cvvType) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        if (cvvRequests.isEmpty()) {
+            return new byte[0][];
+        }
+        List<String> keys = new ArrayList<>(cvvRequests.size());
+        List<String> keysA = new ArrayList<>(cvvRequests.size());
+        List<byte[]> firstBlocks = new ArrayList<>(cvvRequests.size());
+        List<byte[]> secondBlocks = new ArrayList<>(cvvRequests.size());
+        for (CvvRequest cvvRequest : cvvRequests) {
+            String key = key(cvvRequest);
+            if (key == null || key.length() != CVK_LENGTH) {
+                throw new InvalidKeyException("CVK must be 32 hexadecimal characters");
+            }
+            byte [] data = deriveData(cvvRequest, cvvType);
+            keys.add(key);
+            keysA.add(key.substring(0, 2 * BLOCK_SIZE));
+            firstBlocks.add(Arrays.copyOfRange(data, 0, BLOCK_SIZE));
+            secondBlocks.add(Arrays.copyOfRange(data, BLOCK_SIZE, 2 * BLOCK_SIZE));
+        }
+
+        byte [][] encryptedFirstBlocks = encryptBatch(keysA, firstBlocks);
+        for (int i = 0; i < encryptedFirstBlocks.length; i++) {
+            byte [] secondBlock = secondBlocks.get(i);
+            for (int j = 0; j < BLOCK_SIZE; j++) {
+                secondBlock[j] ^= encryptedFirstBlocks[i][j];
+            }
+        }
+        byte [][] encrypted = encryptBatch(keys, secondBlocks);
+        byte [][] cvvs = new byte[encrypted.length][];
+        for (int i = 0; i < encrypted.length; i++) {
+            cvvs[i] = DecimalisationTable.selectDigits(encrypted[i], PINConstants.CVV_LENGTH);
+        }
+        return cvvs;
+
+    }
+
+    /**
+     * Concatenate PAN, expiry date and service code, padded right with zeros to 32 digits, as two binary blocks.
+     */
+    private static byte [] deriveData(CvvRequest cvvRequest, CvvType cvvType){
+
+        StringBuilder data = new StringBuilder(DATA_DIGITS)
+                .append(cvvRequest.getPan())
+                .append(cvvRequest.getExpiryDate())
+                .append(cvvType.serviceCode(cvvRequest));
+        if (data.length() > DATA_DIGITS) {
+            throw new IllegalArgumentException("PAN, expiry date and service code cannot exceed 32 digits");
+        }
+        while (data.length() < DATA_DIGITS) {
+            data.append(PINConstants.PAD_CHAR);
+        }
+        return HexFormat.of().parseHex(data);
+
+    }
+
+    /**
+     * Check whether a presented value can match at all, from its length and format only.
+     */
+    private static boolean canMatch(String cvv){
+        return cvv != null && cvv.length() == PINConstants.CVV_LENGTH && DataValidator.isNumeric(cvv);
+    }
+
+    /**
+     * Return the CVK of a request, resolving its key reference through the key registry when it has one.
+     */
+    private String key(CvvRequest cvvRequest) throws InvalidKeyException {
+
+        if (keyRegistry != null) {
+            return keyRegistry.resolve(cvvRequest);
+        }
+        if (cvvRequest.getKeyRef() != null) {
+            throw new InvalidKeyException("Key reference " + cvvRequest.getKeyRef()
+                    + " cannot be resolved without a key registry");
+        }
+        return cvvRequest.getKey();
+
+    }
+
+    private static byte [][] encryptBatch(List<String> keys, List<byte[]> blocks) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        return CryptoFunctions.getBackend().encryptBatch(keys, blocks);
+    }
+
+}
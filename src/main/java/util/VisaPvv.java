@@ -1,12 +1,21 @@
 package util;
 
 import constants.PINConstants;
+import dto.CompactPvvRequest;
 import dto.PvvRequest;
+import metrics.PinMetrics;
+import metrics.PinOperation;
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
 
 /**
  * Generate a VISA PVV based on an input PAN, PIN Verification Key Index, PIN and PIN Verification Key
@@ -19,9 +28,30 @@ import java.security.NoSuchAlgorithmException;
  * - D substituted with 3
  * - E substituted with 4
  * - F substituted with 5
+ * PVVs can be calculated or verified one request at a time, or for a list of requests, in which case requests sharing
+ * a PVK are encrypted together. TSPs hold the clear PIN, so they are always encrypted and never cached: a cached TSP
+ * would keep PIN digits in memory, and verifying a PIN already seen would be measurably faster than verifying a new
+ * one. With a KeyRegistry, requests may carry a key reference in place of the PVK.
  */
 public class VisaPvv {
 
+    private final KeyRegistry keyRegistry;
+
+    /**
+     * Create an instance that only accepts requests carrying their key.
+     */
+    public VisaPvv(){
+        this(null);
+    }
+
+    /**
+     * Create an instance that resolves key references through a key registry.
+     * @param keyRegistry Key registry, or null to only accept requests carrying their key
+     */
+    public VisaPvv(KeyRegistry keyRegistry){
+        this.keyRegistry = keyRegistry;
+    }
+
     /**
      * Calculate Visa PIN Verification Value
      * @param pvvRequest PVV request object
@@ -34,38 +64,211 @@ public class VisaPvv {
     public String calculateVisaPvv(PvvRequest pvvRequest) throws NoSuchPaddingException, IllegalBlockSizeException,
             NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
 
-        CryptoFunctions cryptoFunctions = new CryptoFunctions();
-        StringBuilder pvv = new StringBuilder();
-        cryptoFunctions.setInputData(deriveTsp(pvvRequest));
-        cryptoFunctions.setKey(pvvRequest.getKey());
-        String encryptedTsp = cryptoFunctions.tDEAEncrypt();
-        // Extract numeric digits, if any from the encrypted TSP data
-        for (int i = 0; i < encryptedTsp.length(); i++) {
-            String pvvDigit = encryptedTsp.substring(i, i + 1);
-            if (DataValidator.isNumeric(pvvDigit)) {
-                pvv.append(pvvDigit);
-            }
-            if (pvv.length() == 4) {
-                break;
-            }
+        long start = System.nanoTime();
+        byte [] encryptedTsp = encrypt(key(pvvRequest),
+                HexFormat.of().parseHex(deriveTsp(pvvRequest)));
+        String pvv = new String(extractPvv(encryptedTsp), StandardCharsets.US_ASCII);
+        PinMetrics.recordOperation(PinOperation.PVV_CALCULATE, start, 1);
+        return pvv;
+
+    }
+
+    /**
+     * Calculate Visa PIN Verification Values for a batch of requests. Requests are grouped by key and the TSPs of
+     * each group are encrypted in a single cipher pass.
+     * @param pvvRequests PVV request objects
+     * @return PVVs, in the same order as the requests
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws IllegalBlockSizeException When block size of the data or the key is invalid
+     * @throws NoSuchAlgorithmException When and invalid algorithm is specified
+     * @throws BadPaddingException When data padding is invalid
+     * @throws InvalidKeyException When key passed is invalid
+     */
+    public List<String> calculateVisaPvv(List<PvvRequest> pvvRequests) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        long start = System.nanoTime();
+        List<String> keys = new ArrayList<>(pvvRequests.size());
+        List<byte[]> tsps = new ArrayList<>(pvvRequests.size());
+        for (PvvRequest pvvRequest : pvvRequests) {
+            keys.add(key(pvvRequest));
+            tsps.add(HexFormat.of().parseHex(deriveTsp(pvvRequest)));
         }
-        // If PVV length is less than 4 digits, convert A through F hex chars to numbers by substituting x'10'
-        if (pvv.length() < 4) {
-            for (int i = 0; i < encryptedTsp.length(); i++) {
-                String pvvDigit = encryptedTsp.substring(i, i + 1);
-                if (!DataValidator.isNumeric(pvvDigit)) {
-                    pvv.append(convertHexToDigits(pvvDigit));
-                }
-                if (pvv.length() == 4) {
-                    break;
-                }
+
+        byte [][] encryptedTsps = encryptBatch(keys, tsps);
+        List<String> pvvs = new ArrayList<>(pvvRequests.size());
+        for (byte [] encryptedTsp : encryptedTsps) {
+            pvvs.add(new String(extractPvv(encryptedTsp), StandardCharsets.US_ASCII));
+        }
+        PinMetrics.recordOperation(PinOperation.PVV_CALCULATE, start, pvvRequests.size());
+        return pvvs;
+
+    }
+
+    /**
+     * Verify a stored PVV against the PVV calculated from the clear PIN in the request. The PVVs are compared in
+     * constant time. Only a PIN or PVV that cannot match because of its length or format is rejected early, before
+     * any cryptography is done.
+     * @param pvvRequest PVV request object, carrying the clear PIN entered by the customer
+     * @param pvv PVV stored for the card
+     * @return True if the PVV matches
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws IllegalBlockSizeException When block size of the data or the key is invalid
+     * @throws NoSuchAlgorithmException When and invalid algorithm is specified
+     * @throws BadPaddingException When data padding is invalid
+     * @throws InvalidKeyException When key passed is invalid
+     */
+    public boolean verifyVisaPvv(PvvRequest pvvRequest, String pvv) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        long start = System.nanoTime();
+        boolean match = false;
+        if (canMatch(pvvRequest, pvv)) {
+            byte [] encryptedTsp = encrypt(key(pvvRequest),
+                    HexFormat.of().parseHex(deriveTsp(pvvRequest)));
+            match = MessageDigest.isEqual(extractPvv(encryptedTsp), pvv.getBytes(StandardCharsets.US_ASCII));
+        }
+        PinMetrics.recordOperation(PinOperation.PVV_VERIFY, start, 1);
+        return match;
+
+    }
+
+    /**
+     * Verify a batch of stored PVVs. Requests that can match are grouped by key and the TSPs of each group are
+     * encrypted in a single cipher pass.
+     * @param pvvRequests PVV request objects, carrying the clear PINs entered by the customers
+     * @param pvvs PVVs stored for the cards, in the same order as the requests
+     * @return Verification results, in the same order as the requests
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws IllegalBlockSizeException When block size of the data or the key is invalid
+     * @throws NoSuchAlgorithmException When and invalid algorithm is specified
+     * @throws BadPaddingException When data padding is invalid
+     * @throws InvalidKeyException When key passed is invalid
+     */
+    public List<Boolean> verifyVisaPvv(List<PvvRequest> pvvRequests, List<String> pvvs) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        if (pvvRequests.size() != pvvs.size()) {
+            throw new IllegalArgumentException("Number of PVV requests and PVVs must match");
+        }
+        long start = System.nanoTime();
+        Boolean [] results = new Boolean[pvvRequests.size()];
+        List<Integer> positions = new ArrayList<>(pvvRequests.size());
+        List<String> keys = new ArrayList<>(pvvRequests.size());
+        List<byte[]> tsps = new ArrayList<>(pvvRequests.size());
+        for (int i = 0; i < pvvRequests.size(); i++) {
+            results[i] = Boolean.FALSE;
+            if (canMatch(pvvRequests.get(i), pvvs.get(i))) {
+                positions.add(i);
+                keys.add(key(pvvRequests.get(i)));
+                tsps.add(HexFormat.of().parseHex(deriveTsp(pvvRequests.get(i))));
             }
         }
 
-        return pvv.toString();
+        byte [][] encryptedTsps = encryptBatch(keys, tsps);
+        for (int i = 0; i < positions.size(); i++) {
+            int position = positions.get(i);
+            results[position] = MessageDigest.isEqual(extractPvv(encryptedTsps[i]),
+                    pvvs.get(position).getBytes(StandardCharsets.US_ASCII));
+        }
+        PinMetrics.recordOperation(PinOperation.PVV_VERIFY, start, pvvRequests.size());
+        return Arrays.asList(results);
 
     }
 
+    /**
+     * Calculate the Visa PVV of a compact request. The TSP is assembled straight from the packed PAN and PIN digits.
+     * @param pvvRequest Compact PVV request
+     * @return PVV, as an int from 0 through 9999
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws IllegalBlockSizeException When block size of the data or the key is invalid
+     * @throws NoSuchAlgorithmException When and invalid algorithm is specified
+     * @throws BadPaddingException When data padding is invalid
+     * @throws InvalidKeyException When key passed is invalid
+     */
+    public int calculatePvv(CompactPvvRequest pvvRequest) throws NoSuchPaddingException, IllegalBlockSizeException,
+            NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        long start = System.nanoTime();
+        int pvv = toPvvValue(extractPvv(encrypt(pvvRequest.key(), deriveTsp(pvvRequest))));
+        PinMetrics.recordOperation(PinOperation.PVV_CALCULATE, start, 1);
+        return pvv;
+
+    }
+
+    /**
+     * Calculate Visa PVVs for a batch of compact requests, encrypting the TSPs of requests sharing a key in a single
+     * cipher pass.
+     * @param pvvRequests Compact PVV requests
+     * @return PVVs, as ints from 0 through 9999, in the same order as the requests
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws IllegalBlockSizeException When block size of the data or the key is invalid
+     * @throws NoSuchAlgorithmException When and invalid algorithm is specified
+     * @throws BadPaddingException When data padding is invalid
+     * @throws InvalidKeyException When key passed is invalid
+     */
+    public int [] calculatePvv(List<CompactPvvRequest> pvvRequests) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        long start = System.nanoTime();
+        List<String> keys = new ArrayList<>(pvvRequests.size());
+        List<byte[]> tsps = new ArrayList<>(pvvRequests.size());
+        for (CompactPvvRequest pvvRequest : pvvRequests) {
+            keys.add(pvvRequest.key());
+            tsps.add(deriveTsp(pvvRequest));
+        }
+
+        byte [][] encryptedTsps = encryptBatch(keys, tsps);
+        int [] pvvs = new int[encryptedTsps.length];
+        for (int i = 0; i < encryptedTsps.length; i++) {
+            pvvs[i] = toPvvValue(extractPvv(encryptedTsps[i]));
+        }
+        PinMetrics.recordOperation(PinOperation.PVV_CALCULATE, start, pvvRequests.size());
+        return pvvs;
+
+    }
+
+    /**
+     * Verify a stored PVV against the PVV calculated from a compact request.
+     * @param pvvRequest Compact PVV request, carrying the clear PIN entered by the customer
+     * @param pvv PVV stored for the card, as an int from 0 through 9999
+     * @return True if the PVV matches
+     * @throws NoSuchPaddingException When invalid padding is supplied
+     * @throws IllegalBlockSizeException When block size of the data or the key is invalid
+     * @throws NoSuchAlgorithmException When and invalid algorithm is specified
+     * @throws BadPaddingException When data padding is invalid
+     * @throws InvalidKeyException When key passed is invalid
+     */
+    public boolean verifyVisaPvv(CompactPvvRequest pvvRequest, int pvv) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        long start = System.nanoTime();
+        int calculatedPvv = toPvvValue(extractPvv(encrypt(pvvRequest.key(),
+                deriveTsp(pvvRequest))));
+        boolean match = calculatedPvv == pvv;
+        PinMetrics.recordOperation(PinOperation.PVV_VERIFY, start, 1);
+        return match;
+
+    }
+
+    /**
+     * Check whether a PVV request and stored PVV can match at all, from their length and format only.
+     */
+    private static boolean canMatch(PvvRequest pvvRequest, String pvv){
+        return pvv != null && pvv.length() == PINConstants.PVV_LENGTH
+                && pvvRequest.getPin() != null && pvvRequest.getPin().length() >= PINConstants.MAX_PVV_PIN_LEN
+                && DataValidator.isNumeric(pvvRequest.getPin());
+    }
+
+    /**
+     * Select the PVV digits from the encrypted TSP, scanning its hexadecimal digits left to right.
+     * @param encryptedTsp Encrypted TSP
+     * @return 4 digit PVV, as ASCII digit characters
+     */
+    private static byte [] extractPvv(byte [] encryptedTsp){
+        return DecimalisationTable.selectDigits(encryptedTsp, PINConstants.PVV_LENGTH);
+    }
+
     /**
      * Derive Transformation Security Parameter based on PAN, PIN and PIN Verification Key Index
      * @return Derived TSP
@@ -80,20 +283,61 @@ public class VisaPvv {
     }
 
     /**
-     * Convert hexadecimal character to numeric digit by subtracting x"0" from hexadecimal char
-     * @param hexChar Hexadecimal character
-     * @return Converted numeric digit
+     * Assemble the TSP of a compact request as binary data: the 11 PAN digits left of the check digit, the PVKI and
+     * the first 4 PIN digits, one per nibble.
      */
-    private String convertHexToDigits(String hexChar){
-        return switch (hexChar) {
-            case "A" -> "0";
-            case "B" -> "1";
-            case "C" -> "2";
-            case "D" -> "3";
-            case "E" -> "4";
-            case "F" -> "5";
-            default -> null;
-        };
+    private static byte [] deriveTsp(CompactPvvRequest pvvRequest){
+
+        byte [] tsp = new byte[8];
+        int panStart = pvvRequest.panLength() - 1 - PINConstants.MAX_PVV_PAN_LEN;
+        for (int i = 0; i < PINConstants.MAX_PVV_PAN_LEN; i++) {
+            PackedDigits.setDigit(tsp, i, PackedDigits.digit(pvvRequest.pan(), panStart + i));
+        }
+        PackedDigits.setDigit(tsp, PINConstants.MAX_PVV_PAN_LEN, pvvRequest.keyIndex());
+        for (int i = 0; i < PINConstants.MAX_PVV_PIN_LEN; i++) {
+            PackedDigits.setDigit(tsp, PINConstants.MAX_PVV_PAN_LEN + 1 + i, pvvRequest.pin()[i]);
+        }
+        return tsp;
+
+    }
+
+    /**
+     * Convert a PVV in ASCII digit characters to its int value
+     */
+    private static int toPvvValue(byte [] pvv){
+
+        int value = 0;
+        for (byte pvvDigit : pvv) {
+            value = value * 10 + (pvvDigit - '0');
+        }
+        return value;
+
+    }
+
+    /**
+     * Return the PVK of a request, resolving its key reference through the key registry when it has one.
+     */
+    private String key(PvvRequest pvvRequest) throws InvalidKeyException {
+
+        if (keyRegistry != null) {
+            return keyRegistry.resolve(pvvRequest);
+        }
+        if (pvvRequest.getKeyRef() != null) {
+            throw new InvalidKeyException("Key reference " + pvvRequest.getKeyRef()
+                    + " cannot be resolved without a key registry");
+        }
+        return pvvRequest.getKey();
+
+    }
+
+    private static byte [] encrypt(String key, byte [] block) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        return CryptoFunctions.getBackend().encrypt(key, block);
+    }
+
+    private static byte [][] encryptBatch(List<String> keys, List<byte[]> blocks) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        return CryptoFunctions.getBackend().encryptBatch(keys, blocks);
     }
 
 }
@@ -0,0 +1,141 @@
+package analytics;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Unit tests for the streaming PIN distribution and its sketches.
+ */
+public class PinDistributionTest
+    extends TestCase
+{
+    public PinDistributionTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PinDistributionTest.class );
+    }
+
+    public void testFourDigitPins()
+    {
+        PinDistribution distribution = new PinDistribution();
+        for (String pin : new String[] {"1234", "1234", "1111", "1212", "1987", "5832", "0987"}) {
+            distribution.record(digits(pin), 0, pin.length());
+        }
+        assertEquals( 7, distribution.getCount() );
+        assertEquals( 7, distribution.getCount(4) );
+        assertEquals( 2, distribution.getFrequency("1234") );
+        assertEquals( 0, distribution.getFrequency("4321") );
+        assertEquals( 1, distribution.getPatternCount(WeakPinPattern.REPEATED_DIGIT) );
+        assertEquals( 2, distribution.getPatternCount(WeakPinPattern.ASCENDING) );
+        assertEquals( 1, distribution.getPatternCount(WeakPinPattern.DESCENDING) );
+        assertEquals( 1, distribution.getPatternCount(WeakPinPattern.REPEATED_PAIR) );
+        assertEquals( 1, distribution.getPatternCount(WeakPinPattern.YEAR) );
+        assertEquals( 6, distribution.getWeakPinCount() );
+        int [] top = distribution.getMostFrequentFourDigitPins(3);
+        assertEquals( 3, top.length );
+        assertEquals( 1234, top[0] );
+        assertEquals( 987, top[1] );
+        assertEquals( 6, distribution.getMostFrequentFourDigitPins(10000).length );
+        assertEquals( 0, distribution.getMostFrequentFourDigitPins(0).length );
+        assertEquals( 9.0 / 28, distribution.getDigitShare(1), 1e-9 );
+        assertEquals( 5.0 / 7, distribution.getDigitShare(0, 1), 1e-9 );
+    }
+
+    /**
+     * Longer PINs are counted in the sketch, never below their true count, and their distinct number is estimated
+     * within a few percent.
+     */
+    public void testLongPins()
+    {
+        PinDistribution distribution = new PinDistribution();
+        SplittableRandom random = new SplittableRandom(1);
+        Set<String> distinct = new HashSet<>();
+        for (int i = 0; i < 50000; i++) {
+            String pin = String.format("%06d", random.nextInt(1000000));
+            distinct.add(pin);
+            distribution.record(digits(pin), 0, pin.length());
+        }
+        for (int i = 0; i < 1000; i++) {
+            distribution.record(digits("123456"), 0, 6);
+        }
+        distribution.record(digits("012345"), 0, 6);
+        distinct.add("123456");
+        distinct.add("012345");
+        assertTrue( distribution.getFrequency("123456") >= 1000 );
+        assertTrue( distribution.getFrequency("123456") < 1100 );
+        assertTrue( distribution.getFrequency("012345") >= 1 );
+        assertEquals( distinct.size(), distribution.getDistinctLongPins(), distinct.size() * 0.05 );
+        assertEquals( 1000, distribution.getPatternCount(WeakPinPattern.ASCENDING), 10 );
+        try {
+            distribution.getFrequency("123");
+            fail("Short PIN must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Merged partial distributions must report the same figures as a single distribution fed every PIN.
+     */
+    public void testMerge()
+    {
+        PinDistribution whole = new PinDistribution();
+        PinDistribution [] partials = {new PinDistribution(), new PinDistribution(), new PinDistribution()};
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < 30000; i++) {
+            int length = 4 + random.nextInt(3) * 2;
+            byte [] pin = new byte[length];
+            for (int j = 0; j < length; j++) {
+                pin[j] = (byte) random.nextInt(10);
+            }
+            whole.record(pin, 0, length);
+            partials[i % 3].record(pin, 0, length);
+        }
+        PinDistribution merged = new PinDistribution();
+        for (PinDistribution partial : partials) {
+            merged.merge(partial);
+        }
+        assertEquals( whole.getCount(), merged.getCount() );
+        assertEquals( whole.getCount(6), merged.getCount(6) );
+        assertEquals( whole.getWeakPinCount(), merged.getWeakPinCount() );
+        assertEquals( whole.getDistinctLongPins(), merged.getDistinctLongPins() );
+        assertEquals( whole.getDigitSkew(), merged.getDigitSkew(), 1e-12 );
+        for (String pin : new String[] {"0000", "9999", "123456", "00000000"}) {
+            assertEquals( whole.getFrequency(pin), merged.getFrequency(pin) );
+        }
+        assertTrue( whole.getDigitSkew() < 1.1 );
+    }
+
+    /**
+     * A PIN held at an offset inside a larger array, as in a chunk of PINs laid end to end, is read from its own
+     * digits only, and long PINs differing only by a leading zero are counted apart.
+     */
+    public void testOffset()
+    {
+        PinDistribution distribution = new PinDistribution();
+        distribution.record(digits("99991234567888"), 4, 5);
+        distribution.record(digits("012345"), 0, 6);
+        assertEquals( 1, distribution.getFrequency("12345") );
+        assertEquals( 1, distribution.getFrequency("012345") );
+        assertEquals( 2, distribution.getPatternCount(WeakPinPattern.ASCENDING) );
+        assertEquals( 0.5, distribution.getDigitShare(0, 1), 1e-9 );
+    }
+
+    private static byte [] digits(String pin)
+    {
+        byte [] digits = new byte[pin.length()];
+        for (int i = 0; i < digits.length; i++) {
+            digits[i] = (byte) (pin.charAt(i) - '0');
+        }
+        return digits;
+    }
+}
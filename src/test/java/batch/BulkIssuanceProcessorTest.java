@@ -0,0 +1,124 @@
+package batch;
+
+import dto.CvvRequest;
+import dto.PinRequest;
+import dto.PvvRequest;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import util.CvvType;
+import util.IBM3624Pin;
+import util.VisaCvv;
+import util.VisaPvv;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for the bulk card issuance processor.
+ */
+public class BulkIssuanceProcessorTest
+    extends TestCase
+{
+    private static final Map<String, String> KEYS = Map.of(
+            "PVK1", "0123456789ABCDEFFEDCBA9876543210",
+            "PVK2", "0123456789ABCDEF");
+
+    public BulkIssuanceProcessorTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BulkIssuanceProcessorTest.class );
+    }
+
+    /**
+     * Output must be in input order and match the single request APIs, with bad records reported in place.
+     */
+    public void testProcessFile() throws Exception
+    {
+        Path input = Files.createTempFile("bulk", ".in");
+        Path output = Files.createTempFile("bulk", ".out");
+        try {
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < 2500; i++) {
+                String pan = String.format("453999%010d", i);
+                lines.add(pan + (i % 2 == 0 ? ",PVK1," : ",PVK2,") + "1234,4");
+            }
+            lines.set(10, "4539990000000010,PVK9,1234,4");
+            lines.set(20, "bad record");
+            Files.write(input, lines, StandardCharsets.US_ASCII);
+
+            BulkReport report = new BulkIssuanceProcessor(KEYS, ",", 100, 4).process(input, output);
+            assertEquals( 2500, report.getRecords() );
+            assertEquals( 2, report.getErrors() );
+
+            List<String> results = Files.readAllLines(output, StandardCharsets.US_ASCII);
+            assertEquals( 2500, results.size() );
+            assertEquals( "4539990000000010,ERRR,BLKK01", results.get(10) );
+            assertEquals( "bad record,ERRR,BLKF01", results.get(20) );
+            for (int i : new int[] {0, 1, 999, 2499}) {
+                String pan = String.format("453999%010d", i);
+                String key = KEYS.get(i % 2 == 0 ? "PVK1" : "PVK2");
+                PinRequest pinRequest = new PinRequest();
+                pinRequest.setPan(pan);
+                pinRequest.setKey(key);
+                pinRequest.setPinOffset("1234");
+                pinRequest.setPinLength("4");
+                String pin = new IBM3624Pin().generateIBM3624Pin(pinRequest).getPin();
+                PvvRequest pvvRequest = new PvvRequest();
+                pvvRequest.setPan(pan);
+                pvvRequest.setKey(key);
+                pvvRequest.setKeyIndex("1");
+                pvvRequest.setPin(pin);
+                assertEquals( pan + "," + pin + ",1234," + new VisaPvv().calculateVisaPvv(pvvRequest),
+                        results.get(i) );
+            }
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    /**
+     * Records carrying a CVK reference, expiry date and service code must also get their CVV, CVV2 and iCVV.
+     */
+    public void testCardVerificationValues() throws Exception
+    {
+        Path input = Files.createTempFile("bulk", ".in");
+        Path output = Files.createTempFile("bulk", ".out");
+        try {
+            Files.write(input, List.of(
+                    "4123456789012345,PVK1,1234,4,1,PVK1,8701,101",
+                    "4123456789012345,PVK1,1234,4",
+                    "4123456789012345,PVK1,1234,4,1,PVK2,8701,101",
+                    "4123456789012345,PVK1,1234,4,1,CVK9,8701,101",
+                    "4123456789012345,PVK1,1234,4,1,PVK1,8701"), StandardCharsets.US_ASCII);
+
+            BulkReport report = new BulkIssuanceProcessor(KEYS, ",", 100, 1).process(input, output);
+            assertEquals( 3, report.getErrors() );
+
+            List<String> results = Files.readAllLines(output, StandardCharsets.US_ASCII);
+            CvvRequest cvvRequest = new CvvRequest();
+            cvvRequest.setPan("4123456789012345");
+            cvvRequest.setKey(KEYS.get("PVK1"));
+            cvvRequest.setExpiryDate("8701");
+            cvvRequest.setServiceCode("101");
+            VisaCvv visaCvv = new VisaCvv();
+            assertEquals( results.get(1) + ",561," + visaCvv.calculateCvv(cvvRequest, CvvType.CVV2) + ","
+                    + visaCvv.calculateCvv(cvvRequest, CvvType.ICVV), results.get(0) );
+            assertEquals( "4123456789012345,ERRR,BLKV01", results.get(2) );
+            assertEquals( "4123456789012345,ERRR,BLKK01", results.get(3) );
+            assertEquals( "4123456789012345,ERRR,BLKF01", results.get(4) );
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+}
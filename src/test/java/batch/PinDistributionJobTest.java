@@ -0,0 +1,101 @@
+package batch;
+
+import analytics.PinDistribution;
+import dto.PinRequest;
+import dto.PvvRequest;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import util.IBM3624Pin;
+import util.VisaPvv;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for the PIN distribution job.
+ */
+public class PinDistributionJobTest
+    extends TestCase
+{
+    private static final String PVK = "0123456789ABCDEFFEDCBA9876543210";
+    private static final int CARDS = 600;
+
+    public PinDistributionJobTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PinDistributionJobTest.class );
+    }
+
+    /**
+     * Merged distributions must match the PINs and PVVs derived card by card through the single request APIs.
+     */
+    public void testAnalyse() throws Exception
+    {
+        Path input = Files.createTempFile("distribution", ".in");
+        try {
+            IBM3624Pin ibm3624Pin = new IBM3624Pin();
+            VisaPvv visaPvv = new VisaPvv();
+            List<String> lines = new ArrayList<>();
+            Map<String, Integer> fourDigitPins = new HashMap<>();
+            Map<String, Integer> pvvs = new HashMap<>();
+            for (int i = 0; i < CARDS; i++) {
+                String pan = String.format("453999%010d", i);
+                String offset = i % 3 == 0 ? String.format("%06d", i * 7919 % 1000000)
+                        : String.format("%04d", i * 31 % 10000);
+                PinRequest pinRequest = new PinRequest();
+                pinRequest.setPan(pan);
+                pinRequest.setKey(PVK);
+                pinRequest.setPinOffset(offset);
+                pinRequest.setPinLength(Integer.toString(offset.length()));
+                String pin = ibm3624Pin.generateIBM3624Pin(pinRequest).getPin();
+                PvvRequest pvvRequest = new PvvRequest();
+                pvvRequest.setPan(pan);
+                pvvRequest.setKey(PVK);
+                pvvRequest.setKeyIndex("1");
+                pvvRequest.setPin(pin);
+                String pvv = visaPvv.calculateVisaPvv(pvvRequest);
+                lines.add(pan + "," + offset + "," + pvv + ",1");
+                if (pin.length() == 4) {
+                    fourDigitPins.merge(pin, 1, Integer::sum);
+                }
+                pvvs.merge(pvv, 1, Integer::sum);
+            }
+            lines.add("bad record");
+            lines.add("4539990000000001,1234,12345");
+            Files.write(input, lines, StandardCharsets.US_ASCII);
+
+            PinDistributionReport report = new PinDistributionJob(PVK, ",", 64, 4).analyse(input);
+            assertEquals( CARDS + 2, report.getRecords() );
+            assertEquals( 2, report.getErrors() );
+            PinDistribution customerPins = report.getCustomerPins();
+            PinDistribution naturalPins = report.getNaturalPins();
+            assertEquals( CARDS, customerPins.getCount() );
+            assertEquals( CARDS, naturalPins.getCount() );
+            assertEquals( CARDS / 3, customerPins.getCount(6) );
+            for (Map.Entry<String, Integer> pin : fourDigitPins.entrySet()) {
+                assertEquals( (long) pin.getValue(), customerPins.getFrequency(pin.getKey()) );
+            }
+            double pairs = 0;
+            for (Map.Entry<String, Integer> pvv : pvvs.entrySet()) {
+                assertEquals( (long) pvv.getValue(), report.getPvvCount(Integer.parseInt(pvv.getKey())) );
+                pairs += (double) pvv.getValue() * (pvv.getValue() - 1);
+            }
+            assertEquals( pairs / ((double) CARDS * (CARDS - 1)), report.getPvvCollisionRate(), 1e-12 );
+            // The default decimalisation table maps A through F onto 0 through 5, so natural PINs favour 0 through 5
+            assertTrue( naturalPins.getDigitSkew() > 1.5 );
+            assertTrue( naturalPins.getDigitShare(0) > naturalPins.getDigitShare(9) );
+        } finally {
+            Files.deleteIfExists(input);
+        }
+    }
+}
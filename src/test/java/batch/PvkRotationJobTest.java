@@ -0,0 +1,162 @@
+package batch;
+
+import dto.PinRequest;
+import dto.PvvRequest;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import util.IBM3624Pin;
+import util.VisaPvv;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for the PVK rotation job.
+ */
+public class PvkRotationJobTest
+    extends TestCase
+{
+    private static final String OLD_PVK = "0123456789ABCDEFFEDCBA9876543210";
+    private static final String NEW_PVK = "FEDCBA98765432100123456789ABCDEF";
+    private static final int CARDS = 600;
+
+    public PvkRotationJobTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PvkRotationJobTest.class );
+    }
+
+    /**
+     * Every rotated card must keep its customer PIN under the new PVK, bad records are reported in place, and the
+     * verification sample is appended after the card records.
+     */
+    public void testRotate() throws Exception
+    {
+        Path directory = Files.createTempDirectory("rotation");
+        try {
+            Path input = writeCardFile(directory);
+            Path output = directory.resolve("cards.out");
+            Path checkpoint = directory.resolve("cards.checkpoint");
+            RotationReport report = new PvkRotationJob(OLD_PVK, NEW_PVK, ",", 64, 4, 50).rotate(input, output,
+                    checkpoint);
+            assertEquals( CARDS, report.getRecords() );
+            assertEquals( 2, report.getErrors() );
+            assertEquals( 50, report.getSampled() );
+            assertEquals( 0, report.getSampleFailures() );
+            assertFalse( Files.exists(checkpoint) );
+
+            List<String> results = Files.readAllLines(output, StandardCharsets.US_ASCII);
+            assertEquals( CARDS + 50 + 1, results.size() );
+            assertEquals( "SMPL,1,PASS", results.get(CARDS) );
+            assertEquals( "TRLR," + CARDS + ",50,0", results.get(results.size() - 1) );
+            assertEquals( "bad record,ERRR,ROTF01", results.get(7) );
+            assertTrue( results.get(8), results.get(8).endsWith(",ERRR,ROTV01") );
+            for (int i : new int[] {0, 1, 299, CARDS - 1}) {
+                String [] fields = results.get(i).split(",");
+                assertEquals( customerPin(i), pin(NEW_PVK, fields[0], fields[1]) );
+                assertEquals( fields[2], pvv(NEW_PVK, fields[0], customerPin(i)) );
+                assertEquals( "1", fields[3] );
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * A run resumed from a checkpoint drops output written after the checkpoint and gives the same file as a run
+     * that was never interrupted.
+     */
+    public void testResumeFromCheckpoint() throws Exception
+    {
+        Path directory = Files.createTempDirectory("rotation");
+        try {
+            Path input = writeCardFile(directory);
+            Path expected = directory.resolve("expected.out");
+            new PvkRotationJob(OLD_PVK, NEW_PVK, ",", 64, 4, 10).rotate(input, expected,
+                    directory.resolve("expected.checkpoint"));
+            List<String> expectedLines = Files.readAllLines(expected, StandardCharsets.US_ASCII);
+
+            // Output of a run stopped after 128 records, part way through writing the next chunk
+            Path output = directory.resolve("cards.out");
+            Path checkpoint = directory.resolve("cards.checkpoint");
+            String written = String.join("\n", expectedLines.subList(0, 128)) + "\n";
+            Files.writeString(output, written + "4539990000000128,12", StandardCharsets.US_ASCII);
+            Files.writeString(checkpoint, "128," + written.length(), StandardCharsets.US_ASCII);
+
+            RotationReport report = new PvkRotationJob(OLD_PVK, NEW_PVK, ",", 64, 4, 10).rotate(input, output,
+                    checkpoint);
+            assertEquals( 128, report.getResumedRecords() );
+            assertEquals( CARDS - 128, report.getRecords() );
+            assertEquals( expectedLines, Files.readAllLines(output, StandardCharsets.US_ASCII) );
+            assertFalse( Files.exists(checkpoint) );
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Write a card file of offsets and PVVs under the old PVK, with one malformed record and one inconsistent PVV.
+     */
+    private static Path writeCardFile(Path directory) throws Exception
+    {
+        IBM3624Pin ibm3624Pin = new IBM3624Pin();
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < CARDS; i++) {
+            String pan = String.format("453999%010d", i);
+            String customerPin = customerPin(i);
+            String offset = ibm3624Pin.deriveOffset(customerPin,
+                    pin(OLD_PVK, pan, "0".repeat(customerPin.length())));
+            lines.add(pan + "," + offset + "," + pvv(OLD_PVK, pan, customerPin));
+        }
+        lines.set(7, "bad record");
+        String [] inconsistent = lines.get(8).split(",");
+        lines.set(8, inconsistent[0] + "," + inconsistent[1] + ","
+                + String.format("%04d", (Integer.parseInt(inconsistent[2]) + 1) % 10000));
+        Path input = directory.resolve("cards.in");
+        Files.write(input, lines, StandardCharsets.US_ASCII);
+        return input;
+    }
+
+    private static String customerPin(int card)
+    {
+        return card % 3 == 0 ? String.format("%06d", card * 7919 % 1000000) : String.format("%04d", card * 31 % 10000);
+    }
+
+    private static String pin(String key, String pan, String offset) throws Exception
+    {
+        PinRequest pinRequest = new PinRequest();
+        pinRequest.setKey(key);
+        pinRequest.setPan(pan);
+        pinRequest.setPinOffset(offset);
+        pinRequest.setPinLength(Integer.toString(offset.length()));
+        return new IBM3624Pin().generateIBM3624Pin(pinRequest).getPin();
+    }
+
+    private static String pvv(String key, String pan, String pin) throws Exception
+    {
+        PvvRequest pvvRequest = new PvvRequest();
+        pvvRequest.setKey(key);
+        pvvRequest.setKeyIndex("1");
+        pvvRequest.setPan(pan);
+        pvvRequest.setPin(pin);
+        return new VisaPvv().calculateVisaPvv(pvvRequest);
+    }
+
+    private static void deleteDirectory(Path directory) throws Exception
+    {
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
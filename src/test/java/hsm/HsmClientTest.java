@@ -0,0 +1,154 @@
+package hsm;
+
+import dto.PinRequest;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import util.CryptoFunctions;
+import util.IBM3624Pin;
+import util.TDEAEngine;
+
+import javax.crypto.IllegalBlockSizeException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.InvalidKeyException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Unit tests for the HSM client, against the HSM emulator.
+ */
+public class HsmClientTest
+    extends TestCase
+{
+    private static final String KEY = "0123456789ABCDEFFEDCBA9876543210";
+    private static final byte [] BLOCK = HexFormat.of().parseHex("1234567899876543");
+
+    public HsmClientTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( HsmClientTest.class );
+    }
+
+    public void testMatchesSoftwareBackend() throws Exception
+    {
+        try (HsmEmulator hsmEmulator = new HsmEmulator(0, Duration.ZERO);
+             HsmClient hsmClient = start(hsmEmulator, 2)) {
+            byte [] expected = TDEAEngine.getInstance().encrypt(KEY, BLOCK);
+            assertTrue( Arrays.equals(expected, hsmClient.encrypt(KEY, BLOCK)) );
+            assertTrue( Arrays.equals(BLOCK, hsmClient.decrypt(KEY, expected)) );
+            assertTrue( Arrays.equals(TDEAEngine.getInstance().encrypt("0123456789ABCDEF", BLOCK),
+                    hsmClient.encrypt("0123456789ABCDEF", BLOCK)) );
+        }
+    }
+
+    /**
+     * A batch is pipelined, so with a slow HSM it takes about one round trip rather than one per block.
+     */
+    public void testBatchIsPipelined() throws Exception
+    {
+        try (HsmEmulator hsmEmulator = new HsmEmulator(0, Duration.ofMillis(20));
+             HsmClient hsmClient = start(hsmEmulator, 2)) {
+            List<String> keys = new ArrayList<>();
+            List<byte[]> blocks = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                keys.add(i % 2 == 0 ? KEY : "0123456789ABCDEF");
+                blocks.add(HexFormat.of().parseHex(String.format("%016d", i)));
+            }
+            long start = System.nanoTime();
+            byte [][] encrypted = hsmClient.encryptBatch(keys, blocks);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            byte [][] expected = TDEAEngine.getInstance().encryptBatch(keys, blocks);
+            for (int i = 0; i < expected.length; i++) {
+                assertTrue( Arrays.equals(expected[i], encrypted[i]) );
+            }
+            assertTrue( "Batch took " + elapsedMillis + "ms", elapsedMillis < 200 * 20 / 4 );
+        }
+    }
+
+    public void testErrors() throws Exception
+    {
+        try (HsmEmulator hsmEmulator = new HsmEmulator(0, Duration.ZERO);
+             HsmClient hsmClient = start(hsmEmulator, 1)) {
+            try {
+                hsmClient.encrypt(KEY, new byte[5]);
+                fail( "Expected IllegalBlockSizeException" );
+            } catch (IllegalBlockSizeException e) {
+                assertTrue( e.getMessage().contains("15") );
+            }
+            try {
+                hsmClient.encrypt("0123", BLOCK);
+                fail( "Expected InvalidKeyException" );
+            } catch (InvalidKeyException e) {
+                // Rejected before sending
+            }
+            assertTrue( Arrays.equals(TDEAEngine.getInstance().encrypt(KEY, BLOCK), hsmClient.encrypt(KEY, BLOCK)) );
+        }
+    }
+
+    /**
+     * Commands left unanswered past the timeout give up their pipeline slots, so a connection whose responses are
+     * lost keeps failing within the timeout rather than blocking senders once every slot has been taken.
+     */
+    public void testTimeoutFreesSlot() throws Exception
+    {
+        try (ServerSocket silentHsm = new ServerSocket(0)) {
+            Thread.ofVirtual().start(() -> {
+                try (Socket socket = silentHsm.accept()) {
+                    socket.getInputStream().transferTo(OutputStream.nullOutputStream());
+                } catch (IOException e) {
+                    // Client gone
+                }
+            });
+            try (HsmClient hsmClient = new HsmClient("localhost", silentHsm.getLocalPort(), 1, 2,
+                    Duration.ofMillis(100))) {
+                for (int i = 0; i < 4; i++) {
+                    try {
+                        hsmClient.encrypt(KEY, BLOCK);
+                        fail( "Expected timeout" );
+                    } catch (UncheckedIOException e) {
+                        assertTrue( e.getCause() instanceof SocketTimeoutException );
+                        assertTrue( e.getCause().getMessage().contains("response") );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The PIN engines run unchanged on the HSM backend once it is selected.
+     */
+    public void testPinEnginesOnHsmBackend() throws Exception
+    {
+        try (HsmEmulator hsmEmulator = new HsmEmulator(0, Duration.ZERO);
+             HsmClient hsmClient = start(hsmEmulator, 1)) {
+            CryptoFunctions.setBackend(hsmClient);
+            PinRequest pinRequest = new PinRequest();
+            pinRequest.setKey(KEY);
+            pinRequest.setPan("1234567899876543");
+            pinRequest.setPinOffset("123456789012");
+            pinRequest.setPinLength("12");
+            assertEquals( "432041891163", new IBM3624Pin().generateIBM3624Pin(pinRequest).getPin() );
+            assertEquals( 1, new IBM3624Pin().generateIBM3624Pin(List.of(pinRequest)).size() );
+        } finally {
+            CryptoFunctions.setBackend(TDEAEngine.getInstance());
+        }
+    }
+
+    private static HsmClient start(HsmEmulator hsmEmulator, int poolSize) throws Exception
+    {
+        hsmEmulator.start();
+        return new HsmClient("localhost", hsmEmulator.getPort(), poolSize, 128, Duration.ofSeconds(5));
+    }
+}
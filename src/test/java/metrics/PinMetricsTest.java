@@ -0,0 +1,89 @@
+package metrics;
+
+import dto.PinRequest;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import util.IBM3624Pin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for the latency histogram and operation metrics.
+ */
+public class PinMetricsTest
+    extends TestCase
+{
+    public PinMetricsTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PinMetricsTest.class );
+    }
+
+    public void testHistogramPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals( 10_000, histogram.getCount() );
+        assertEquals( 10_000_000, histogram.getMax() );
+        long median = histogram.getValueAtPercentile(50);
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue( "median " + median, Math.abs(median - 5_000_000) <= 5_000_000 / 16 );
+        assertTrue( "p99 " + p99, Math.abs(p99 - 9_900_000) <= 9_900_000 / 16 );
+        assertEquals( 10_000_000, histogram.getValueAtPercentile(100) );
+
+        LatencyHistogram other = new LatencyHistogram();
+        other.record(7);
+        histogram.add(other);
+        assertEquals( 10_001, histogram.getCount() );
+        histogram.reset();
+        assertEquals( 0, histogram.getCount() );
+        assertEquals( 0, histogram.getValueAtPercentile(99) );
+    }
+
+    public void testOperationAndErrorCounts() throws Exception
+    {
+        PinMetrics metrics = PinMetrics.getInstance();
+        long generated = metrics.getOperationCounts().get(PinOperation.IBM3624_GENERATE.name());
+        long generateLatencies = metrics.getLatency(PinOperation.IBM3624_GENERATE).getCount();
+        long offsetErrors = metrics.getErrorCounts().getOrDefault("PINOFF", 0L);
+        long [] listened = new long[1];
+        MetricsListener listener = new MetricsListener() {
+            @Override
+            public void onOperation(PinOperation operation, long nanos, int items) {
+                if (operation == PinOperation.IBM3624_GENERATE) {
+                    listened[0] += items;
+                }
+            }
+        };
+        metrics.addListener(listener);
+        try {
+            List<PinRequest> pinRequests = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                PinRequest pinRequest = new PinRequest();
+                pinRequest.setKey("0123456789ABCDEFFEDCBA9876543210");
+                pinRequest.setPan("1234567899876543");
+                pinRequest.setPinLength("4");
+                pinRequest.setPinOffset(i == 2 ? "123" : "1234");
+                pinRequests.add(pinRequest);
+            }
+            new IBM3624Pin().generateIBM3624Pin(pinRequests);
+        } finally {
+            metrics.removeListener(listener);
+        }
+        assertEquals( generated + 3, (long) metrics.getOperationCounts().get(PinOperation.IBM3624_GENERATE.name()) );
+        assertEquals( offsetErrors + 1, (long) metrics.getErrorCounts().get("PINOFF") );
+        assertEquals( 3, listened[0] );
+        // The batch call is recorded as one latency per request
+        assertEquals( generateLatencies + 3, metrics.getLatency(PinOperation.IBM3624_GENERATE).getCount() );
+        assertTrue( metrics.getKeyCacheHits() + metrics.getKeyCacheMisses() > 0 );
+        assertTrue( metrics.getLatency(PinOperation.TDEA_ENCRYPT).getCount() > 0 );
+    }
+}
@@ -0,0 +1,112 @@
+package org.bc;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import util.CryptoBackend;
+import util.CryptoFunctions;
+import util.TDEAEngine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+/**
+ * Unit tests for the line protocol command line interface.
+ */
+public class PinCliTest
+    extends TestCase
+{
+    private static final String PVK = "0123456789ABCDEFFEDCBA9876543210";
+    private static final String PAN = "1234567899876543";
+
+    public PinCliTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PinCliTest.class );
+    }
+
+    public void testOperations()
+    {
+        PinCli pinCli = new PinCli();
+        assertEquals( "432041891163,123456789012",
+                pinCli.process("GENERATE," + PAN + "," + PVK + ",12,123456789012") );
+        assertEquals( "123456789012", pinCli.process("OFFSET,432041891163,319695112151") );
+        assertEquals( "319695112151", pinCli.process("NATURAL,432041891163,123456789012") );
+        assertEquals( "7118", pinCli.process("PVV," + PAN + "," + PVK + ",1,1111") );
+        assertTrue( pinCli.process("GENERATE," + PAN + "," + PVK + ",12").startsWith("319695112151,") );
+        assertEquals( pinCli.process("GENERATE," + PAN + "," + PVK + ",12"),
+                pinCli.process("GENERATE," + PAN + "," + PVK + ",12,") );
+    }
+
+    public void testErrors()
+    {
+        PinCli pinCli = new PinCli();
+        assertEquals( "ERRR,PANN01", pinCli.process("GENERATE,12345678998765X3," + PVK + ",12,123456789012") );
+        assertEquals( "ERRR,PINOFF", pinCli.process("GENERATE," + PAN + "," + PVK + ",12,1234") );
+        assertEquals( "ERRR,NCPI01", pinCli.process("OFFSET,4320,31969") );
+        assertEquals( "ERRR,PINN01", pinCli.process("NATURAL,43A0,3196") );
+        assertEquals( "ERRR,PVVN01", pinCli.process("PVV," + PAN + "," + PVK + ",1,11") );
+        assertEquals( "ERRR,PVVP01 PVVI01", pinCli.process("PVV,123456789012," + PVK + ",12,1111") );
+        assertEquals( "ERRR,CLIF01", pinCli.process("OFFSET,4320") );
+        assertEquals( "ERRR,CLIF01", pinCli.process("UNKNOWN,1,2") );
+        assertEquals( "ERRR,CLIC01", pinCli.process("PVV," + PAN + ",0123456789ABCDEFFEDCBA98765432,1,1111") );
+        assertEquals( "ERRR,PANN02", pinCli.process("GENERATE,12345," + PVK + ",4") );
+        assertEquals( "ERRR,PANN02", pinCli.process("GENERATE,12345678998765430000," + PVK + ",4") );
+    }
+
+    /**
+     * An unexpected failure, such as a lost HSM connection, must be answered with an error line and must not stop
+     * the requests that follow.
+     */
+    public void testUnexpectedFailure() throws Exception
+    {
+        CryptoFunctions.setBackend(new CryptoBackend() {
+            @Override
+            public byte [] encrypt(String key, byte [] data)
+            {
+                throw new UncheckedIOException(new IOException("HSM connection lost"));
+            }
+
+            @Override
+            public byte [] decrypt(String key, byte [] data)
+            {
+                throw new UncheckedIOException(new IOException("HSM connection lost"));
+            }
+        });
+        try {
+            String requests = "GENERATE," + PAN + "," + PVK + ",4\n"
+                    + "OFFSET,432041891163,319695112151\n";
+            StringWriter output = new StringWriter();
+            long failures = new PinCli().process(new BufferedReader(new StringReader(requests)), output);
+            assertEquals( 1, failures );
+            assertEquals( "ERRR,CLIE01\n123456789012\n", output.toString() );
+        } finally {
+            CryptoFunctions.setBackend(TDEAEngine.getInstance());
+        }
+    }
+
+    /**
+     * A stream must be answered line for line in input order, skipping empty and comment lines, and counting
+     * failed requests.
+     */
+    public void testStream() throws Exception
+    {
+        String requests = "# comment\n"
+                + "OFFSET,432041891163,319695112151\n"
+                + "\n"
+                + "PVV," + PAN + "," + PVK + ",1,1111\n"
+                + "FOO\n"
+                + "NATURAL,432041891163,123456789012\n";
+        StringWriter output = new StringWriter();
+        long failures = new PinCli().process(new BufferedReader(new StringReader(requests)), output);
+        assertEquals( 1, failures );
+        assertEquals( "123456789012\n7118\nERRR,CLIF01\n319695112151\n", output.toString() );
+    }
+}
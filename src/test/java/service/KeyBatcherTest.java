@@ -0,0 +1,130 @@
+package service;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for the per key request batcher.
+ */
+public class KeyBatcherTest
+    extends TestCase
+{
+    public KeyBatcherTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( KeyBatcherTest.class );
+    }
+
+    /**
+     * A request failing its batch must fail alone, the other requests of the batch getting their own results.
+     */
+    public void testFailureIsPerRequest() throws Exception
+    {
+        CountDownLatch firstBatch = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> batchSizes = new ArrayList<>();
+        KeyBatcher<Integer, Integer> batcher = new KeyBatcher<>(requests -> {
+            synchronized (batchSizes) {
+                batchSizes.add(requests.size());
+            }
+            if (requests.contains(0)) {
+                firstBatch.countDown();
+                release.await();
+            }
+            if (requests.contains(-1)) {
+                throw new IllegalArgumentException("Negative request");
+            }
+            return requests.stream().map(request -> request * 2).toList();
+        }, 16);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // Hold the key with a first batch, so the next requests queue up into a single batch
+            Future<CompletableFuture<Integer>> first = executor.submit(() -> batcher.submit("key", 0));
+            firstBatch.await();
+            List<Future<CompletableFuture<Integer>>> results = new ArrayList<>();
+            for (int request : new int[] {1, -1, 3}) {
+                results.add(executor.submit(() -> batcher.submit("key", request)));
+            }
+            awaitPending(batcher, 3);
+            release.countDown();
+            assertEquals( 0, (int) first.get().get() );
+            assertEquals( 2, (int) results.get(0).get().get() );
+            assertEquals( 6, (int) results.get(2).get().get() );
+            try {
+                results.get(1).get().get();
+                fail("Negative request must fail");
+            } catch (ExecutionException e) {
+                assertTrue( e.getCause() instanceof IllegalArgumentException );
+            }
+            assertTrue( batchSizes.contains(3) );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A drainer must return once its own request is done, handing the requests queued meanwhile over to their own
+     * submitters rather than running them itself.
+     */
+    public void testDrainerHandsOff() throws Exception
+    {
+        CountDownLatch firstBatch = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Map<Integer, Thread> batchThreads = new ConcurrentHashMap<>();
+        KeyBatcher<Integer, Integer> batcher = new KeyBatcher<>(requests -> {
+            requests.forEach(request -> batchThreads.put(request, Thread.currentThread()));
+            if (requests.contains(0)) {
+                firstBatch.countDown();
+                release.await();
+            }
+            return requests;
+        }, 16);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Thread> first = executor.submit(() -> {
+                batcher.submit("key", 0);
+                return Thread.currentThread();
+            });
+            firstBatch.await();
+            Future<Thread> second = executor.submit(() -> {
+                batcher.submit("key", 1);
+                return Thread.currentThread();
+            });
+            awaitPending(batcher, 1);
+            release.countDown();
+            assertSame( first.get(), batchThreads.get(0) );
+            assertSame( second.get(), batchThreads.get(1) );
+            assertEquals( 0, batcher.pendingCount("key") );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void awaitPending(KeyBatcher<?, ?> batcher, int expected) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (batcher.pendingCount("key") < expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals( expected, batcher.pendingCount("key") );
+    }
+}
@@ -0,0 +1,148 @@
+package service;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import util.KeyRegistry;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Unit tests for the HTTP PIN service.
+ */
+public class PinServiceTest
+    extends TestCase
+{
+    private static final String KEY = "0123456789ABCDEFFEDCBA9876543210";
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    public PinServiceTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PinServiceTest.class );
+    }
+
+    private HttpResponse<String> post(PinService pinService, String path, String body) throws Exception
+    {
+        return client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + pinService.getPort() + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    public void testOperations() throws Exception
+    {
+        PinService pinService = new PinService(0, 100, 64);
+        pinService.start();
+        try {
+            HttpResponse<String> response = post(pinService, "/ibm3624/generate",
+                    "key=" + KEY + "&pan=1234567899876543&pinOffset=123456789012&pinLength=12");
+            assertEquals( 200, response.statusCode() );
+            assertTrue( response.body(), response.body().contains("pin=432041891163") );
+
+            response = post(pinService, "/ibm3624/verify",
+                    "key=" + KEY + "&pan=1234567899876543&pinOffset=123456789012&pinLength=12&pin=432041891163");
+            assertEquals( "match=true", response.body() );
+
+            response = post(pinService, "/pvv/calculate", "key=" + KEY + "&keyIndex=1&pan=1234567899876543&pin=1111");
+            assertEquals( "pvv=7118", response.body() );
+
+            response = post(pinService, "/pvv/verify",
+                    "key=" + KEY + "&keyIndex=1&pan=1234567899876543&pin=1112&pvv=7118");
+            assertEquals( "match=false", response.body() );
+
+            response = post(pinService, "/ibm3624/generate",
+                    "key=" + KEY + "&pan=1234567899876543&pinOffset=123&pinLength=12");
+            assertEquals( 400, response.statusCode() );
+            assertEquals( "error=PINOFF", response.body() );
+
+            response = post(pinService, "/ibm3624/generate", "key=" + KEY + "&pan=12345&pinLength=4&naturalPin=true");
+            assertEquals( 400, response.statusCode() );
+            assertEquals( "error=PANN02", response.body() );
+
+            response = post(pinService, "/pvv/calculate", "key=" + KEY + "&keyIndex=1&pan=%ZZ&pin=1111");
+            assertEquals( 400, response.statusCode() );
+            assertEquals( "error=SRVR01", response.body() );
+
+            response = post(pinService, "/pvv/calculate", "key=" + KEY + "&keyIndex=1&pan=1234567899876543&pin=11");
+            assertEquals( 400, response.statusCode() );
+            assertEquals( "error=PVVN01", response.body() );
+        } finally {
+            pinService.stop(0);
+        }
+    }
+
+    /**
+     * With a key registry, requests may reference their PVK, and unknown references are rejected.
+     */
+    public void testKeyReferences() throws Exception
+    {
+        Path keyFile = Files.createTempFile("keys", ".properties");
+        keyFile.toFile().deleteOnExit();
+        Files.writeString(keyFile, "ISS1=" + KEY + "\n");
+        PinService pinService = new PinService(0, 100, 64, new KeyRegistry(keyFile));
+        pinService.start();
+        try {
+            HttpResponse<String> response = post(pinService, "/ibm3624/generate",
+                    "keyRef=ISS1&pan=1234567899876543&pinOffset=123456789012&pinLength=12");
+            assertTrue( response.body(), response.body().contains("pin=432041891163") );
+
+            response = post(pinService, "/pvv/calculate", "keyRef=ISS1&keyIndex=1&pan=1234567899876543&pin=1111");
+            assertEquals( "pvv=7118", response.body() );
+
+            response = post(pinService, "/pvv/calculate", "keyRef=ISS9&keyIndex=1&pan=1234567899876543&pin=1111");
+            assertEquals( 400, response.statusCode() );
+            assertEquals( "error=SRVK01", response.body() );
+        } finally {
+            pinService.stop(0);
+        }
+    }
+
+    /**
+     * Concurrent requests are batched per PVK, every caller must still get its own result.
+     */
+    public void testConcurrentRequests() throws Exception
+    {
+        PinService pinService = new PinService(0, 1000, 16);
+        pinService.start();
+        try {
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                responses.add(client.sendAsync(HttpRequest.newBuilder(URI.create("http://localhost:"
+                        + pinService.getPort() + "/pvv/verify")).POST(HttpRequest.BodyPublishers.ofString(
+                        "key=" + KEY + "&keyIndex=1&pan=1234567899876543&pin=" + (i % 2 == 0 ? "1111" : "2222")
+                                + "&pvv=7118")).build(), HttpResponse.BodyHandlers.ofString()));
+            }
+            for (int i = 0; i < responses.size(); i++) {
+                assertEquals( i % 2 == 0 ? "match=true" : "match=false", responses.get(i).get().body() );
+            }
+        } finally {
+            pinService.stop(0);
+        }
+    }
+
+    public void testRejectsWhenSaturated() throws Exception
+    {
+        PinService pinService = new PinService(0, 0, 16);
+        pinService.start();
+        try {
+            HttpResponse<String> response = post(pinService, "/pvv/calculate",
+                    "key=" + KEY + "&keyIndex=1&pan=1234567899876543&pin=1111");
+            assertEquals( 503, response.statusCode() );
+            assertEquals( "error=SRVB01", response.body() );
+        } finally {
+            pinService.stop(0);
+        }
+    }
+}
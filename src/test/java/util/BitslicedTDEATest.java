@@ -0,0 +1,144 @@
+package util;
+
+import dto.PinRequest;
+import dto.PinResponse;
+import dto.PvvRequest;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import javax.crypto.IllegalBlockSizeException;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for the bitsliced TDEA backend, checked against known answers and the JCE backing CryptoFunctions.
+ */
+public class BitslicedTDEATest
+    extends TestCase
+{
+    private static final String DOUBLE_KEY = "0123456789ABCDEFFEDCBA9876543210";
+
+    public BitslicedTDEATest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BitslicedTDEATest.class );
+    }
+
+    /**
+     * A single length key is plain DES, so the classic DES worked example applies.
+     */
+    public void testDesKnownAnswer() throws Exception
+    {
+        byte [] encrypted = new BitslicedTDEA(1).encrypt("133457799BBCDFF1",
+                HexFormat.of().parseHex("0123456789ABCDEF"));
+        assertEquals( "85E813540F0AB405", HexFormat.of().withUpperCase().formatHex(encrypted) );
+    }
+
+    /**
+     * Results must match TDEAEngine for single and double length keys, across partial and multiple passes. A minimum
+     * of one block keeps even single blocks on the bitsliced kernel.
+     */
+    public void testMatchesTDEAEngine() throws Exception
+    {
+        BitslicedTDEA bitslicedTDEA = new BitslicedTDEA(1);
+        Random random = new Random(16);
+        for (String key : new String [] {"0123456789ABCDEF", DOUBLE_KEY}) {
+            for (int blocks : new int [] {1, 63, 64, 65, 200}) {
+                byte [] data = new byte[blocks * 8];
+                random.nextBytes(data);
+                byte [] expected = TDEAEngine.getInstance().encrypt(key, data);
+                byte [] encrypted = bitslicedTDEA.encrypt(key, data);
+                assertTrue( Arrays.equals(expected, encrypted) );
+                assertTrue( Arrays.equals(data, bitslicedTDEA.decrypt(key, encrypted)) );
+            }
+        }
+    }
+
+    public void testBatchMatchesTDEAEngine() throws Exception
+    {
+        Random random = new Random(64);
+        String [] pvks = {DOUBLE_KEY, "FEDCBA98765432100123456789ABCDEF", "0123456789ABCDEF"};
+        List<String> keys = new ArrayList<>();
+        List<byte[]> blocks = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            byte [] block = new byte[8];
+            random.nextBytes(block);
+            keys.add(pvks[random.nextInt(pvks.length)]);
+            blocks.add(block);
+        }
+        byte [][] expected = TDEAEngine.getInstance().encryptBatch(keys, blocks);
+        byte [][] encrypted = new BitslicedTDEA(1).encryptBatch(keys, blocks);
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue( Arrays.equals(expected[i], encrypted[i]) );
+        }
+    }
+
+    /**
+     * With the bitsliced backend selected, the PIN and PVV engines must give the known results.
+     */
+    public void testSelectedAsBackend() throws Exception
+    {
+        CryptoBackend previous = CryptoFunctions.getBackend();
+        CryptoFunctions.setBackend(new BitslicedTDEA(1));
+        try {
+            PinRequest pinRequest = new PinRequest();
+            pinRequest.setKey(DOUBLE_KEY);
+            pinRequest.setPan("1234567899876543");
+            pinRequest.setPinLength("12");
+            pinRequest.setPinOffset("123456789012");
+            List<PinResponse> pinResponses = new IBM3624Pin().generateIBM3624Pin(List.of(pinRequest));
+            assertEquals( "432041891163", pinResponses.get(0).getPin() );
+
+            PvvRequest pvvRequest = new PvvRequest();
+            pvvRequest.setKey(DOUBLE_KEY);
+            pvvRequest.setKeyIndex("1");
+            pvvRequest.setPan("1234567899876543");
+            pvvRequest.setPin("1111");
+            assertEquals( "7118", new VisaPvv().calculateVisaPvv(List.of(pvvRequest)).get(0) );
+        } finally {
+            CryptoFunctions.setBackend(previous);
+        }
+    }
+
+    public void testInvalidInput() throws Exception
+    {
+        try {
+            new BitslicedTDEA(1).encrypt("0123", new byte[8]);
+            fail( "Expected InvalidKeyException" );
+        } catch (InvalidKeyException expected) {
+            // expected
+        }
+        try {
+            BitslicedTDEA.getInstance().encrypt(DOUBLE_KEY, new byte[12]);
+            fail( "Expected IllegalBlockSizeException" );
+        } catch (IllegalBlockSizeException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * Transposing twice must give back the original matrix.
+     */
+    public void testTransposeIsInvolution()
+    {
+        Random random = new Random(8);
+        long [] matrix = new long[64];
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = random.nextLong();
+        }
+        long [] transposed = matrix.clone();
+        BitslicedTDEA.transpose(transposed);
+        assertEquals( (matrix[0] >>> 62) & 1, (transposed[1] >>> 63) & 1 );
+        BitslicedTDEA.transpose(transposed);
+        assertTrue( Arrays.equals(matrix, transposed) );
+    }
+}
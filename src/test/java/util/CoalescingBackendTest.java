@@ -0,0 +1,225 @@
+package util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import metrics.PinMetrics;
+
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for the coalescing backend, using a backend held on a latch so that calls are certain to overlap.
+ */
+public class CoalescingBackendTest
+    extends TestCase
+{
+    private static final String PVK = "0123456789ABCDEFFEDCBA9876543210";
+    private static final byte [] BLOCK = HexFormat.of().parseHex("1234567899876543");
+    private static final int CALLERS = 8;
+
+    public CoalescingBackendTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CoalescingBackendTest.class );
+    }
+
+    /**
+     * Identical calls made while the first is in flight must share its result, and the backend must run once.
+     */
+    public void testConcurrentCallsCoalesce() throws Exception
+    {
+        HeldBackend held = new HeldBackend();
+        CoalescingBackend backend = new CoalescingBackend(held);
+        long coalesced = PinMetrics.getInstance().getCoalescedCalls();
+        long leads = PinMetrics.getInstance().getLeadCalls();
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            results.add(executor.submit(() -> backend.encrypt(PVK, BLOCK)));
+            assertTrue( held.entered.await(5, TimeUnit.SECONDS) );
+            for (int i = 1; i < CALLERS; i++) {
+                results.add(executor.submit(() -> backend.encrypt(PVK, BLOCK)));
+            }
+            awaitCoalesced(coalesced + CALLERS - 1);
+            held.release.countDown();
+
+            byte [] expected = TDEAEngine.getInstance().encrypt(PVK, BLOCK);
+            for (Future<byte[]> result : results) {
+                assertTrue( Arrays.equals(expected, result.get(5, TimeUnit.SECONDS)) );
+            }
+            assertEquals( 1, held.calls.get() );
+            assertEquals( leads + 1, PinMetrics.getInstance().getLeadCalls() );
+            assertEquals( 0, backend.inFlightCount() );
+
+            backend.encrypt(PVK, BLOCK);
+            assertEquals( "Completed calls must not be cached", 2, held.calls.get() );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waiters must be failed with the exception of the lead call.
+     */
+    public void testFailurePropagatesToWaiters() throws Exception
+    {
+        HeldBackend held = new HeldBackend();
+        CoalescingBackend backend = new CoalescingBackend(held);
+        long coalesced = PinMetrics.getInstance().getCoalescedCalls();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<byte[]> lead = executor.submit(() -> backend.encrypt("BAD", BLOCK));
+            assertTrue( held.entered.await(5, TimeUnit.SECONDS) );
+            Future<Exception> waiter = executor.submit(() -> {
+                try {
+                    backend.encrypt("BAD", BLOCK);
+                    return null;
+                } catch (Exception e) {
+                    return e;
+                }
+            });
+            awaitCoalesced(coalesced + 1);
+            held.release.countDown();
+
+            try {
+                lead.get(5, TimeUnit.SECONDS);
+                fail( "Expected InvalidKeyException" );
+            } catch (ExecutionException expected) {
+                assertTrue( expected.getCause() instanceof InvalidKeyException );
+            }
+            assertTrue( waiter.get(5, TimeUnit.SECONDS) instanceof InvalidKeyException );
+            assertEquals( 0, backend.inFlightCount() );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A batch failing on one key must only fail the calls under that key, not a call under another key that coalesced
+     * onto one of its blocks.
+     */
+    public void testBatchFailureIsolatedByKey() throws Exception
+    {
+        HeldBackend held = new HeldBackend();
+        CoalescingBackend backend = new CoalescingBackend(held);
+        long coalesced = PinMetrics.getInstance().getCoalescedCalls();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<byte[][]> batch = executor.submit(() -> backend.encryptBatch(List.of(PVK, "BAD"),
+                    List.of(BLOCK, BLOCK)));
+            assertTrue( held.entered.await(5, TimeUnit.SECONDS) );
+            Future<byte[]> waiter = executor.submit(() -> backend.encrypt(PVK, BLOCK));
+            awaitCoalesced(coalesced + 1);
+            held.release.countDown();
+
+            assertTrue( Arrays.equals(TDEAEngine.getInstance().encrypt(PVK, BLOCK), waiter.get(5, TimeUnit.SECONDS)) );
+            try {
+                batch.get(5, TimeUnit.SECONDS);
+                fail( "Expected InvalidKeyException" );
+            } catch (ExecutionException expected) {
+                assertTrue( expected.getCause() instanceof InvalidKeyException );
+            }
+            assertEquals( 0, backend.inFlightCount() );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Duplicate blocks within a batch must be encrypted once, and every position must get the right result.
+     */
+    public void testBatchDuplicates() throws Exception
+    {
+        CountingBackend counting = new CountingBackend();
+        CoalescingBackend backend = new CoalescingBackend(counting);
+        byte [] other = HexFormat.of().parseHex("0000000000000001");
+        List<String> keys = List.of(PVK, PVK, PVK, PVK);
+        List<byte[]> blocks = List.of(BLOCK, other, BLOCK.clone(), BLOCK);
+
+        byte [][] encrypted = backend.encryptBatch(keys, blocks);
+        assertEquals( 2, counting.blocks.get() );
+        for (int i = 0; i < blocks.size(); i++) {
+            assertTrue( Arrays.equals(TDEAEngine.getInstance().encrypt(PVK, blocks.get(i)), encrypted[i]) );
+        }
+        encrypted[0][0] ^= 1;
+        assertFalse( "Results must not share arrays", Arrays.equals(encrypted[0], encrypted[2]) );
+        assertEquals( 0, backend.inFlightCount() );
+    }
+
+    private static void awaitCoalesced(long expected) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (PinMetrics.getInstance().getCoalescedCalls() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals( expected, PinMetrics.getInstance().getCoalescedCalls() );
+    }
+
+    /**
+     * Backend counting the blocks it encrypts.
+     */
+    private static class CountingBackend implements CryptoBackend
+    {
+        final AtomicInteger blocks = new AtomicInteger();
+
+        @Override
+        public byte [] encrypt(String key, byte [] data) throws InvalidKeyException
+        {
+            blocks.addAndGet(data.length / 8);
+            try {
+                return TDEAEngine.getInstance().encrypt(key, data);
+            } catch (InvalidKeyException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public byte [] decrypt(String key, byte [] data)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Counting backend that holds each call until released.
+     */
+    private static class HeldBackend extends CountingBackend
+    {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public byte [] encrypt(String key, byte [] data) throws InvalidKeyException
+        {
+            calls.incrementAndGet();
+            entered.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (key.length() != 16 && key.length() != 32) {
+                throw new InvalidKeyException("Invalid key length");
+            }
+            return super.encrypt(key, data);
+        }
+    }
+}
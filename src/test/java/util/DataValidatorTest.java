@@ -0,0 +1,133 @@
+package util;
+
+import constants.PINConstants;
+import dto.PinRequest;
+import dto.PvvRequest;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for request validation.
+ */
+public class DataValidatorTest
+    extends TestCase
+{
+    public DataValidatorTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( DataValidatorTest.class );
+    }
+
+    private static PinRequest pinRequest(String pan, String pinOffset, String pinLength)
+    {
+        PinRequest pinRequest = new PinRequest();
+        pinRequest.setKey("0123456789ABCDEFFEDCBA9876543210");
+        pinRequest.setPan(pan);
+        pinRequest.setPinOffset(pinOffset);
+        pinRequest.setPinLength(pinLength);
+        return pinRequest;
+    }
+
+    public void testCharacterChecks()
+    {
+        assertTrue( DataValidator.isNumeric("0123456789") );
+        assertFalse( DataValidator.isNumeric("12a4") );
+        assertFalse( DataValidator.isNumeric("") );
+        assertFalse( DataValidator.isNumeric(null) );
+        assertTrue( DataValidator.isHexadecimal("0123456789abcdefABCDEF") );
+        assertFalse( DataValidator.isHexadecimal("0123G") );
+        assertTrue( DataValidator.isLuhnValid("79927398713") );
+        assertFalse( DataValidator.isLuhnValid("79927398710") );
+    }
+
+    public void testDefaultsAndWarnings()
+    {
+        PinRequest pinRequest = pinRequest("4111111111111111", "1234", "2");
+        ValidationResult result = DataValidator.validate(pinRequest);
+        assertTrue( result.isValid() );
+        assertTrue( result.hasCode(ValidationCode.DECE01) );
+        assertTrue( result.hasCode(ValidationCode.PINL02) );
+        assertSame( PINConstants.DEFAULT_DECIMALISATION_TABLE, pinRequest.getDecimalisationTable() );
+        assertEquals( "4", pinRequest.getPinLength() );
+
+        pinRequest = pinRequest("4111111111111112", "1234", "4");
+        pinRequest.setDecimalisationTable(PINConstants.DEFAULT_DECIMALISATION_TABLE);
+        result = DataValidator.validate(pinRequest);
+        assertTrue( result.isValid() );
+        assertEquals( 1, result.getCodes().size() );
+        assertTrue( result.hasCode(ValidationCode.PANL01) );
+    }
+
+    /**
+     * An offset length mismatch is reported as an error, rather than terminating the JVM.
+     */
+    public void testErrors()
+    {
+        ValidationResult result = DataValidator.validate(pinRequest("4111111111111111", "123", "4"));
+        assertFalse( result.isValid() );
+        assertTrue( result.hasCode(ValidationCode.PINOFF) );
+
+        result = DataValidator.validate(pinRequest("7992739871x", "12x4", "4"));
+        assertFalse( result.isValid() );
+        assertTrue( result.hasCode(ValidationCode.PANN01) );
+        assertTrue( result.hasCode(ValidationCode.OFFN01) );
+
+        // The IBM 3624 engine takes exactly 16 PAN digits as its PIN validation data
+        for (String pan : new String[] {"79927398713", "41111111111111113"}) {
+            result = DataValidator.validate(pinRequest(pan, "1234", "4"));
+            assertFalse( result.isValid() );
+            assertTrue( result.hasCode(ValidationCode.PANN02) );
+        }
+
+        PinRequest pinRequest = pinRequest("4111111111111111", "1234", "4");
+        String [] table = PINConstants.DEFAULT_DECIMALISATION_TABLE.clone();
+        table[10] = "A:B";
+        pinRequest.setDecimalisationTable(table);
+        assertTrue( DataValidator.validate(pinRequest).hasCode(ValidationCode.DECE03) );
+
+        assertTrue( DataValidator.validatePinPair("1234", "123", ValidationCode.NCPI01)
+                .hasCode(ValidationCode.NCPI01) );
+        assertTrue( DataValidator.validatePinPair("1234", "1234", ValidationCode.NCPI01).isValid() );
+    }
+
+    /**
+     * Each invalid PVV request field raises its own code.
+     */
+    public void testPvvRequest()
+    {
+        PvvRequest pvvRequest = new PvvRequest();
+        pvvRequest.setKey("0123456789ABCDEFFEDCBA9876543210");
+        pvvRequest.setPan("4111111111111111");
+        pvvRequest.setKeyIndex("1");
+        pvvRequest.setPin("1234");
+        assertTrue( DataValidator.validate(pvvRequest).getCodes().isEmpty() );
+
+        pvvRequest.setPan("4111111111111112");
+        ValidationResult result = DataValidator.validate(pvvRequest);
+        assertTrue( result.isValid() );
+        assertTrue( result.hasCode(ValidationCode.PANL01) );
+
+        pvvRequest.setPan("411111111111");
+        pvvRequest.setKey("0123456789ABCDEG");
+        pvvRequest.setKeyIndex("12");
+        pvvRequest.setPin("1234567890123");
+        result = DataValidator.validate(pvvRequest);
+        assertFalse( result.isValid() );
+        for (ValidationCode code : new ValidationCode[] {ValidationCode.PVVP01, ValidationCode.KEYH01,
+                ValidationCode.PVVI01, ValidationCode.PVVN01}) {
+            assertTrue( result.hasCode(code) );
+        }
+
+        pvvRequest.setKey(null);
+        pvvRequest.setKeyRef("ISS1");
+        pvvRequest.setPan("41111111111x1111");
+        result = DataValidator.validate(pvvRequest);
+        assertTrue( result.hasCode(ValidationCode.PANN01) );
+        assertFalse( result.hasCode(ValidationCode.KEYH01) );
+    }
+}
@@ -0,0 +1,167 @@
+package util;
+
+import dto.CompactPinRequest;
+import dto.PinRequest;
+import dto.PinResponse;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Unit tests for IBM 3624 PIN generation.
+ */
+public class IBM3624PinTest
+    extends TestCase
+{
+    private static final String KEY = "0123456789ABCDEFFEDCBA9876543210";
+
+    public IBM3624PinTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( IBM3624PinTest.class );
+    }
+
+    private static PinRequest pinRequest(String key, String pan, String pinOffset, String pinLength,
+                                         boolean naturalPin)
+    {
+        PinRequest pinRequest = new PinRequest();
+        pinRequest.setKey(key);
+        pinRequest.setPan(pan);
+        pinRequest.setPinOffset(pinOffset);
+        pinRequest.setPinLength(pinLength);
+        pinRequest.setNaturalPin(naturalPin);
+        return pinRequest;
+    }
+
+    public void testOffsetPin() throws Exception
+    {
+        PinResponse pinResponse = new IBM3624Pin().generateIBM3624Pin(
+                pinRequest(KEY, "1234567899876543", "123456789012", "12", false));
+        assertEquals( "432041891163", pinResponse.getPin() );
+        assertEquals( "123456789012", pinResponse.getPinOffset() );
+    }
+
+    public void testNaturalPin() throws Exception
+    {
+        PinResponse pinResponse = new IBM3624Pin().generateIBM3624Pin(
+                pinRequest(KEY, "1234567899876543", "0000", "4", true));
+        assertEquals( "3196", pinResponse.getPin() );
+    }
+
+    /**
+     * Each encrypted digit must be substituted exactly once, even when the table maps digits onto each other.
+     */
+    public void testCustomDecimalisationTable() throws Exception
+    {
+        String [] table = new String[16];
+        for (int i = 0; i < 16; i++) {
+            table[i] = Integer.toHexString(i).toUpperCase() + ":" + ((i + 1) % 10);
+        }
+        PinRequest pinRequest = pinRequest(KEY, "1234567899876543", "0000", "16", true);
+        pinRequest.setDecimalisationTable(table);
+        String pin = new IBM3624Pin().generateIBM3624Pin(pinRequest).getPin();
+
+        byte [] encrypted = TDEAEngine.getInstance().encrypt(KEY, HexFormat.of().parseHex("1234567899876543"));
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 16; i++) {
+            expected.append((DecimalisationTable.hexDigit(encrypted, i) + 1) % 10);
+        }
+        assertEquals( expected.toString(), pin );
+    }
+
+    public void testVerify() throws Exception
+    {
+        IBM3624Pin ibm3624Pin = new IBM3624Pin();
+        assertTrue( ibm3624Pin.verifyIBM3624Pin(pinRequest(KEY, "1234567899876543", "123456789012", "12", false),
+                "432041891163") );
+        assertFalse( ibm3624Pin.verifyIBM3624Pin(pinRequest(KEY, "1234567899876543", "123456789012", "12", false),
+                "432041891164") );
+        assertFalse( ibm3624Pin.verifyIBM3624Pin(pinRequest(KEY, "1234567899876543", "123456789012", "12", false),
+                "43204189116") );
+        assertFalse( ibm3624Pin.verifyIBM3624Pin(pinRequest(KEY, "1234567899876543", "123456789012", "12", false),
+                "43204189116x") );
+        assertTrue( ibm3624Pin.verifyIBM3624Pin(pinRequest(KEY, "1234567899876543", "0000", "4", true), "3196") );
+
+        List<PinRequest> batch = List.of(
+                pinRequest(KEY, "1234567899876543", "1234", "4", false),
+                pinRequest(KEY, "1234567899876543", "1234", "4", false),
+                pinRequest(KEY, "1234567899876543", "0000", "4", true));
+        assertEquals( List.of(true, false, true), ibm3624Pin.verifyIBM3624Pin(batch, List.of("4320", "4321", "3196")) );
+    }
+
+    public void testDeriveOffsetAndNaturalPin()
+    {
+        IBM3624Pin ibm3624Pin = new IBM3624Pin();
+        assertEquals( "319695112151", ibm3624Pin.deriveNaturalPin("432041891163", "123456789012") );
+        assertEquals( "123456789012", ibm3624Pin.deriveOffset("432041891163", "319695112151") );
+    }
+
+    /**
+     * Batch generation must give the same results as single requests, in input order, across keys.
+     */
+    public void testBatchMatchesSingleRequests() throws Exception
+    {
+        IBM3624Pin ibm3624Pin = new IBM3624Pin();
+        String [] keys = {KEY, "0123456789ABCDEF", KEY};
+        List<PinRequest> batch = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            String pan = "45399999000000" + String.format("%02d", i);
+            batch.add(pinRequest(keys[i % 3], pan, "1234", "4", i % 2 == 0));
+            expected.add(ibm3624Pin.generateIBM3624Pin(pinRequest(keys[i % 3], pan, "1234", "4", i % 2 == 0))
+                    .getPin());
+        }
+        List<PinResponse> pinResponses = ibm3624Pin.generateIBM3624Pin(batch);
+        assertEquals( expected.size(), pinResponses.size() );
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals( expected.get(i), pinResponses.get(i).getPin() );
+        }
+    }
+
+    /**
+     * Compact requests must give the same PINs as the string requests they are built from.
+     */
+    public void testCompactRequestMatchesStringRequest() throws Exception
+    {
+        IBM3624Pin ibm3624Pin = new IBM3624Pin();
+        CompactPinRequest offsetRequest = CompactPinRequest.of(
+                pinRequest(KEY, "1234567899876543", "123456789012", "12", false));
+        CompactPinRequest naturalRequest = CompactPinRequest.of(pinRequest(KEY, "1234567899876543", "0", "4", true));
+        assertEquals( "432041891163", PackedDigits.unpack(PackedDigits.pack("432041891163"), 12) );
+        assertTrue( Arrays.equals(PackedDigits.toDigits("432041891163"),
+                ibm3624Pin.generatePinDigits(offsetRequest)) );
+        assertTrue( Arrays.equals(PackedDigits.toDigits("3196"), ibm3624Pin.generatePinDigits(naturalRequest)) );
+        List<byte[]> pins = ibm3624Pin.generatePinDigits(List.of(offsetRequest, naturalRequest));
+        assertTrue( Arrays.equals(PackedDigits.toDigits("432041891163"), pins.get(0)) );
+        assertTrue( Arrays.equals(PackedDigits.toDigits("3196"), pins.get(1)) );
+        assertTrue( ibm3624Pin.verifyIBM3624Pin(offsetRequest, PackedDigits.toDigits("432041891163")) );
+        assertFalse( ibm3624Pin.verifyIBM3624Pin(offsetRequest, PackedDigits.toDigits("432041891164")) );
+    }
+
+    public void testCompactRequestRejectsInvalidRequest()
+    {
+        try {
+            CompactPinRequest.of(pinRequest(KEY, "12345678998765X3", "1234", "4", false));
+            fail( "Expected IllegalArgumentException" );
+        } catch (IllegalArgumentException e) {
+            assertTrue( e.getMessage().contains("PANN01") );
+        }
+        // Only a 16 digit PAN is its own PIN validation data, other lengths would be truncated or padded
+        try {
+            new CompactPinRequest(KEY, PackedDigits.pack("1234567899876543210"), 19, 4, null,
+                    DecimalisationTable.DEFAULT, true);
+            fail( "Expected IllegalArgumentException" );
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package util;
+
+import dto.PinRequest;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Unit tests for the intermediate result cache.
+ */
+public class IntermediateResultCacheTest
+    extends TestCase
+{
+    private static final String KEY = "0123456789ABCDEFFEDCBA9876543210";
+    private static final byte [] BLOCK = HexFormat.of().parseHex("1234567899876543");
+
+    public IntermediateResultCacheTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( IntermediateResultCacheTest.class );
+    }
+
+    public void testCachedResultsMatchEngine() throws Exception
+    {
+        IntermediateResultCache cache = new IntermediateResultCache(1000, Duration.ofMinutes(5));
+        byte [] expected = TDEAEngine.getInstance().encrypt(KEY, BLOCK);
+        assertTrue( Arrays.equals(expected, cache.encrypt(KEY, BLOCK)) );
+        assertTrue( Arrays.equals(expected, cache.encrypt(KEY, BLOCK)) );
+        assertEquals( 1, cache.getMissCount() );
+        assertEquals( 1, cache.getHitCount() );
+
+        byte [][] batch = cache.encryptBatch(List.of(KEY, "0123456789ABCDEF"), List.of(BLOCK, BLOCK));
+        assertTrue( Arrays.equals(expected, batch[0]) );
+        assertTrue( Arrays.equals(TDEAEngine.getInstance().encrypt("0123456789ABCDEF", BLOCK), batch[1]) );
+        assertEquals( 2, cache.getHitCount() );
+    }
+
+    /**
+     * Callers get copies, so changing a returned block must not change what is cached.
+     */
+    public void testReturnsCopies() throws Exception
+    {
+        IntermediateResultCache cache = new IntermediateResultCache(1000, Duration.ofMinutes(5));
+        byte [] first = cache.encrypt(KEY, BLOCK);
+        byte [] expected = first.clone();
+        Arrays.fill(first, (byte) 0);
+        assertTrue( Arrays.equals(expected, cache.encrypt(KEY, BLOCK)) );
+    }
+
+    public void testInvalidateRemovesOnlyThatKey() throws Exception
+    {
+        IntermediateResultCache cache = new IntermediateResultCache(1000, Duration.ofMinutes(5));
+        cache.encrypt(KEY, BLOCK);
+        cache.encrypt("0123456789ABCDEF", BLOCK);
+        cache.invalidate(KEY);
+        assertEquals( 1, cache.size() );
+        cache.encrypt(KEY, BLOCK);
+        assertEquals( 3, cache.getMissCount() );
+    }
+
+    public void testSizeAndTtlEviction() throws Exception
+    {
+        IntermediateResultCache cache = new IntermediateResultCache(64, Duration.ofMinutes(5));
+        for (int i = 0; i < 1000; i++) {
+            cache.encrypt(KEY, HexFormat.of().parseHex(String.format("%016d", i)));
+        }
+        assertTrue( cache.size() <= 64 );
+
+        IntermediateResultCache expiring = new IntermediateResultCache(64, Duration.ZERO);
+        expiring.encrypt(KEY, BLOCK);
+        expiring.encrypt(KEY, BLOCK);
+        assertEquals( 0, expiring.getHitCount() );
+    }
+
+    public void testRemoveExpired() throws Exception
+    {
+        IntermediateResultCache cache = new IntermediateResultCache(1000, Duration.ofMillis(500));
+        for (int i = 0; i < 100; i++) {
+            cache.encrypt(KEY, HexFormat.of().parseHex(String.format("%016d", i)));
+        }
+        cache.removeExpired();
+        assertEquals( 100, cache.size() );
+        Thread.sleep(600);
+        cache.removeExpired();
+        assertEquals( 0, cache.size() );
+    }
+
+    /**
+     * PINs generated and verified through a cache must match those of an engine without one.
+     */
+    public void testEnginesWithCache() throws Exception
+    {
+        IntermediateResultCache cache = new IntermediateResultCache(1000, Duration.ofMinutes(5));
+        IBM3624Pin ibm3624Pin = new IBM3624Pin(cache);
+        for (int i = 0; i < 2; i++) {
+            PinRequest pinRequest = new PinRequest();
+            pinRequest.setKey(KEY);
+            pinRequest.setPan("1234567899876543");
+            pinRequest.setPinOffset("123456789012");
+            pinRequest.setPinLength("12");
+            assertEquals( "432041891163", ibm3624Pin.generateIBM3624Pin(pinRequest).getPin() );
+            assertTrue( ibm3624Pin.verifyIBM3624Pin(pinRequest, "432041891163") );
+        }
+        assertEquals( 1, cache.getMissCount() );
+    }
+
+    /**
+     * Keys are matched by digest, so the same key in lower case hits the entries cached under it, and invalidating
+     * it removes them.
+     */
+    public void testKeyCase() throws Exception
+    {
+        IntermediateResultCache cache = new IntermediateResultCache(1000, Duration.ofMinutes(5));
+        cache.encrypt(KEY, BLOCK);
+        cache.encryptBatch(List.of(KEY.toLowerCase(), KEY), List.of(BLOCK, BLOCK));
+        assertEquals( 2, cache.getHitCount() );
+        cache.invalidate(KEY.toLowerCase());
+        assertEquals( 0, cache.size() );
+    }
+}
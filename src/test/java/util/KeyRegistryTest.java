@@ -0,0 +1,152 @@
+package util;
+
+import dto.PinRequest;
+import dto.PvvRequest;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for the key registry: resolution by reference and PVKI, and atomic reload.
+ */
+public class KeyRegistryTest
+    extends TestCase
+{
+    private static final String PVK = "0123456789ABCDEFFEDCBA9876543210";
+    private static final String OTHER_PVK = "FEDCBA98765432100123456789ABCDEF";
+
+    public KeyRegistryTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( KeyRegistryTest.class );
+    }
+
+    public void testResolveByReferenceAndPvki() throws Exception
+    {
+        Path keyFile = keyFile("ISS1=" + PVK + "\nISS1.2=" + OTHER_PVK + "\n");
+        try (KeyRegistry keyRegistry = new KeyRegistry(keyFile)) {
+            assertEquals( PVK, keyRegistry.resolve("ISS1") );
+            assertEquals( PVK, keyRegistry.resolve("ISS1", "1") );
+            assertEquals( OTHER_PVK, keyRegistry.resolve("ISS1", "2") );
+            try {
+                keyRegistry.resolve("ISS2");
+                fail( "Expected InvalidKeyException" );
+            } catch (InvalidKeyException expected) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Requests carrying only a key reference must give the same results as requests carrying the PVK.
+     */
+    public void testEnginesResolveKeyReferences() throws Exception
+    {
+        try (KeyRegistry keyRegistry = new KeyRegistry(keyFile("ISS1=" + PVK + "\n"))) {
+            PinRequest pinRequest = new PinRequest();
+            pinRequest.setKeyRef("ISS1");
+            pinRequest.setPan("1234567899876543");
+            pinRequest.setPinLength("12");
+            pinRequest.setPinOffset("123456789012");
+            assertEquals( "432041891163",
+                    new IBM3624Pin(null, keyRegistry).generateIBM3624Pin(pinRequest).getPin() );
+
+            PvvRequest pvvRequest = new PvvRequest();
+            pvvRequest.setKeyRef("ISS1");
+            pvvRequest.setKeyIndex("1");
+            pvvRequest.setPan("1234567899876543");
+            pvvRequest.setPin("1111");
+            assertEquals( "7118", new VisaPvv(keyRegistry).calculateVisaPvv(List.of(pvvRequest)).get(0) );
+
+            try {
+                new VisaPvv().calculateVisaPvv(pvvRequest);
+                fail( "Expected InvalidKeyException without a registry" );
+            } catch (InvalidKeyException expected) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * A changed file is swapped in whole, and withdrawn PVKs are evicted from the backend and passed to the removal
+     * listeners.
+     */
+    public void testReload() throws Exception
+    {
+        Path keyFile = keyFile("ISS1=" + PVK + "\n");
+        List<String> evicted = new ArrayList<>();
+        CryptoBackend backend = new TDEAEngine(16, 4) {
+            @Override
+            public void evict(String key)
+            {
+                evicted.add(key);
+                super.evict(key);
+            }
+        };
+        try (KeyRegistry keyRegistry = new KeyRegistry(keyFile, backend)) {
+            List<String> removed = new ArrayList<>();
+            keyRegistry.addRemovalListener(removed::add);
+            assertFalse( keyRegistry.reload() );
+
+            rewrite(keyFile, "ISS1=" + OTHER_PVK + "\nISS2=" + PVK + "\n");
+            assertTrue( keyRegistry.reload() );
+            assertEquals( OTHER_PVK, keyRegistry.resolve("ISS1") );
+            assertEquals( 2, keyRegistry.size() );
+            assertTrue( removed.isEmpty() );
+
+            rewrite(keyFile, "ISS1=" + OTHER_PVK + "\n");
+            assertTrue( keyRegistry.reload() );
+            assertFalse( keyRegistry.contains("ISS2") );
+            assertEquals( List.of(PVK), removed );
+            assertEquals( List.of(PVK), evicted );
+        }
+    }
+
+    /**
+     * A file with an invalid key is not loaded, and the previous keys remain in use.
+     */
+    public void testFailedReloadKeepsKeys() throws Exception
+    {
+        Path keyFile = keyFile("ISS1=" + PVK + "\n");
+        try (KeyRegistry keyRegistry = new KeyRegistry(keyFile)) {
+            rewrite(keyFile, "ISS1=" + OTHER_PVK + "\nISS2=0123\n");
+            try {
+                keyRegistry.reload();
+                fail( "Expected InvalidKeyException" );
+            } catch (InvalidKeyException expected) {
+                // expected
+            }
+            assertEquals( PVK, keyRegistry.resolve("ISS1") );
+            assertFalse( keyRegistry.contains("ISS2") );
+        }
+    }
+
+    private static Path keyFile(String contents) throws Exception
+    {
+        Path keyFile = Files.createTempFile("keys", ".properties");
+        keyFile.toFile().deleteOnExit();
+        Files.writeString(keyFile, contents);
+        return keyFile;
+    }
+
+    /**
+     * Rewrite the file, moving its modification time on so the change is seen even within the timestamp resolution.
+     */
+    private static void rewrite(Path keyFile, String contents) throws Exception
+    {
+        FileTime modified = Files.getLastModifiedTime(keyFile);
+        Files.writeString(keyFile, contents);
+        Files.setLastModifiedTime(keyFile, FileTime.fromMillis(modified.toMillis() + 1000));
+    }
+}
@@ -0,0 +1,121 @@
+package util;
+
+import dto.CompactPinRequest;
+import dto.PinRequest;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.security.InvalidKeyException;
+import java.util.HexFormat;
+import java.util.Random;
+
+/**
+ * Unit tests for the off-heap TDEA key and PIN engine, checked against TDEAEngine and the known PIN and PVV values.
+ */
+public class OffHeapPinEngineTest
+    extends TestCase
+{
+    private static final String PVK = "0123456789ABCDEFFEDCBA9876543210";
+    private static final String PAN = "1234567899876543";
+
+    public OffHeapPinEngineTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( OffHeapPinEngineTest.class );
+    }
+
+    /**
+     * The single block TDEA must match TDEAEngine for single and double length keys.
+     */
+    public void testKeyMatchesTDEAEngine() throws Exception
+    {
+        Random random = new Random(18);
+        for (String key : new String [] {"133457799BBCDFF1", PVK}) {
+            try (OffHeapTDEAKey offHeapKey = OffHeapTDEAKey.of(CharBuffer.wrap(key.toCharArray()))) {
+                for (int i = 0; i < 50; i++) {
+                    long block = random.nextLong();
+                    byte [] expected = TDEAEngine.getInstance().encrypt(key,
+                            HexFormat.of().parseHex(HexFormat.of().toHexDigits(block)));
+                    long encrypted = offHeapKey.encrypt(block);
+                    assertEquals( HexFormat.of().formatHex(expected), HexFormat.of().toHexDigits(encrypted) );
+                    assertEquals( block, offHeapKey.decrypt(encrypted) );
+                }
+            }
+        }
+    }
+
+    public void testGenerateAndVerifyPin() throws Exception
+    {
+        PinRequest pinRequest = new PinRequest();
+        pinRequest.setPan(PAN);
+        pinRequest.setKey(PVK);
+        pinRequest.setPinLength("12");
+        pinRequest.setPinOffset("123456789012");
+        CompactPinRequest compactPinRequest = CompactPinRequest.of(pinRequest);
+
+        try (OffHeapPinEngine engine = new OffHeapPinEngine(PVK)) {
+            ByteBuffer pin = engine.allocate(12);
+            engine.generatePin(compactPinRequest, pin);
+            assertEquals( 12, pin.position() );
+            pin.flip();
+            StringBuilder digits = new StringBuilder();
+            for (int i = 0; i < 12; i++) {
+                digits.append(pin.get(i));
+            }
+            assertEquals( "432041891163", digits.toString() );
+            assertTrue( engine.verifyPin(compactPinRequest, pin) );
+
+            pin.put(11, (byte) 4);
+            assertFalse( engine.verifyPin(compactPinRequest, pin) );
+            assertFalse( engine.verifyPin(compactPinRequest, pin.limit(4)) );
+        }
+    }
+
+    public void testPvv() throws Exception
+    {
+        try (OffHeapPinEngine engine = new OffHeapPinEngine(PVK)) {
+            ByteBuffer pin = engine.allocate(4);
+            pin.put(new byte [] {1, 1, 1, 1}).flip();
+            assertEquals( 7118, engine.calculatePvv(PackedDigits.pack(PAN), PAN.length(), 1, pin) );
+            assertTrue( engine.verifyPvv(PackedDigits.pack(PAN), PAN.length(), 1, pin, 7118) );
+            assertFalse( engine.verifyPvv(PackedDigits.pack(PAN), PAN.length(), 2, pin, 7118) );
+        }
+    }
+
+    /**
+     * Closing the engine must zero its buffers, and its key must no longer be usable.
+     */
+    public void testCloseZeroes() throws Exception
+    {
+        OffHeapPinEngine engine = new OffHeapPinEngine(PVK);
+        ByteBuffer pin = engine.allocate(4);
+        pin.put(new byte [] {1, 2, 3, 4}).flip();
+        engine.close();
+        for (int i = 0; i < 4; i++) {
+            assertEquals( 0, pin.get(i) );
+        }
+        try {
+            engine.calculatePvv(PackedDigits.pack(PAN), PAN.length(), 1, pin);
+            fail( "Expected IllegalStateException" );
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+
+    public void testInvalidKey()
+    {
+        try {
+            OffHeapTDEAKey.of("0123456789ABCDEG");
+            fail( "Expected InvalidKeyException" );
+        } catch (InvalidKeyException expected) {
+            // expected
+        }
+    }
+}
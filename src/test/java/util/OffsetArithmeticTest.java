@@ -0,0 +1,77 @@
+package util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit tests for bulk offset arithmetic.
+ */
+public class OffsetArithmeticTest
+    extends TestCase
+{
+    public OffsetArithmeticTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( OffsetArithmeticTest.class );
+    }
+
+    /**
+     * Bulk results must match the single card string arithmetic of IBM3624Pin.
+     */
+    public void testMatchesSingleCardArithmetic()
+    {
+        IBM3624Pin ibm3624Pin = new IBM3624Pin();
+        String [] customerPins = {"432041891163", "000000000000", "999999999999"};
+        String [] naturalPins = {"319695112151", "999999999999", "012345678901"};
+        byte [] customer = PackedDigits.toDigits(String.join("", customerPins));
+        byte [] natural = PackedDigits.toDigits(String.join("", naturalPins));
+        byte [] offsets = new byte[customer.length];
+        OffsetArithmetic.deriveOffsets(customer, natural, offsets);
+        byte [] derivedNatural = new byte[customer.length];
+        OffsetArithmetic.deriveNaturalPins(customer, offsets, derivedNatural);
+        byte [] pins = new byte[customer.length];
+        OffsetArithmetic.addOffsets(natural, offsets, pins);
+
+        for (int card = 0; card < customerPins.length; card++) {
+            String offset = ibm3624Pin.deriveOffset(customerPins[card], naturalPins[card]);
+            assertTrue( Arrays.equals(PackedDigits.toDigits(offset), Arrays.copyOfRange(offsets, card * 12,
+                    card * 12 + 12)) );
+        }
+        assertTrue( Arrays.equals(natural, derivedNatural) );
+        assertTrue( Arrays.equals(customer, pins) );
+    }
+
+    /**
+     * The Vector API and scalar kernels must agree for every input, including values that are not digits, and for
+     * lengths that leave a tail after the last full vector.
+     */
+    public void testKernelsAgree()
+    {
+        if (!OffsetArithmetic.isVectorised()) {
+            return;
+        }
+        Random random = new Random(12);
+        for (int length : new int[] {0, 1, 15, 64, 1000, 4099}) {
+            byte [] left = new byte[length];
+            byte [] right = new byte[length];
+            random.nextBytes(left);
+            random.nextBytes(right);
+            byte [] expected = new byte[length];
+            byte [] actual = new byte[length];
+            OffsetArithmetic.SCALAR.add(left, right, expected, length);
+            OffsetArithmetic.KERNEL.add(left, right, actual, length);
+            assertTrue( Arrays.equals(expected, actual) );
+            OffsetArithmetic.SCALAR.subtract(left, right, expected, length);
+            OffsetArithmetic.KERNEL.subtract(left, right, actual, length);
+            assertTrue( Arrays.equals(expected, actual) );
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package util;
+
+import dto.PinRequest;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import javax.crypto.BadPaddingException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Unit tests for ISO 9564 PIN block processing.
+ */
+public class PinBlockEngineTest
+    extends TestCase
+{
+    private static final String KEY = "0123456789ABCDEFFEDCBA9876543210";
+    private static final String ZPK = "FEDCBA98765432100123456789ABCDEF";
+    private static final String AES_ZPK = "000102030405060708090A0B0C0D0E0F";
+    private static final String PAN = "1234567899876543";
+
+    public PinBlockEngineTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PinBlockEngineTest.class );
+    }
+
+    /**
+     * Format 0 of PIN 1234 for PAN 4111111111111111 is 041234FFFFFFFFFF XOR 0000111111111111.
+     */
+    public void testFormat0ClearBlock() throws Exception
+    {
+        byte [] pinBlock = new PinBlockEngine().encrypt(PackedDigits.toDigits("1234"), "4111111111111111",
+                PinBlockFormat.ISO_0, ZPK);
+        assertEquals( "041225EEEEEEEEEE", HexFormat.of().withUpperCase().formatHex(
+                TDEAEngine.getInstance().decrypt(ZPK, pinBlock)) );
+    }
+
+    /**
+     * Format 4 of PIN 1234 for PAN 432198765432109870 under AES key 000102030405060708090A0B0C0D0E0F, with random fill
+     * 1234567890ABCDEF. Per ISO 9564-1, the plain text PIN field 441234AAAAAAAAAA1234567890ABCDEF is enciphered to
+     * C485441B03E0E0EFDBF20FA88D735CD7, XORed with the PAN field 64321987654321098700000000000000 to
+     * A0B75D9C66A3C1E65CF20FA88D735CD7, and enciphered again.
+     */
+    public void testFormat4KnownAnswer() throws Exception
+    {
+        SecureRandom fixedRandom = new SecureRandom() {
+            @Override
+            public void nextBytes(byte [] bytes)
+            {
+                System.arraycopy(HexFormat.of().parseHex("1234567890ABCDEF"), 0, bytes, 0, bytes.length);
+            }
+        };
+        PinBlockEngine pinBlockEngine = new PinBlockEngine(fixedRandom);
+        byte [] pinBlock = pinBlockEngine.encrypt(PackedDigits.toDigits("1234"), "432198765432109870",
+                PinBlockFormat.ISO_4, AES_ZPK);
+        assertEquals( "0E395FE7984DD56F21453F1D5BC1644D", HexFormat.of().withUpperCase().formatHex(pinBlock) );
+        assertTrue( Arrays.equals(PackedDigits.toDigits("1234"),
+                pinBlockEngine.decrypt(pinBlock, "432198765432109870", PinBlockFormat.ISO_4, AES_ZPK)) );
+    }
+
+    public void testRoundTripEveryFormat() throws Exception
+    {
+        PinBlockEngine pinBlockEngine = new PinBlockEngine();
+        for (PinBlockFormat format : PinBlockFormat.values()) {
+            String zoneKey = format == PinBlockFormat.ISO_4 ? AES_ZPK : ZPK;
+            for (String pin : new String[] {"1234", "987654", "432041891163"}) {
+                byte [] pinBlock = pinBlockEngine.encrypt(PackedDigits.toDigits(pin), PAN, format, zoneKey);
+                assertEquals( format.getBlockSize(), pinBlock.length );
+                assertTrue( format + " " + pin, Arrays.equals(PackedDigits.toDigits(pin),
+                        pinBlockEngine.decrypt(pinBlock, PAN, format, zoneKey)) );
+            }
+        }
+    }
+
+    /**
+     * A block deciphered with the wrong PAN or key does not parse, rather than yielding a wrong PIN.
+     */
+    public void testWrongPanIsRejected() throws Exception
+    {
+        PinBlockEngine pinBlockEngine = new PinBlockEngine();
+        byte [] pinBlock = pinBlockEngine.encrypt(PackedDigits.toDigits("1234"), PAN, PinBlockFormat.ISO_0, ZPK);
+        try {
+            pinBlockEngine.decrypt(pinBlock, "4111111111111111", PinBlockFormat.ISO_0, ZPK);
+            fail( "Expected BadPaddingException" );
+        } catch (BadPaddingException e) {
+            assertTrue( e.getMessage().contains("PINB01") );
+        }
+    }
+
+    public void testBatchTranslate() throws Exception
+    {
+        PinBlockEngine pinBlockEngine = new PinBlockEngine();
+        List<byte[]> pinBlocks = new ArrayList<>();
+        List<String> pans = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String pan = "45399999000000" + String.format("%02d", i);
+            pans.add(pan);
+            pinBlocks.add(pinBlockEngine.encrypt(PackedDigits.toDigits(String.format("%04d", i * 37)), pan,
+                    PinBlockFormat.ISO_0, ZPK));
+        }
+        pinBlocks.set(5, new byte[8]);
+
+        byte [][] translated = pinBlockEngine.translate(pinBlocks, pans, PinBlockFormat.ISO_0, ZPK,
+                PinBlockFormat.ISO_4, AES_ZPK);
+        for (int i = 0; i < translated.length; i++) {
+            if (i == 5) {
+                assertNull( translated[i] );
+                continue;
+            }
+            assertTrue( Arrays.equals(PackedDigits.toDigits(String.format("%04d", i * 37)),
+                    pinBlockEngine.decrypt(translated[i], pans.get(i), PinBlockFormat.ISO_4, AES_ZPK)) );
+            assertTrue( Arrays.equals(pinBlockEngine.decrypt(pinBlocks.get(i), pans.get(i), PinBlockFormat.ISO_0, ZPK),
+                    pinBlockEngine.decrypt(pinBlockEngine.translate(pinBlocks.get(i), pans.get(i),
+                            PinBlockFormat.ISO_0, ZPK, PinBlockFormat.ISO_3, KEY), pans.get(i),
+                            PinBlockFormat.ISO_3, KEY)) );
+        }
+    }
+
+    public void testVerifyFromPinBlock() throws Exception
+    {
+        PinBlockEngine pinBlockEngine = new PinBlockEngine();
+        PinRequest pinRequest = new PinRequest();
+        pinRequest.setKey(KEY);
+        pinRequest.setPan(PAN);
+        pinRequest.setPinOffset("123456789012");
+        pinRequest.setPinLength("12");
+        byte [] pinBlock = pinBlockEngine.encrypt(PackedDigits.toDigits("432041891163"), PAN, PinBlockFormat.ISO_3,
+                ZPK);
+        assertTrue( pinBlockEngine.verifyIBM3624Pin(new IBM3624Pin(), pinRequest, pinBlock, PinBlockFormat.ISO_3,
+                ZPK) );
+        assertFalse( pinBlockEngine.verifyIBM3624Pin(new IBM3624Pin(), pinRequest, new byte[8], PinBlockFormat.ISO_3,
+                ZPK) );
+
+        byte [] pvvPinBlock = pinBlockEngine.encrypt(PackedDigits.toDigits("1111"), PAN, PinBlockFormat.ISO_4,
+                AES_ZPK);
+        assertTrue( pinBlockEngine.verifyVisaPvv(new VisaPvv(), KEY, 1, 7118, PAN, pvvPinBlock, PinBlockFormat.ISO_4,
+                AES_ZPK) );
+        assertFalse( pinBlockEngine.verifyVisaPvv(new VisaPvv(), KEY, 1, 7119, PAN, pvvPinBlock,
+                PinBlockFormat.ISO_4, AES_ZPK) );
+    }
+}
@@ -0,0 +1,127 @@
+package util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import metrics.PinMetrics;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * Unit tests for the cached TDEA engine.
+ */
+public class TDEAEngineTest
+    extends TestCase
+{
+    private static final String DOUBLE_KEY = "0123456789ABCDEFFEDCBA9876543210";
+
+    public TDEAEngineTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( TDEAEngineTest.class );
+    }
+
+    /**
+     * Engine output must match a freshly constructed JCE cipher, for single and double length keys.
+     */
+    public void testMatchesPlainCipher() throws Exception
+    {
+        byte [] data = HexFormat.of().parseHex("1234567899876543");
+        Cipher cipher = Cipher.getInstance("DESede/ECB/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(HexFormat.of().parseHex(DOUBLE_KEY + "0123456789ABCDEF"),
+                "DESede"));
+        byte [] expected = cipher.doFinal(data);
+        assertTrue( Arrays.equals(expected, TDEAEngine.getInstance().encrypt(DOUBLE_KEY, data)) );
+        // Repeated call hits the cached cipher and must give the same result
+        assertTrue( Arrays.equals(expected, TDEAEngine.getInstance().encrypt(DOUBLE_KEY, data)) );
+
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(HexFormat.of().parseHex("0123456789ABCDEF".repeat(3)),
+                "DESede"));
+        assertTrue( Arrays.equals(cipher.doFinal(data),
+                TDEAEngine.getInstance().encrypt("0123456789ABCDEF", data)) );
+    }
+
+    public void testDecryptReversesEncrypt() throws Exception
+    {
+        byte [] data = HexFormat.of().parseHex("00112233445566778899AABBCCDDEEFF");
+        byte [] encrypted = TDEAEngine.getInstance().encrypt(DOUBLE_KEY, data);
+        assertTrue( Arrays.equals(data, TDEAEngine.getInstance().decrypt(DOUBLE_KEY, encrypted)) );
+    }
+
+    public void testInvalidKeyLength()
+    {
+        try {
+            TDEAEngine.getInstance().encrypt("0123", new byte[8]);
+            fail( "Expected InvalidKeyException" );
+        } catch (InvalidKeyException expected) {
+            // expected
+        } catch (Exception e) {
+            fail( e.toString() );
+        }
+    }
+
+    /**
+     * Ciphers are borrowed from a shared pool, results must be identical across threads.
+     */
+    public void testConcurrentUse() throws Exception
+    {
+        final byte [] data = HexFormat.of().parseHex("1234567899876543");
+        final byte [] expected = TDEAEngine.getInstance().encrypt(DOUBLE_KEY, data);
+        final boolean [] failed = new boolean[1];
+        Thread [] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 1000; i++) {
+                        if (!Arrays.equals(expected, TDEAEngine.getInstance().encrypt(DOUBLE_KEY, data))) {
+                            failed[0] = true;
+                        }
+                    }
+                } catch (Exception e) {
+                    failed[0] = true;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse( failed[0] );
+    }
+
+    /**
+     * Pooled ciphers do not depend on thread identity: a thread started after another has used a key reuses its
+     * cipher, and a key only used to encrypt never gets a decrypt cipher.
+     */
+    public void testCiphersSharedAcrossThreads() throws Exception
+    {
+        TDEAEngine engine = new TDEAEngine(16, 4);
+        byte [] data = HexFormat.of().parseHex("1234567899876543");
+        long misses = PinMetrics.getInstance().getKeyCacheMisses();
+        for (int i = 0; i < 3; i++) {
+            Thread thread = Thread.ofVirtual().start(() -> {
+                try {
+                    engine.encrypt(DOUBLE_KEY, data);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            thread.join();
+        }
+        assertEquals( misses + 1, PinMetrics.getInstance().getKeyCacheMisses() );
+        engine.decrypt(DOUBLE_KEY, data);
+        assertEquals( misses + 2, PinMetrics.getInstance().getKeyCacheMisses() );
+
+        engine.evict(DOUBLE_KEY);
+        engine.encrypt(DOUBLE_KEY, data);
+        assertEquals( misses + 3, PinMetrics.getInstance().getKeyCacheMisses() );
+    }
+}
@@ -0,0 +1,114 @@
+package util;
+
+import dto.CvvRequest;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for CVV, CVV2 and iCVV generation and verification.
+ */
+public class VisaCvvTest
+    extends TestCase
+{
+    private static final String CVK = "0123456789ABCDEFFEDCBA9876543210";
+
+    public VisaCvvTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( VisaCvvTest.class );
+    }
+
+    /**
+     * Published example: PAN 4123456789012345, expiry 8701, service code 101 gives CVV 561.
+     */
+    public void testKnownCvv() throws Exception
+    {
+        CvvRequest cvvRequest = cvvRequest("4123456789012345", "8701", "101");
+        assertEquals( "561", new VisaCvv().calculateCvv(cvvRequest, CvvType.CVV) );
+    }
+
+    /**
+     * CVV2 and iCVV must be the CVV calculated with service codes 000 and 999.
+     */
+    public void testCvv2AndIcvv() throws Exception
+    {
+        VisaCvv visaCvv = new VisaCvv();
+        CvvRequest cvvRequest = cvvRequest("4123456789012345", "8701", "101");
+        assertEquals( visaCvv.calculateCvv(cvvRequest("4123456789012345", "8701", "000"), CvvType.CVV),
+                visaCvv.calculateCvv(cvvRequest, CvvType.CVV2) );
+        assertEquals( visaCvv.calculateCvv(cvvRequest("4123456789012345", "8701", "999"), CvvType.CVV),
+                visaCvv.calculateCvv(cvvRequest, CvvType.ICVV) );
+    }
+
+    public void testVerifyCvv() throws Exception
+    {
+        VisaCvv visaCvv = new VisaCvv();
+        CvvRequest cvvRequest = cvvRequest("4123456789012345", "8701", "101");
+        assertTrue( visaCvv.verifyCvv(cvvRequest, CvvType.CVV, "561") );
+        assertFalse( visaCvv.verifyCvv(cvvRequest, CvvType.CVV, "562") );
+        assertFalse( visaCvv.verifyCvv(cvvRequest, CvvType.CVV, "56") );
+        assertFalse( visaCvv.verifyCvv(cvvRequest, CvvType.CVV, null) );
+    }
+
+    /**
+     * Batch results must match the single request results, in request order.
+     */
+    public void testBatch() throws Exception
+    {
+        VisaCvv visaCvv = new VisaCvv();
+        List<CvvRequest> cvvRequests = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            cvvRequests.add(cvvRequest(String.format("4539%015d", i), String.format("%04d", 2501 + i), "201"));
+        }
+        for (CvvType cvvType : CvvType.values()) {
+            List<String> cvvs = visaCvv.calculateCvv(cvvRequests, cvvType);
+            assertEquals( cvvRequests.size(), cvvs.size() );
+            for (int i = 0; i < cvvRequests.size(); i++) {
+                assertEquals( visaCvv.calculateCvv(cvvRequests.get(i), cvvType), cvvs.get(i) );
+            }
+            List<String> presented = new ArrayList<>(cvvs);
+            presented.set(3, "x");
+            List<Boolean> results = visaCvv.verifyCvv(cvvRequests, cvvType, presented);
+            assertFalse( results.get(3) );
+            assertEquals( cvvRequests.size() - 1, results.stream().filter(Boolean::booleanValue).count() );
+        }
+    }
+
+    public void testValidation() throws Exception
+    {
+        CvvRequest cvvRequest = cvvRequest("4123456789012345", "871", "1A1");
+        cvvRequest.setKey("0123456789ABCDEF");
+        ValidationResult validationResult = DataValidator.validate(cvvRequest);
+        assertFalse( validationResult.isValid() );
+        assertTrue( validationResult.hasCode(ValidationCode.CVVK01) );
+        assertTrue( validationResult.hasCode(ValidationCode.CVVE01) );
+        assertTrue( validationResult.hasCode(ValidationCode.CVVS01) );
+        assertTrue( DataValidator.validate(cvvRequest("4123456789012345", "8701", "101")).isValid() );
+
+        try {
+            new VisaCvv().calculateCvv(cvvRequest, CvvType.CVV2);
+            fail( "Expected InvalidKeyException" );
+        } catch (InvalidKeyException expected) {
+            // expected
+        }
+    }
+
+    private static CvvRequest cvvRequest(String pan, String expiryDate, String serviceCode)
+    {
+        CvvRequest cvvRequest = new CvvRequest();
+        cvvRequest.setPan(pan);
+        cvvRequest.setKey(CVK);
+        cvvRequest.setExpiryDate(expiryDate);
+        cvvRequest.setServiceCode(serviceCode);
+        return cvvRequest;
+    }
+}
@@ -0,0 +1,108 @@
+package util;
+
+import dto.CompactPvvRequest;
+import dto.PvvRequest;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for Visa PVV calculation.
+ */
+public class VisaPvvTest
+    extends TestCase
+{
+    private static final String KEY = "0123456789ABCDEFFEDCBA9876543210";
+
+    public VisaPvvTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( VisaPvvTest.class );
+    }
+
+    private static PvvRequest pvvRequest(String key, String pan, String pin)
+    {
+        PvvRequest pvvRequest = new PvvRequest();
+        pvvRequest.setKey(key);
+        pvvRequest.setKeyIndex("1");
+        pvvRequest.setPan(pan);
+        pvvRequest.setPin(pin);
+        return pvvRequest;
+    }
+
+    public void testPvv() throws Exception
+    {
+        assertEquals( "7118", new VisaPvv().calculateVisaPvv(pvvRequest(KEY, "1234567899876543", "1111")) );
+    }
+
+    /**
+     * Every PVV is four decimal digits, including those that need the second scan over A through F.
+     */
+    public void testPvvIsAlwaysFourDigits() throws Exception
+    {
+        VisaPvv visaPvv = new VisaPvv();
+        for (int i = 0; i < 500; i++) {
+            String pvv = visaPvv.calculateVisaPvv(pvvRequest(KEY, "4539999900000000",
+                    String.format("%04d", i)));
+            assertEquals( 4, pvv.length() );
+            assertTrue( DataValidator.isNumeric(pvv) );
+        }
+    }
+
+    public void testVerify() throws Exception
+    {
+        VisaPvv visaPvv = new VisaPvv();
+        assertTrue( visaPvv.verifyVisaPvv(pvvRequest(KEY, "1234567899876543", "1111"), "7118") );
+        assertFalse( visaPvv.verifyVisaPvv(pvvRequest(KEY, "1234567899876543", "1112"), "7118") );
+        assertFalse( visaPvv.verifyVisaPvv(pvvRequest(KEY, "1234567899876543", "1111"), "7119") );
+        assertFalse( visaPvv.verifyVisaPvv(pvvRequest(KEY, "1234567899876543", "1111"), "711") );
+        assertFalse( visaPvv.verifyVisaPvv(pvvRequest(KEY, "1234567899876543", "11a1"), "7118") );
+
+        List<PvvRequest> batch = List.of(pvvRequest(KEY, "1234567899876543", "1111"),
+                pvvRequest(KEY, "1234567899876543", "1112"), pvvRequest("0123456789ABCDEF", "1234567899876543", "1111"));
+        assertEquals( List.of(true, false, false), visaPvv.verifyVisaPvv(batch, List.of("7118", "7118", "7118")) );
+    }
+
+    public void testBatchMatchesSingleRequests() throws Exception
+    {
+        VisaPvv visaPvv = new VisaPvv();
+        String [] keys = {KEY, "0123456789ABCDEF"};
+        List<PvvRequest> batch = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            PvvRequest pvvRequest = pvvRequest(keys[i % 2], "45399999000000" + String.format("%02d", i), "1234");
+            batch.add(pvvRequest);
+            expected.add(visaPvv.calculateVisaPvv(pvvRequest));
+        }
+        assertEquals( expected, visaPvv.calculateVisaPvv(batch) );
+    }
+
+    public void testCompactRequestMatchesStringRequest() throws Exception
+    {
+        VisaPvv visaPvv = new VisaPvv();
+        List<PvvRequest> pvvRequests = new ArrayList<>();
+        List<CompactPvvRequest> compactRequests = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            PvvRequest pvvRequest = pvvRequest(KEY, "453999990000000" + String.format("%02d", i), "98765");
+            pvvRequests.add(pvvRequest);
+            compactRequests.add(CompactPvvRequest.of(pvvRequest));
+        }
+        List<String> expected = visaPvv.calculateVisaPvv(pvvRequests);
+        int [] pvvs = visaPvv.calculatePvv(compactRequests);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals( expected.get(i), String.format("%04d", pvvs[i]) );
+            assertEquals( pvvs[i], visaPvv.calculatePvv(compactRequests.get(i)) );
+        }
+        CompactPvvRequest compactRequest = CompactPvvRequest.of(pvvRequest(KEY, "1234567899876543", "1111"));
+        assertEquals( 7118, visaPvv.calculatePvv(compactRequest) );
+        assertTrue( visaPvv.verifyVisaPvv(compactRequest, 7118) );
+        assertFalse( visaPvv.verifyVisaPvv(compactRequest, 7119) );
+    }
+}